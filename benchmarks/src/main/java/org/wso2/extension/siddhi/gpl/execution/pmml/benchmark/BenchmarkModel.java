@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Models the benchmarks are run against: the decision tree and the XGBoost model of the functional tests, and a
+ * generated forest large enough to show the cost of parsing and scoring big ensembles.
+ */
+public enum BenchmarkModel {
+
+    DECISION_TREE("decision-tree", new String[]{"root_shell", "su_attempted", "num_root", "num_file_creations",
+            "num_shells", "num_access_files", "num_outbound_cmds", "is_host_login", "is_guest_login", "count",
+            "srv_count", "serror_rate", "srv_serror_rate"}, 100),
+    IRIS_XGB("iris_xgb", new String[]{"Sepal_Length", "Sepal_Width", "Petal_Length", "Petal_Width"}, 8),
+    LARGE_FOREST("large-forest", LargeForestGenerator.getFeatures(), 1);
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final String fileName;
+    private final String[] features;
+    private final double range;
+
+    BenchmarkModel(String fileName, String[] features, double range) {
+        this.fileName = fileName;
+        this.features = features;
+        this.range = range;
+    }
+
+    /**
+     * Read the pmml definition of the model.
+     *
+     * @return pmml definition
+     */
+    public String getDefinition() throws IOException {
+        if (this == LARGE_FOREST) {
+            return LargeForestGenerator.generate();
+        }
+        try (InputStream inputStream = BenchmarkModel.class.getResourceAsStream("/" + fileName + ".pmml")) {
+            if (inputStream == null) {
+                throw new IOException("Benchmark model " + fileName + ".pmml is not on the classpath.");
+            }
+            ByteArrayOutputStream definition = new ByteArrayOutputStream();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                definition.write(buffer, 0, read);
+            }
+            return new String(definition.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Write the pmml definition of the model to a temporary file, as the extension reads models from files.
+     *
+     * @return path to the temporary file, to be deleted by the caller
+     */
+    public Path writeDefinition() throws IOException {
+        Path path = Files.createTempFile(fileName, ".pmml");
+        Files.write(path, getDefinition().getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    /**
+     * Get the names of the model features.
+     *
+     * @return feature names
+     */
+    public String[] getFeatures() {
+        return features.clone();
+    }
+
+    /**
+     * Define the input stream with one double attribute per model feature.
+     *
+     * @param streamId id of the stream
+     * @return stream definition
+     */
+    public String getStreamDefinition(String streamId) {
+        StringBuilder definition = new StringBuilder("define stream ").append(streamId).append(" (");
+        for (int i = 0; i < features.length; i++) {
+            if (i > 0) {
+                definition.append(", ");
+            }
+            definition.append(features[i]).append(" double");
+        }
+        return definition.append(");").toString();
+    }
+
+    /**
+     * Create an input event with uniformly distributed feature values.
+     *
+     * @param random source of the feature values
+     * @return event data
+     */
+    public Object[] newRow(Random random) {
+        Object[] row = new Object[features.length];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = random.nextDouble() * range;
+        }
+        return row;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml.benchmark;
+
+import org.dmg.pmml.FieldName;
+import org.dmg.pmml.PMML;
+import org.jpmml.evaluator.Evaluator;
+import org.jpmml.evaluator.ModelEvaluatorFactory;
+import org.jpmml.evaluator.ResultField;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wso2.extension.siddhi.gpl.execution.pmml.compiler.CompileOptions;
+import org.wso2.extension.siddhi.gpl.execution.pmml.compiler.CompiledModel;
+import org.wso2.extension.siddhi.gpl.execution.pmml.compiler.ModelCompiler;
+import org.wso2.extension.siddhi.gpl.execution.pmml.util.PMMLUtil;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the construction of an evaluator from an unmarshalled model, and the compilation of the evaluator into
+ * the fast-path form used with 'model.compile=true'.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EvaluatorBenchmark {
+
+    @Param({"DECISION_TREE", "IRIS_XGB", "LARGE_FOREST"})
+    private BenchmarkModel model;
+
+    private Path path;
+    private PMML pmml;
+    private Evaluator evaluator;
+    private List<FieldName> outputNames;
+
+    @Setup
+    public void setUp() throws IOException {
+        path = model.writeDefinition();
+        pmml = PMMLUtil.unmarshal(path.toString());
+        evaluator = ModelEvaluatorFactory.newInstance().newModelEvaluator(pmml);
+        // the processor emits the target fields of models without output fields
+        outputNames = new ArrayList<>();
+        for (ResultField resultField : evaluator.getOutputFields().isEmpty() ? evaluator.getTargetFields()
+                : evaluator.getOutputFields()) {
+            outputNames.add(resultField.getName());
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    @Benchmark
+    public Evaluator newEvaluator() {
+        Evaluator evaluator = ModelEvaluatorFactory.newInstance().newModelEvaluator(pmml);
+        evaluator.getInputFields();
+        evaluator.getTargetFields();
+        evaluator.getOutputFields();
+        return evaluator;
+    }
+
+    @Benchmark
+    public CompiledModel compile() {
+        return ModelCompiler.compile(evaluator, outputNames, CompileOptions.DEFAULT);
+    }
+}
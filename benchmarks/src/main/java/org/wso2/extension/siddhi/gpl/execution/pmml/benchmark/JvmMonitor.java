@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml.benchmark;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Watches the garbage collections and the allocations of the JVM while a soak test runs. Pauses are taken from the
+ * notifications of the stop-the-world collections, leaving out the cycles of concurrent collectors, which do not
+ * stop the application. Allocated bytes are summed over the live threads, hence the allocations of threads ending
+ * during a run are not counted.
+ */
+final class JvmMonitor implements NotificationListener {
+
+    private final List<NotificationEmitter> emitters = new ArrayList<>();
+    private long pauseCount;
+    private long pauseTime;
+    private long maxPause;
+
+    /**
+     * Start listening to the garbage collections.
+     */
+    void start() {
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (collector instanceof NotificationEmitter) {
+                NotificationEmitter emitter = (NotificationEmitter) collector;
+                emitter.addNotificationListener(this, null, null);
+                emitters.add(emitter);
+            }
+        }
+    }
+
+    /**
+     * Stop listening to the garbage collections.
+     */
+    void stop() {
+        for (NotificationEmitter emitter : emitters) {
+            try {
+                emitter.removeNotificationListener(this);
+            } catch (ListenerNotFoundException e) {
+                // Already removed
+            }
+        }
+        emitters.clear();
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+            return;
+        }
+        GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from(
+                (CompositeData) notification.getUserData());
+        if (info.getGcName().contains("Concurrent")) {
+            return;
+        }
+        long duration = info.getGcInfo().getDuration();
+        synchronized (this) {
+            pauseCount++;
+            pauseTime += duration;
+            maxPause = Math.max(maxPause, duration);
+        }
+    }
+
+    synchronized void reset() {
+        pauseCount = 0;
+        pauseTime = 0;
+        maxPause = 0;
+    }
+
+    synchronized long getPauseCount() {
+        return pauseCount;
+    }
+
+    /**
+     * Get the total time the collections stopped the application since the last reset.
+     *
+     * @return pause time in milliseconds
+     */
+    synchronized long getPauseTime() {
+        return pauseTime;
+    }
+
+    /**
+     * Get the longest pause since the last reset.
+     *
+     * @return pause time in milliseconds
+     */
+    synchronized long getMaxPause() {
+        return maxPause;
+    }
+
+    /**
+     * Get the number of bytes allocated so far by the live threads.
+     *
+     * @return allocated bytes, or -1 when the JVM does not measure allocations
+     */
+    static long getAllocatedBytes() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (!(threadBean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+        if (!allocationBean.isThreadAllocatedMemorySupported() || !allocationBean.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        long allocatedBytes = 0;
+        for (long allocated : allocationBean.getThreadAllocatedBytes(allocationBean.getAllThreadIds())) {
+            if (allocated > 0) {
+                allocatedBytes += allocated;
+            }
+        }
+        return allocatedBytes;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wso2.siddhi.core.SiddhiAppRuntime;
+import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.core.event.Event;
+import org.wso2.siddhi.core.stream.input.InputHandler;
+import org.wso2.siddhi.core.stream.output.StreamCallback;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the scoring of event chunks by a Siddhi app running pmml:predict, end to end from the input handler to
+ * the output stream callback. Each benchmark operation sends one chunk of {@code chunkSize} events, so that the
+ * throughput in events per second is the reported score multiplied by the chunk size. The latency benchmark
+ * samples the time per chunk, from which JMH reports the percentiles, p99 included.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProcessBenchmark {
+
+    private static final int CHUNK_COUNT = 64;
+    private static final long SEED = 7L;
+
+    @Param({"DECISION_TREE", "IRIS_XGB", "LARGE_FOREST"})
+    private BenchmarkModel model;
+
+    @Param({"1", "16", "256"})
+    private int chunkSize;
+
+    @Param({"false", "true"})
+    private boolean compile;
+
+    // Segments of compiled ensembles are scored in parallel with '-p compile=true -p parallel=true'
+    @Param({"false"})
+    private boolean parallel;
+
+    private Path path;
+    private SiddhiManager siddhiManager;
+    private SiddhiAppRuntime siddhiAppRuntime;
+    private InputHandler inputHandler;
+    private Event[][] chunks;
+    private int next;
+    private long receivedCount;
+
+    @Setup
+    public void setUp() throws IOException {
+        path = model.writeDefinition();
+        String query = "from InputStream#pmml:predict('" + path + "', 'model.compile=" + compile + "', " +
+                "'segments.parallel=" + parallel + "') " +
+                "select * " +
+                "insert into OutputStream;";
+        siddhiManager = new SiddhiManager();
+        siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(model.getStreamDefinition("InputStream") + query);
+        siddhiAppRuntime.addCallback("OutputStream", new StreamCallback() {
+            @Override
+            public void receive(Event[] events) {
+                receivedCount += events.length;
+            }
+        });
+        inputHandler = siddhiAppRuntime.getInputHandler("InputStream");
+        siddhiAppRuntime.start();
+
+        // events are prepared upfront, so that only their scoring is measured
+        Random random = new Random(SEED);
+        chunks = new Event[CHUNK_COUNT][chunkSize];
+        for (Event[] chunk : chunks) {
+            for (int i = 0; i < chunk.length; i++) {
+                chunk[i] = new Event(System.currentTimeMillis(), model.newRow(random));
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        siddhiAppRuntime.shutdown();
+        // the app scores events on the sending thread, so every event sent must have been received
+        if (receivedCount == 0) {
+            throw new IllegalStateException("No predictions were received from " + model + ".");
+        }
+        siddhiManager.shutdown();
+        Files.deleteIfExists(path);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void throughput() throws InterruptedException {
+        send();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void latency() throws InterruptedException {
+        send();
+    }
+
+    private void send() throws InterruptedException {
+        inputHandler.send(chunks[next]);
+        next = (next + 1) % CHUNK_COUNT;
+    }
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml.benchmark;
+
+import org.wso2.extension.siddhi.gpl.execution.pmml.metrics.LatencyHistogram;
+import org.wso2.siddhi.core.SiddhiAppRuntime;
+import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.core.event.Event;
+import org.wso2.siddhi.core.stream.input.InputHandler;
+import org.wso2.siddhi.core.stream.output.StreamCallback;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Soak and load test of pmml:predict inside a Siddhi runtime. Each scenario runs a Siddhi app scoring a benchmark
+ * model with a set of predict options, and sends it generated events at a fixed rate for minutes: first for the
+ * warm-up time, whose measurements are discarded, then for the measured duration. The latency of an event runs from
+ * the time it was due to be sent to the time its prediction reaches the output stream callback, so that the time
+ * events spend waiting behind a saturated app counts as well.
+ * <p>
+ * Throughput, latency percentiles, allocation rate and garbage collection pauses of every scenario are written to a
+ * properties report, keyed by scenario and metric. Given a baseline report, the test fails with exit code 1 when the
+ * throughput of a scenario drops, or its p99 latency, allocations per event or longest pause grow, by more than the
+ * tolerance. Run it from the benchmarks jar with arguments of the form key=value, for instance
+ * {@code java -cp benchmarks/target/benchmarks.jar <this class> models=IRIS_XGB rate=20000 duration=300}:
+ * <ul>
+ * <li>models: comma separated benchmark models, defaults to every model</li>
+ * <li>options: predict options of each scenario, the options of a scenario separated by ';' and the scenarios by
+ * '|', defaults to JPMML scoring and compiled scoring</li>
+ * <li>rate: events sent per second, defaults to 10000</li>
+ * <li>chunk: events sent per chunk, defaults to 1</li>
+ * <li>warmup and duration: seconds of the warm-up and of the measurement, default to 30 and 120</li>
+ * <li>report: path of the report to write, defaults to soak-report.properties</li>
+ * <li>baseline: path of a previous report to compare with, defaults to none</li>
+ * <li>tolerance: share by which a metric may be worse than its baseline, defaults to 0.2</li>
+ * </ul>
+ */
+public final class SoakTest {
+
+    private static final long SEED = 7L;
+    // Events in flight tracked for their send time, far more than an app holds at once
+    private static final int SEND_TIME_CAPACITY = 1 << 20;
+    private static final int ROW_COUNT = 1024;
+    private static final long DRAIN_TIMEOUT = TimeUnit.SECONDS.toNanos(30);
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+    private static final String THROUGHPUT = "throughput";
+    private static final String LATENCY_P99 = "latency.p99.us";
+    private static final String ALLOCATION_PER_EVENT = "allocation.per.event";
+    private static final String GC_PAUSE_MAX = "gc.pause.max.ms";
+
+    private final BenchmarkModel model;
+    private final String[] options;
+    private final int rate;
+    private final int chunkSize;
+    private final long[] sendTimes = new long[SEND_TIME_CAPACITY];
+    private volatile LatencyHistogram latencies = new LatencyHistogram();
+    private final AtomicLong receivedCount = new AtomicLong();
+    private final JvmMonitor jvmMonitor = new JvmMonitor();
+    private long sentCount;
+
+    private SoakTest(BenchmarkModel model, String[] options, int rate, int chunkSize) {
+        this.model = model;
+        this.options = options;
+        this.rate = rate;
+        this.chunkSize = chunkSize;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> arguments = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Arguments should be given as key=value, but found '" + arg +
+                        "'.");
+            }
+            arguments.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        String models = arguments.getOrDefault("models", "DECISION_TREE,IRIS_XGB,LARGE_FOREST");
+        String[] optionSets = arguments.getOrDefault("options", "|model.compile=true").split("\\|", -1);
+        int rate = Integer.parseInt(arguments.getOrDefault("rate", "10000"));
+        int chunkSize = Integer.parseInt(arguments.getOrDefault("chunk", "1"));
+        long warmUp = TimeUnit.SECONDS.toNanos(Long.parseLong(arguments.getOrDefault("warmup", "30")));
+        long duration = TimeUnit.SECONDS.toNanos(Long.parseLong(arguments.getOrDefault("duration", "120")));
+        Path report = Paths.get(arguments.getOrDefault("report", "soak-report.properties"));
+        String baseline = arguments.get("baseline");
+        double tolerance = Double.parseDouble(arguments.getOrDefault("tolerance", "0.2"));
+        if (rate <= 0 || chunkSize <= 0 || duration <= 0 || warmUp < 0 || tolerance < 0) {
+            throw new IllegalArgumentException("Arguments rate, chunk and duration should be positive, and warmup " +
+                    "and tolerance should not be negative.");
+        }
+
+        Map<String, Double> results = new TreeMap<>();
+        for (String modelName : models.split(",")) {
+            BenchmarkModel model = BenchmarkModel.valueOf(modelName.trim());
+            for (String optionSet : optionSets) {
+                String[] options = optionSet.isEmpty() ? new String[0] : optionSet.split(";");
+                String scenario = model + "[" + optionSet + "]";
+                System.out.println("Running " + scenario + " at " + rate + " events per second");
+                Map<String, Double> metrics = new SoakTest(model, options, rate, chunkSize).run(warmUp, duration);
+                for (Map.Entry<String, Double> metric : metrics.entrySet()) {
+                    System.out.println(String.format(Locale.ROOT, "  %-24s %.1f", metric.getKey(),
+                            metric.getValue()));
+                    results.put(scenario + "." + metric.getKey(), metric.getValue());
+                }
+            }
+        }
+        writeReport(report, results);
+        System.out.println("Report written to " + report.toAbsolutePath());
+
+        int status = 0;
+        if (baseline != null) {
+            List<String> regressions = compare(results, readReport(Paths.get(baseline)), tolerance);
+            for (String regression : regressions) {
+                System.out.println("Regression: " + regression);
+            }
+            System.out.println(regressions.size() + " regressions against the baseline " + baseline);
+            status = regressions.isEmpty() ? 0 : 1;
+        }
+        // Siddhi leaves threads behind that would keep the JVM running
+        System.exit(status);
+    }
+
+    /**
+     * Run the scenario.
+     *
+     * @param warmUp   nanoseconds of the warm-up, whose measurements are discarded
+     * @param duration nanoseconds of the measurement
+     * @return metrics of the measurement by name
+     */
+    private Map<String, Double> run(long warmUp, long duration) throws IOException, InterruptedException {
+        String[] features = model.getFeatures();
+        StringBuilder definition = new StringBuilder("define stream InputStream (seq long");
+        StringBuilder query = new StringBuilder("from InputStream#pmml:predict('");
+        Path path = model.writeDefinition();
+        query.append(path).append("'");
+        for (String option : options) {
+            query.append(", '").append(option.trim()).append("'");
+        }
+        for (String feature : features) {
+            definition.append(", ").append(feature).append(" double");
+            query.append(", ").append(feature);
+        }
+        definition.append(");");
+        query.append(") select * insert into OutputStream;");
+
+        SiddhiManager siddhiManager = new SiddhiManager();
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(definition.toString() + query);
+        siddhiAppRuntime.addCallback("OutputStream", new StreamCallback() {
+            @Override
+            public void receive(Event[] events) {
+                long now = System.nanoTime();
+                for (Event event : events) {
+                    long seq = (Long) event.getData(0);
+                    latencies.record(now - sendTimes[(int) (seq & (SEND_TIME_CAPACITY - 1))]);
+                }
+                receivedCount.addAndGet(events.length);
+            }
+        });
+        InputHandler inputHandler = siddhiAppRuntime.getInputHandler("InputStream");
+        jvmMonitor.start();
+        try {
+            siddhiAppRuntime.start();
+            // Rows are generated upfront, so that the test measures the app rather than the generator
+            Random random = new Random(SEED);
+            Object[][] rows = new Object[ROW_COUNT][];
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = model.newRow(random);
+            }
+            Event[] chunk = new Event[chunkSize];
+            for (int i = 0; i < chunk.length; i++) {
+                chunk[i] = new Event(0, new Object[features.length + 1]);
+            }
+
+            send(inputHandler, rows, chunk, warmUp);
+            drain();
+            latencies = new LatencyHistogram();
+            jvmMonitor.reset();
+            long startCount = receivedCount.get();
+            long startSent = sentCount;
+            long startAllocated = JvmMonitor.getAllocatedBytes();
+            long startTime = System.nanoTime();
+            send(inputHandler, rows, chunk, duration);
+            drain();
+            double seconds = (System.nanoTime() - startTime) / 1e9;
+            long allocated = JvmMonitor.getAllocatedBytes() - startAllocated;
+            long received = receivedCount.get() - startCount;
+
+            Map<String, Double> metrics = new TreeMap<>();
+            metrics.put("events.sent", (double) (sentCount - startSent));
+            metrics.put("events.lost", (double) (sentCount - startSent - received));
+            metrics.put(THROUGHPUT, received / seconds);
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                metrics.put("latency." + PERCENTILE_NAMES[i] + ".us", latencies.getPercentile(PERCENTILES[i]) / 1e3);
+            }
+            metrics.put("latency.max.us", latencies.getMax() / 1e3);
+            if (startAllocated >= 0) {
+                metrics.put("allocation.rate.mb", allocated / seconds / (1 << 20));
+                metrics.put(ALLOCATION_PER_EVENT, received == 0 ? 0 : (double) allocated / received);
+            }
+            metrics.put("gc.count", (double) jvmMonitor.getPauseCount());
+            metrics.put("gc.pause.total.ms", (double) jvmMonitor.getPauseTime());
+            metrics.put(GC_PAUSE_MAX, (double) jvmMonitor.getMaxPause());
+            return metrics;
+        } finally {
+            jvmMonitor.stop();
+            siddhiAppRuntime.shutdown();
+            siddhiManager.shutdown();
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * Send chunks of events at the configured rate for the given time. A chunk is due at a fixed interval after the
+     * previous one, and is sent at once when the app has fallen behind, so that the rate is kept on average.
+     */
+    private void send(InputHandler inputHandler, Object[][] rows, Event[] chunk, long duration)
+            throws InterruptedException {
+        long interval = TimeUnit.SECONDS.toNanos(chunkSize) / rate;
+        long startTime = System.nanoTime();
+        long dueTime = startTime;
+        while (dueTime - startTime < duration) {
+            long delay = dueTime - System.nanoTime();
+            if (delay > 0) {
+                LockSupport.parkNanos(delay);
+                continue;
+            }
+            for (Event event : chunk) {
+                long seq = sentCount++;
+                Object[] row = rows[(int) (seq % ROW_COUNT)];
+                Object[] data = event.getData();
+                data[0] = seq;
+                System.arraycopy(row, 0, data, 1, row.length);
+                sendTimes[(int) (seq & (SEND_TIME_CAPACITY - 1))] = dueTime;
+            }
+            inputHandler.send(chunk);
+            dueTime += interval;
+        }
+    }
+
+    /**
+     * Wait for the predictions of the events sent, which may be scored on other threads or dropped by the options.
+     */
+    private void drain() {
+        long deadline = System.nanoTime() + DRAIN_TIMEOUT;
+        long lastCount = -1;
+        while (receivedCount.get() < sentCount && System.nanoTime() < deadline) {
+            long count = receivedCount.get();
+            if (count == lastCount) {
+                // Nothing arrived for a while, as events are being dropped or were already dropped
+                break;
+            }
+            lastCount = count;
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+        }
+    }
+
+    /**
+     * Compare the results with a baseline, scenario by scenario, skipping the metrics missing in either.
+     *
+     * @return descriptions of the metrics worse than their baseline by more than the tolerance
+     */
+    private static List<String> compare(Map<String, Double> results, Map<String, Double> baseline,
+                                        double tolerance) {
+        List<String> regressions = new ArrayList<>();
+        for (Map.Entry<String, Double> result : results.entrySet()) {
+            String key = result.getKey();
+            Double expected = baseline.get(key);
+            if (expected == null || expected <= 0) {
+                continue;
+            }
+            double actual = result.getValue();
+            boolean regressed;
+            if (key.endsWith("." + THROUGHPUT)) {
+                regressed = actual < expected * (1 - tolerance);
+            } else if (key.endsWith("." + LATENCY_P99) || key.endsWith("." + ALLOCATION_PER_EVENT) ||
+                    key.endsWith("." + GC_PAUSE_MAX)) {
+                regressed = actual > expected * (1 + tolerance);
+            } else {
+                regressed = false;
+            }
+            if (regressed) {
+                regressions.add(String.format(Locale.ROOT, "%s is %.1f against %.1f", key, actual, expected));
+            }
+        }
+        return regressions;
+    }
+
+    private static void writeReport(Path report, Map<String, Double> results) throws IOException {
+        Properties properties = new Properties();
+        for (Map.Entry<String, Double> result : results.entrySet()) {
+            properties.setProperty(result.getKey(), String.format(Locale.ROOT, "%.3f", result.getValue()));
+        }
+        try (Writer writer = Files.newBufferedWriter(report, StandardCharsets.ISO_8859_1)) {
+            properties.store(writer, "pmml:predict soak test report");
+        }
+    }
+
+    private static Map<String, Double> readReport(Path report) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream inputStream = Files.newInputStream(report)) {
+            properties.load(inputStream);
+        }
+        Map<String, Double> results = new HashMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            results.put(key, Double.parseDouble(properties.getProperty(key)));
+        }
+        return results;
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml;
+
+import org.apache.log4j.Logger;
+import org.dmg.pmml.FieldName;
+import org.jpmml.evaluator.FieldValue;
+import org.jpmml.evaluator.InvalidResultException;
+import org.wso2.extension.siddhi.gpl.execution.pmml.metrics.PredictionMetrics;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Reusable, array backed argument map handed over to the PMML evaluator.
+ * Clearing and refilling the holder for each event does not allocate, unlike a {@link HashMap}.
+ * The arguments of a row are prepared from its raw values either upfront, or one by one when the evaluator first
+ * reads them. As JPMML reads an input field only when evaluating a predicate or expression that refers to it, the
+ * latter prepares just the fields along the decision path of a tree, and keeps them for the other models of the row.
+ */
+final class ArgumentHolder extends AbstractMap<FieldName, FieldValue> {
+
+    private static final Logger logger = Logger.getLogger(ArgumentHolder.class);
+
+    private final FieldName[] names;
+    private final FieldValue[] values;
+    private final boolean[] prepared;
+    private final Map<FieldName, Integer> indexes = new HashMap<>();
+    private int size;
+    private boolean invalid;
+    // Raw values of the row being evaluated, ordered as the input converters of the binding
+    private ModelBinding binding;
+    private Object[] row;
+    private PredictionMetrics metrics;
+
+    ArgumentHolder(FieldName[] names) {
+        this.names = names.clone();
+        this.values = new FieldValue[names.length];
+        this.prepared = new boolean[names.length];
+        for (int i = 0; i < names.length; i++) {
+            indexes.put(names[i], i);
+        }
+    }
+
+    /**
+     * Clear the arguments and take the raw values of the next row, to be prepared when read or by
+     * {@link #prepareAll()}.
+     *
+     * @param binding model binding whose input converters prepare the values
+     * @param row     raw attribute values ordered as the input converters
+     * @param metrics prediction metrics counting the invalid values, or null
+     */
+    void load(ModelBinding binding, Object[] row, PredictionMetrics metrics) {
+        clear();
+        this.binding = binding;
+        this.row = row;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Prepare every argument of the row not prepared yet.
+     */
+    void prepareAll() {
+        if (row != null) {
+            for (int i = 0; i < values.length; i++) {
+                if (!prepared[i]) {
+                    prepare(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Check whether the row has any raw value, in which case there is something to evaluate.
+     *
+     * @return whether any raw value is present
+     */
+    boolean hasRawValues() {
+        if (row != null) {
+            for (int i = 0; i < values.length; i++) {
+                if (row[i] != null) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void prepare(int index) {
+        prepared[index] = true;
+        InputFieldConverter inputConverter = binding.getInputConverter(index);
+        try {
+            set(index, inputConverter.prepare(row[index]));
+        } catch (InvalidResultException e) {
+            markInvalid();
+            if (metrics != null) {
+                metrics.recordInvalidInput(inputConverter.getInputField().getName().getValue());
+            }
+            logger.error(String.format("Incompatible value for field: %s. Prediction might be erroneous.",
+                    inputConverter.getInputField().getName()));
+        }
+    }
+
+    /**
+     * Set the argument at the given position, where positions follow the order of the names.
+     */
+    private void set(int index, FieldValue value) {
+        if (values[index] == null) {
+            if (value != null) {
+                size++;
+            }
+        } else if (value == null) {
+            size--;
+        }
+        values[index] = value;
+    }
+
+    /**
+     * Mark that a value could not be prepared, and was left out of the arguments.
+     */
+    private void markInvalid() {
+        invalid = true;
+    }
+
+    boolean hasInvalidValues() {
+        return invalid;
+    }
+
+    @Override
+    public FieldValue get(Object key) {
+        Integer index = indexes.get(key);
+        if (index == null) {
+            return null;
+        }
+        if (row != null && !prepared[index]) {
+            prepare(index);
+        }
+        return values[index];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+        prepareAll();
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(values, null);
+        Arrays.fill(prepared, false);
+        size = 0;
+        invalid = false;
+        binding = null;
+        row = null;
+        metrics = null;
+    }
+
+    @Override
+    public Set<Entry<FieldName, FieldValue>> entrySet() {
+        prepareAll();
+        return new AbstractSet<Entry<FieldName, FieldValue>>() {
+            @Override
+            public Iterator<Entry<FieldName, FieldValue>> iterator() {
+                return new Iterator<Entry<FieldName, FieldValue>>() {
+                    private int next = advance(0);
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < values.length;
+                    }
+
+                    @Override
+                    public Entry<FieldName, FieldValue> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        Entry<FieldName, FieldValue> entry = new SimpleImmutableEntry<>(names[next], values[next]);
+                        next = advance(next + 1);
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private int advance(int index) {
+        while (index < values.length && values[index] == null) {
+            index++;
+        }
+        return index;
+    }
+}
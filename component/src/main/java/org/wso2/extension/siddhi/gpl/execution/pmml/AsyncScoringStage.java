@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml;
+
+import org.apache.log4j.Logger;
+import org.wso2.siddhi.core.event.ComplexEventChunk;
+import org.wso2.siddhi.core.event.stream.StreamEvent;
+import org.wso2.siddhi.core.exception.SiddhiAppRuntimeException;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scores event chunks on a bounded pool of worker threads instead of the Siddhi event thread. Chunks are emitted
+ * in the order they were submitted, one at a time, whatever the order in which the workers complete them. At most
+ * {@code queueDepth} chunks are pending, beyond which the {@link OverflowPolicy} decides what happens to a chunk.
+ */
+final class AsyncScoringStage {
+
+    private static final Logger logger = Logger.getLogger(AsyncScoringStage.class);
+    private static final long SHUTDOWN_TIMEOUT = 10000;
+
+    /**
+     * Handling of a chunk submitted while the queue is full.
+     */
+    enum OverflowPolicy {
+        // Wait on the submitting thread until a pending chunk is emitted
+        BLOCK,
+        // Discard the events of the chunk
+        DROP,
+        // Emit the events of the chunk in order, with null predictions
+        NULL;
+
+        static OverflowPolicy parse(String value) {
+            for (OverflowPolicy policy : values()) {
+                if (policy.name().equalsIgnoreCase(value)) {
+                    return policy;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Scoring and emission of the chunks, called on the worker threads.
+     */
+    interface ChunkHandler {
+
+        /**
+         * Score the events of a chunk.
+         *
+         * @param chunk detached event chunk
+         */
+        void score(ComplexEventChunk<StreamEvent> chunk);
+
+        /**
+         * Populate the events of an overflowed chunk with null predictions.
+         *
+         * @param chunk detached event chunk
+         */
+        void skip(ComplexEventChunk<StreamEvent> chunk);
+
+        /**
+         * Pass a scored chunk to the next processor. Chunks are emitted one at a time.
+         *
+         * @param chunk detached event chunk
+         */
+        void emit(ComplexEventChunk<StreamEvent> chunk);
+
+        /**
+         * Count the events of a chunk that was dropped or skipped because the queue was full.
+         *
+         * @param chunk detached event chunk
+         */
+        void overflowed(ComplexEventChunk<StreamEvent> chunk);
+    }
+
+    private final ChunkHandler handler;
+    private final OverflowPolicy overflowPolicy;
+    private final Semaphore permits;
+    private final ExecutorService workers;
+    private final Deque<PendingChunk> pendingChunks = new ArrayDeque<>();
+    private final Object emitLock = new Object();
+
+    AsyncScoringStage(ChunkHandler handler, int workerCount, int queueDepth, OverflowPolicy overflowPolicy,
+                      String threadNamePrefix) {
+        this.handler = handler;
+        this.overflowPolicy = overflowPolicy;
+        this.permits = new Semaphore(queueDepth);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerCount, runnable -> {
+            Thread thread = new Thread(runnable, threadNamePrefix + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Take over the events of the given chunk and queue them for scoring. The given chunk is left empty.
+     *
+     * @param streamEventChunk chunk received by the processor
+     */
+    void submit(ComplexEventChunk<StreamEvent> streamEventChunk) {
+        if (streamEventChunk.getFirst() == null) {
+            return;
+        }
+        ComplexEventChunk<StreamEvent> chunk = new ComplexEventChunk<>(streamEventChunk.getFirst(),
+                streamEventChunk.getLast(), streamEventChunk.isBatch());
+        streamEventChunk.clear();
+
+        boolean permitted = permits.tryAcquire();
+        if (!permitted) {
+            switch (overflowPolicy) {
+                case BLOCK:
+                    try {
+                        permits.acquire();
+                        permitted = true;
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SiddhiAppRuntimeException("Interrupted while waiting to queue events for " +
+                                "scoring", e);
+                    }
+                    break;
+                case DROP:
+                    handler.overflowed(chunk);
+                    return;
+                default:
+                    handler.overflowed(chunk);
+                    handler.skip(chunk);
+                    break;
+            }
+        }
+
+        PendingChunk pendingChunk = new PendingChunk(chunk, permitted);
+        synchronized (pendingChunks) {
+            pendingChunks.addLast(pendingChunk);
+        }
+        if (permitted) {
+            try {
+                workers.execute(() -> {
+                    try {
+                        handler.score(chunk);
+                    } catch (Throwable e) {
+                        logger.error("Error while predicting, hence dropping the events of the chunk", e);
+                        chunk.clear();
+                    }
+                    pendingChunk.completed = true;
+                    emitCompleted();
+                });
+                return;
+            } catch (RejectedExecutionException e) {
+                logger.warn("Events received after the scoring stage has shut down are dropped.");
+                chunk.clear();
+            }
+        }
+        pendingChunk.completed = true;
+        emitCompleted();
+    }
+
+    /**
+     * Emit the completed chunks at the head of the queue, stopping at the first chunk still being scored.
+     */
+    private void emitCompleted() {
+        synchronized (emitLock) {
+            while (true) {
+                PendingChunk head;
+                synchronized (pendingChunks) {
+                    head = pendingChunks.peekFirst();
+                    if (head == null || !head.completed) {
+                        return;
+                    }
+                    pendingChunks.removeFirst();
+                }
+                if (head.permitted) {
+                    permits.release();
+                }
+                if (head.chunk.getFirst() != null) {
+                    try {
+                        handler.emit(head.chunk);
+                    } catch (Throwable e) {
+                        logger.error("Error while emitting the predictions", e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop accepting chunks and wait for the pending chunks to be emitted.
+     */
+    void shutdown() {
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                logger.warn("Pending events are still being scored after " + SHUTDOWN_TIMEOUT + " ms, hence " +
+                        "dropping them.");
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Chunk waiting to be scored or emitted.
+     */
+    private static final class PendingChunk {
+
+        private final ComplexEventChunk<StreamEvent> chunk;
+        private final boolean permitted;
+        private volatile boolean completed;
+
+        PendingChunk(ComplexEventChunk<StreamEvent> chunk, boolean permitted) {
+            this.chunk = chunk;
+            this.permitted = permitted;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml;
+
+import org.dmg.pmml.FieldName;
+
+import java.util.Arrays;
+
+/**
+ * Reusable buffers used while scoring the events of a chunk: the raw input values and predictions of each
+ * event, the argument holder passed to the evaluator, the feature values passed to a compiled model, either one
+ * event at a time or as columns of the whole chunk, the key probing the prediction cache, and the model route of
+ * each event when events are routed by a key.
+ * A context is confined to a single thread.
+ */
+final class BatchContext {
+
+    private final int width;
+    private Object[][] inputBuffer = new Object[0][];
+    private Object[][] outputBuffer = new Object[0][];
+    private ModelPool.Route[] routeBuffer = new ModelPool.Route[0];
+    private final ArgumentHolder arguments;
+    private double[] features = new double[0];
+    private double[][] columns = new double[0][];
+    private int[] columnRows = new int[0];
+    private Object[][] columnOutputs = new Object[0][];
+    private Object[][][] compiledOutputs = new Object[0][][];
+    private final PredictionCache.Key cacheKey;
+
+    BatchContext(FieldName[] fieldNames) {
+        this.width = fieldNames.length;
+        this.arguments = new ArgumentHolder(fieldNames);
+        this.cacheKey = new PredictionCache.Key(width);
+    }
+
+    /**
+     * Get the input row at the given index, growing the buffers if needed.
+     */
+    Object[] inputRow(int index) {
+        if (inputBuffer.length <= index) {
+            int capacity = Math.max(index + 1, inputBuffer.length * 2);
+            outputBuffer = Arrays.copyOf(outputBuffer, capacity);
+            routeBuffer = Arrays.copyOf(routeBuffer, capacity);
+            Object[][] buffer = Arrays.copyOf(inputBuffer, capacity);
+            for (int i = inputBuffer.length; i < capacity; i++) {
+                buffer[i] = new Object[width];
+            }
+            inputBuffer = buffer;
+        }
+        return inputBuffer[index];
+    }
+
+    Object[] getOutput(int index) {
+        return outputBuffer[index];
+    }
+
+    void setOutput(int index, Object[] output) {
+        outputBuffer[index] = output;
+    }
+
+    ModelPool.Route getRoute(int index) {
+        return routeBuffer[index];
+    }
+
+    /**
+     * Set the model route of the row at the given index, growing the buffers if needed.
+     */
+    void setRoute(int index, ModelPool.Route route) {
+        inputRow(index);
+        routeBuffer[index] = route;
+    }
+
+    ArgumentHolder getArguments() {
+        return arguments;
+    }
+
+    PredictionCache.Key getCacheKey() {
+        return cacheKey;
+    }
+
+    /**
+     * Get the feature value buffer of a compiled model, growing it if needed.
+     */
+    double[] getFeatures(int size) {
+        if (features.length < size) {
+            features = new double[size];
+        }
+        return features;
+    }
+
+    /**
+     * Get the feature columns of a compiled model, growing them if needed.
+     */
+    double[][] getColumns(int width, int size) {
+        if (columns.length < width || columns.length > 0 && columns[0].length < size) {
+            int capacity = columns.length == 0 ? size : Math.max(size, columns[0].length);
+            columns = new double[Math.max(width, columns.length)][capacity];
+        }
+        return columns;
+    }
+
+    /**
+     * Get the buffer of the batch rows whose feature values are gathered into the columns, growing it if needed.
+     */
+    int[] getColumnRows(int size) {
+        if (columnRows.length < size) {
+            columnRows = new int[size];
+        }
+        return columnRows;
+    }
+
+    /**
+     * Get the buffer of the outputs of the rows scored by columns, growing it if needed.
+     */
+    Object[][] getColumnOutputs(int size) {
+        if (columnOutputs.length < size) {
+            columnOutputs = new Object[size][];
+        }
+        return columnOutputs;
+    }
+
+    /**
+     * Get the outputs of a compiled model, indexed as the rows of the batch, growing the buffers if needed.
+     */
+    Object[][] getCompiledOutputs(int modelIndex, int size) {
+        if (compiledOutputs.length <= modelIndex) {
+            compiledOutputs = Arrays.copyOf(compiledOutputs, modelIndex + 1);
+        }
+        if (compiledOutputs[modelIndex] == null || compiledOutputs[modelIndex].length < size) {
+            compiledOutputs[modelIndex] = new Object[size][];
+        }
+        return compiledOutputs[modelIndex];
+    }
+}
@@ -0,0 +1,429 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml;
+
+import org.apache.log4j.Logger;
+import org.dmg.pmml.FieldName;
+import org.jpmml.evaluator.EvaluatorUtil;
+import org.wso2.extension.siddhi.gpl.execution.pmml.metrics.PredictionMetrics;
+import org.wso2.siddhi.core.event.ComplexEvent;
+import org.wso2.siddhi.core.event.ComplexEventChunk;
+import org.wso2.siddhi.core.event.stream.StreamEvent;
+import org.wso2.siddhi.core.event.stream.populater.ComplexEventPopulater;
+import org.wso2.siddhi.core.exception.SiddhiAppRuntimeException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Scores the events of a chunk with the bound models of a predict query. The raw attribute values of the events
+ * are gathered once for all the models, the compiled models score large chunks by columns and the other rows one
+ * by one, and the outputs of the models are concatenated in the order of the output attributes of the query.
+ */
+final class ChunkScorer {
+
+    private static final Logger logger = Logger.getLogger(ChunkScorer.class);
+    // Number of rows of the synthetic chunks scored by columns during the warm-up
+    private static final int WARMUP_CHUNK_SIZE = 64;
+
+    // Output field names of each model
+    private final List<Collection<FieldName>> outputNames = new ArrayList<>();
+    // Position of the first output attribute of each model, followed by the number of output attributes
+    private final int[] outputOffsets;
+    private final boolean compileEnabled;
+    private final int columnarThreshold;
+    private final boolean lazyInputEnabled;
+    private final int routeKeyPosition;
+    private final boolean routeMissWait;
+
+    /**
+     * Create a scorer of the events of a query.
+     *
+     * @param outputFields     output fields of each model
+     * @param outputOffsets    position of the first output attribute of each model, followed by the number of
+     *                         output attributes
+     * @param options          options of the query
+     * @param routeKeyPosition position of the routing key in the output data of the events, when they are routed
+     */
+    ChunkScorer(List<? extends Map<FieldName, ?>> outputFields, int[] outputOffsets, PredictOptions options,
+                int routeKeyPosition) {
+        for (Map<FieldName, ?> fields : outputFields) {
+            outputNames.add(fields.keySet());
+        }
+        this.outputOffsets = outputOffsets;
+        this.compileEnabled = options.isCompileEnabled();
+        this.columnarThreshold = options.getColumnarThreshold();
+        this.lazyInputEnabled = options.isLazyInputEnabled();
+        this.routeKeyPosition = routeKeyPosition;
+        this.routeMissWait = options.isRouteMissWait();
+    }
+
+    /**
+     * Score the events of a chunk and populate their predictions, removing the events that could not be scored.
+     *
+     * @param streamEventChunk      event chunk
+     * @param bindings              model bindings, sharing the same input columns
+     * @param pool                  pool of the routed models, or null when events are not routed
+     * @param context               batch context of the calling thread
+     * @param metrics               prediction metrics, or null
+     * @param complexEventPopulater populater of the predictions
+     * @return number of events scored
+     */
+    int score(ComplexEventChunk<StreamEvent> streamEventChunk, ModelBinding[] bindings, ModelPool pool,
+              BatchContext context, PredictionMetrics metrics, ComplexEventPopulater complexEventPopulater) {
+        // Gather the raw attribute values of every event in the chunk into the batch buffer, once for all models,
+        // and start loading the models of all the routing keys of the chunk that are not in the model pool
+        int batchSize = 0;
+        streamEventChunk.reset();
+        while (streamEventChunk.hasNext()) {
+            StreamEvent event = streamEventChunk.next();
+            if (isScorable(event)) {
+                if (pool != null) {
+                    Object key = event.getOutputData()[routeKeyPosition];
+                    context.setRoute(batchSize, key == null ? null : pool.get(key.toString()));
+                }
+                readRow(bindings[0], event, context.inputRow(batchSize++));
+            }
+        }
+
+        // Evaluate all the gathered rows, reusing the same argument holder for each of them. The features of a
+        // compiled model are a subset of the shared input columns, hence a buffer of their width fits every model.
+        ArgumentHolder arguments = context.getArguments();
+        PredictionCache.Key cacheKey = context.getCacheKey();
+        double[] features = compileEnabled ? context.getFeatures(bindings[0].getInputCount()) : null;
+        if (metrics != null) {
+            metrics.chunkStarted();
+        }
+        Object[][][] compiledOutputs = null;
+        long columnarLatency = 0;
+        if (compileEnabled && pool == null && columnarThreshold > 0 && batchSize >= columnarThreshold) {
+            long startTime = metrics == null ? 0 : System.nanoTime();
+            compiledOutputs = scoreColumns(bindings, context, batchSize);
+            // The time spent scoring by columns is shared evenly by the events of the chunk
+            columnarLatency = metrics == null ? 0 : (System.nanoTime() - startTime) / batchSize;
+        }
+        int scored = 0;
+        for (int i = 0; i < batchSize; i++) {
+            Object[] row = context.inputRow(i);
+            Object[] output = null;
+            ModelBinding[] rowBindings = bindings;
+            if (pool != null) {
+                ModelPool.Route route = context.getRoute(i);
+                context.setRoute(i, null);
+                if (route != null) {
+                    if (!routeMissWait && !route.isLoaded()) {
+                        // Emit the event without predictions rather than waiting for its model
+                        context.setOutput(i, new Object[outputOffsets[1]]);
+                        continue;
+                    }
+                    rowBindings = route.await();
+                    if (rowBindings == null) {
+                        // The model of the key failed to load, hence the event is emitted without predictions
+                        context.setOutput(i, new Object[outputOffsets[1]]);
+                        continue;
+                    } else if (rowBindings.length == 0) {
+                        // There is no model for the key, hence it is scored by the default model
+                        rowBindings = bindings;
+                    }
+                }
+            }
+            long startTime = metrics == null ? 0 : System.nanoTime();
+            try {
+                output = predictRow(rowBindings, row, i, compiledOutputs, arguments, features, cacheKey, metrics);
+            } catch (Exception e) {
+                if (metrics != null) {
+                    metrics.recordFailure();
+                }
+                logger.error("Error while predicting", e);
+                throw new SiddhiAppRuntimeException("Error while predicting", e);
+            }
+            if (metrics != null) {
+                metrics.recordLatency(System.nanoTime() - startTime + columnarLatency);
+            }
+            context.setOutput(i, output);
+            if (output != null) {
+                scored++;
+            }
+        }
+        if (metrics != null) {
+            metrics.chunkCompleted(scored);
+        }
+
+        // Populate the predictions, dropping the events that could not be scored
+        int row = 0;
+        streamEventChunk.reset();
+        while (streamEventChunk.hasNext()) {
+            StreamEvent event = streamEventChunk.next();
+            if (isScorable(event)) {
+                Object[] output = context.getOutput(row);
+                context.setOutput(row++, null);
+                if (output == null) {
+                    streamEventChunk.remove();
+                } else {
+                    complexEventPopulater.populateComplexEvent(event, output);
+                }
+            }
+        }
+        return scored;
+    }
+
+    /**
+     * Run the given number of evaluations on synthetic inputs, by chunks large enough to be scored by columns
+     * alternating with single rows, so that both scoring paths are compiled by the JVM. No metrics are recorded.
+     *
+     * @param bindings model bindings, sharing the same input columns, without prediction caches
+     * @param inputs   generator of the synthetic inputs
+     * @param context  batch context holding the synthetic rows
+     * @param count    number of evaluations
+     */
+    void warmUp(ModelBinding[] bindings, SyntheticInputs inputs, BatchContext context, int count) {
+        double[] features = compileEnabled ? context.getFeatures(bindings[0].getInputCount()) : null;
+        boolean columnar = false;
+        int evaluations = 0;
+        while (evaluations < count) {
+            int size = columnar ? Math.min(WARMUP_CHUNK_SIZE, count - evaluations) : 1;
+            for (int i = 0; i < size; i++) {
+                inputs.next(context.inputRow(i));
+            }
+            Object[][][] compiledOutputs = null;
+            if (compileEnabled && columnarThreshold > 0 && size >= columnarThreshold) {
+                compiledOutputs = scoreColumns(bindings, context, size);
+            }
+            for (int i = 0; i < size; i++) {
+                predictRow(bindings, context.inputRow(i), i, compiledOutputs, context.getArguments(), features,
+                        context.getCacheKey(), null);
+            }
+            evaluations += size;
+            columnar = !columnar;
+        }
+    }
+
+    static boolean isScorable(StreamEvent event) {
+        return event.getType() == ComplexEvent.Type.CURRENT || event.getType() == ComplexEvent.Type.EXPIRED;
+    }
+
+    /**
+     * Score the rows of the batch with the compiled models by columns: the feature values of every row are gathered
+     * into a primitive array per feature, which the compiled models score in tight loops. Models with a prediction
+     * cache are left to be scored row by row, as only the rows missing in the cache are to be scored.
+     *
+     * @param bindings  model bindings, sharing the same input columns
+     * @param context   batch context holding the rows
+     * @param batchSize number of rows
+     * @return outputs of each model indexed as the rows of the batch, holding null for the models scored row by row
+     * and for the rows left to JPMML, or null when no model is scored by columns
+     */
+    private static Object[][][] scoreColumns(ModelBinding[] bindings, BatchContext context, int batchSize) {
+        Object[][][] compiledOutputs = null;
+        for (int i = 0; i < bindings.length; i++) {
+            ModelBinding binding = bindings[i];
+            if (binding.getCompiledModel() == null || binding.getPredictionCache() != null) {
+                continue;
+            }
+            int[] compiledInputs = binding.getCompiledInputs();
+            double[][] columns = context.getColumns(compiledInputs.length, batchSize);
+            int[] columnRows = context.getColumnRows(batchSize);
+            int size = 0;
+            for (int row = 0; row < batchSize; row++) {
+                Object[] values = context.inputRow(row);
+                boolean present = true;
+                for (int j = 0; present && j < compiledInputs.length; j++) {
+                    double value = binding.getCompiledValue(j, values);
+                    columns[j][size] = value;
+                    // Missing, non numeric and unknown category values are treated by JPMML
+                    present = !Double.isNaN(value);
+                }
+                if (present) {
+                    columnRows[size++] = row;
+                }
+            }
+            Object[][] columnOutputs = context.getColumnOutputs(batchSize);
+            binding.getCompiledModel().evaluate(columns, size, columnOutputs);
+            Object[][] outputs = context.getCompiledOutputs(i, batchSize);
+            Arrays.fill(outputs, 0, batchSize, null);
+            for (int j = 0; j < size; j++) {
+                outputs[columnRows[j]] = columnOutputs[j];
+                columnOutputs[j] = null;
+            }
+            if (compiledOutputs == null) {
+                compiledOutputs = new Object[bindings.length][][];
+            }
+            compiledOutputs[i] = outputs;
+        }
+        return compiledOutputs;
+    }
+
+    /**
+     * Predict a single row with every model, looking up the prediction cache of each model first when it has one.
+     * The arguments are prepared once, and only if a model is evaluated by JPMML.
+     *
+     * @param bindings        model bindings, sharing the same input columns
+     * @param row             raw attribute values ordered as the input converters
+     * @param rowIndex        index of the row in the batch
+     * @param compiledOutputs outputs of the models scored by columns, or null when no model is scored by columns
+     * @param arguments       reusable argument holder
+     * @param features        reusable feature value buffer of the compiled models, or null
+     * @param cacheKey        reusable prediction cache key
+     * @param metrics         prediction metrics, or null
+     * @return decoded output values of all the models, or null when none of them could score the row
+     */
+    private Object[] predictRow(ModelBinding[] bindings, Object[] row, int rowIndex, Object[][][] compiledOutputs,
+                                ArgumentHolder arguments, double[] features, PredictionCache.Key cacheKey,
+                                PredictionMetrics metrics) {
+        boolean keySet = false;
+        boolean argumentsPrepared = false;
+        boolean argumentsAvailable = false;
+        Object[] output = null;
+        for (int i = 0; i < bindings.length; i++) {
+            ModelBinding binding = bindings[i];
+            PredictionCache cache = binding.getPredictionCache();
+            Object[] modelOutput = null;
+            if (cache != null) {
+                if (!keySet) {
+                    cacheKey.set(row);
+                    keySet = true;
+                }
+                modelOutput = cache.get(cacheKey);
+                if (metrics != null) {
+                    metrics.recordCacheLookup(modelOutput != null);
+                }
+            }
+            if (modelOutput == null) {
+                boolean cacheable = true;
+                if (compiledOutputs != null && compiledOutputs[i] != null) {
+                    modelOutput = compiledOutputs[i][rowIndex];
+                    compiledOutputs[i][rowIndex] = null;
+                } else if (binding.getCompiledModel() != null) {
+                    modelOutput = predictCompiled(binding, row, features);
+                }
+                if (modelOutput == null) {
+                    if (!argumentsPrepared) {
+                        argumentsAvailable = prepareArguments(binding, row, arguments, lazyInputEnabled,
+                                metrics);
+                        argumentsPrepared = true;
+                    }
+                    if (argumentsAvailable) {
+                        modelOutput = predict(binding, outputNames.get(i), arguments);
+                    }
+                    // Rows with invalid values are not cached, so that the invalid values keep being reported
+                    cacheable = !arguments.hasInvalidValues();
+                }
+                if (cache != null && modelOutput != null && cacheable) {
+                    cache.put(cacheKey, modelOutput);
+                }
+            }
+            if (bindings.length == 1) {
+                return modelOutput;
+            }
+            // Outputs of the models that could not score the row are left null
+            if (modelOutput != null) {
+                if (output == null) {
+                    output = new Object[outputOffsets[bindings.length]];
+                }
+                System.arraycopy(modelOutput, 0, output, outputOffsets[i], modelOutput.length);
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Read the mapped attribute values of an event into a row of the batch buffer.
+     */
+    private static void readRow(ModelBinding binding, StreamEvent event, Object[] row) {
+        for (int i = 0; i < binding.getInputCount(); i++) {
+            int[] attributeIndexArray = binding.getAttributePosition(i);
+            Object dataValue = null;
+            switch (attributeIndexArray[2]) {
+                case 0:
+                    dataValue = event.getBeforeWindowData()[attributeIndexArray[3]];
+                    break;
+                case 2:
+                    dataValue = event.getOutputData()[attributeIndexArray[3]];
+                    break;
+                default:
+                    break;
+            }
+            row[i] = dataValue;
+        }
+    }
+
+    /**
+     * Prepare the model arguments of a single row into the reusable argument holder, or leave them to be prepared
+     * as the evaluator reads them.
+     *
+     * @param binding   model binding
+     * @param row       raw attribute values ordered as the input converters
+     * @param arguments argument holder to fill
+     * @param lazy      whether the arguments are prepared when read rather than upfront
+     * @param metrics   prediction metrics counting the invalid values, or null
+     * @return whether any of the arguments could be prepared, or with lazy preparation whether any raw value is
+     * present
+     */
+    private static boolean prepareArguments(ModelBinding binding, Object[] row, ArgumentHolder arguments,
+                                            boolean lazy, PredictionMetrics metrics) {
+        arguments.load(binding, row, metrics);
+        if (lazy) {
+            return arguments.hasRawValues();
+        }
+        arguments.prepareAll();
+        return !arguments.isEmpty();
+    }
+
+    /**
+     * Evaluate the model for the prepared arguments and decode the results in output field order.
+     *
+     * @param binding     model binding
+     * @param outputNames output field names of the model
+     * @param arguments   prepared model arguments
+     * @return decoded output values
+     */
+    private static Object[] predict(ModelBinding binding, Collection<FieldName> outputNames,
+                                    Map<FieldName, ?> arguments) {
+        Map<FieldName, ?> result = binding.getEvaluator().evaluate(arguments);
+        Object[] output = new Object[outputNames.size()];
+        int i = 0;
+        for (FieldName fieldName : outputNames) {
+            output[i++] = EvaluatorUtil.decode(result.get(fieldName));
+        }
+        return output;
+    }
+
+    /**
+     * Evaluate a row with the compiled model of the binding.
+     *
+     * @param binding  model binding
+     * @param row      raw attribute values ordered as the input converters
+     * @param features feature value buffer
+     * @return decoded output values, or null when the row is to be evaluated by JPMML
+     */
+    private static Object[] predictCompiled(ModelBinding binding, Object[] row, double[] features) {
+        int[] compiledInputs = binding.getCompiledInputs();
+        for (int i = 0; i < compiledInputs.length; i++) {
+            double value = binding.getCompiledValue(i, row);
+            if (Double.isNaN(value)) {
+                // Missing, non numeric and unknown category values are treated by JPMML
+                return null;
+            }
+            features[i] = value;
+        }
+        return binding.getCompiledModel().evaluate(features);
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml;
+
+import org.dmg.pmml.DataField;
+import org.dmg.pmml.DataType;
+import org.dmg.pmml.Interval;
+import org.dmg.pmml.MiningField;
+import org.dmg.pmml.OpType;
+import org.dmg.pmml.Value;
+import org.jpmml.evaluator.FieldValue;
+import org.jpmml.evaluator.InputField;
+import org.wso2.siddhi.query.api.definition.Attribute;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Converts the value of a Siddhi attribute into the data type of the mapped PMML input field.
+ * The conversion is selected once from the attribute type and the field data type, so numeric values reach
+ * {@link InputField#prepare(Object)} without being formatted into and parsed back from strings. The prepared values
+ * of categorical and ordinal fields are interned by attribute value, up to a capacity, so that a recurring category
+ * is validated against the data dictionary only once.
+ */
+final class InputFieldConverter {
+
+    private final InputField inputField;
+    private final Attribute.Type attributeType;
+    private final Conversion conversion;
+    // Prepared values by attribute value, or null when the field is continuous or interning is disabled
+    private final ConcurrentMap<Object, FieldValue> preparedValues;
+    private final int preparedValueCapacity;
+
+    /**
+     * Create a converter interning the prepared values of a categorical or ordinal field.
+     *
+     * @param inputField            input field of the model
+     * @param attributeType         type of the mapped attribute
+     * @param preparedValueCapacity maximum number of distinct attribute values interned, or 0 to disable interning
+     */
+    InputFieldConverter(InputField inputField, Attribute.Type attributeType, int preparedValueCapacity) {
+        this.inputField = inputField;
+        this.attributeType = attributeType;
+        this.conversion = selectConversion(attributeType, inputField.getDataType());
+        boolean discrete = inputField.getOpType() == OpType.CATEGORICAL || inputField.getOpType() == OpType.ORDINAL;
+        this.preparedValueCapacity = preparedValueCapacity;
+        this.preparedValues = discrete && preparedValueCapacity > 0 ? new ConcurrentHashMap<>() : null;
+    }
+
+    InputField getInputField() {
+        return inputField;
+    }
+
+    Attribute.Type getAttributeType() {
+        return attributeType;
+    }
+
+    /**
+     * Prepare the given attribute value as an argument of the model.
+     *
+     * @param value attribute value
+     * @return prepared field value
+     */
+    FieldValue prepare(Object value) {
+        if (preparedValues == null || value == null) {
+            return inputField.prepare(convert(value));
+        }
+        FieldValue fieldValue = preparedValues.get(value);
+        if (fieldValue == null) {
+            // Invalid values throw before being interned, so that they are reported on every occurrence
+            fieldValue = inputField.prepare(convert(value));
+            if (fieldValue != null && preparedValues.size() < preparedValueCapacity) {
+                preparedValues.putIfAbsent(value, fieldValue);
+            }
+        }
+        return fieldValue;
+    }
+
+    /**
+     * Convert the given attribute value into the data type of the input field.
+     *
+     * @param value attribute value
+     * @return converted value, or the string representation when no direct conversion exists
+     */
+    Object convert(Object value) {
+        if (value == null) {
+            return null;
+        }
+        switch (conversion) {
+            case IDENTITY:
+                return value;
+            case TO_DOUBLE:
+                if (value instanceof Double) {
+                    return value;
+                } else if (value instanceof Float) {
+                    return widen((Float) value);
+                } else if (value instanceof Number) {
+                    return ((Number) value).doubleValue();
+                }
+                break;
+            case TO_FLOAT:
+                if (value instanceof Float) {
+                    return value;
+                } else if (value instanceof Number) {
+                    return ((Number) value).floatValue();
+                }
+                break;
+            case TO_INTEGER:
+                if (value instanceof Integer || value instanceof Long) {
+                    return value;
+                } else if (value instanceof Number) {
+                    double doubleValue = ((Number) value).doubleValue();
+                    int intValue = (int) doubleValue;
+                    if (intValue == doubleValue) {
+                        return intValue;
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+        return String.valueOf(value);
+    }
+
+    /**
+     * Convert the given attribute value into a feature value of a compiled model.
+     *
+     * @param value attribute value
+     * @return feature value, or NaN when the value is missing, not numeric, or not an integer of the integer range
+     * for an integer field
+     */
+    double toDouble(Object value) {
+        if (!(value instanceof Number)) {
+            return Double.NaN;
+        }
+        // Adding a positive zero turns -0.0 into 0.0, as JPMML prepares it
+        if (inputField.getDataType() == DataType.DOUBLE) {
+            if (value instanceof Float) {
+                return widen((Float) value) + 0.0;
+            }
+            return ((Number) value).doubleValue() + 0.0;
+        } else if (inputField.getDataType() == DataType.FLOAT) {
+            return ((Number) value).floatValue() + 0.0;
+        } else if (inputField.getDataType() == DataType.INTEGER) {
+            // JPMML reports fractional and out of range values of integer fields as invalid
+            double integer = value instanceof Float ? widen((Float) value) : ((Number) value).doubleValue();
+            if (integer == Math.rint(integer) && integer >= Integer.MIN_VALUE && integer <= Integer.MAX_VALUE) {
+                return integer + 0.0;
+            }
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Widen a float to the double of its decimal representation, as JPMML parses it from the string form of the
+     * attribute value, so that 1.1f becomes 1.1 rather than 1.100000023841858.
+     */
+    private static double widen(Float value) {
+        return Double.parseDouble(value.toString());
+    }
+
+    /**
+     * Check whether two input fields of the same name, declared by different models, prepare every value alike,
+     * so that a value prepared for one of them can be passed to both models.
+     *
+     * @return whether the fields have the same type, valid values and value treatments
+     */
+    static boolean preparesAlike(InputField first, InputField second) {
+        if (first.getDataType() != second.getDataType() || first.getOpType() != second.getOpType()) {
+            return false;
+        }
+        MiningField firstMiningField = first.getMiningField();
+        MiningField secondMiningField = second.getMiningField();
+        if (firstMiningField.getOutlierTreatment() != secondMiningField.getOutlierTreatment() ||
+                !Objects.equals(firstMiningField.getLowValue(), secondMiningField.getLowValue()) ||
+                !Objects.equals(firstMiningField.getHighValue(), secondMiningField.getHighValue()) ||
+                firstMiningField.getMissingValueTreatment() != secondMiningField.getMissingValueTreatment() ||
+                !Objects.equals(firstMiningField.getMissingValueReplacement(),
+                        secondMiningField.getMissingValueReplacement()) ||
+                firstMiningField.getInvalidValueTreatment() != secondMiningField.getInvalidValueTreatment() ||
+                !Objects.equals(firstMiningField.getInvalidValueReplacement(),
+                        secondMiningField.getInvalidValueReplacement())) {
+            return false;
+        }
+        if (!(first.getField() instanceof DataField) || !(second.getField() instanceof DataField)) {
+            return first.getField() == second.getField();
+        }
+        DataField firstDataField = (DataField) first.getField();
+        DataField secondDataField = (DataField) second.getField();
+        if (firstDataField.getValues().size() != secondDataField.getValues().size() ||
+                firstDataField.getIntervals().size() != secondDataField.getIntervals().size()) {
+            return false;
+        }
+        for (int i = 0; i < firstDataField.getValues().size(); i++) {
+            Value firstValue = firstDataField.getValues().get(i);
+            Value secondValue = secondDataField.getValues().get(i);
+            if (!Objects.equals(firstValue.getValue(), secondValue.getValue()) ||
+                    firstValue.getProperty() != secondValue.getProperty()) {
+                return false;
+            }
+        }
+        for (int i = 0; i < firstDataField.getIntervals().size(); i++) {
+            Interval firstInterval = firstDataField.getIntervals().get(i);
+            Interval secondInterval = secondDataField.getIntervals().get(i);
+            if (firstInterval.getClosure() != secondInterval.getClosure() ||
+                    !Objects.equals(firstInterval.getLeftMargin(), secondInterval.getLeftMargin()) ||
+                    !Objects.equals(firstInterval.getRightMargin(), secondInterval.getRightMargin())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Conversion selectConversion(Attribute.Type attributeType, DataType dataType) {
+        if (attributeType == null || dataType == null) {
+            return Conversion.TO_STRING;
+        }
+        switch (dataType) {
+            case DOUBLE:
+                return attributeType == Attribute.Type.DOUBLE ? Conversion.IDENTITY :
+                        isNumeric(attributeType) ? Conversion.TO_DOUBLE : Conversion.TO_STRING;
+            case FLOAT:
+                return attributeType == Attribute.Type.FLOAT ? Conversion.IDENTITY :
+                        isNumeric(attributeType) ? Conversion.TO_FLOAT : Conversion.TO_STRING;
+            case INTEGER:
+                return attributeType == Attribute.Type.INT ? Conversion.IDENTITY :
+                        isNumeric(attributeType) ? Conversion.TO_INTEGER : Conversion.TO_STRING;
+            case BOOLEAN:
+                return attributeType == Attribute.Type.BOOL ? Conversion.IDENTITY : Conversion.TO_STRING;
+            case STRING:
+                return attributeType == Attribute.Type.STRING ? Conversion.IDENTITY : Conversion.TO_STRING;
+            default:
+                return Conversion.TO_STRING;
+        }
+    }
+
+    private static boolean isNumeric(Attribute.Type attributeType) {
+        return attributeType == Attribute.Type.INT || attributeType == Attribute.Type.LONG ||
+                attributeType == Attribute.Type.FLOAT || attributeType == Attribute.Type.DOUBLE;
+    }
+
+    /**
+     * Conversions from Siddhi attribute values to PMML field values.
+     */
+    private enum Conversion {
+        IDENTITY, TO_DOUBLE, TO_FLOAT, TO_INTEGER, TO_STRING
+    }
+}
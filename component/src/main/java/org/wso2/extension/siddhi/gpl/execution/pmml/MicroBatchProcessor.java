@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml;
+
+import org.wso2.siddhi.annotation.Example;
+import org.wso2.siddhi.annotation.Extension;
+import org.wso2.siddhi.annotation.Parameter;
+import org.wso2.siddhi.annotation.util.DataType;
+import org.wso2.siddhi.core.config.SiddhiAppContext;
+import org.wso2.siddhi.core.event.ComplexEventChunk;
+import org.wso2.siddhi.core.event.stream.StreamEvent;
+import org.wso2.siddhi.core.event.stream.StreamEventCloner;
+import org.wso2.siddhi.core.event.stream.populater.ComplexEventPopulater;
+import org.wso2.siddhi.core.executor.ConstantExpressionExecutor;
+import org.wso2.siddhi.core.executor.ExpressionExecutor;
+import org.wso2.siddhi.core.query.processor.Processor;
+import org.wso2.siddhi.core.query.processor.SchedulingProcessor;
+import org.wso2.siddhi.core.query.processor.stream.StreamProcessor;
+import org.wso2.siddhi.core.util.Scheduler;
+import org.wso2.siddhi.core.util.config.ConfigReader;
+import org.wso2.siddhi.query.api.definition.AbstractDefinition;
+import org.wso2.siddhi.query.api.definition.Attribute;
+import org.wso2.siddhi.query.api.exception.SiddhiAppValidationException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stream processor buffering the events of small chunks into micro-batches for the processors that follow it, such
+ * as the pmml predict processor, which scores each batch together. It is a separate processor, so that only the
+ * queries buffering their events get the scheduler enforcing the wait of a batch.
+ */
+@Extension(
+        name = "batch",
+        namespace = "pmml",
+        description = "This extension buffers the events of the chunks it receives into micro-batches, which the " +
+                "following processors of the query receive as one chunk, so that sources delivering a few events " +
+                "at a time are scored in batches by 'pmml:predict', for instance by columns. The number of events " +
+                "a batch waits for is tuned from the observed arrival rate, up to the maximum batch size, and " +
+                "events arriving slower than one per maximum wait are not buffered. Batches are emitted in the " +
+                "order their events arrived, chunks of batch windows are passed on as they are after the " +
+                "buffered events, and the buffered events are emitted when the query stops. Buffered events are " +
+                "part of the state of the query, hence a restored query emits them.",
+        parameters = {
+                @Parameter(
+                        name = "batch.size",
+                        description = "Maximum number of events of a batch.",
+                        type = {DataType.INT}
+                ),
+                @Parameter(
+                        name = "batch.wait",
+                        description = "Maximum time in milliseconds an event waits for its batch to fill up, " +
+                                "after which the batch is emitted as it is.",
+                        type = {DataType.INT, DataType.LONG},
+                        optional = true,
+                        defaultValue = "2"
+                )
+        },
+        examples = {
+                @Example(
+                        syntax = "from InputStream#pmml:batch(64, 5)#pmml:predict('<SP HOME>/samples/artifacts/" +
+                                "0301/decision-tree.pmml', 'model.compile=true')",
+                        description = "This query scores the events in batches of up to 64 events, each event " +
+                                "waiting at most 5 milliseconds for its batch to fill up."
+                )
+        }
+)
+public class MicroBatchProcessor extends StreamProcessor implements SchedulingProcessor {
+
+    private static final long DEFAULT_BATCH_WAIT = 2;
+
+    private int maxBatchSize;
+    private long maxBatchWait;
+    private Scheduler scheduler;
+    private volatile MicroBatcher microBatcher;
+    // Guards the replacement of the micro batcher against the snapshots and restores of its state
+    private final Object stateLock = new Object();
+    private Map<String, Object> pendingState;
+
+    @Override
+    protected List<Attribute> init(AbstractDefinition abstractDefinition,
+                                   ExpressionExecutor[] expressionExecutors,
+                                   ConfigReader configReader, SiddhiAppContext siddhiAppContext) {
+        if (attributeExpressionExecutors.length == 0 || attributeExpressionExecutors.length > 2) {
+            throw new SiddhiAppValidationException("pmml:batch expects the maximum batch size, optionally " +
+                    "followed by the maximum wait in milliseconds, but found " + attributeExpressionExecutors.length +
+                    " parameters.");
+        }
+        maxBatchSize = (int) getConstant(attributeExpressionExecutors[0], "batch.size");
+        maxBatchWait = attributeExpressionExecutors.length > 1 ?
+                getConstant(attributeExpressionExecutors[1], "batch.wait") : DEFAULT_BATCH_WAIT;
+        if (maxBatchSize <= 0 || maxBatchWait <= 0) {
+            throw new SiddhiAppValidationException("Parameters 'batch.size' and 'batch.wait' of pmml:batch should " +
+                    "be positive, but found " + maxBatchSize + " and " + maxBatchWait + ".");
+        }
+        return new ArrayList<>();
+    }
+
+    private static long getConstant(ExpressionExecutor expressionExecutor, String name) {
+        if (!(expressionExecutor instanceof ConstantExpressionExecutor) ||
+                !(((ConstantExpressionExecutor) expressionExecutor).getValue() instanceof Integer ||
+                        ((ConstantExpressionExecutor) expressionExecutor).getValue() instanceof Long)) {
+            throw new SiddhiAppValidationException("Parameter '" + name + "' of pmml:batch should be a constant " +
+                    "integer.");
+        }
+        return ((Number) ((ConstantExpressionExecutor) expressionExecutor).getValue()).longValue();
+    }
+
+    @Override
+    protected void process(ComplexEventChunk<StreamEvent> streamEventChunk, Processor nextProcessor,
+                           StreamEventCloner streamEventCloner, ComplexEventPopulater complexEventPopulater) {
+        MicroBatcher batcher = microBatcher;
+        if (batcher == null) {
+            nextProcessor.process(streamEventChunk);
+            return;
+        }
+        // Batches are released and emitted one at a time, in the order their events arrived
+        synchronized (batcher) {
+            if (microBatcher != batcher) {
+                // The processor stopped meanwhile and emitted the buffered events
+                nextProcessor.process(streamEventChunk);
+            } else if (streamEventChunk.isBatch()) {
+                // Chunks of batch windows are already batches, whose events are emitted together
+                ComplexEventChunk<StreamEvent> pendingBatch = batcher.drain(currentTime());
+                if (pendingBatch != null) {
+                    nextProcessor.process(pendingBatch);
+                }
+                nextProcessor.process(streamEventChunk);
+            } else {
+                ComplexEventChunk<StreamEvent> batch = batcher.add(streamEventChunk, currentTime());
+                if (batch != null) {
+                    nextProcessor.process(batch);
+                }
+            }
+        }
+    }
+
+    private long currentTime() {
+        return siddhiAppContext.getTimestampGenerator().currentTime();
+    }
+
+    /**
+     * Number of events the buffered batches currently wait for, tuned from the arrival rate.
+     *
+     * @return target batch size, which is 0 when the processor is not started
+     */
+    public int getBatchTargetSize() {
+        MicroBatcher batcher = microBatcher;
+        return batcher == null ? 0 : batcher.getTargetSize();
+    }
+
+    @Override
+    public void start() {
+        MicroBatcher batcher = new MicroBatcher(maxBatchSize, maxBatchWait, scheduler);
+        synchronized (stateLock) {
+            if (pendingState != null) {
+                batcher.restoreState(pendingState, currentTime());
+                pendingState = null;
+            }
+            microBatcher = batcher;
+        }
+    }
+
+    @Override
+    public void stop() {
+        MicroBatcher batcher;
+        synchronized (stateLock) {
+            batcher = microBatcher;
+            microBatcher = null;
+        }
+        if (batcher != null) {
+            // Emit the buffered events rather than losing them
+            synchronized (batcher) {
+                ComplexEventChunk<StreamEvent> batch = batcher.drain(currentTime());
+                if (batch != null) {
+                    nextProcessor.process(batch);
+                }
+            }
+        }
+    }
+
+    /**
+     * Snapshot the buffered events, so that a restored query emits them rather than losing them, along with their
+     * deadline and the tuned target size.
+     *
+     * @return serializable state
+     */
+    @Override
+    public Map<String, Object> currentState() {
+        synchronized (stateLock) {
+            MicroBatcher batcher = microBatcher;
+            if (batcher == null) {
+                // Nothing was buffered since the state was restored, if it was
+                return pendingState == null ? new HashMap<>() : new HashMap<>(pendingState);
+            }
+            synchronized (batcher) {
+                return batcher.currentState();
+            }
+        }
+    }
+
+    /**
+     * Restore the buffered events in place of the current ones, applied once the processor starts when it has not
+     * started yet.
+     *
+     * @param state state taken by {@link #currentState()}
+     */
+    @Override
+    public void restoreState(Map<String, Object> state) {
+        synchronized (stateLock) {
+            MicroBatcher batcher = microBatcher;
+            if (batcher == null) {
+                pendingState = state;
+                return;
+            }
+            synchronized (batcher) {
+                batcher.restoreState(state, currentTime());
+            }
+        }
+    }
+
+    @Override
+    public void setScheduler(Scheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public Scheduler getScheduler() {
+        return scheduler;
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml;
+
+import org.wso2.siddhi.core.event.ComplexEvent;
+import org.wso2.siddhi.core.event.ComplexEventChunk;
+import org.wso2.siddhi.core.event.stream.StreamEvent;
+import org.wso2.siddhi.core.util.Scheduler;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Buffers the events of small chunks across process calls, so that they are scored together as one batch. A batch
+ * is released once it holds the target number of events, or once its first event has waited for the maximum wait
+ * time, which the scheduler enforces with a timer event. The target size follows the observed arrival rate: it is
+ * the number of events expected to arrive within the maximum wait, bounded by the maximum batch size, hence events
+ * arriving slower than one per wait are released at once rather than delayed for nothing. Times are given by the
+ * caller, as known to the timestamp generator of the query, so that batches follow the event time on playback.
+ * Not thread safe, callers serialize the calls and the scoring of the released batches.
+ */
+final class MicroBatcher {
+
+    // Weight of the latest rate in the exponential moving average of the arrival rate
+    private static final double RATE_SMOOTHING = 0.2;
+    private static final String STATE_PENDING = "pending";
+    private static final String STATE_PENDING_COUNT = "pendingCount";
+    private static final String STATE_DEADLINE = "deadline";
+    private static final String STATE_TARGET_SIZE = "targetSize";
+    private static final String STATE_ARRIVAL_RATE = "arrivalRate";
+
+    private final int maxBatchSize;
+    private final long maxWait;
+    private final Scheduler scheduler;
+    private ComplexEventChunk<StreamEvent> pending = new ComplexEventChunk<>(false);
+    private int pendingCount;
+    private long deadline;
+    private int targetSize = 1;
+    // Events per millisecond, averaged over the released batches
+    private double arrivalRate;
+    // Time of the last update of the arrival rate, or -1 until the first event arrives
+    private long lastReleaseTime = -1;
+    // Events released since the last update of the arrival rate, within the same millisecond
+    private int releasedCount;
+
+    /**
+     * Create a micro batcher.
+     *
+     * @param maxBatchSize maximum number of events of a batch
+     * @param maxWait      maximum time in milliseconds an event waits for its batch to fill
+     * @param scheduler    scheduler of the timer events releasing batches on time, or null to check the wait only
+     *                     when events arrive
+     */
+    MicroBatcher(int maxBatchSize, long maxWait, Scheduler scheduler) {
+        this.maxBatchSize = maxBatchSize;
+        this.maxWait = maxWait;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Take over the events of the given chunk, consuming the timer events, and release the buffered batch when it
+     * is due. Events other than current, expired and timer events release the batch at once, in order.
+     *
+     * @param chunk       chunk received by the processor, which is left empty
+     * @param currentTime current time in milliseconds, as known to the scheduler
+     * @return released batch, or null while the batch is filling up
+     */
+    ComplexEventChunk<StreamEvent> add(ComplexEventChunk<StreamEvent> chunk, long currentTime) {
+        if (lastReleaseTime < 0) {
+            lastReleaseTime = currentTime;
+        }
+        boolean releaseNow = false;
+        int count = 0;
+        chunk.reset();
+        while (chunk.hasNext()) {
+            StreamEvent event = chunk.next();
+            if (event.getType() == ComplexEvent.Type.TIMER) {
+                chunk.remove();
+            } else if (event.getType() == ComplexEvent.Type.CURRENT ||
+                    event.getType() == ComplexEvent.Type.EXPIRED) {
+                count++;
+            } else {
+                releaseNow = true;
+            }
+        }
+        if (chunk.getFirst() != null) {
+            if (pending.getFirst() == null) {
+                deadline = currentTime + maxWait;
+                if (scheduler != null) {
+                    scheduler.notifyAt(deadline);
+                }
+            }
+            pending.add(chunk.getFirst());
+            pendingCount += count;
+            chunk.clear();
+        }
+        if (pending.getFirst() == null || (!releaseNow && pendingCount < targetSize && currentTime < deadline)) {
+            return null;
+        }
+        return drain(currentTime);
+    }
+
+    /**
+     * Release the buffered events, whether the batch is due or not.
+     *
+     * @param currentTime current time in milliseconds, as known to the scheduler
+     * @return released batch, or null when no event is buffered
+     */
+    ComplexEventChunk<StreamEvent> drain(long currentTime) {
+        if (pending.getFirst() == null) {
+            return null;
+        }
+        ComplexEventChunk<StreamEvent> batch = pending;
+        updateTargetSize(pendingCount, currentTime);
+        pending = new ComplexEventChunk<>(false);
+        pendingCount = 0;
+        return batch;
+    }
+
+    /**
+     * Number of events the batches currently wait for, following the arrival rate.
+     *
+     * @return target batch size
+     */
+    int getTargetSize() {
+        return targetSize;
+    }
+
+    /**
+     * Snapshot the buffered events, their deadline and the tuned target size.
+     *
+     * @return serializable state
+     */
+    Map<String, Object> currentState() {
+        Map<String, Object> state = new HashMap<>();
+        state.put(STATE_PENDING, pending);
+        state.put(STATE_PENDING_COUNT, pendingCount);
+        state.put(STATE_DEADLINE, deadline);
+        state.put(STATE_TARGET_SIZE, targetSize);
+        state.put(STATE_ARRIVAL_RATE, arrivalRate);
+        return state;
+    }
+
+    /**
+     * Restore the buffered events in place of the current ones, scheduling the timer event of their deadline again.
+     * The arrival rate is measured afresh from the given time, while the target size is kept until the next
+     * release. Entries missing from the state start afresh.
+     *
+     * @param state       state taken by {@link #currentState()}
+     * @param currentTime current time in milliseconds, as known to the scheduler
+     */
+    @SuppressWarnings("unchecked")
+    void restoreState(Map<String, Object> state, long currentTime) {
+        Object restoredPending = state.get(STATE_PENDING);
+        Object restoredCount = state.get(STATE_PENDING_COUNT);
+        Object restoredDeadline = state.get(STATE_DEADLINE);
+        if (restoredPending instanceof ComplexEventChunk && restoredCount instanceof Integer &&
+                restoredDeadline instanceof Long) {
+            pending = (ComplexEventChunk<StreamEvent>) restoredPending;
+            pendingCount = (Integer) restoredCount;
+            deadline = (Long) restoredDeadline;
+            if (pending.getFirst() != null && scheduler != null) {
+                scheduler.notifyAt(deadline);
+            }
+        }
+        Object restoredTargetSize = state.get(STATE_TARGET_SIZE);
+        Object restoredRate = state.get(STATE_ARRIVAL_RATE);
+        if (restoredTargetSize instanceof Integer && restoredRate instanceof Double) {
+            targetSize = (Integer) restoredTargetSize;
+            arrivalRate = (Double) restoredRate;
+        }
+        lastReleaseTime = currentTime;
+        releasedCount = 0;
+    }
+
+    private void updateTargetSize(int count, long currentTime) {
+        releasedCount += count;
+        long elapsed = currentTime - lastReleaseTime;
+        if (elapsed <= 0) {
+            // Batches released within the same millisecond are measured together
+            return;
+        }
+        lastReleaseTime = currentTime;
+        double rate = (double) releasedCount / elapsed;
+        releasedCount = 0;
+        arrivalRate = arrivalRate == 0 ? rate : arrivalRate + RATE_SMOOTHING * (rate - arrivalRate);
+        double expected = arrivalRate * maxWait;
+        targetSize = (int) Math.max(1, Math.min(maxBatchSize, expected));
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml;
+
+import org.jpmml.evaluator.Evaluator;
+import org.wso2.extension.siddhi.gpl.execution.pmml.compiler.CategoryCodes;
+import org.wso2.extension.siddhi.gpl.execution.pmml.compiler.CompiledModel;
+import org.wso2.extension.siddhi.gpl.execution.pmml.util.ModelCache;
+
+/**
+ * A pmml model bound to the input stream: the evaluator, together with the converters and attribute positions
+ * of the mapped input fields in batch buffer column order, and optionally the compiled form of the model and a
+ * cache of its predictions. The bindings of the models scored by the same query share the same input fields, in the
+ * same order, so that their arguments are prepared once for all of them.
+ * A binding is immutable, so that a reloaded model can be swapped in atomically while events are being scored.
+ */
+final class ModelBinding {
+
+    private final ModelCache.CachedModel model;
+    private final InputFieldConverter[] inputConverters;
+    private final int[][] attributePositions;
+    private final CompiledModel compiledModel;
+    // Batch buffer column of each feature of the compiled model
+    private final int[] compiledInputs;
+    // Codes of the values of each categorical feature of the compiled model, null for continuous features
+    private final CategoryCodes[] categoryCodes;
+    private final PredictionCache predictionCache;
+
+    ModelBinding(ModelCache.CachedModel model, InputFieldConverter[] inputConverters, int[][] attributePositions) {
+        this(model, inputConverters, attributePositions, null, null, null);
+    }
+
+    private ModelBinding(ModelCache.CachedModel model, InputFieldConverter[] inputConverters,
+                         int[][] attributePositions, CompiledModel compiledModel, int[] compiledInputs,
+                         PredictionCache predictionCache) {
+        this.model = model;
+        this.inputConverters = inputConverters;
+        this.attributePositions = attributePositions;
+        this.compiledModel = compiledModel;
+        this.compiledInputs = compiledInputs;
+        this.categoryCodes = compiledModel == null ? null : compiledModel.getCategoryCodes();
+        this.predictionCache = predictionCache;
+    }
+
+    /**
+     * Create a binding of the same model, which scores through the given compiled model.
+     *
+     * @param compiledModel  compiled form of the model
+     * @param compiledInputs batch buffer column of each feature of the compiled model
+     * @return model binding
+     */
+    ModelBinding withCompiledModel(CompiledModel compiledModel, int[] compiledInputs) {
+        return new ModelBinding(model, inputConverters, attributePositions, compiledModel, compiledInputs,
+                predictionCache);
+    }
+
+    /**
+     * Create a binding of the same model, which caches its predictions in the given cache.
+     *
+     * @param predictionCache prediction cache, used by this binding only
+     * @return model binding
+     */
+    ModelBinding withPredictionCache(PredictionCache predictionCache) {
+        return new ModelBinding(model, inputConverters, attributePositions, compiledModel, compiledInputs,
+                predictionCache);
+    }
+
+    ModelCache.CachedModel getModel() {
+        return model;
+    }
+
+    Evaluator getEvaluator() {
+        return model.getEvaluator();
+    }
+
+    int getInputCount() {
+        return inputConverters.length;
+    }
+
+    InputFieldConverter getInputConverter(int index) {
+        return inputConverters[index];
+    }
+
+    int[] getAttributePosition(int index) {
+        return attributePositions[index];
+    }
+
+    CompiledModel getCompiledModel() {
+        return compiledModel;
+    }
+
+    long getOffHeapSize() {
+        return compiledModel == null ? 0 : compiledModel.getOffHeapSize();
+    }
+
+    int[] getCompiledInputs() {
+        return compiledInputs;
+    }
+
+    /**
+     * Get the value of a feature of the compiled model for a row.
+     *
+     * @param feature feature index
+     * @param row     raw attribute values ordered as the input converters
+     * @return feature value, or NaN when the value is missing or is to be evaluated by JPMML
+     */
+    double getCompiledValue(int feature, Object[] row) {
+        Object value = row[compiledInputs[feature]];
+        if (categoryCodes[feature] != null) {
+            return categoryCodes[feature].encode(value);
+        }
+        return inputConverters[compiledInputs[feature]].toDouble(value);
+    }
+
+    PredictionCache getPredictionCache() {
+        return predictionCache;
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml;
+
+import com.google.common.base.Ticker;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of the models selected by the values of a routing key. Models are loaded lazily on a few loader
+ * threads, so that loading the model of a key does not block the lookups of the other keys. The pool holds at most
+ * {@code maximumCount} routes, and at most {@code maximumSize} bytes of pmml definitions and of compiled trees stored
+ * off-heap when a size is given, beyond which the least recently used routes are evicted and their models released.
+ * A model that fails to load is retried once its key is looked up after a backoff, which doubles with each further
+ * failure of the key.
+ */
+final class ModelPool {
+
+    private static final Logger logger = Logger.getLogger(ModelPool.class);
+    private static final long SHUTDOWN_TIMEOUT = 10000;
+    // Maximum number of times the retry backoff of a failing key is doubled
+    private static final int MAX_RETRY_DOUBLINGS = 6;
+
+    /**
+     * Loading and releasing the models of the routes, called on the loader threads.
+     */
+    interface Loader {
+
+        /**
+         * Load and bind the model of a key.
+         *
+         * @param key routing key
+         * @return model bindings, or an empty array when there is no model for the key
+         */
+        ModelBinding[] load(String key);
+
+        /**
+         * Release the models of an evicted route.
+         *
+         * @param bindings model bindings of the route
+         */
+        void release(ModelBinding[] bindings);
+    }
+
+    private final Loader loader;
+    private final int maximumCount;
+    private final long maximumSize;
+    private final long retryBackoff;
+    private final Ticker ticker;
+    private final ExecutorService loaders;
+    // Routes in least recently used order, guarded by the pool
+    private final Map<String, Route> routes = new LinkedHashMap<>(16, 0.75f, true);
+    private long residentSize;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private boolean closed;
+
+    ModelPool(Loader loader, int maximumCount, long maximumSize, long retryBackoff, int loaderCount,
+              String threadNamePrefix, Ticker ticker) {
+        this.loader = loader;
+        this.maximumCount = maximumCount;
+        this.maximumSize = maximumSize;
+        this.retryBackoff = retryBackoff;
+        this.ticker = ticker;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.loaders = Executors.newFixedThreadPool(loaderCount, runnable -> {
+            Thread thread = new Thread(runnable, threadNamePrefix + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Get the route of a key, starting to load its model in the background when it is not resident, or when it
+     * failed to load and its retry backoff has elapsed.
+     *
+     * @param key routing key
+     * @return route, which may still be loading
+     */
+    synchronized Route get(String key) {
+        Route route = routes.get(key);
+        int failureCount = 0;
+        if (route != null) {
+            if (!route.bindings.isCompletedExceptionally() || ticker.read() - route.retryTime < 0) {
+                hitCount++;
+                return route;
+            }
+            failureCount = route.failureCount;
+        }
+        missCount++;
+        route = new Route();
+        route.failureCount = failureCount;
+        if (closed) {
+            route.bindings.cancel(false);
+            return route;
+        }
+        routes.put(key, route);
+        Route loadingRoute = route;
+        try {
+            loaders.execute(() -> load(key, loadingRoute));
+        } catch (RejectedExecutionException e) {
+            routes.remove(key);
+            route.bindings.cancel(false);
+        }
+        return route;
+    }
+
+    private void load(String key, Route route) {
+        ModelBinding[] bindings;
+        try {
+            bindings = loader.load(key);
+        } catch (RuntimeException e) {
+            long backoff;
+            int failureCount;
+            synchronized (this) {
+                // The failed route is kept until its backoff elapses, so that the model is not reloaded for every
+                // event of the key
+                backoff = retryBackoff << Math.min(route.failureCount, MAX_RETRY_DOUBLINGS);
+                failureCount = ++route.failureCount;
+                route.retryTime = ticker.read() + TimeUnit.MILLISECONDS.toNanos(backoff);
+                route.bindings.completeExceptionally(e);
+                evict();
+            }
+            // Only the first failure of a key is reported, rather than every retry
+            if (failureCount == 1) {
+                logger.error("Failed to load the pmml model of the routing key '" + key + "', hence its events " +
+                        "are emitted without predictions until it is loaded. Retrying in " + backoff + " ms.", e);
+            } else if (logger.isDebugEnabled()) {
+                logger.debug("Failed to load the pmml model of the routing key '" + key + "' again, retrying in " +
+                        backoff + " ms: " + e.getMessage());
+            }
+            return;
+        }
+        long size = 0;
+        for (ModelBinding binding : bindings) {
+            size += binding.getModel().getSize() + binding.getOffHeapSize();
+        }
+        boolean resident;
+        synchronized (this) {
+            resident = !closed && routes.get(key) == route;
+            if (resident) {
+                route.size = size;
+                residentSize += size;
+                evict();
+            }
+        }
+        route.bindings.complete(bindings);
+        if (!resident) {
+            // The pool has been closed while the model was loading
+            loader.release(bindings);
+        }
+    }
+
+    /**
+     * Evict the least recently used loaded routes while the pool is over its bounds, keeping the most recently
+     * used route even when its model alone exceeds the maximum size.
+     */
+    private void evict() {
+        Iterator<Route> iterator = routes.values().iterator();
+        int remaining = routes.size();
+        while (iterator.hasNext() && remaining > 1 &&
+                (routes.size() > maximumCount || maximumSize > 0 && residentSize > maximumSize)) {
+            Route route = iterator.next();
+            remaining--;
+            if (route.bindings.isDone()) {
+                iterator.remove();
+                residentSize -= route.size;
+                evictionCount++;
+                releaseRoute(route);
+            }
+        }
+    }
+
+    private void releaseRoute(Route route) {
+        if (!route.bindings.isCompletedExceptionally()) {
+            loader.release(route.bindings.join());
+        }
+    }
+
+    /**
+     * Stop loading models and release the models of every route.
+     */
+    void shutdown() {
+        synchronized (this) {
+            closed = true;
+        }
+        loaders.shutdown();
+        try {
+            if (!loaders.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                logger.warn("Pmml models are still being loaded after " + SHUTDOWN_TIMEOUT + " ms, hence " +
+                        "abandoning them.");
+                loaders.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            loaders.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            for (Route route : routes.values()) {
+                if (route.bindings.isDone()) {
+                    releaseRoute(route);
+                } else {
+                    route.bindings.cancel(false);
+                }
+            }
+            routes.clear();
+            residentSize = 0;
+        }
+    }
+
+    /**
+     * Keys of the resident routes whose model has loaded, from the least to the most recently used, so that loading
+     * them in order into another pool reproduces the same recency.
+     *
+     * @return routing keys
+     */
+    synchronized List<String> getLoadedKeys() {
+        List<String> keys = new ArrayList<>();
+        for (Map.Entry<String, Route> route : routes.entrySet()) {
+            if (route.getValue().bindings.isDone() && !route.getValue().bindings.isCompletedExceptionally()) {
+                keys.add(route.getKey());
+            }
+        }
+        return keys;
+    }
+
+    synchronized int getResidentCount() {
+        return routes.size();
+    }
+
+    /**
+     * Size, in bytes of pmml definitions and of compiled trees stored off-heap, of the resident models.
+     */
+    synchronized long getResidentSize() {
+        return residentSize;
+    }
+
+    synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    synchronized long getMissCount() {
+        return missCount;
+    }
+
+    synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Model of a routing key, which is loaded asynchronously.
+     */
+    static final class Route {
+
+        private final CompletableFuture<ModelBinding[]> bindings = new CompletableFuture<>();
+        private long size;
+        // Number of consecutive failures to load the model of the key, and when it may be loaded again
+        private int failureCount;
+        // Ticker time in nanoseconds
+        private long retryTime;
+
+        boolean isLoaded() {
+            return bindings.isDone();
+        }
+
+        /**
+         * Get the model bindings of the route, waiting for the model to be loaded.
+         *
+         * @return model bindings, an empty array when there is no model for the key, or null when the model
+         * failed to load
+         */
+        ModelBinding[] await() {
+            try {
+                return bindings.join();
+            } catch (CompletionException | CancellationException e) {
+                return null;
+            }
+        }
+    }
+}
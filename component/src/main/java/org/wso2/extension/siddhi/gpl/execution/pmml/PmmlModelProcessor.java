@@ -17,18 +17,18 @@
 
 package org.wso2.extension.siddhi.gpl.execution.pmml;
 
+import com.google.common.base.Ticker;
 import org.apache.log4j.Logger;
 import org.dmg.pmml.FieldName;
-import org.dmg.pmml.PMML;
 import org.jpmml.evaluator.Evaluator;
-import org.jpmml.evaluator.EvaluatorUtil;
-import org.jpmml.evaluator.FieldValue;
 import org.jpmml.evaluator.InputField;
-import org.jpmml.evaluator.InvalidResultException;
-import org.jpmml.evaluator.ModelEvaluator;
-import org.jpmml.evaluator.ModelEvaluatorFactory;
 import org.jpmml.evaluator.OutputField;
 import org.jpmml.evaluator.TargetField;
+import org.wso2.extension.siddhi.gpl.execution.pmml.compiler.CompileOptions;
+import org.wso2.extension.siddhi.gpl.execution.pmml.compiler.CompiledModel;
+import org.wso2.extension.siddhi.gpl.execution.pmml.compiler.ModelCompiler;
+import org.wso2.extension.siddhi.gpl.execution.pmml.metrics.PredictionMetrics;
+import org.wso2.extension.siddhi.gpl.execution.pmml.util.ModelCache;
 import org.wso2.extension.siddhi.gpl.execution.pmml.util.PMMLUtil;
 import org.wso2.siddhi.annotation.Example;
 import org.wso2.siddhi.annotation.Extension;
@@ -41,7 +41,6 @@ import org.wso2.siddhi.core.event.stream.StreamEvent;
 import org.wso2.siddhi.core.event.stream.StreamEventCloner;
 import org.wso2.siddhi.core.event.stream.populater.ComplexEventPopulater;
 import org.wso2.siddhi.core.exception.SiddhiAppCreationException;
-import org.wso2.siddhi.core.exception.SiddhiAppRuntimeException;
 import org.wso2.siddhi.core.executor.ConstantExpressionExecutor;
 import org.wso2.siddhi.core.executor.ExpressionExecutor;
 import org.wso2.siddhi.core.executor.VariableExpressionExecutor;
@@ -52,11 +51,21 @@ import org.wso2.siddhi.query.api.definition.AbstractDefinition;
 import org.wso2.siddhi.query.api.definition.Attribute;
 import org.wso2.siddhi.query.api.exception.SiddhiAppValidationException;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 
 /**
  * Class implementing Pmml Model Processor.
@@ -65,13 +74,148 @@ import java.util.Map;
         name = "predict",
         namespace = "pmml",
         description = "This extension processes the input stream attributes according to the defined PMML standard " +
-                "model and outputs the processed results together with the input stream attributes.",
+                "model and outputs the processed results together with the input stream attributes. When " +
+                "statistics are enabled for the Siddhi app, the evaluation latency, throughput, failures and " +
+                "invalid input values of each query are reported, and published through JMX. The state of the " +
+                "query, which holds the checksums and version of the models, the cached predictions, the models " +
+                "of the routing keys in use and the statistics counters, is persisted with the Siddhi app, so " +
+                "that a restored query starts with warm caches.",
         parameters = {
                 @Parameter(
                         name = "path.to.pmml.file",
                         description = "The path to the PMML model file.\n",
                         type = {DataType.STRING}
                 ),
+                @Parameter(
+                        name = "path.to.additional.pmml.file",
+                        description = "The path to an additional PMML model file, scored on the same events as the " +
+                                "model of the first parameter. Several additional models can be given, before the " +
+                                "options. The input values are prepared once for all the models, and the outputs " +
+                                "of each additional model are emitted after those of the previous models, prefixed " +
+                                "with the name of its file without the '.pmml' extension followed by an underscore, " +
+                                "where characters other than letters, digits and underscores are replaced by " +
+                                "underscores. Features read by several models should be declared alike by each of " +
+                                "them.\n",
+                        type = {DataType.STRING},
+                        optional = true,
+                        defaultValue = "No additional models"
+                ),
+                @Parameter(
+                        name = "option",
+                        description = "A constant 'key=value' pair configuring the prediction. Options that are " +
+                                "not given in the query are read from the extension configuration of the " +
+                                "deployment. The supported options are:\n" +
+                                "'outputs': Comma separated names of the output attributes to emit, among the " +
+                                "output fields of the models, or their target fields when they have no output " +
+                                "fields. The outputs of an additional model are named with its prefix. " +
+                                "The other output fields are removed from the models, unless a selected output " +
+                                "refers to them, so that they are neither computed nor decoded. Each model should " +
+                                "have at least one selected output. Defaults to all the outputs.\n" +
+                                "'model.watch': When true, the pmml file is watched and a changed model is " +
+                                "reloaded without restarting the Siddhi app, provided its input and output fields " +
+                                "still fit the query. Defaults to false.\n" +
+                                "'model.watch.interval': Interval in milliseconds at which the pmml file is " +
+                                "checked for changes. Defaults to 5000.\n" +
+                                "'model.compile': When true, tree models, tree ensembles, linear and logistic " +
+                                "regression models, and general linear and binomial logistic general regression " +
+                                "models are compiled into primitive arrays and scored without the generic " +
+                                "evaluator, with the same results. The compiled models read continuous double, " +
+                                "float and integer fields, and the categorical string fields of regression models, " +
+                                "looked up by value codes. Models reading other fields, such as ordinal fields or " +
+                                "fields restricted to intervals, and models the compiler does not support, such as " +
+                                "multinomial or ordinal general regression models, are scored as usual. Defaults " +
+                                "to false.\n" +
+                                "'model.codegen': When true, a class is generated for each compiled tree, " +
+                                "walking it as straight-line comparisons of the feature values with constants " +
+                                "rather than through its primitive arrays, which the JVM compiles into branches " +
+                                "of native code. Trees of the same layout share their class, which is unloaded " +
+                                "once no query uses it. Requires 'model.compile'. Defaults to false.\n" +
+                                "'model.offheap': When true, the split features, thresholds, child ranges and " +
+                                "scores of the compiled trees are stored in direct buffers out of the Java heap, " +
+                                "so that large tree ensembles add little for the garbage collector to trace. " +
+                                "The parsed model is then dropped as well, unless other queries share it, and " +
+                                "parsed again from its compressed definition the first time JPMML evaluates an " +
+                                "event, such as an event missing values. Trees walked by generated classes stay " +
+                                "in their classes. Requires 'model.compile'. Defaults to false.\n" +
+                                "'columnar.threshold': Minimum number of events of a chunk, such as the events " +
+                                "of a batch window, for the compiled models to score them by columns: each " +
+                                "feature is gathered across the chunk into a primitive array, which the models " +
+                                "score in tight loops. Only the fields read by compiled models are gathered, as " +
+                                "described for 'model.compile', and the events with a missing, invalid or unknown " +
+                                "value of such a field are left to the generic evaluator. Smaller chunks are " +
+                                "scored event by event. Requires " +
+                                "'model.compile', and does not apply to models with a prediction cache. Defaults " +
+                                "to 16, and 0 disables scoring by columns.\n" +
+                                "'model.warmup': Number of evaluations run when the query starts, on synthetic " +
+                                "inputs generated from the valid values, intervals and statistics of the input " +
+                                "fields, so that the scoring code is compiled by the JVM before the first events " +
+                                "arrive. The synthetic inputs do not reach the prediction caches or the metrics, " +
+                                "and the time taken is reported as the warm-up time. Defaults to 0, which skips " +
+                                "the warm-up.\n" +
+                                "'model.snapshot': When true, the model built from the pmml file is written to a " +
+                                "binary snapshot next to the file, named after the file with a '.snapshot' " +
+                                "suffix, and later starts load the snapshot instead of parsing the pmml file, as " +
+                                "long as the pmml file has not changed. Defaults to false.\n" +
+                                "'segments.parallel': When true, the segments of large compiled tree ensembles " +
+                                "are scored in parallel on a pool of threads of the query, which lowers the " +
+                                "latency of each event at the cost of throughput. Requires 'model.compile'. " +
+                                "Defaults to false.\n" +
+                                "'segments.parallel.threshold': Minimum number of segments of an ensemble for " +
+                                "them to be scored in parallel, as smaller ensembles are faster scored in order. " +
+                                "Defaults to 64.\n" +
+                                "'segments.parallel.threads': Number of threads of the pool scoring segments in " +
+                                "parallel. Defaults to the number of available processors.\n" +
+                                "'async': When true, events are scored on a pool of worker threads instead of the " +
+                                "Siddhi event thread, and emitted in their input order. Defaults to false.\n" +
+                                "'async.workers': Number of worker threads scoring events asynchronously. " +
+                                "Defaults to the number of available processors.\n" +
+                                "'async.queue.depth': Maximum number of event chunks waiting to be scored or " +
+                                "emitted asynchronously. Defaults to 64.\n" +
+                                "'async.overflow': Handling of the events arriving while the queue is full: " +
+                                "'block' waits for the queue, 'drop' discards the events, and 'null' emits " +
+                                "them without predictions. Defaults to block.\n" +
+                                "'cache.size': Maximum number of predictions cached by their input values, so " +
+                                "that events repeating the input values of a recent event skip the evaluation. " +
+                                "The cache is cleared when the model is reloaded. Defaults to 0, which disables " +
+                                "the cache.\n" +
+                                "'cache.ttl': Time in milliseconds after which a cached prediction expires. " +
+                                "Defaults to 0, in which case predictions only leave the cache when it is full.\n" +
+                                "'input.cache.size': Maximum number of distinct values of each categorical or " +
+                                "ordinal input field whose prepared argument is kept, so that a recurring " +
+                                "category is validated against the data dictionary once rather than for every " +
+                                "event. Values beyond the limit are prepared on each event. Defaults to 1024, and " +
+                                "0 disables the cache.\n" +
+                                "'input.lazy': When true, the input fields of the models evaluated by JPMML are " +
+                                "prepared when a predicate or expression first reads them rather than all " +
+                                "before the evaluation, and kept for the other models of the event, so that a " +
+                                "tree prepares only the fields along its decision path. Invalid values of the " +
+                                "fields a model does not read are then not reported, and events are evaluated " +
+                                "as long as any input value is present. Defaults to false.\n" +
+                                "'route.key': Input attribute whose value selects the model scoring each event, " +
+                                "loaded from the file '<key>.pmml' of the route directory. The model of the first " +
+                                "parameter defines the output attributes, and scores the events whose key has no " +
+                                "model file. Routed models should read the same features as that model, and are " +
+                                "not watched for changes.\n" +
+                                "'route.directory': Directory of the pmml files of the routing keys.\n" +
+                                "'route.pool.size': Maximum number of routed models kept in memory, beyond which " +
+                                "the least recently used models are released. Defaults to 100.\n" +
+                                "'route.pool.memory': Maximum size in megabytes of the pmml files of the routed " +
+                                "models kept in memory, together with their compiled trees stored off-heap. " +
+                                "Defaults to 0, which only bounds the number of models.\n" +
+                                "'route.loaders': Number of threads loading the routed models in the background, " +
+                                "so that loading the model of a key does not stall the other keys. Defaults to 2.\n" +
+                                "'route.retry': Time in milliseconds after which the model of a key that failed " +
+                                "to load is loaded again, doubling with each further failure up to 64 times this " +
+                                "time. Until then the events of the key are emitted without predictions. " +
+                                "Defaults to 10000.\n" +
+                                "'route.miss': Handling of the events whose model is still loading: 'null' emits " +
+                                "them without predictions, and 'wait' waits for the model, which stalls the " +
+                                "processing of every event of the query while the model of a new key loads. " +
+                                "Defaults to null.\n",
+                        type = {DataType.STRING},
+                        optional = true,
+                        defaultValue = "No options"
+                ),
                 @Parameter(
                         name = "input",
                         description = "An attribute of the input stream that is sent to the PMML standard model " +
@@ -87,7 +231,9 @@ import java.util.Map;
                 @ReturnAttribute(
                         name = "output",
                         description = "All the processed outputs defined in the query. The number of outputs can " +
-                                "vary depending on the query definition.",
+                                "vary depending on the query definition. The outputs of the additional models are " +
+                                "prefixed with their file names, and are null for the events such a model could " +
+                                "not score.",
                         type = {DataType.STRING, DataType.INT, DataType.DOUBLE, DataType.FLOAT, DataType.BOOL}
                 )
         },
@@ -102,6 +248,28 @@ import java.util.Map;
                                 "to detect whether a particular user is an intruder to the network or not. The " +
                                 "output stream contains the processed query results that include the predicted " +
                                 "responses."
+                ),
+                @Example(
+                        syntax = "predict('<SP HOME>/samples/artifacts/0301/decision-tree.pmml', 'model.watch=true', " +
+                                "'model.watch.interval=10000')",
+                        description = "This query maps all the attributes of the input stream to the model " +
+                                "features, and reloads the model within 10 seconds of the pmml file being updated."
+                ),
+                @Example(
+                        syntax = "predict('<SP HOME>/samples/artifacts/0301/champion.pmml', " +
+                                "'<SP HOME>/samples/artifacts/0301/challenger.pmml')",
+                        description = "This query scores each event with both the champion and the challenger " +
+                                "models, emitting the outputs of the champion model followed by the outputs of the " +
+                                "challenger model, prefixed with 'challenger_'."
+                ),
+                @Example(
+                        syntax = "predict('<SP HOME>/samples/artifacts/0301/decision-tree.pmml', " +
+                                "'route.key=tenant', 'route.directory=<SP HOME>/samples/artifacts/0301/tenants', " +
+                                "'route.pool.size=20')",
+                        description = "This query scores the events of each tenant with the model of the file " +
+                                "named after the tenant in the tenants directory, keeping at most 20 tenant models " +
+                                "in memory, and scores the events of the tenants without a model file with the " +
+                                "decision tree model."
                 )
         }
 )
@@ -109,18 +277,62 @@ public class PmmlModelProcessor extends StreamProcessor {
 
     private static final Logger logger = Logger.getLogger(PmmlModelProcessor.class);
 
+    // Characters of a pmml file name which are not valid in an output attribute name prefix
+    private static final Pattern INVALID_PREFIX_PATTERN = Pattern.compile("[^A-Za-z0-9_]");
+    // Routing keys naming a pmml file of the route directory, which excludes path separators and relative paths
+    private static final Pattern ROUTE_KEY_PATTERN = Pattern.compile("[A-Za-z0-9_\\-][A-Za-z0-9_.\\-]*");
+    private static final String PMML_FILE_EXTENSION = ".pmml";
+    private static final String STATE_MODEL_CHECKSUMS = "modelChecksums";
+    private static final String STATE_MODEL_VERSION = "modelVersion";
+    private static final String STATE_PREDICTION_CACHES = "predictionCaches";
+    private static final String STATE_ROUTE_KEYS = "routeKeys";
+    private static final String STATE_METRICS = "metrics";
+    private static final String STATE_LAST_BATCH_SIZE = "lastBatchSize";
+    private static final String STATE_BATCH_COUNT = "batchCount";
+    private static final String STATE_SCORED_EVENT_COUNT = "scoredEventCount";
+
     private String pmmlDefinition;
+    // Definitions of the scored models, starting with the definition given as the first parameter
+    private String[] pmmlDefinitions;
+    // Output attribute name prefix of each model, which is empty for the first model
+    private String[] outputPrefixes;
     private boolean attributeSelectionAvailable;
-    // <feature-name, [event-array-type][attribute-index]> pairs
-    private Map<InputField, int[]> attributeIndexMap;
+    private PredictOptions options;
+
+    // Output fields selected for each pmml definition, or null entries when all the outputs are emitted
+    private List<Set<FieldName>> outputSelections;
+    // Output fields of each pmml definition
+    private List<Map<FieldName, org.dmg.pmml.DataType>> outputFields = new ArrayList<>();
+    // Position of the first output attribute of each model, followed by the number of output attributes
+    private int[] outputOffsets;
+    private ChunkScorer scorer;
+
+    // Models acquired at init, which get bound to the input stream when the processor starts
+    private ModelCache.CachedModel[] initialModels;
+    // Models currently used for scoring, all sharing the same input columns, replaced atomically when reloaded
+    private volatile ModelBinding[] modelBindings;
+    private final Object modelLock = new Object();
+    private volatile int modelVersion;
+    // State restored before the processor started, applied once the models are bound
+    private Map<String, Object> pendingState;
+    private ThreadLocal<BatchContext> batchContext;
 
-    // All the input fields defined in the pmml definition
-    private List<InputField> inputFields;
-    // Output fields of the pmml definition
-    private Map<FieldName, org.dmg.pmml.DataType> outputFields = new LinkedHashMap<>();
+    private ScheduledFuture<?> watchFuture;
+    private long[] watchedLastModified;
+    private long[] watchedLength;
+    private AsyncScoringStage asyncStage;
+    // Pool scoring the segments of large compiled ensembles in parallel, or null when segments are scored in order
+    private ForkJoinPool segmentPool;
 
+    private FieldName[] inputFieldNames;
+    private volatile ModelPool modelPool;
 
-    private Evaluator evaluator;
+    // Prediction metrics, only created when statistics are enabled for the Siddhi app
+    private PredictionMetrics metrics;
+
+    private volatile int lastBatchSize;
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong scoredEventCount = new AtomicLong();
 
     @Override
     protected List<Attribute> init(AbstractDefinition abstractDefinition,
@@ -128,8 +340,6 @@ public class PmmlModelProcessor extends StreamProcessor {
                                    ConfigReader configReader, SiddhiAppContext siddhiAppContext) {
         if (attributeExpressionExecutors.length == 0) {
             throw new SiddhiAppValidationException("PMML model definition not available.");
-        } else {
-            attributeSelectionAvailable = attributeExpressionExecutors.length != 1;
         }
 
         // Check whether the first parameter in the expression is the pmml definition
@@ -140,101 +350,595 @@ public class PmmlModelProcessor extends StreamProcessor {
             throw new SiddhiAppValidationException("PMML model definition has not been set as the first parameter");
         }
 
-        // Unmarshal the definition and get an executable pmml model
-        PMML pmml = PMMLUtil.unmarshal(pmmlDefinition);
-        ModelEvaluatorFactory modelEvaluatorFactory = ModelEvaluatorFactory.newInstance();
-        ModelEvaluator<?> modelEvaluator = modelEvaluatorFactory.newModelEvaluator(pmml);
-        evaluator = (Evaluator) modelEvaluator;
+        // The remaining parameters are the definitions of additional models, followed by 'key=value' options,
+        // or the attributes sent to the models
+        List<String> definitions = new ArrayList<>();
+        definitions.add(pmmlDefinition);
+        options = new PredictOptions(configReader);
+        boolean optionsGiven = false;
+        for (int i = 1; i < attributeExpressionExecutors.length; i++) {
+            ExpressionExecutor expressionExecutor = attributeExpressionExecutors[i];
+            if (expressionExecutor instanceof VariableExpressionExecutor) {
+                attributeSelectionAvailable = true;
+            } else if (expressionExecutor instanceof ConstantExpressionExecutor &&
+                    expressionExecutor.getReturnType() == Attribute.Type.STRING) {
+                String parameter = (String) ((ConstantExpressionExecutor) expressionExecutor).getValue();
+                if (optionsGiven || PredictOptions.isOption(parameter)) {
+                    options.parse(parameter);
+                    optionsGiven = true;
+                } else {
+                    definitions.add(parameter);
+                }
+            }
+        }
+        pmmlDefinitions = definitions.toArray(new String[definitions.size()]);
+        outputPrefixes = getOutputPrefixes(pmmlDefinitions);
+        options.validate(pmmlDefinitions, inputDefinition.getAttributeNameArray());
+        outputSelections = selectOutputs(options.getOutputs());
+        int routeKeyPosition = options.getRouteKey() == null ? -1 :
+                inputDefinition.getAttributePosition(options.getRouteKey());
+
+        // Get executable pmml models of the definitions, shared with the other queries using the same models
+        initialModels = acquireModels();
+        outputOffsets = new int[pmmlDefinitions.length + 1];
+        for (int i = 0; i < initialModels.length; i++) {
+            Set<FieldName> selection = outputSelections.get(i);
+            outputFields.add(resolveOutputFields(initialModels[i].getEvaluator(), selection));
+            if (selection != null && outputFields.get(i).size() < selection.size()) {
+                for (FieldName outputName : selection) {
+                    if (!outputFields.get(i).containsKey(outputName)) {
+                        releaseModels(initialModels);
+                        initialModels = null;
+                        throw new SiddhiAppValidationException("Output '" + outputPrefixes[i] +
+                                outputName.getValue() + "' of option '" + PredictOptions.OUTPUTS + "' is not an " +
+                                "output field of the pmml model " + pmmlDefinitions[i] + ".");
+                    }
+                }
+            }
+            outputOffsets[i + 1] = outputOffsets[i] + outputFields.get(i).size();
+        }
+        scorer = new ChunkScorer(outputFields, outputOffsets, options, routeKeyPosition);
+        if (siddhiAppContext.isStatsEnabled()) {
+            metrics = PredictionMetrics.create(siddhiAppContext, elementId);
+        }
+
+        return generateOutputAttributes();
+    }
+
+    /**
+     * Name the output attribute prefixes of the models after their pmml files: the outputs of the first model are
+     * not prefixed, and those of an additional model are prefixed with its file name without the extension, where
+     * characters other than letters, digits and underscores are replaced with underscores. Additional models given
+     * by their content are named 'model<n>' after their position.
+     *
+     * @param definitions pmml definitions of the models
+     * @return output attribute name prefix of each model
+     */
+    private static String[] getOutputPrefixes(String[] definitions) {
+        String[] prefixes = new String[definitions.length];
+        prefixes[0] = "";
+        for (int i = 1; i < definitions.length; i++) {
+            File pmmlFile = new File(definitions[i]);
+            String name = "model" + (i + 1);
+            if (pmmlFile.isFile()) {
+                name = pmmlFile.getName();
+                if (name.toLowerCase(Locale.ENGLISH).endsWith(PMML_FILE_EXTENSION)) {
+                    name = name.substring(0, name.length() - PMML_FILE_EXTENSION.length());
+                }
+                name = INVALID_PREFIX_PATTERN.matcher(name).replaceAll("_");
+                if (name.isEmpty() || Character.isDigit(name.charAt(0))) {
+                    name = "_" + name;
+                }
+            }
+            prefixes[i] = name + "_";
+            for (int j = 1; j < i; j++) {
+                if (prefixes[j].equals(prefixes[i])) {
+                    throw new SiddhiAppValidationException("PMML models " + definitions[j] + " and " +
+                            definitions[i] + " emit their outputs with the same prefix '" + prefixes[i] + "', " +
+                            "hence their files should be named differently.");
+                }
+            }
+        }
+        return prefixes;
+    }
+
+    /**
+     * Acquire the models of all the pmml definitions from the model cache, releasing them when any fails to load.
+     *
+     * @return cached models in definition order
+     */
+    private ModelCache.CachedModel[] acquireModels() {
+        ModelCache.CachedModel[] models = new ModelCache.CachedModel[pmmlDefinitions.length];
+        try {
+            for (int i = 0; i < models.length; i++) {
+                models[i] = ModelCache.getInstance().acquire(pmmlDefinitions[i], options.isSnapshotEnabled(),
+                        outputSelections.get(i));
+            }
+        } catch (RuntimeException e) {
+            releaseModels(models);
+            throw e;
+        }
+        return models;
+    }
+
+    private static void releaseModels(ModelCache.CachedModel[] models) {
+        for (ModelCache.CachedModel model : models) {
+            if (model != null) {
+                ModelCache.getInstance().release(model);
+            }
+        }
+    }
+
+    private static void releaseModels(ModelBinding[] bindings) {
+        for (ModelBinding binding : bindings) {
+            ModelCache.getInstance().release(binding.getModel());
+        }
+    }
+
+    /**
+     * Assign the output attributes selected by the query to the models emitting them, by the prefix of their name.
+     *
+     * @param outputs comma separated names of the selected output attributes, or null when all are emitted
+     * @return selected output field names of each model, or null entries when all the outputs are emitted
+     */
+    private List<Set<FieldName>> selectOutputs(String outputs) {
+        List<Set<FieldName>> selections = new ArrayList<>();
+        for (int i = 0; i < pmmlDefinitions.length; i++) {
+            selections.add(outputs == null ? null : new LinkedHashSet<>());
+        }
+        if (outputs == null) {
+            return selections;
+        }
+        for (String output : outputs.split(",")) {
+            String name = output.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            // The longest matching model prefix wins, and names without one belong to the first model
+            int modelIndex = 0;
+            for (int i = 1; i < outputPrefixes.length; i++) {
+                if (name.length() > outputPrefixes[i].length() && name.startsWith(outputPrefixes[i]) &&
+                        outputPrefixes[i].length() > outputPrefixes[modelIndex].length()) {
+                    modelIndex = i;
+                }
+            }
+            selections.get(modelIndex).add(FieldName.create(name.substring(outputPrefixes[modelIndex].length())));
+        }
+        for (int i = 0; i < pmmlDefinitions.length; i++) {
+            if (selections.get(i).isEmpty()) {
+                throw new SiddhiAppValidationException("Option '" + PredictOptions.OUTPUTS + "' selects no output " +
+                        "of the pmml model " + pmmlDefinitions[i] + ".");
+            }
+        }
+        return selections;
+    }
 
-        inputFields = evaluator.getActiveFields();
+    /**
+     * Resolve the fields emitted by the model: its output fields, or its target fields when none are defined,
+     * restricted to the selected fields.
+     *
+     * @param evaluator evaluator of the model
+     * @param selection selected output field names, or null to emit all the fields
+     * @return output field name and data type pairs
+     */
+    private static Map<FieldName, org.dmg.pmml.DataType> resolveOutputFields(Evaluator evaluator,
+                                                                              Set<FieldName> selection) {
+        Map<FieldName, org.dmg.pmml.DataType> outputFields = new LinkedHashMap<>();
         if (evaluator.getOutputFields().size() == 0) {
             List<TargetField> targetFields = evaluator.getTargetFields();
             for (TargetField targetField : targetFields) {
                 outputFields.put(targetField.getName(), targetField.getDataType());
             }
         } else {
-            List<OutputField> outputFields = evaluator.getOutputFields();
-            for (OutputField outputField : outputFields) {
-                this.outputFields.put(outputField.getName(), outputField.getDataType());
+            List<OutputField> modelOutputFields = evaluator.getOutputFields();
+            for (OutputField outputField : modelOutputFields) {
+                outputFields.put(outputField.getName(), outputField.getDataType());
             }
         }
-
-        return generateOutputAttributes();
+        if (selection != null) {
+            outputFields.keySet().retainAll(selection);
+        }
+        return outputFields;
     }
 
     @Override
     protected void process(ComplexEventChunk<StreamEvent> streamEventChunk, Processor nextProcessor,
                            StreamEventCloner streamEventCloner, ComplexEventPopulater complexEventPopulater) {
+        AsyncScoringStage stage = asyncStage;
+        if (stage != null) {
+            stage.submit(streamEventChunk);
+            return;
+        }
+        scoreChunk(streamEventChunk, complexEventPopulater);
+        if (streamEventChunk.getFirst() != null) {
+            nextProcessor.process(streamEventChunk);
+        }
+    }
 
-        StreamEvent event = streamEventChunk.getFirst();
-        Map<FieldName, FieldValue> inData = new HashMap<>();
-
-        for (Map.Entry<InputField, int[]> entry : attributeIndexMap.entrySet()) {
-            InputField inputField = entry.getKey();
-            int[] attributeIndexArray = entry.getValue();
-            Object dataValue = null;
-            switch (attributeIndexArray[2]) {
-                case 0:
-                    dataValue = event.getBeforeWindowData()[attributeIndexArray[3]];
-                    break;
-                case 2:
-                    dataValue = event.getOutputData()[attributeIndexArray[3]];
-                    break;
-                default:
-                    break;
-            }
-            try {
-                inData.put(inputField.getName(), inputField.prepare(String.valueOf(dataValue)));
-            } catch (InvalidResultException e) {
-                logger.error(String.format("Incompatible value for field: %s. Prediction might be erroneous.",
-                        inputField.getName()));
+    /**
+     * Score the events of a chunk and populate their predictions, removing the events that could not be scored.
+     *
+     * @param streamEventChunk      event chunk
+     * @param complexEventPopulater populater of the predictions
+     */
+    private void scoreChunk(ComplexEventChunk<StreamEvent> streamEventChunk,
+                            ComplexEventPopulater complexEventPopulater) {
+        recordBatch(scorer.score(streamEventChunk, modelBindings, modelPool, batchContext.get(), metrics,
+                complexEventPopulater));
+    }
+
+    private void recordBatch(int batchSize) {
+        if (batchSize > 0) {
+            lastBatchSize = batchSize;
+            batchCount.incrementAndGet();
+            scoredEventCount.addAndGet(batchSize);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Scored a batch of " + batchSize + " events using " + pmmlDefinition);
             }
         }
+    }
 
-        if (!inData.isEmpty()) {
-            try {
-                Map<FieldName, ?> result = evaluator.evaluate(inData);
-                Object[] output = new Object[outputFields.size()];
-                int i = 0;
-                for (FieldName fieldName : outputFields.keySet()) {
-                    if (result.containsKey(fieldName)) {
-                        Object value = result.get(fieldName);
-                        output[i] = EvaluatorUtil.decode(value);
-                        i++;
-                    }
+    /**
+     * Number of events scored from the most recent chunk.
+     *
+     * @return last batch size
+     */
+    public int getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    /**
+     * Average number of events scored per chunk since the processor started.
+     *
+     * @return average batch size
+     */
+    public double getAverageBatchSize() {
+        long batches = batchCount.get();
+        return batches == 0 ? 0 : (double) scoredEventCount.get() / batches;
+    }
+
+    /**
+     * Share of the predictions found in the prediction caches since the models were last loaded.
+     *
+     * @return hit ratio between 0 and 1, which is 0 when nothing was looked up or the cache is disabled
+     */
+    public double getCacheHitRatio() {
+        ModelBinding[] bindings = modelBindings;
+        long hitCount = 0;
+        long requestCount = 0;
+        if (bindings != null) {
+            for (ModelBinding binding : bindings) {
+                PredictionCache cache = binding.getPredictionCache();
+                if (cache != null) {
+                    hitCount += cache.getHitCount();
+                    requestCount += cache.getRequestCount();
                 }
-                complexEventPopulater.populateComplexEvent(event, output);
-                nextProcessor.process(streamEventChunk);
-            } catch (Exception e) {
-                logger.error("Error while predicting", e);
-                throw new SiddhiAppRuntimeException("Error while predicting", e);
             }
         }
+        return requestCount == 0 ? 0 : (double) hitCount / requestCount;
+    }
+
+    /**
+     * Number of routed models held in the model pool, including the models being loaded.
+     *
+     * @return resident routed model count, which is 0 when events are not routed
+     */
+    public int getRoutedModelCount() {
+        ModelPool pool = modelPool;
+        return pool == null ? 0 : pool.getResidentCount();
+    }
+
+    /**
+     * Number of routed models evicted from the model pool since the processor started.
+     *
+     * @return routed model eviction count
+     */
+    public long getRoutedModelEvictionCount() {
+        ModelPool pool = modelPool;
+        return pool == null ? 0 : pool.getEvictionCount();
+    }
+
+    /**
+     * Model version, incremented whenever a changed model is reloaded.
+     *
+     * @return model version
+     */
+    public int getModelVersion() {
+        return modelVersion;
     }
 
     @Override
     public void start() {
+        synchronized (modelLock) {
+            ModelCache.CachedModel[] models = initialModels;
+            initialModels = null;
+            if (models == null) {
+                // The models were released when the processor stopped
+                models = acquireModels();
+            }
+            if (options.getParallelThreshold() > 0) {
+                segmentPool = createSegmentPool(options.getParallelThreads(),
+                        "pmml-segments-" + siddhiAppContext.getName() + "-" + elementId);
+            }
+            try {
+                modelBindings = bindModels(pmmlDefinitions, models);
+            } catch (RuntimeException e) {
+                releaseModels(models);
+                throw e;
+            }
+            if (metrics != null) {
+                metrics.setModelLoadTime(getLoadTime(models));
+                metrics.register();
+            }
+            ModelBinding binding = modelBindings[0];
+            final FieldName[] fieldNames = new FieldName[binding.getInputCount()];
+            for (int i = 0; i < fieldNames.length; i++) {
+                fieldNames[i] = binding.getInputConverter(i).getInputField().getName();
+            }
+            batchContext = new ThreadLocal<BatchContext>() {
+                @Override
+                protected BatchContext initialValue() {
+                    return new BatchContext(fieldNames);
+                }
+            };
+            if (options.getWarmUpCount() > 0) {
+                warmUp(modelBindings, fieldNames);
+            }
+            if (options.getRouteKey() != null) {
+                inputFieldNames = fieldNames;
+                modelPool = new ModelPool(new RoutedModelLoader(), options.getRoutePoolSize(),
+                        options.getRoutePoolMemory() * 1024 * 1024, options.getRouteRetry(), options.getRouteLoaders(),
+                        "pmml-route-" + siddhiAppContext.getName() + "-" + elementId, Ticker.systemTicker());
+            }
+            if (options.isAsyncEnabled()) {
+                asyncStage = new AsyncScoringStage(new AsyncChunkHandler(), options.getAsyncWorkers(),
+                        options.getAsyncQueueDepth(), options.getAsyncOverflowPolicy(),
+                        "pmml-predict-" + siddhiAppContext.getName() + "-" + elementId);
+            }
+            if (options.isWatchEnabled()) {
+                watchedLastModified = new long[pmmlDefinitions.length];
+                watchedLength = new long[pmmlDefinitions.length];
+                for (int i = 0; i < pmmlDefinitions.length; i++) {
+                    File pmmlFile = new File(pmmlDefinitions[i]);
+                    watchedLastModified[i] = pmmlFile.lastModified();
+                    watchedLength[i] = pmmlFile.length();
+                }
+                watchFuture = siddhiAppContext.getScheduledExecutorService().scheduleWithFixedDelay(
+                        this::checkForModelUpdate, options.getWatchInterval(), options.getWatchInterval(),
+                        TimeUnit.MILLISECONDS);
+            }
+            if (pendingState != null) {
+                applyState(pendingState);
+                pendingState = null;
+            }
+        }
+    }
+
+    /**
+     * Create the pool scoring the segments of the compiled ensembles of the query in parallel, whose threads are
+     * named after the query.
+     *
+     * @param parallelism      number of threads
+     * @param threadNamePrefix prefix of the thread names
+     * @return fork join pool
+     */
+    private static ForkJoinPool createSegmentPool(int parallelism, String threadNamePrefix) {
+        return new ForkJoinPool(parallelism, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName(threadNamePrefix + "-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+    }
+
+    /**
+     * Run the configured number of evaluations on synthetic inputs, so that the scoring code is compiled by the JVM.
+     * The models are used without their prediction caches and the metrics are left untouched. A failure of the
+     * warm-up is not fatal, since the events would be scored the same way.
+     *
+     * @param bindings   model bindings, sharing the same input columns
+     * @param fieldNames names of the input fields
+     */
+    private void warmUp(ModelBinding[] bindings, FieldName[] fieldNames) {
+        ModelBinding[] warmUpBindings = new ModelBinding[bindings.length];
+        for (int i = 0; i < bindings.length; i++) {
+            warmUpBindings[i] = bindings[i].withPredictionCache(null);
+        }
+        long startTime = System.nanoTime();
         try {
-            populateFeatureAttributeMapping();
+            scorer.warmUp(warmUpBindings, new SyntheticInputs(warmUpBindings), new BatchContext(fieldNames),
+                    options.getWarmUpCount());
         } catch (Exception e) {
-            logger.error("Error while mapping attributes with pmml model features : " + pmmlDefinition, e);
+            logger.warn("Error while warming up the pmml models " + String.join(", ", pmmlDefinitions) +
+                    ", continuing without warm-up", e);
+            return;
+        }
+        long warmUpTime = System.nanoTime() - startTime;
+        if (metrics != null) {
+            metrics.setWarmUpTime(warmUpTime);
+        }
+        logger.info("Warmed up the pmml models " + String.join(", ", pmmlDefinitions) + " with " +
+                options.getWarmUpCount() + " evaluations in " + TimeUnit.NANOSECONDS.toMillis(warmUpTime) + " ms");
+    }
+
+    /**
+     * Total time taken to load the given models, in nanoseconds.
+     */
+    private static long getLoadTime(ModelCache.CachedModel[] models) {
+        long loadTime = 0;
+        for (ModelCache.CachedModel model : models) {
+            loadTime += model.getLoadTime();
+        }
+        return loadTime;
+    }
+
+    /**
+     * Bind the given models to the input stream, validating that they fit the query.
+     *
+     * @param definitions pmml definitions of the models, in the order of the output attributes
+     * @param models      cached models in definition order
+     * @return model bindings, sharing the same input columns
+     */
+    private ModelBinding[] bindModels(String[] definitions, ModelCache.CachedModel[] models) {
+        for (int i = 0; i < models.length; i++) {
+            if (!outputFields.get(i).equals(resolveOutputFields(models[i].getEvaluator(),
+                    outputSelections.get(i)))) {
+                throw new SiddhiAppCreationException("Output fields of the pmml model do not match the output " +
+                        "attributes of the query : " + definitions[i]);
+            }
+        }
+        try {
+            ModelBinding[] bindings = populateFeatureAttributeMapping(definitions, models);
+            for (int i = 0; i < bindings.length; i++) {
+                if (options.isCompileEnabled()) {
+                    bindings[i] = compileModel(bindings[i], definitions[i], i);
+                }
+                if (options.getCacheSize() > 0) {
+                    bindings[i] = bindings[i].withPredictionCache(new PredictionCache(options.getCacheSize(),
+                            options.getCacheTtl()));
+                }
+            }
+            return bindings;
+        } catch (SiddhiAppCreationException e) {
+            throw e;
+        } catch (Exception e) {
+            String names = String.join(", ", definitions);
+            logger.error("Error while mapping attributes with pmml model features : " + names, e);
             throw new SiddhiAppCreationException("Error while mapping attributes with pmml model features : " +
-                    pmmlDefinition + "\n" + e.getMessage());
+                    names + "\n" + e.getMessage());
+        }
+    }
+
+    /**
+     * Compile the model of the given binding, so that it is scored without the generic evaluator.
+     *
+     * @param binding    model binding
+     * @param definition pmml definition of the model
+     * @param modelIndex index of the output fields of the model
+     * @return binding scoring through the compiled model, or the given binding when the model cannot be compiled
+     */
+    private ModelBinding compileModel(ModelBinding binding, String definition, int modelIndex) {
+        CompiledModel compiledModel = ModelCompiler.compile(binding.getEvaluator(),
+                new ArrayList<>(outputFields.get(modelIndex).keySet()),
+                new CompileOptions(options.getParallelThreshold(), segmentPool, options.isCodegenEnabled(),
+                        options.isOffHeapEnabled()));
+        if (compiledModel == null) {
+            logger.info("PMML model " + definition + " cannot be compiled, hence it is evaluated by JPMML.");
+            return binding;
         }
+        FieldName[] features = compiledModel.getFeatures();
+        int[] compiledInputs = new int[features.length];
+        for (int i = 0; i < features.length; i++) {
+            compiledInputs[i] = -1;
+            for (int j = 0; j < binding.getInputCount(); j++) {
+                if (binding.getInputConverter(j).getInputField().getName().equals(features[i])) {
+                    compiledInputs[i] = j;
+                }
+            }
+            if (compiledInputs[i] < 0) {
+                logger.info("PMML model " + definition + " is evaluated by JPMML, as the feature " +
+                        features[i] + " is not mapped to an attribute.");
+                return binding;
+            }
+        }
+        if (compiledModel.getOffHeapSize() > 0 &&
+                ModelCache.getInstance().releaseEvaluator(binding.getModel(), definition)) {
+            logger.info("PMML model " + definition + " keeps its compiled trees off-heap, hence its parsed model " +
+                    "is dropped until JPMML evaluates an event.");
+        }
+        return binding.withCompiledModel(compiledModel, compiledInputs);
     }
 
     /**
-     * Match the attribute index values of stream with feature names of the model.
+     * Reload the pmml models if any of the watched files has changed. The new models are parsed and validated on
+     * the calling background thread and swapped in atomically, while the old models keep serving when it fails.
+     */
+    private void checkForModelUpdate() {
+        try {
+            boolean modified = false;
+            for (int i = 0; i < pmmlDefinitions.length; i++) {
+                File pmmlFile = new File(pmmlDefinitions[i]);
+                long lastModified = pmmlFile.lastModified();
+                long length = pmmlFile.length();
+                if (lastModified != watchedLastModified[i] || length != watchedLength[i]) {
+                    watchedLastModified[i] = lastModified;
+                    watchedLength[i] = length;
+                    modified = true;
+                }
+            }
+            ModelBinding[] currentBindings = modelBindings;
+            if (!modified || currentBindings == null) {
+                return;
+            }
+            boolean changed = false;
+            for (int i = 0; i < pmmlDefinitions.length; i++) {
+                if (!PMMLUtil.checksum(pmmlDefinitions[i]).equals(currentBindings[i].getModel().getChecksum())) {
+                    changed = true;
+                }
+            }
+            if (!changed) {
+                return;
+            }
+
+            // Unchanged models are shared with the current bindings through the model cache
+            ModelCache.CachedModel[] models = acquireModels();
+            ModelBinding[] bindings;
+            try {
+                bindings = bindModels(pmmlDefinitions, models);
+            } catch (RuntimeException e) {
+                releaseModels(models);
+                logger.error("Updated pmml model does not fit the query, hence continuing with the current " +
+                        "model : " + String.join(", ", pmmlDefinitions), e);
+                return;
+            }
+            ModelBinding[] previousBindings;
+            synchronized (modelLock) {
+                previousBindings = modelBindings;
+                if (previousBindings == null) {
+                    // The processor has stopped meanwhile
+                    releaseModels(models);
+                    return;
+                }
+                modelBindings = bindings;
+                modelVersion++;
+            }
+            if (metrics != null) {
+                metrics.setModelLoadTime(getLoadTime(models));
+            }
+            releaseModels(previousBindings);
+            logger.info("Reloaded pmml model " + String.join(", ", pmmlDefinitions) + " as version " +
+                    modelVersion + ".");
+        } catch (Throwable e) {
+            logger.error("Error while reloading the pmml model, hence continuing with the current model : " +
+                    String.join(", ", pmmlDefinitions), e);
+        }
+    }
+
+    /**
+     * Match the attribute index values of stream with feature names of the models. A feature read by several
+     * models is prepared once for all of them, hence it has to be declared alike by each of them.
      *
+     * @param definitions pmml definitions of the models
+     * @param models      cached models in definition order
+     * @return model bindings, sharing the same input columns
      * @throws Exception ExceutionPlanCreationException
      */
-    private void populateFeatureAttributeMapping() throws Exception {
+    private ModelBinding[] populateFeatureAttributeMapping(String[] definitions, ModelCache.CachedModel[] models)
+            throws Exception {
 
-        attributeIndexMap = new HashMap<>();
+        // <feature-name, [event-array-type][attribute-index]> pairs
+        Map<InputField, int[]> attributeIndexMap = new LinkedHashMap<>();
+        List<InputFieldConverter> converters = new ArrayList<>();
         HashMap<String, InputField> features = new HashMap<>();
 
-        for (InputField inputField : inputFields) {
-            features.put(inputField.getName().getValue(), inputField);
+        for (int i = 0; i < models.length; i++) {
+            for (InputField inputField : models[i].getEvaluator().getActiveFields()) {
+                InputField sharedField = features.putIfAbsent(inputField.getName().getValue(), inputField);
+                if (sharedField != null && !InputFieldConverter.preparesAlike(sharedField, inputField)) {
+                    throw new SiddhiAppCreationException("Feature " + inputField.getName() + " of the pmml " +
+                            "model " + definitions[i] + " is not declared alike by the other models of the " +
+                            "query, hence the models should be scored by separate queries.");
+                }
+            }
         }
 
         if (attributeSelectionAvailable) {
@@ -242,8 +946,12 @@ public class PmmlModelProcessor extends StreamProcessor {
                 if (expressionExecutor instanceof VariableExpressionExecutor) {
                     VariableExpressionExecutor variable = (VariableExpressionExecutor) expressionExecutor;
                     String variableName = variable.getAttribute().getName();
-                    if (features.get(variableName) != null) {
-                        attributeIndexMap.put(features.get(variableName), variable.getPosition());
+                    InputField inputField = features.get(variableName);
+                    if (inputField != null) {
+                        if (attributeIndexMap.put(inputField, variable.getPosition()) == null) {
+                            converters.add(new InputFieldConverter(inputField, variable.getReturnType(),
+                                    options.getInputCacheSize()));
+                        }
                     } else {
                         throw new SiddhiAppCreationException("No matching feature name found in the model " +
                                 "for the attribute : " + variableName);
@@ -253,17 +961,35 @@ public class PmmlModelProcessor extends StreamProcessor {
         } else {
             String[] attributeNames = inputDefinition.getAttributeNameArray();
             for (String attributeName : attributeNames) {
-                if (features.get(attributeName) != null) {
+                InputField inputField = features.get(attributeName);
+                if (inputField == null && attributeName.equals(options.getRouteKey())) {
+                    // The routing key selects the model rather than being a feature of it
+                    continue;
+                }
+                if (inputField != null) {
                     int[] attributeIndexArray = new int[4];
                     attributeIndexArray[2] = 2; // get values from output data
                     attributeIndexArray[3] = inputDefinition.getAttributePosition(attributeName);
-                    attributeIndexMap.put(features.get(attributeName), attributeIndexArray);
+                    attributeIndexMap.put(inputField, attributeIndexArray);
+                    converters.add(new InputFieldConverter(inputField,
+                            inputDefinition.getAttributeType(attributeName), options.getInputCacheSize()));
                 } else {
                     throw new SiddhiAppCreationException("No matching feature name found in the model " +
                             "for the attribute : " + attributeName);
                 }
             }
         }
+
+        InputFieldConverter[] inputConverters = converters.toArray(new InputFieldConverter[converters.size()]);
+        int[][] attributePositions = new int[inputConverters.length][];
+        for (int i = 0; i < inputConverters.length; i++) {
+            attributePositions[i] = attributeIndexMap.get(inputConverters[i].getInputField());
+        }
+        ModelBinding[] bindings = new ModelBinding[models.length];
+        for (int i = 0; i < models.length; i++) {
+            bindings[i] = new ModelBinding(models[i], inputConverters, attributePositions);
+        }
+        return bindings;
     }
 
     /**
@@ -273,13 +999,16 @@ public class PmmlModelProcessor extends StreamProcessor {
      */
     private List<Attribute> generateOutputAttributes() {
         List<Attribute> outputAttributes = new ArrayList<>();
-        for (Map.Entry<FieldName, org.dmg.pmml.DataType> entry : outputFields.entrySet()) {
-            FieldName fieldName = entry.getKey();
-            org.dmg.pmml.DataType dataType = entry.getValue();
-            if (dataType == null) {
-                dataType = org.dmg.pmml.DataType.STRING;
+        for (int i = 0; i < outputFields.size(); i++) {
+            for (Map.Entry<FieldName, org.dmg.pmml.DataType> entry : outputFields.get(i).entrySet()) {
+                FieldName fieldName = entry.getKey();
+                org.dmg.pmml.DataType dataType = entry.getValue();
+                if (dataType == null) {
+                    dataType = org.dmg.pmml.DataType.STRING;
+                }
+                outputAttributes.add(new Attribute(outputPrefixes[i] + fieldName.getValue(),
+                        mapOutputAttributes(dataType)));
             }
-            outputAttributes.add(new Attribute(fieldName.getValue(), mapOutputAttributes(dataType)));
         }
         return outputAttributes;
     }
@@ -307,15 +1036,242 @@ public class PmmlModelProcessor extends StreamProcessor {
 
     @Override
     public void stop() {
+        AsyncScoringStage stage = asyncStage;
+        if (stage != null) {
+            // Let the pending events be scored before the model is released
+            asyncStage = null;
+            stage.shutdown();
+        }
+        ModelPool pool = modelPool;
+        if (pool != null) {
+            modelPool = null;
+            pool.shutdown();
+        }
+        synchronized (modelLock) {
+            if (initialModels != null) {
+                releaseModels(initialModels);
+                initialModels = null;
+            }
+            if (watchFuture != null) {
+                watchFuture.cancel(false);
+                watchFuture = null;
+            }
+            if (modelBindings != null) {
+                releaseModels(modelBindings);
+                modelBindings = null;
+            }
+            if (segmentPool != null) {
+                // Chunks still being scored by the released models complete before the pool terminates
+                segmentPool.shutdown();
+                segmentPool = null;
+            }
+            if (metrics != null) {
+                metrics.unregister();
+            }
+        }
+    }
+
+    /**
+     * Scores and emits the chunks of the asynchronous scoring stage.
+     */
+    private final class AsyncChunkHandler implements AsyncScoringStage.ChunkHandler {
+
+        @Override
+        public void score(ComplexEventChunk<StreamEvent> chunk) {
+            ModelBinding[] bindings = modelBindings;
+            if (bindings == null) {
+                // The processor has stopped meanwhile
+                chunk.clear();
+                return;
+            }
+            scoreChunk(chunk, complexEventPopulater);
+        }
+
+        @Override
+        public void skip(ComplexEventChunk<StreamEvent> chunk) {
+            chunk.reset();
+            while (chunk.hasNext()) {
+                StreamEvent event = chunk.next();
+                if (ChunkScorer.isScorable(event)) {
+                    complexEventPopulater.populateComplexEvent(event,
+                            new Object[outputOffsets[pmmlDefinitions.length]]);
+                }
+            }
+        }
+
+        @Override
+        public void emit(ComplexEventChunk<StreamEvent> chunk) {
+            nextProcessor.process(chunk);
+        }
+
+        @Override
+        public void overflowed(ComplexEventChunk<StreamEvent> chunk) {
+            PredictionMetrics metrics = PmmlModelProcessor.this.metrics;
+            if (metrics == null && !logger.isDebugEnabled()) {
+                return;
+            }
+            int events = 0;
+            chunk.reset();
+            while (chunk.hasNext()) {
+                if (ChunkScorer.isScorable(chunk.next())) {
+                    events++;
+                }
+            }
+            if (metrics != null) {
+                metrics.recordOverflow(events);
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Scoring queue of " + pmmlDefinition + " is full, hence " + events + " events " +
+                        "overflowed with policy " + options.getAsyncOverflowPolicy() + ".");
+            }
+        }
+    }
+
+    /**
+     * Loads the models of the routing keys from the route directory, bound to the input columns of the default model.
+     */
+    private final class RoutedModelLoader implements ModelPool.Loader {
+
+        @Override
+        public ModelBinding[] load(String key) {
+            File pmmlFile = new File(options.getRouteDirectory(), key + PMML_FILE_EXTENSION);
+            if (!ROUTE_KEY_PATTERN.matcher(key).matches() || !pmmlFile.isFile()) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("No pmml model found for routing key '" + key + "' in " + options.getRouteDirectory() +
+                            ", hence its events are scored by " + pmmlDefinition);
+                }
+                return new ModelBinding[0];
+            }
+            String definition = pmmlFile.getPath();
+            ModelCache.CachedModel[] models = {ModelCache.getInstance().acquire(definition, options.isSnapshotEnabled(),
+                    outputSelections.get(0))};
+            try {
+                ModelBinding[] bindings = bindModels(new String[]{definition}, models);
+                ModelBinding binding = bindings[0];
+                boolean fits = binding.getInputCount() == inputFieldNames.length;
+                for (int i = 0; fits && i < inputFieldNames.length; i++) {
+                    fits = binding.getInputConverter(i).getInputField().getName().equals(inputFieldNames[i]);
+                }
+                if (!fits) {
+                    throw new SiddhiAppCreationException("Input fields of the pmml model do not match the input " +
+                            "attributes of the query : " + definition);
+                }
+                return bindings;
+            } catch (RuntimeException e) {
+                releaseModels(models);
+                throw e;
+            }
+        }
+
+        @Override
+        public void release(ModelBinding[] bindings) {
+            releaseModels(bindings);
+        }
     }
 
+    /**
+     * Snapshot the state of the query: the checksums and version of the models, the cached predictions of each
+     * model, the routing keys of the loaded routed models and the statistics counters. Models are identified by
+     * their checksums rather than persisted, as they are loaded from their definitions again when restored.
+     *
+     * @return serializable state
+     */
     @Override
     public Map<String, Object> currentState() {
-        return new HashMap<>();
+        Map<String, Object> state = new HashMap<>();
+        synchronized (modelLock) {
+            ModelBinding[] bindings = modelBindings;
+            if (bindings == null) {
+                // Nothing was scored since the state was restored, if it was
+                return pendingState == null ? state : new HashMap<>(pendingState);
+            }
+            String[] checksums = new String[bindings.length];
+            ArrayList<List<Object[][]>> caches = new ArrayList<>();
+            for (int i = 0; i < bindings.length; i++) {
+                checksums[i] = bindings[i].getModel().getChecksum();
+                PredictionCache cache = bindings[i].getPredictionCache();
+                caches.add(cache == null ? null : cache.getEntries());
+            }
+            state.put(STATE_MODEL_CHECKSUMS, checksums);
+            state.put(STATE_MODEL_VERSION, modelVersion);
+            state.put(STATE_PREDICTION_CACHES, caches);
+        }
+        ModelPool pool = modelPool;
+        if (pool != null) {
+            state.put(STATE_ROUTE_KEYS, new ArrayList<>(pool.getLoadedKeys()));
+        }
+        if (metrics != null) {
+            state.put(STATE_METRICS, new HashMap<>(metrics.getCounters()));
+        }
+        state.put(STATE_LAST_BATCH_SIZE, lastBatchSize);
+        state.put(STATE_BATCH_COUNT, batchCount.get());
+        state.put(STATE_SCORED_EVENT_COUNT, scoredEventCount.get());
+        return state;
     }
 
+    /**
+     * Restore the state of the query, applied once the models are bound when the processor has not started yet.
+     *
+     * @param state state taken by {@link #currentState()}
+     */
     @Override
-    public void restoreState(Map<String, Object> map) {
+    public void restoreState(Map<String, Object> state) {
+        synchronized (modelLock) {
+            if (modelBindings == null) {
+                pendingState = state;
+            } else {
+                applyState(state);
+            }
+        }
+    }
 
+    /**
+     * Apply a restored state to the bound models. The cached predictions and the version of a model are only
+     * restored when it has the checksum of the model that made them, so that a standby which loaded another
+     * model starts afresh rather than serving stale predictions. Routed models start loading in the background,
+     * in the order they were last used. Entries missing from the state, as in a state taken by an older version
+     * of the query, start afresh.
+     */
+    @SuppressWarnings("unchecked")
+    private void applyState(Map<String, Object> state) {
+        String[] checksums = (String[]) state.get(STATE_MODEL_CHECKSUMS);
+        if (checksums != null) {
+            List<List<Object[][]>> caches = (List<List<Object[][]>>) state.get(STATE_PREDICTION_CACHES);
+            boolean sameModels = checksums.length == modelBindings.length;
+            for (int i = 0; i < modelBindings.length && i < checksums.length; i++) {
+                boolean sameModel = modelBindings[i].getModel().getChecksum().equals(checksums[i]);
+                sameModels &= sameModel;
+                PredictionCache cache = modelBindings[i].getPredictionCache();
+                if (cache != null && sameModel && caches != null && i < caches.size() && caches.get(i) != null) {
+                    cache.putEntries(caches.get(i));
+                }
+            }
+            Object version = state.get(STATE_MODEL_VERSION);
+            if (sameModels && version instanceof Integer) {
+                modelVersion = (Integer) version;
+            } else if (!sameModels) {
+                logger.info("Restored state of " + pmmlDefinition + " was taken with other pmml models, hence " +
+                        "the predictions cached for them are discarded.");
+            }
+        }
+        List<String> routeKeys = (List<String>) state.get(STATE_ROUTE_KEYS);
+        ModelPool pool = modelPool;
+        if (routeKeys != null && pool != null) {
+            for (String key : routeKeys) {
+                pool.get(key);
+            }
+        }
+        Map<String, Long> counters = (Map<String, Long>) state.get(STATE_METRICS);
+        if (counters != null && metrics != null) {
+            metrics.restoreCounters(counters);
+        }
+        Object lastBatch = state.get(STATE_LAST_BATCH_SIZE);
+        Object batches = state.get(STATE_BATCH_COUNT);
+        Object scoredEvents = state.get(STATE_SCORED_EVENT_COUNT);
+        if (lastBatch instanceof Integer && batches instanceof Long && scoredEvents instanceof Long) {
+            lastBatchSize = (Integer) lastBatch;
+            batchCount.set((Long) batches);
+            scoredEventCount.set((Long) scoredEvents);
+        }
     }
 }
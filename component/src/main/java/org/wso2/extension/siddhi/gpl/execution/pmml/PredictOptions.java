@@ -0,0 +1,510 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml;
+
+import org.wso2.siddhi.core.util.config.ConfigReader;
+import org.wso2.siddhi.query.api.exception.SiddhiAppValidationException;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Options of a predict query. Options are given as constant 'key=value' parameters of the query, and default
+ * to the values configured for the extension in the deployment configuration. The options are parsed and
+ * validated together by {@link #validate(String[], String[])}, before their values are read.
+ */
+final class PredictOptions {
+
+    /**
+     * Comma separated names of the output attributes to emit.
+     */
+    static final String OUTPUTS = "outputs";
+    /**
+     * Whether the pmml files are watched and reloaded when changed.
+     */
+    static final String MODEL_WATCH = "model.watch";
+    /**
+     * Interval in milliseconds at which the watched pmml files are checked for changes.
+     */
+    static final String MODEL_WATCH_INTERVAL = "model.watch.interval";
+    /**
+     * Whether the supported models are compiled into primitive arrays.
+     */
+    static final String MODEL_COMPILE = "model.compile";
+    /**
+     * Whether a class is generated for each compiled tree.
+     */
+    static final String MODEL_CODEGEN = "model.codegen";
+    /**
+     * Whether the compiled trees are stored off-heap.
+     */
+    static final String MODEL_OFFHEAP = "model.offheap";
+    /**
+     * Whether the parsed models are written to and read from binary snapshots.
+     */
+    static final String MODEL_SNAPSHOT = "model.snapshot";
+    /**
+     * Minimum number of events of a chunk scored by columns.
+     */
+    static final String COLUMNAR_THRESHOLD = "columnar.threshold";
+    /**
+     * Number of evaluations run on synthetic inputs when the query starts.
+     */
+    static final String MODEL_WARMUP = "model.warmup";
+    /**
+     * Whether the segments of large compiled ensembles are scored in parallel.
+     */
+    static final String SEGMENTS_PARALLEL = "segments.parallel";
+    /**
+     * Minimum number of segments of an ensemble scored in parallel.
+     */
+    static final String SEGMENTS_PARALLEL_THRESHOLD = "segments.parallel.threshold";
+    /**
+     * Number of threads of the pool scoring segments in parallel.
+     */
+    static final String SEGMENTS_PARALLEL_THREADS = "segments.parallel.threads";
+    /**
+     * Whether events are scored on worker threads.
+     */
+    static final String ASYNC = "async";
+    /**
+     * Number of worker threads scoring events asynchronously.
+     */
+    static final String ASYNC_WORKERS = "async.workers";
+    /**
+     * Maximum number of event chunks queued for asynchronous scoring.
+     */
+    static final String ASYNC_QUEUE_DEPTH = "async.queue.depth";
+    /**
+     * Handling of the events arriving while the asynchronous scoring queue is full.
+     */
+    static final String ASYNC_OVERFLOW = "async.overflow";
+    /**
+     * Maximum number of cached predictions of each model.
+     */
+    static final String CACHE_SIZE = "cache.size";
+    /**
+     * Time in milliseconds after which a cached prediction expires.
+     */
+    static final String CACHE_TTL = "cache.ttl";
+    /**
+     * Maximum number of prepared values kept for each categorical input field.
+     */
+    static final String INPUT_CACHE_SIZE = "input.cache.size";
+    /**
+     * Whether the input fields are prepared when the evaluator reads them.
+     */
+    static final String INPUT_LAZY = "input.lazy";
+    /**
+     * Input attribute selecting the model scoring each event.
+     */
+    static final String ROUTE_KEY = "route.key";
+    /**
+     * Directory of the pmml files of the routing keys.
+     */
+    static final String ROUTE_DIRECTORY = "route.directory";
+    /**
+     * Maximum number of routed models kept in memory.
+     */
+    static final String ROUTE_POOL_SIZE = "route.pool.size";
+    /**
+     * Maximum size in megabytes of the routed models kept in memory.
+     */
+    static final String ROUTE_POOL_MEMORY = "route.pool.memory";
+    /**
+     * Number of threads loading the routed models.
+     */
+    static final String ROUTE_LOADERS = "route.loaders";
+    /**
+     * Time in milliseconds after which a routed model that failed to load is loaded again.
+     */
+    static final String ROUTE_RETRY = "route.retry";
+    /**
+     * Handling of the events whose routed model is still loading.
+     */
+    static final String ROUTE_MISS = "route.miss";
+
+    private static final List<String> SUPPORTED_OPTIONS = Arrays.asList(OUTPUTS, MODEL_WATCH,
+            MODEL_WATCH_INTERVAL, MODEL_COMPILE, MODEL_CODEGEN, MODEL_OFFHEAP, MODEL_SNAPSHOT,
+            COLUMNAR_THRESHOLD, MODEL_WARMUP, SEGMENTS_PARALLEL, SEGMENTS_PARALLEL_THRESHOLD,
+            SEGMENTS_PARALLEL_THREADS, ASYNC, ASYNC_WORKERS, ASYNC_QUEUE_DEPTH, ASYNC_OVERFLOW, CACHE_SIZE, CACHE_TTL,
+            INPUT_CACHE_SIZE, INPUT_LAZY, ROUTE_KEY, ROUTE_DIRECTORY, ROUTE_POOL_SIZE, ROUTE_POOL_MEMORY,
+            ROUTE_LOADERS, ROUTE_RETRY, ROUTE_MISS);
+    // Keys of 'key=value' parameters, telling options apart from pmml file paths and pmml contents
+    private static final Pattern OPTION_PATTERN = Pattern.compile("\\s*[a-z]+(\\.[a-z]+)*\\s*=.*",
+            Pattern.DOTALL);
+    private static final long DEFAULT_WATCH_INTERVAL = 5000;
+    private static final int DEFAULT_COLUMNAR_THRESHOLD = 16;
+    private static final int DEFAULT_SEGMENTS_PARALLEL_THRESHOLD = 64;
+    private static final int DEFAULT_ASYNC_QUEUE_DEPTH = 64;
+    private static final int DEFAULT_INPUT_CACHE_SIZE = 1024;
+    private static final int DEFAULT_ROUTE_POOL_SIZE = 100;
+    private static final int DEFAULT_ROUTE_LOADERS = 2;
+    private static final long DEFAULT_ROUTE_RETRY = 10000;
+    private static final String ROUTE_MISS_WAIT = "wait";
+    private static final String ROUTE_MISS_NULL = "null";
+
+    private final Map<String, String> options = new LinkedHashMap<>();
+    private final ConfigReader configReader;
+
+    private String outputs;
+    private boolean watchEnabled;
+    private long watchInterval;
+    private boolean compileEnabled;
+    private boolean codegenEnabled;
+    private boolean offHeapEnabled;
+    private boolean snapshotEnabled;
+    private int columnarThreshold;
+    private int warmUpCount;
+    private int parallelThreshold;
+    private int parallelThreads;
+    private boolean asyncEnabled;
+    private int asyncWorkers;
+    private int asyncQueueDepth;
+    private AsyncScoringStage.OverflowPolicy asyncOverflowPolicy;
+    private long cacheSize;
+    private long cacheTtl;
+    private int inputCacheSize;
+    private boolean lazyInputEnabled;
+    private String routeKey;
+    private File routeDirectory;
+    private int routePoolSize;
+    private long routePoolMemory;
+    private int routeLoaders;
+    private long routeRetry;
+    private boolean routeMissWait;
+
+    PredictOptions(ConfigReader configReader) {
+        this.configReader = configReader;
+    }
+
+    /**
+     * Check whether a constant query parameter is a 'key=value' option, rather than a pmml file path or the
+     * content of a pmml model.
+     *
+     * @param parameter constant query parameter
+     * @return whether the parameter is an option
+     */
+    static boolean isOption(String parameter) {
+        return OPTION_PATTERN.matcher(parameter).matches();
+    }
+
+    /**
+     * Parse a 'key=value' query parameter.
+     *
+     * @param option query parameter
+     */
+    void parse(String option) {
+        int separator = option.indexOf('=');
+        if (separator <= 0) {
+            throw new SiddhiAppValidationException("Invalid option '" + option + "'. Options should be given " +
+                    "as 'key=value' pairs, after the paths of the pmml models.");
+        }
+        String key = option.substring(0, separator).trim();
+        if (!SUPPORTED_OPTIONS.contains(key)) {
+            throw new SiddhiAppValidationException("Unsupported option '" + key + "'. Supported options are " +
+                    SUPPORTED_OPTIONS + ".");
+        }
+        if (options.put(key, option.substring(separator + 1).trim()) != null) {
+            throw new SiddhiAppValidationException("Option '" + key + "' has been set more than once.");
+        }
+    }
+
+    /**
+     * Read and validate the values of all the options, given in the query or configured for the deployment.
+     *
+     * @param pmmlDefinitions definitions of the scored models
+     * @param attributeNames  attribute names of the input stream
+     */
+    void validate(String[] pmmlDefinitions, String[] attributeNames) {
+        outputs = getString(OUTPUTS, null);
+        compileEnabled = getBoolean(MODEL_COMPILE, false);
+        watchEnabled = getBoolean(MODEL_WATCH, false);
+        watchInterval = getLong(MODEL_WATCH_INTERVAL, DEFAULT_WATCH_INTERVAL);
+        snapshotEnabled = getBoolean(MODEL_SNAPSHOT, false);
+        columnarThreshold = getInt(COLUMNAR_THRESHOLD, DEFAULT_COLUMNAR_THRESHOLD);
+        requireNotNegative(COLUMNAR_THRESHOLD, columnarThreshold);
+        warmUpCount = getInt(MODEL_WARMUP, 0);
+        requireNotNegative(MODEL_WARMUP, warmUpCount);
+        codegenEnabled = getBoolean(MODEL_CODEGEN, false);
+        requireCompile(MODEL_CODEGEN, codegenEnabled);
+        offHeapEnabled = getBoolean(MODEL_OFFHEAP, false);
+        requireCompile(MODEL_OFFHEAP, offHeapEnabled);
+        boolean parallel = getBoolean(SEGMENTS_PARALLEL, false);
+        requireCompile(SEGMENTS_PARALLEL, parallel);
+        parallelThreshold = 0;
+        if (parallel) {
+            parallelThreshold = getInt(SEGMENTS_PARALLEL_THRESHOLD, DEFAULT_SEGMENTS_PARALLEL_THRESHOLD);
+            requirePositive(SEGMENTS_PARALLEL_THRESHOLD, parallelThreshold);
+            parallelThreads = getInt(SEGMENTS_PARALLEL_THREADS, Runtime.getRuntime().availableProcessors());
+            requirePositive(SEGMENTS_PARALLEL_THREADS, parallelThreads);
+        }
+        for (String definition : pmmlDefinitions) {
+            if (snapshotEnabled && !new File(definition).isFile()) {
+                throw new SiddhiAppValidationException("Option '" + MODEL_SNAPSHOT + "' requires the pmml " +
+                        "models to be given as file paths.");
+            }
+            if (watchEnabled && !new File(definition).isFile()) {
+                throw new SiddhiAppValidationException("Option '" + MODEL_WATCH + "' requires the pmml " +
+                        "models to be given as file paths.");
+            }
+        }
+        if (watchEnabled) {
+            requirePositive(MODEL_WATCH_INTERVAL, watchInterval);
+        }
+
+        asyncEnabled = getBoolean(ASYNC, false);
+        asyncWorkers = getInt(ASYNC_WORKERS, Runtime.getRuntime().availableProcessors());
+        requirePositive(ASYNC_WORKERS, asyncWorkers);
+        asyncQueueDepth = getInt(ASYNC_QUEUE_DEPTH, DEFAULT_ASYNC_QUEUE_DEPTH);
+        requirePositive(ASYNC_QUEUE_DEPTH, asyncQueueDepth);
+        String overflow = getString(ASYNC_OVERFLOW, AsyncScoringStage.OverflowPolicy.BLOCK.name());
+        asyncOverflowPolicy = AsyncScoringStage.OverflowPolicy.parse(overflow);
+        if (asyncOverflowPolicy == null) {
+            throw new SiddhiAppValidationException("Option '" + ASYNC_OVERFLOW + "' should be one of " +
+                    "block, drop or null, but found '" + overflow + "'.");
+        }
+
+        cacheSize = getLong(CACHE_SIZE, 0);
+        requireNotNegative(CACHE_SIZE, cacheSize);
+        cacheTtl = getLong(CACHE_TTL, 0);
+        requireNotNegative(CACHE_TTL, cacheTtl);
+        inputCacheSize = getInt(INPUT_CACHE_SIZE, DEFAULT_INPUT_CACHE_SIZE);
+        requireNotNegative(INPUT_CACHE_SIZE, inputCacheSize);
+        lazyInputEnabled = getBoolean(INPUT_LAZY, false);
+
+        routeKey = getString(ROUTE_KEY, null);
+        if (routeKey != null) {
+            validateRoute(pmmlDefinitions, attributeNames);
+        }
+    }
+
+    private void validateRoute(String[] pmmlDefinitions, String[] attributeNames) {
+        if (pmmlDefinitions.length > 1) {
+            throw new SiddhiAppValidationException("Option '" + ROUTE_KEY + "' cannot be combined with " +
+                    "additional pmml models.");
+        }
+        if (!Arrays.asList(attributeNames).contains(routeKey)) {
+            throw new SiddhiAppValidationException("Routing key '" + routeKey + "' of option '" + ROUTE_KEY +
+                    "' is not an attribute of the input stream.");
+        }
+        String directory = getString(ROUTE_DIRECTORY, null);
+        if (directory == null || !new File(directory).isDirectory()) {
+            throw new SiddhiAppValidationException("Option '" + ROUTE_KEY + "' requires the option '" +
+                    ROUTE_DIRECTORY + "' to be the path of a directory, but found '" + directory + "'.");
+        }
+        routeDirectory = new File(directory);
+        routePoolSize = getInt(ROUTE_POOL_SIZE, DEFAULT_ROUTE_POOL_SIZE);
+        requirePositive(ROUTE_POOL_SIZE, routePoolSize);
+        routePoolMemory = getLong(ROUTE_POOL_MEMORY, 0);
+        requireNotNegative(ROUTE_POOL_MEMORY, routePoolMemory);
+        routeLoaders = getInt(ROUTE_LOADERS, DEFAULT_ROUTE_LOADERS);
+        requirePositive(ROUTE_LOADERS, routeLoaders);
+        routeRetry = getLong(ROUTE_RETRY, DEFAULT_ROUTE_RETRY);
+        requirePositive(ROUTE_RETRY, routeRetry);
+        String miss = getString(ROUTE_MISS, ROUTE_MISS_NULL);
+        if (!ROUTE_MISS_WAIT.equalsIgnoreCase(miss) && !ROUTE_MISS_NULL.equalsIgnoreCase(miss)) {
+            throw new SiddhiAppValidationException("Option '" + ROUTE_MISS + "' should be one of wait or null, " +
+                    "but found '" + miss + "'.");
+        }
+        routeMissWait = ROUTE_MISS_WAIT.equalsIgnoreCase(miss);
+    }
+
+    private void requireCompile(String key, boolean enabled) {
+        if (enabled && !compileEnabled) {
+            throw new SiddhiAppValidationException("Option '" + key + "' requires the option '" + MODEL_COMPILE +
+                    "' to be enabled.");
+        }
+    }
+
+    private static void requirePositive(String key, long value) {
+        if (value <= 0) {
+            throw new SiddhiAppValidationException("Option '" + key + "' should be positive, but found " + value +
+                    ".");
+        }
+    }
+
+    private static void requireNotNegative(String key, long value) {
+        if (value < 0) {
+            throw new SiddhiAppValidationException("Option '" + key + "' should not be negative, but found " +
+                    value + ".");
+        }
+    }
+
+    private String getString(String key, String defaultValue) {
+        String value = options.get(key);
+        if (value == null && configReader != null) {
+            value = configReader.readConfig(key, null);
+        }
+        return value == null ? defaultValue : value;
+    }
+
+    private boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        } else if ("true".equalsIgnoreCase(value)) {
+            return true;
+        } else if ("false".equalsIgnoreCase(value)) {
+            return false;
+        }
+        throw new SiddhiAppValidationException("Option '" + key + "' should be either true or false, but found '" +
+                value + "'.");
+    }
+
+    private long getLong(String key, long defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new SiddhiAppValidationException("Option '" + key + "' should be a number, but found '" +
+                    value + "'.", e);
+        }
+    }
+
+    private int getInt(String key, int defaultValue) {
+        long value = getLong(key, defaultValue);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new SiddhiAppValidationException("Option '" + key + "' is out of range: " + value + ".");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Comma separated names of the selected output attributes, or null when all the outputs are emitted.
+     */
+    String getOutputs() {
+        return outputs;
+    }
+
+    boolean isWatchEnabled() {
+        return watchEnabled;
+    }
+
+    long getWatchInterval() {
+        return watchInterval;
+    }
+
+    boolean isCompileEnabled() {
+        return compileEnabled;
+    }
+
+    boolean isCodegenEnabled() {
+        return codegenEnabled;
+    }
+
+    boolean isOffHeapEnabled() {
+        return offHeapEnabled;
+    }
+
+    boolean isSnapshotEnabled() {
+        return snapshotEnabled;
+    }
+
+    /**
+     * Minimum number of events of a chunk scored by columns with the compiled models, or 0 to score them by rows.
+     */
+    int getColumnarThreshold() {
+        return columnarThreshold;
+    }
+
+    int getWarmUpCount() {
+        return warmUpCount;
+    }
+
+    /**
+     * Minimum number of segments of a compiled ensemble scored in parallel, or 0 when segments are scored in order.
+     */
+    int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    int getParallelThreads() {
+        return parallelThreads;
+    }
+
+    boolean isAsyncEnabled() {
+        return asyncEnabled;
+    }
+
+    int getAsyncWorkers() {
+        return asyncWorkers;
+    }
+
+    int getAsyncQueueDepth() {
+        return asyncQueueDepth;
+    }
+
+    AsyncScoringStage.OverflowPolicy getAsyncOverflowPolicy() {
+        return asyncOverflowPolicy;
+    }
+
+    long getCacheSize() {
+        return cacheSize;
+    }
+
+    long getCacheTtl() {
+        return cacheTtl;
+    }
+
+    int getInputCacheSize() {
+        return inputCacheSize;
+    }
+
+    boolean isLazyInputEnabled() {
+        return lazyInputEnabled;
+    }
+
+    /**
+     * Attribute selecting the model of each event from the route directory, or null when events are not routed.
+     */
+    String getRouteKey() {
+        return routeKey;
+    }
+
+    File getRouteDirectory() {
+        return routeDirectory;
+    }
+
+    int getRoutePoolSize() {
+        return routePoolSize;
+    }
+
+    long getRoutePoolMemory() {
+        return routePoolMemory;
+    }
+
+    int getRouteLoaders() {
+        return routeLoaders;
+    }
+
+    long getRouteRetry() {
+        return routeRetry;
+    }
+
+    boolean isRouteMissWait() {
+        return routeMissWait;
+    }
+}
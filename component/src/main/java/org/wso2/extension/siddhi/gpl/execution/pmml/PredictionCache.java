@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded cache of the decoded predictions of a model binding, keyed by the mapped input values of an event, so
+ * that repeated input values skip the evaluation. Entries are evicted in least recently used order beyond the
+ * maximum size, and expire after the time to live when one is given. The cache belongs to a single binding, so a
+ * reloaded model starts with an empty cache.
+ */
+final class PredictionCache {
+
+    private final Cache<Key, Object[]> cache;
+
+    /**
+     * Create a cache.
+     *
+     * @param maximumSize maximum number of cached predictions
+     * @param timeToLive  milliseconds after which a cached prediction expires, or 0 when it does not expire
+     */
+    PredictionCache(long maximumSize, long timeToLive) {
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats();
+        if (timeToLive > 0) {
+            builder.expireAfterWrite(timeToLive, TimeUnit.MILLISECONDS);
+        }
+        this.cache = builder.build();
+    }
+
+    /**
+     * Look up the prediction of the input values held by the given probe.
+     *
+     * @param probe key holding the input values of an event
+     * @return decoded output values, which must not be modified, or null when not cached
+     */
+    Object[] get(Key probe) {
+        return cache.getIfPresent(probe);
+    }
+
+    /**
+     * Cache the prediction of the input values held by the given probe.
+     *
+     * @param probe  key holding the input values of an event, which is copied
+     * @param output decoded output values, which must not be modified afterwards
+     */
+    void put(Key probe, Object[] output) {
+        cache.put(probe.copy(), output);
+    }
+
+    /**
+     * Copy the cached predictions, so that they can be restored into the cache of another processor.
+     *
+     * @return pairs of input values and decoded output values
+     */
+    List<Object[][]> getEntries() {
+        List<Object[][]> entries = new ArrayList<>();
+        for (Map.Entry<Key, Object[]> entry : cache.asMap().entrySet()) {
+            entries.add(new Object[][]{entry.getKey().values.clone(), entry.getValue()});
+        }
+        return entries;
+    }
+
+    /**
+     * Cache predictions copied from another cache of the same model.
+     *
+     * @param entries pairs of input values and decoded output values
+     */
+    void putEntries(List<Object[][]> entries) {
+        for (Object[][] entry : entries) {
+            cache.put(new Key(entry[0].length).set(entry[0]), entry[1]);
+        }
+    }
+
+    long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    long getRequestCount() {
+        return cache.stats().requestCount();
+    }
+
+    /**
+     * Input values of an event. A key can be reused as a probe for the lookups of successive events, as it is
+     * copied when a prediction is cached.
+     */
+    static final class Key {
+
+        private Object[] values;
+        private int hash;
+
+        Key(int width) {
+            this.values = new Object[width];
+        }
+
+        /**
+         * Hold the given input values for a lookup.
+         *
+         * @param row input values ordered as the input converters
+         * @return this key
+         */
+        Key set(Object[] row) {
+            System.arraycopy(row, 0, values, 0, values.length);
+            hash = Arrays.hashCode(values);
+            return this;
+        }
+
+        Key copy() {
+            Key key = new Key(0);
+            key.values = values.clone();
+            key.hash = hash;
+            return key;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return this == obj || obj instanceof Key && hash == ((Key) obj).hash &&
+                    Arrays.equals(values, ((Key) obj).values);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml;
+
+import org.dmg.pmml.DataField;
+import org.dmg.pmml.DataType;
+import org.dmg.pmml.FieldName;
+import org.dmg.pmml.Interval;
+import org.dmg.pmml.MiningField;
+import org.dmg.pmml.ModelStats;
+import org.dmg.pmml.NumericInfo;
+import org.dmg.pmml.UnivariateStats;
+import org.dmg.pmml.Value;
+import org.jpmml.evaluator.InputField;
+import org.wso2.siddhi.query.api.definition.Attribute;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates synthetic input rows from the data dictionary of the models, to warm up their evaluation before the
+ * first events arrive. Fields with valid values take one of them, continuous fields take values spread over their
+ * intervals, or else over the range of the univariate statistics of the models, or else over the outlier bounds of
+ * their mining field. The values are given in the types of the mapped attributes, so that the synthetic rows are
+ * converted and prepared like the rows of the events.
+ */
+final class SyntheticInputs {
+
+    // Range of the continuous fields declaring no interval, statistics or outlier bounds
+    private static final double DEFAULT_MINIMUM = 0;
+    private static final double DEFAULT_MAXIMUM = 1;
+    // Number of made up values of the categorical fields declaring no valid values
+    private static final int OPEN_CATEGORY_COUNT = 8;
+    private static final long SEED = 42;
+
+    private final Attribute.Type[] attributeTypes;
+    private final DataType[] dataTypes;
+    // Valid values of each field, or null for the fields taking values in ranges
+    private final String[][] validValues;
+    // Ranges of each field, as pairs of minimum and maximum
+    private final double[][] ranges;
+    private final Random random = new Random(SEED);
+
+    /**
+     * Create a generator of the input rows of the given bindings.
+     *
+     * @param bindings model bindings, sharing the same input columns
+     */
+    SyntheticInputs(ModelBinding[] bindings) {
+        Map<FieldName, NumericInfo> statistics = new HashMap<>();
+        for (ModelBinding binding : bindings) {
+            ModelStats modelStats = binding.getModel().getModelStats();
+            if (modelStats != null) {
+                for (UnivariateStats univariateStats : modelStats.getUnivariateStats()) {
+                    if (univariateStats.getNumericInfo() != null) {
+                        statistics.putIfAbsent(univariateStats.getField(), univariateStats.getNumericInfo());
+                    }
+                }
+            }
+        }
+
+        ModelBinding binding = bindings[0];
+        int width = binding.getInputCount();
+        attributeTypes = new Attribute.Type[width];
+        dataTypes = new DataType[width];
+        validValues = new String[width][];
+        ranges = new double[width][];
+        for (int i = 0; i < width; i++) {
+            InputFieldConverter converter = binding.getInputConverter(i);
+            InputField inputField = converter.getInputField();
+            attributeTypes[i] = converter.getAttributeType();
+            dataTypes[i] = inputField.getDataType();
+            DataField dataField = inputField.getField() instanceof DataField ? (DataField) inputField.getField() :
+                    null;
+            List<String> values = new ArrayList<>();
+            if (dataField != null) {
+                for (Value value : dataField.getValues()) {
+                    if (value.getProperty() == Value.Property.VALID) {
+                        values.add(value.getValue());
+                    }
+                }
+            }
+            if (!values.isEmpty()) {
+                validValues[i] = values.toArray(new String[values.size()]);
+            } else if (dataTypes[i] == DataType.STRING) {
+                validValues[i] = new String[OPEN_CATEGORY_COUNT];
+                for (int j = 0; j < OPEN_CATEGORY_COUNT; j++) {
+                    validValues[i][j] = inputField.getName().getValue() + "_" + j;
+                }
+            } else {
+                ranges[i] = findRange(dataField, statistics.get(inputField.getName()), inputField.getMiningField());
+            }
+        }
+    }
+
+    /**
+     * Fill a row with synthetic values.
+     *
+     * @param row row receiving the attribute values, ordered as the input converters
+     */
+    void next(Object[] row) {
+        for (int i = 0; i < attributeTypes.length; i++) {
+            if (validValues[i] != null) {
+                row[i] = toAttributeValue(validValues[i][random.nextInt(validValues[i].length)], attributeTypes[i]);
+            } else if (dataTypes[i] == DataType.BOOLEAN) {
+                row[i] = toAttributeValue(String.valueOf(random.nextBoolean()), attributeTypes[i]);
+            } else {
+                double value = ranges[i][0] + random.nextDouble() * (ranges[i][1] - ranges[i][0]);
+                row[i] = toAttributeValue(value, attributeTypes[i]);
+            }
+        }
+    }
+
+    private static double[] findRange(DataField dataField, NumericInfo numericInfo, MiningField miningField) {
+        if (dataField != null && !dataField.getIntervals().isEmpty()) {
+            double minimum = Double.POSITIVE_INFINITY;
+            double maximum = Double.NEGATIVE_INFINITY;
+            for (Interval interval : dataField.getIntervals()) {
+                if (interval.getLeftMargin() != null) {
+                    minimum = Math.min(minimum, interval.getLeftMargin());
+                    maximum = Math.max(maximum, interval.getLeftMargin());
+                }
+                if (interval.getRightMargin() != null) {
+                    minimum = Math.min(minimum, interval.getRightMargin());
+                    maximum = Math.max(maximum, interval.getRightMargin());
+                }
+            }
+            if (minimum <= maximum) {
+                return new double[]{minimum, maximum};
+            }
+        }
+        if (numericInfo != null && numericInfo.getMinimum() != null && numericInfo.getMaximum() != null) {
+            return new double[]{numericInfo.getMinimum(), numericInfo.getMaximum()};
+        }
+        if (miningField != null && miningField.getLowValue() != null && miningField.getHighValue() != null) {
+            return new double[]{miningField.getLowValue(), miningField.getHighValue()};
+        }
+        return new double[]{DEFAULT_MINIMUM, DEFAULT_MAXIMUM};
+    }
+
+    private static Object toAttributeValue(double value, Attribute.Type attributeType) {
+        switch (attributeType) {
+            case DOUBLE:
+                return value;
+            case FLOAT:
+                return (float) value;
+            case INT:
+                return (int) Math.round(value);
+            case LONG:
+                return Math.round(value);
+            default:
+                return String.valueOf(value);
+        }
+    }
+
+    /**
+     * Convert a valid value into the type of the attribute, or into null when the attribute cannot hold it.
+     */
+    private static Object toAttributeValue(String value, Attribute.Type attributeType) {
+        try {
+            switch (attributeType) {
+                case DOUBLE:
+                    return Double.parseDouble(value);
+                case FLOAT:
+                    return Float.parseFloat(value);
+                case INT:
+                    return Integer.parseInt(value);
+                case LONG:
+                    return Long.parseLong(value);
+                case BOOL:
+                    return Boolean.parseBoolean(value);
+                default:
+                    return value;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml.compiler;
+
+/**
+ * Arithmetic of the JPMML double and float math contexts. Float context values are kept in doubles, but every
+ * operation is rounded to float exactly where the JPMML float values round, so compiled scores match bit for bit.
+ */
+final class Arithmetic {
+
+    // JPMML computes the float exponent as a power of Math.E rounded to float
+    private static final double FLOAT_E = 2.7182817d;
+
+    private Arithmetic() {
+    }
+
+    static double round(double value, boolean floatContext) {
+        return floatContext ? (double) (float) value : value;
+    }
+
+    static double add(double value, double addend, boolean floatContext) {
+        return floatContext ? (double) ((float) value + (float) addend) : value + addend;
+    }
+
+    static double subtract(double value, double subtrahend, boolean floatContext) {
+        return floatContext ? (double) ((float) value - (float) subtrahend) : value - subtrahend;
+    }
+
+    static double multiply(double value, double factor, boolean floatContext) {
+        return floatContext ? (double) ((float) value * (float) factor) : value * factor;
+    }
+
+    static double divide(double value, double divisor, boolean floatContext) {
+        return floatContext ? (double) ((float) value / (float) divisor) : value / divisor;
+    }
+
+    /**
+     * Add the product of a coefficient and a value, as a regression term.
+     */
+    static double addProduct(double value, double coefficient, double x, boolean floatContext) {
+        return floatContext ? (double) ((float) value + (float) coefficient * (float) x) : value + coefficient * x;
+    }
+
+    /**
+     * Add the products of a coefficient and a column of values to a column of regression sums. The loops are kept
+     * free of branches, so that the JIT can vectorize them.
+     */
+    static void addProducts(double[] values, double coefficient, double[] x, int from, int to,
+                            boolean floatContext) {
+        if (floatContext) {
+            float floatCoefficient = (float) coefficient;
+            for (int i = from; i < to; i++) {
+                values[i] = (double) ((float) values[i] + floatCoefficient * (float) x[i]);
+            }
+        } else {
+            for (int i = from; i < to; i++) {
+                values[i] += coefficient * x[i];
+            }
+        }
+    }
+
+    static double exp(double value, boolean floatContext) {
+        return floatContext ? (double) (float) Math.pow(FLOAT_E, (double) (float) value) : Math.exp(value);
+    }
+
+    /**
+     * Raise a value to an integer power, as a regression term.
+     */
+    static double pow(double value, int exponent, boolean floatContext) {
+        return floatContext ? (double) (float) Math.pow((float) value, (float) exponent) : Math.pow(value, exponent);
+    }
+
+    static double inverseLogit(double value, boolean floatContext) {
+        return floatContext ? (double) (1f / (1f + (float) exp(-value, true))) : 1d / (1d + Math.exp(-value));
+    }
+
+    /**
+     * Complement of a probability.
+     */
+    static double residual(double value, boolean floatContext) {
+        return floatContext ? (double) (1f - (float) value) : 1d - value;
+    }
+
+    /**
+     * Normalize class scores in place into probabilities, in the order of operations of JPMML.
+     *
+     * @return index of the most probable class
+     */
+    static int softmax(double[] values, boolean floatContext) {
+        int max = 0;
+        for (int i = 1; i < values.length; i++) {
+            if (Double.compare(values[max], values[i]) < 0) {
+                max = i;
+            }
+        }
+        double maxValue = values[max];
+        double sum = 0;
+        for (int i = 0; i < values.length; i++) {
+            values[i] = exp(subtract(values[i], maxValue, floatContext), floatContext);
+            sum = i == 0 ? values[i] : add(sum, values[i], floatContext);
+        }
+        for (int i = 0; i < values.length; i++) {
+            values[i] = divide(values[i], sum, floatContext);
+        }
+        return winner(values);
+    }
+
+    /**
+     * Index of the most probable class, which is the first of equally probable classes.
+     */
+    static int winner(double[] probabilities) {
+        int winner = 0;
+        for (int i = 1; i < probabilities.length; i++) {
+            if (Double.compare(probabilities[winner], probabilities[i]) < 0) {
+                winner = i;
+            }
+        }
+        return winner;
+    }
+
+    /**
+     * Box a value as the number type of the math context.
+     */
+    static Number box(double value, boolean floatContext) {
+        return floatContext ? (Number) (float) value : (Number) value;
+    }
+}
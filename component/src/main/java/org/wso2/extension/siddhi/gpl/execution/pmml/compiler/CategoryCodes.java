@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml.compiler;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Codes of the values of a categorical feature, given to a compiled model as feature values in place of the
+ * strings. The values a model does not refer to share the code 0 when the field accepts any value, and are left to
+ * JPMML when the field restricts its values, as JPMML treats them as invalid.
+ * Category codes are immutable and thread safe.
+ */
+public final class CategoryCodes {
+
+    static final int OTHER = 0;
+
+    private final Map<String, Double> codes;
+    private final boolean open;
+
+    CategoryCodes(Map<String, Integer> codes, boolean open) {
+        this.codes = new HashMap<>();
+        for (Map.Entry<String, Integer> code : codes.entrySet()) {
+            this.codes.put(code.getKey(), (double) code.getValue());
+        }
+        this.open = open;
+    }
+
+    /**
+     * Encode an attribute value of the feature.
+     *
+     * @param value attribute value
+     * @return feature value, or NaN when the value is missing or is to be evaluated by JPMML
+     */
+    public double encode(Object value) {
+        if (!(value instanceof String)) {
+            return Double.NaN;
+        }
+        Double code = codes.get(value);
+        if (code != null) {
+            return code;
+        }
+        return open ? OTHER : Double.NaN;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml.compiler;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Options of {@link ModelCompiler#compile}: how the segments of ensembles are scored and where the compiled trees
+ * are kept.
+ */
+public final class CompileOptions {
+
+    /**
+     * Options scoring segments in order and walking the trees through their flat layout on the heap.
+     */
+    public static final CompileOptions DEFAULT = new CompileOptions(0, null, false, false);
+
+    private final int parallelThreshold;
+    private final ForkJoinPool parallelPool;
+    private final boolean generateCode;
+    private final boolean offHeap;
+
+    /**
+     * Create compile options.
+     *
+     * @param parallelThreshold minimum number of segments of an ensemble for them to be scored in parallel, or 0
+     *                          to always score segments sequentially
+     * @param parallelPool      pool scoring the segments in parallel, owned by the caller, which should outlive the
+     *                          compiled models, or null to always score segments sequentially
+     * @param generateCode      whether the trees are walked by generated classes rather than through their flat
+     *                          layout
+     * @param offHeap           whether the trees not walked by generated classes are stored in direct buffers
+     */
+    public CompileOptions(int parallelThreshold, ForkJoinPool parallelPool, boolean generateCode, boolean offHeap) {
+        this.parallelThreshold = parallelThreshold;
+        this.parallelPool = parallelPool;
+        this.generateCode = generateCode;
+        this.offHeap = offHeap;
+    }
+
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    public ForkJoinPool getParallelPool() {
+        return parallelPool;
+    }
+
+    public boolean isGenerateCode() {
+        return generateCode;
+    }
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+}
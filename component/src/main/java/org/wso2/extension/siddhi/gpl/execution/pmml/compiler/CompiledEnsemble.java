@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml.compiler;
+
+import org.dmg.pmml.DataType;
+import org.dmg.pmml.FieldName;
+import org.jpmml.evaluator.TypeUtil;
+
+/**
+ * Regression model scoring a single numeric value, such as a regression tree ensemble or a regression model.
+ */
+final class CompiledEnsemble implements CompiledModel {
+
+    private final FieldName[] features;
+    private final CategoryCodes[] categoryCodes;
+    private final Scorer scorer;
+    private final boolean floatContext;
+    private final DataType targetDataType;
+    private final ResultEncoder encoder;
+    private final long offHeapSize;
+
+    CompiledEnsemble(FieldName[] features, CategoryCodes[] categoryCodes, Scorer scorer, boolean floatContext,
+                     DataType targetDataType, ResultEncoder encoder, long offHeapSize) {
+        this.features = features;
+        this.categoryCodes = categoryCodes;
+        this.scorer = scorer;
+        this.floatContext = floatContext;
+        this.targetDataType = targetDataType;
+        this.encoder = encoder;
+        this.offHeapSize = offHeapSize;
+    }
+
+    @Override
+    public FieldName[] getFeatures() {
+        return features.clone();
+    }
+
+    @Override
+    public long getOffHeapSize() {
+        return offHeapSize;
+    }
+
+    @Override
+    public CategoryCodes[] getCategoryCodes() {
+        return categoryCodes.clone();
+    }
+
+    @Override
+    public Object[] evaluate(double[] values) {
+        double score = scorer.score(values);
+        if (Double.isNaN(score)) {
+            return null;
+        }
+        return encoder.encode(TypeUtil.cast(targetDataType, Arithmetic.box(score, floatContext)));
+    }
+
+    @Override
+    public void evaluate(double[][] columns, int size, Object[][] outputs) {
+        double[] scores = new double[size];
+        scorer.score(columns, 0, size, scores);
+        for (int row = 0; row < size; row++) {
+            outputs[row] = Double.isNaN(scores[row]) ? null :
+                    encoder.encode(TypeUtil.cast(targetDataType, Arithmetic.box(scores[row], floatContext)));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml.compiler;
+
+import org.dmg.pmml.FieldName;
+
+/**
+ * Pmml model compiled into primitive arrays, scoring feature values without the JPMML object graph.
+ * Compiled models are immutable and thread safe.
+ */
+public interface CompiledModel {
+
+    /**
+     * Input fields read by the model, in the order of the feature values given to {@link #evaluate(double[])}.
+     *
+     * @return feature names
+     */
+    FieldName[] getFeatures();
+
+    /**
+     * Codes of the values of each categorical feature, given to the model in place of the string values.
+     *
+     * @return category codes of each feature, indexed as the feature names, null for continuous features
+     */
+    default CategoryCodes[] getCategoryCodes() {
+        return new CategoryCodes[getFeatures().length];
+    }
+
+    /**
+     * Evaluate the model for present, non-NaN feature values. Float fields are expected to carry float values, and
+     * categorical fields the codes of their values.
+     *
+     * @param values feature values
+     * @return decoded output values, or null when the values are to be evaluated by JPMML instead
+     */
+    Object[] evaluate(double[] values);
+
+    /**
+     * Number of bytes of the trees of the model stored in direct buffers out of the heap.
+     *
+     * @return off-heap size in bytes
+     */
+    default long getOffHeapSize() {
+        return 0;
+    }
+
+    /**
+     * Evaluate the model for a batch of rows given as feature columns, indexed as the feature values given to
+     * {@link #evaluate(double[])}. Models scoring whole columns in tight loops override the default evaluation of
+     * one row after another.
+     *
+     * @param columns feature columns of present, non-NaN values, at least one per feature, each holding at least
+     *                {@code size} rows
+     * @param size    number of rows
+     * @param outputs array receiving the decoded output values of each row, or null for the rows to be evaluated
+     *                by JPMML instead
+     */
+    default void evaluate(double[][] columns, int size, Object[][] outputs) {
+        double[] values = new double[columns.length];
+        for (int row = 0; row < size; row++) {
+            for (int i = 0; i < columns.length; i++) {
+                values[i] = columns[i][row];
+            }
+            outputs[row] = evaluate(values);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml.compiler;
+
+import org.dmg.pmml.FieldName;
+
+/**
+ * Classifier chaining regression ensembles into a softmax regression, as exported for multi-class gradient
+ * boosted trees: every ensemble scores one class, and the final regression tables normalize the class scores.
+ */
+final class CompiledModelChain implements CompiledModel {
+
+    private final FieldName[] features;
+    private final Scorer[] scorers;
+    private final boolean[] floatScores;
+    private final int[][] predictors;
+    private final double[][] coefficients;
+    private final double[] intercepts;
+    private final boolean floatContext;
+    private final Object[] categories;
+    private final ResultEncoder encoder;
+    private final long offHeapSize;
+
+    /**
+     * Create a compiled model chain.
+     *
+     * @param features     input fields read by the model
+     * @param scorers      ensembles of the chain, whose scores follow the feature values as predictors
+     * @param floatScores  whether the score of each ensemble is passed on as a float
+     * @param predictors   predictor indexes of each regression table
+     * @param coefficients predictor coefficients of each regression table
+     * @param intercepts   intercept of each regression table
+     * @param floatContext whether the regression tables use the float math context
+     * @param categories   target value of each regression table
+     * @param encoder      result encoder
+     * @param offHeapSize  number of bytes of the trees of the ensembles stored off-heap
+     */
+    CompiledModelChain(FieldName[] features, Scorer[] scorers, boolean[] floatScores, int[][] predictors,
+                       double[][] coefficients, double[] intercepts, boolean floatContext, Object[] categories,
+                       ResultEncoder encoder, long offHeapSize) {
+        this.features = features;
+        this.scorers = scorers;
+        this.floatScores = floatScores;
+        this.predictors = predictors;
+        this.coefficients = coefficients;
+        this.intercepts = intercepts;
+        this.floatContext = floatContext;
+        this.categories = categories;
+        this.encoder = encoder;
+        this.offHeapSize = offHeapSize;
+    }
+
+    @Override
+    public FieldName[] getFeatures() {
+        return features.clone();
+    }
+
+    @Override
+    public long getOffHeapSize() {
+        return offHeapSize;
+    }
+
+    @Override
+    public Object[] evaluate(double[] values) {
+        double[] predictorValues = new double[features.length + scorers.length];
+        System.arraycopy(values, 0, predictorValues, 0, features.length);
+        for (int i = 0; i < scorers.length; i++) {
+            double score = scorers[i].score(values);
+            if (Double.isNaN(score)) {
+                return null;
+            }
+            predictorValues[features.length + i] = Arithmetic.round(score, floatScores[i]);
+        }
+
+        double[] probabilities = new double[intercepts.length];
+        for (int i = 0; i < probabilities.length; i++) {
+            // Terms first and the intercept last, as JPMML sums a regression table
+            double value = 0;
+            for (int j = 0; j < predictors[i].length; j++) {
+                value = Arithmetic.addProduct(value, coefficients[i][j], predictorValues[predictors[i][j]],
+                        floatContext);
+            }
+            probabilities[i] = Arithmetic.add(value, intercepts[i], floatContext);
+        }
+        int winner = Arithmetic.softmax(probabilities, floatContext);
+        return encoder.encode(categories[winner], probabilities);
+    }
+
+    @Override
+    public void evaluate(double[][] columns, int size, Object[][] outputs) {
+        double[][] predictorColumns = new double[features.length + scorers.length][];
+        System.arraycopy(columns, 0, predictorColumns, 0, features.length);
+        for (int i = 0; i < scorers.length; i++) {
+            double[] scores = new double[size];
+            scorers[i].score(columns, 0, size, scores);
+            for (int row = 0; row < size; row++) {
+                scores[row] = Arithmetic.round(scores[row], floatScores[i]);
+            }
+            predictorColumns[features.length + i] = scores;
+        }
+
+        // Each regression table is summed over all the rows at once, term by term as JPMML sums it per row
+        double[][] tableValues = new double[intercepts.length][size];
+        for (int i = 0; i < intercepts.length; i++) {
+            double[] values = tableValues[i];
+            for (int j = 0; j < predictors[i].length; j++) {
+                Arithmetic.addProducts(values, coefficients[i][j], predictorColumns[predictors[i][j]], 0, size,
+                        floatContext);
+            }
+            for (int row = 0; row < size; row++) {
+                values[row] = Arithmetic.add(values[row], intercepts[i], floatContext);
+            }
+        }
+
+        double[] probabilities = new double[intercepts.length];
+        for (int row = 0; row < size; row++) {
+            boolean scored = true;
+            for (int i = 0; i < scorers.length; i++) {
+                scored &= !Double.isNaN(predictorColumns[features.length + i][row]);
+            }
+            if (!scored) {
+                outputs[row] = null;
+                continue;
+            }
+            for (int i = 0; i < probabilities.length; i++) {
+                probabilities[i] = tableValues[i][row];
+            }
+            int winner = Arithmetic.softmax(probabilities, floatContext);
+            outputs[row] = encoder.encode(categories[winner], probabilities);
+        }
+    }
+}
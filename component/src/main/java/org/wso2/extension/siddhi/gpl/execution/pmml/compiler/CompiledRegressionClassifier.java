@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml.compiler;
+
+import org.dmg.pmml.FieldName;
+
+/**
+ * Logistic regression classifier: binomial, turning the value of the first regression table into the probability
+ * of the first class, or multinomial, normalizing the values of every table by a softmax.
+ */
+final class CompiledRegressionClassifier implements CompiledModel {
+
+    private final FieldName[] features;
+    private final CategoryCodes[] categoryCodes;
+    private final RegressionTerms[] tables;
+    private final boolean binomial;
+    private final boolean floatContext;
+    private final Object[] categories;
+    private final ResultEncoder encoder;
+
+    /**
+     * Create a compiled regression classifier.
+     *
+     * @param features      input fields read by the model
+     * @param categoryCodes codes of the values of each categorical feature, null for continuous features
+     * @param tables        regression table of each target category
+     * @param binomial      whether the classes are scored by the first table only
+     * @param floatContext  whether the regression tables use the float math context
+     * @param categories    target value of each regression table
+     * @param encoder       result encoder
+     */
+    CompiledRegressionClassifier(FieldName[] features, CategoryCodes[] categoryCodes, RegressionTerms[] tables,
+                                 boolean binomial, boolean floatContext, Object[] categories,
+                                 ResultEncoder encoder) {
+        this.features = features;
+        this.categoryCodes = categoryCodes;
+        this.tables = tables;
+        this.binomial = binomial;
+        this.floatContext = floatContext;
+        this.categories = categories;
+        this.encoder = encoder;
+    }
+
+    @Override
+    public FieldName[] getFeatures() {
+        return features.clone();
+    }
+
+    @Override
+    public CategoryCodes[] getCategoryCodes() {
+        return categoryCodes.clone();
+    }
+
+    @Override
+    public Object[] evaluate(double[] values) {
+        double[] probabilities = new double[tables.length];
+        for (int i = 0; i < tables.length; i++) {
+            probabilities[i] = tables[i].evaluate(values);
+        }
+        return classify(probabilities);
+    }
+
+    @Override
+    public void evaluate(double[][] columns, int size, Object[][] outputs) {
+        double[][] tableValues = new double[tables.length][size];
+        for (int i = 0; i < tables.length; i++) {
+            tables[i].evaluate(columns, 0, size, tableValues[i]);
+        }
+        for (int row = 0; row < size; row++) {
+            double[] probabilities = new double[tables.length];
+            for (int i = 0; i < tables.length; i++) {
+                probabilities[i] = tableValues[i][row];
+            }
+            outputs[row] = classify(probabilities);
+        }
+    }
+
+    /**
+     * Normalize the table values into class probabilities in place, and encode the winning class.
+     */
+    private Object[] classify(double[] probabilities) {
+        for (double value : probabilities) {
+            if (Double.isNaN(value)) {
+                return null;
+            }
+        }
+        int winner;
+        if (binomial) {
+            probabilities[0] = Arithmetic.inverseLogit(probabilities[0], floatContext);
+            probabilities[1] = Arithmetic.residual(probabilities[0], floatContext);
+            winner = Arithmetic.winner(probabilities);
+        } else {
+            winner = Arithmetic.softmax(probabilities, floatContext);
+        }
+        return encoder.encode(categories[winner], probabilities);
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml.compiler;
+
+import org.dmg.pmml.FieldName;
+
+/**
+ * Single decision tree, whose outputs are pre-computed for every node.
+ */
+final class CompiledTree implements CompiledModel {
+
+    private final FieldName[] features;
+    private final TreeWalker tree;
+    private final Object[][] nodeOutputs;
+    private final long offHeapSize;
+
+    CompiledTree(FieldName[] features, TreeWalker tree, Object[][] nodeOutputs, long offHeapSize) {
+        this.features = features;
+        this.tree = tree;
+        this.nodeOutputs = nodeOutputs;
+        this.offHeapSize = offHeapSize;
+    }
+
+    @Override
+    public FieldName[] getFeatures() {
+        return features.clone();
+    }
+
+    @Override
+    public long getOffHeapSize() {
+        return offHeapSize;
+    }
+
+    @Override
+    public Object[] evaluate(double[] values) {
+        int node = tree.evaluate(values);
+        if (node < 0 || nodeOutputs[node] == null) {
+            return null;
+        }
+        return nodeOutputs[node].clone();
+    }
+
+    @Override
+    public void evaluate(double[][] columns, int size, Object[][] outputs) {
+        for (int row = 0; row < size; row++) {
+            int node = tree.evaluate(columns, row);
+            outputs[row] = node < 0 || nodeOutputs[node] == null ? null : nodeOutputs[node].clone();
+        }
+    }
+}
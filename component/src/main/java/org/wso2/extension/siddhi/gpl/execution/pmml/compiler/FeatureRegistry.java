@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml.compiler;
+
+import org.dmg.pmml.DataField;
+import org.dmg.pmml.DataType;
+import org.dmg.pmml.FieldName;
+import org.dmg.pmml.MiningField;
+import org.dmg.pmml.OpType;
+import org.dmg.pmml.OutlierTreatmentMethod;
+import org.dmg.pmml.Value;
+import org.jpmml.evaluator.InputField;
+import org.jpmml.evaluator.TypeUtil;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Numbers the input fields used by a compiled model, and checks that JPMML would pass their values on as is.
+ * Categorical string fields are given to the model as the codes of their values.
+ */
+final class FeatureRegistry {
+
+    private final Map<FieldName, InputField> inputFields = new HashMap<>();
+    private final Map<FieldName, Integer> indexes = new HashMap<>();
+    private final List<FieldName> features = new ArrayList<>();
+    private final List<DataType> dataTypes = new ArrayList<>();
+    // Codes of the values of each categorical feature, or null for continuous features
+    private final List<Map<String, Integer>> categoryCodes = new ArrayList<>();
+    private final List<Boolean> openCategories = new ArrayList<>();
+
+    FeatureRegistry(List<InputField> activeFields) {
+        for (InputField inputField : activeFields) {
+            inputFields.put(inputField.getName(), inputField);
+        }
+    }
+
+    /**
+     * Get the feature index of an input field, registering it on first use.
+     *
+     * @param name input field name
+     * @return feature index
+     * @throws UnsupportedModelException when the field is not a plain continuous numeric input
+     */
+    int register(FieldName name) throws UnsupportedModelException {
+        Integer index = indexes.get(name);
+        if (index != null) {
+            if (categoryCodes.get(index) != null) {
+                throw new UnsupportedModelException("field " + name + " used as both categorical and continuous");
+            }
+            return index;
+        }
+        InputField inputField = inputFields.get(name);
+        if (inputField == null) {
+            throw new UnsupportedModelException("field " + name + " is not an input field");
+        }
+        DataType dataType = inputField.getDataType();
+        if ((dataType != DataType.DOUBLE && dataType != DataType.FLOAT && dataType != DataType.INTEGER) ||
+                inputField.getOpType() != OpType.CONTINUOUS) {
+            throw new UnsupportedModelException("field " + name + " is not continuous double, float or integer");
+        }
+        if (!(inputField.getField() instanceof DataField) || ((DataField) inputField.getField()).hasIntervals() ||
+                ((DataField) inputField.getField()).hasValues()) {
+            throw new UnsupportedModelException("field " + name + " has restricted values");
+        }
+        checkMiningField(inputField.getMiningField());
+        return add(name, dataType, null, false);
+    }
+
+    /**
+     * Get the feature index of a categorical string field, registering it on first use.
+     *
+     * @param name input field name
+     * @return feature index
+     * @throws UnsupportedModelException when the field is not a plain categorical string input
+     */
+    int registerCategorical(FieldName name) throws UnsupportedModelException {
+        Integer index = indexes.get(name);
+        if (index != null) {
+            if (categoryCodes.get(index) == null) {
+                throw new UnsupportedModelException("field " + name + " used as both categorical and continuous");
+            }
+            return index;
+        }
+        InputField inputField = inputFields.get(name);
+        if (inputField == null) {
+            throw new UnsupportedModelException("field " + name + " is not an input field");
+        }
+        if (inputField.getDataType() != DataType.STRING || inputField.getOpType() != OpType.CATEGORICAL ||
+                !(inputField.getField() instanceof DataField)) {
+            throw new UnsupportedModelException("field " + name + " is not categorical string");
+        }
+        DataField dataField = (DataField) inputField.getField();
+        Map<String, Integer> codes = new LinkedHashMap<>();
+        if (dataField.hasValues()) {
+            for (Value value : dataField.getValues()) {
+                if (value.getProperty() != Value.Property.VALID) {
+                    throw new UnsupportedModelException("invalid or missing values of field " + name);
+                }
+                codes.put(value.getValue(), codes.size() + 1);
+            }
+        }
+        checkMiningField(inputField.getMiningField());
+        return add(name, DataType.STRING, codes, !dataField.hasValues());
+    }
+
+    private int add(FieldName name, DataType dataType, Map<String, Integer> codes, boolean open) {
+        indexes.put(name, features.size());
+        features.add(name);
+        dataTypes.add(dataType);
+        categoryCodes.add(codes);
+        openCategories.add(open);
+        return features.size() - 1;
+    }
+
+    /**
+     * Get the code of a value of a categorical feature, numbering it on first use when the field accepts any value.
+     *
+     * @param feature feature index
+     * @param value   category value
+     * @return category code
+     * @throws UnsupportedModelException when the value is not a valid value of the field
+     */
+    int encode(int feature, String value) throws UnsupportedModelException {
+        Map<String, Integer> codes = categoryCodes.get(feature);
+        Integer code = codes.get(value);
+        if (code == null) {
+            if (!openCategories.get(feature)) {
+                throw new UnsupportedModelException("value " + value + " of field " + features.get(feature));
+            }
+            code = codes.size() + 1;
+            codes.put(value, code);
+        }
+        return code;
+    }
+
+    /**
+     * Get the number of codes of a categorical feature, including the code shared by the other values.
+     */
+    int getCategoryCount(int feature) {
+        return categoryCodes.get(feature).size() + 1;
+    }
+
+    /**
+     * Check that a mining field leaves present values untouched.
+     */
+    static void checkMiningField(MiningField miningField) throws UnsupportedModelException {
+        if (miningField != null && miningField.getOutlierTreatment() != OutlierTreatmentMethod.AS_IS) {
+            throw new UnsupportedModelException("outlier treatment of field " + miningField.getName());
+        }
+    }
+
+    /**
+     * Parse a constant the way JPMML parses it for comparison with the given feature.
+     */
+    double parse(int feature, String value) throws UnsupportedModelException {
+        return parse(feature, dataTypes.get(feature), value);
+    }
+
+    private double parse(int feature, DataType dataType, String value) throws UnsupportedModelException {
+        try {
+            return ((Number) TypeUtil.parse(dataType, value)).doubleValue();
+        } catch (RuntimeException e) {
+            throw new UnsupportedModelException("value " + value + " of field " + features.get(feature));
+        }
+    }
+
+    /**
+     * Parse a constant the way JPMML parses it for an ordering comparison with the given continuous feature, which
+     * falls back to a double when the constant is not of the type of the feature, such as a fractional threshold of
+     * an integer field.
+     */
+    double parseBound(int feature, String value) throws UnsupportedModelException {
+        try {
+            return ((Number) TypeUtil.parse(dataTypes.get(feature), value)).doubleValue();
+        } catch (NumberFormatException e) {
+            return parse(feature, DataType.DOUBLE, value);
+        } catch (RuntimeException e) {
+            throw new UnsupportedModelException("value " + value + " of field " + features.get(feature));
+        }
+    }
+
+    FieldName[] getFeatures() {
+        return features.toArray(new FieldName[features.size()]);
+    }
+
+    CategoryCodes[] getCategoryCodes() {
+        CategoryCodes[] codes = new CategoryCodes[features.size()];
+        for (int i = 0; i < codes.length; i++) {
+            if (categoryCodes.get(i) != null) {
+                codes[i] = new CategoryCodes(categoryCodes.get(i), openCategories.get(i));
+            }
+        }
+        return codes;
+    }
+}
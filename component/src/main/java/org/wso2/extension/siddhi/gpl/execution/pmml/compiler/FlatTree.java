@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml.compiler;
+
+import org.dmg.pmml.CompoundPredicate;
+import org.dmg.pmml.False;
+import org.dmg.pmml.Predicate;
+import org.dmg.pmml.SimplePredicate;
+import org.dmg.pmml.True;
+import org.dmg.pmml.tree.Node;
+import org.dmg.pmml.tree.TreeModel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decision tree laid out as flat primitive arrays. Nodes are numbered breadth first, so the children of a node
+ * occupy a contiguous index range, and each node carries the predicate that selects it.
+ * Feature values are never missing, as rows with missing values are left to the JPMML evaluator.
+ */
+final class FlatTree implements TreeWalker {
+
+    static final int OP_TRUE = 0;
+    static final int OP_FALSE = 1;
+    static final int OP_EQUAL = 2;
+    static final int OP_NOT_EQUAL = 3;
+    static final int OP_LESS_THAN = 4;
+    static final int OP_LESS_OR_EQUAL = 5;
+    static final int OP_GREATER_THAN = 6;
+    static final int OP_GREATER_OR_EQUAL = 7;
+
+    private final int[] operators;
+    private final int[] splitFeatures;
+    private final double[] thresholds;
+    private final int[] firstChildren;
+    private final int[] childEnds;
+    private final boolean returnLastPrediction;
+    private final List<Node> nodes;
+
+    private FlatTree(List<Node> nodes, boolean returnLastPrediction) {
+        int size = nodes.size();
+        this.operators = new int[size];
+        this.splitFeatures = new int[size];
+        this.thresholds = new double[size];
+        this.firstChildren = new int[size];
+        this.childEnds = new int[size];
+        this.returnLastPrediction = returnLastPrediction;
+        this.nodes = nodes;
+    }
+
+    /**
+     * Flatten the nodes of a tree model.
+     *
+     * @param treeModel tree model
+     * @param features  features referred by the predicates
+     * @return flat tree
+     * @throws UnsupportedModelException when the tree uses constructs the flat layout does not support
+     */
+    static FlatTree compile(TreeModel treeModel, FeatureRegistry features) throws UnsupportedModelException {
+        List<Node> nodes = new ArrayList<>();
+        nodes.add(treeModel.getNode());
+        // Breadth first numbering, so that siblings are laid out next to each other
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get(i);
+            if (node.getEmbeddedModel() != null) {
+                throw new UnsupportedModelException("embedded models in tree nodes");
+            }
+            if (node.hasNodes()) {
+                nodes.addAll(node.getNodes());
+            }
+        }
+
+        FlatTree tree = new FlatTree(nodes, treeModel.getNoTrueChildStrategy() ==
+                TreeModel.NoTrueChildStrategy.RETURN_LAST_PREDICTION);
+        int next = 1;
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get(i);
+            tree.setPredicate(i, node.getPredicate(), features);
+            int childCount = node.hasNodes() ? node.getNodes().size() : 0;
+            tree.firstChildren[i] = next;
+            tree.childEnds[i] = next + childCount;
+            next += childCount;
+        }
+        return tree;
+    }
+
+    private void setPredicate(int index, Predicate predicate, FeatureRegistry features)
+            throws UnsupportedModelException {
+        if (predicate instanceof CompoundPredicate) {
+            CompoundPredicate compoundPredicate = (CompoundPredicate) predicate;
+            // Without missing values the first predicate of a surrogate chain always decides
+            if (compoundPredicate.getBooleanOperator() != CompoundPredicate.BooleanOperator.SURROGATE) {
+                throw new UnsupportedModelException("compound predicates other than surrogate");
+            }
+            predicate = compoundPredicate.getPredicates().get(0);
+        }
+        if (predicate instanceof True) {
+            operators[index] = OP_TRUE;
+        } else if (predicate instanceof False) {
+            operators[index] = OP_FALSE;
+        } else if (predicate instanceof SimplePredicate) {
+            SimplePredicate simplePredicate = (SimplePredicate) predicate;
+            int feature = features.register(simplePredicate.getField());
+            switch (simplePredicate.getOperator()) {
+                case IS_MISSING:
+                    operators[index] = OP_FALSE;
+                    return;
+                case IS_NOT_MISSING:
+                    operators[index] = OP_TRUE;
+                    return;
+                case EQUAL:
+                    operators[index] = OP_EQUAL;
+                    break;
+                case NOT_EQUAL:
+                    operators[index] = OP_NOT_EQUAL;
+                    break;
+                case LESS_THAN:
+                    operators[index] = OP_LESS_THAN;
+                    break;
+                case LESS_OR_EQUAL:
+                    operators[index] = OP_LESS_OR_EQUAL;
+                    break;
+                case GREATER_THAN:
+                    operators[index] = OP_GREATER_THAN;
+                    break;
+                case GREATER_OR_EQUAL:
+                    operators[index] = OP_GREATER_OR_EQUAL;
+                    break;
+                default:
+                    throw new UnsupportedModelException("predicate operator " + simplePredicate.getOperator());
+            }
+            splitFeatures[index] = feature;
+            thresholds[index] = operators[index] == OP_EQUAL || operators[index] == OP_NOT_EQUAL ?
+                    features.parse(feature, simplePredicate.getValue()) :
+                    features.parseBound(feature, simplePredicate.getValue());
+        } else {
+            throw new UnsupportedModelException("predicate " + (predicate == null ? null :
+                    predicate.getClass().getSimpleName()));
+        }
+    }
+
+    int getNodeCount() {
+        return nodes.size();
+    }
+
+    Node getNode(int index) {
+        return nodes.get(index);
+    }
+
+    boolean isLeaf(int index) {
+        return firstChildren[index] == childEnds[index];
+    }
+
+    int getOperator(int index) {
+        return operators[index];
+    }
+
+    int getSplitFeature(int index) {
+        return splitFeatures[index];
+    }
+
+    double getThreshold(int index) {
+        return thresholds[index];
+    }
+
+    int getFirstChild(int index) {
+        return firstChildren[index];
+    }
+
+    int getChildEnd(int index) {
+        return childEnds[index];
+    }
+
+    boolean isReturnLastPrediction() {
+        return returnLastPrediction;
+    }
+
+    @Override
+    public int evaluate(double[] values) {
+        if (!test(0, values)) {
+            return -1;
+        }
+        int node = 0;
+        while (firstChildren[node] != childEnds[node]) {
+            int child = firstChildren[node];
+            int end = childEnds[node];
+            while (child < end && !test(child, values)) {
+                child++;
+            }
+            if (child == end) {
+                return returnLastPrediction ? node : -1;
+            }
+            node = child;
+        }
+        return node;
+    }
+
+    @Override
+    public int evaluate(double[][] columns, int row) {
+        if (!test(0, columns, row)) {
+            return -1;
+        }
+        int node = 0;
+        while (firstChildren[node] != childEnds[node]) {
+            int child = firstChildren[node];
+            int end = childEnds[node];
+            while (child < end && !test(child, columns, row)) {
+                child++;
+            }
+            if (child == end) {
+                return returnLastPrediction ? node : -1;
+            }
+            node = child;
+        }
+        return node;
+    }
+
+    private boolean test(int node, double[] values) {
+        switch (operators[node]) {
+            case OP_TRUE:
+                return true;
+            case OP_FALSE:
+                return false;
+            default:
+                return compare(node, values[splitFeatures[node]]);
+        }
+    }
+
+    private boolean test(int node, double[][] columns, int row) {
+        switch (operators[node]) {
+            case OP_TRUE:
+                return true;
+            case OP_FALSE:
+                return false;
+            default:
+                return compare(node, columns[splitFeatures[node]][row]);
+        }
+    }
+
+    private boolean compare(int node, double value) {
+        // Compared as JPMML compares field values, which tells -0.0 apart from 0.0
+        int comparison = Double.compare(value, thresholds[node]);
+        switch (operators[node]) {
+            case OP_EQUAL:
+                return comparison == 0;
+            case OP_NOT_EQUAL:
+                return comparison != 0;
+            case OP_LESS_THAN:
+                return comparison < 0;
+            case OP_LESS_OR_EQUAL:
+                return comparison <= 0;
+            case OP_GREATER_THAN:
+                return comparison > 0;
+            default:
+                return comparison >= 0;
+        }
+    }
+}
@@ -0,0 +1,657 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml.compiler;
+
+import org.apache.log4j.Logger;
+import org.dmg.pmml.DataField;
+import org.dmg.pmml.DataType;
+import org.dmg.pmml.FieldName;
+import org.dmg.pmml.MathContext;
+import org.dmg.pmml.MiningField;
+import org.dmg.pmml.MiningFunction;
+import org.dmg.pmml.Model;
+import org.dmg.pmml.OpType;
+import org.dmg.pmml.OutputField;
+import org.dmg.pmml.ResultFeature;
+import org.dmg.pmml.Target;
+import org.dmg.pmml.True;
+import org.dmg.pmml.general_regression.GeneralRegressionModel;
+import org.dmg.pmml.mining.MiningModel;
+import org.dmg.pmml.mining.Segment;
+import org.dmg.pmml.mining.Segmentation;
+import org.dmg.pmml.regression.NumericPredictor;
+import org.dmg.pmml.regression.RegressionModel;
+import org.dmg.pmml.regression.RegressionTable;
+import org.dmg.pmml.tree.Node;
+import org.dmg.pmml.tree.TreeModel;
+import org.jpmml.evaluator.Evaluator;
+import org.jpmml.evaluator.ModelEvaluator;
+import org.jpmml.evaluator.TargetField;
+import org.jpmml.evaluator.TargetUtil;
+import org.jpmml.evaluator.TypeUtil;
+import org.jpmml.evaluator.Value;
+import org.jpmml.evaluator.ValueFactory;
+import org.jpmml.evaluator.ValueFactoryFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compiles tree models, tree ensembles and regression models of a pmml definition into flat primitive arrays.
+ * Supported are regression and classification trees, regression ensembles aggregated by sum, average or weighted
+ * average, model chains of regression ensembles normalized by a softmax regression, as exported for gradient
+ * boosted trees, linear and logistic regression models, and general linear models of an identity or logit link, or
+ * binomial logistic ones, whose factors add their parameters as indicators. Models using anything else, such as
+ * multinomial or ordinal general regression models, are left to JPMML.
+ * The trees are walked through their flat layout, or on request by classes generated for them or from direct
+ * buffers out of the heap.
+ */
+public final class ModelCompiler {
+
+    private static final Logger logger = Logger.getLogger(ModelCompiler.class);
+
+    private ModelCompiler() {
+    }
+
+    /**
+     * Compile the model of the given evaluator.
+     *
+     * @param evaluator   JPMML evaluator of the model
+     * @param outputNames names of the values to output, in order
+     * @param options     how to score the segments of ensembles and where to keep the compiled trees
+     * @return compiled model, or null when the model cannot be compiled
+     */
+    public static CompiledModel compile(Evaluator evaluator, List<FieldName> outputNames, CompileOptions options) {
+        TreeStorage storage = new TreeStorage(options.isGenerateCode(), options.isOffHeap(), countNodes(evaluator));
+        try {
+            CompiledModel compiledModel = compileModel(evaluator, outputNames, options, storage);
+            if (storage.getOffHeapSize() > 0 && logger.isDebugEnabled()) {
+                logger.debug("Compiled PMML model stores " + storage.getOffHeapSize() + " bytes of trees off-heap");
+            }
+            return compiledModel;
+        } catch (UnsupportedModelException e) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("PMML model cannot be compiled, as the compiler does not support " + e.getMessage());
+            }
+            return null;
+        }
+    }
+
+    private static CompiledModel compileModel(Evaluator evaluator, List<FieldName> outputNames,
+                                              CompileOptions options, TreeStorage storage)
+            throws UnsupportedModelException {
+        if (!(evaluator instanceof ModelEvaluator) || evaluator.getTargetFields().size() != 1) {
+            throw new UnsupportedModelException("models without a single target field");
+        }
+        Model model = ((ModelEvaluator<?>) evaluator).getModel();
+        TargetField targetField = evaluator.getTargetFields().get(0);
+        if (targetField.getDataField() == null) {
+            throw new UnsupportedModelException("models without a target field");
+        }
+        FeatureRegistry features = new FeatureRegistry(evaluator.getActiveFields());
+        Map<FieldName, OutputField> outputFields = new HashMap<>();
+        for (org.jpmml.evaluator.OutputField outputField : evaluator.getOutputFields()) {
+            outputFields.put(outputField.getName(), outputField.getOutputField());
+        }
+
+        checkModel(model);
+        if (model instanceof TreeModel) {
+            return compileTree((TreeModel) model, targetField, outputNames, outputFields, features, storage);
+        } else if (model instanceof MiningModel && model.getMiningFunction() == MiningFunction.REGRESSION) {
+            Scorer scorer = compileScorer(model, features, options, storage);
+            ResultEncoder encoder = ResultEncoder.create(outputNames, targetField.getName(), outputFields, null);
+            return new CompiledEnsemble(features.getFeatures(), features.getCategoryCodes(), scorer, isFloat(model),
+                    targetField.getDataType(), encoder, storage.getOffHeapSize());
+        } else if (model instanceof MiningModel && model.getMiningFunction() == MiningFunction.CLASSIFICATION) {
+            return compileModelChain((MiningModel) model, targetField, outputNames, outputFields, features,
+                    options, storage);
+        } else if (model instanceof RegressionModel) {
+            return compileRegression((RegressionModel) model, targetField, outputNames, outputFields, features);
+        } else if (model instanceof GeneralRegressionModel) {
+            return compileGeneralRegression((GeneralRegressionModel) model, targetField, outputNames, outputFields,
+                    features);
+        }
+        throw new UnsupportedModelException(model.getClass().getSimpleName() + " of " +
+                model.getMiningFunction() + " function");
+    }
+
+    /**
+     * Compile a single tree, pre-computing the outputs of each node.
+     */
+    private static CompiledModel compileTree(TreeModel treeModel, TargetField targetField,
+                                             List<FieldName> outputNames, Map<FieldName, OutputField> outputFields,
+                                             FeatureRegistry features, TreeStorage storage)
+            throws UnsupportedModelException {
+        FlatTree tree = FlatTree.compile(treeModel, features);
+        DataType targetDataType = targetField.getDataType();
+        Object[][] nodeOutputs = new Object[tree.getNodeCount()][];
+
+        if (treeModel.getMiningFunction() == MiningFunction.REGRESSION) {
+            double[] nodeValues = computeNodeValues(treeModel, tree);
+            ResultEncoder encoder = ResultEncoder.create(outputNames, targetField.getName(), outputFields, null);
+            for (int i = 0; i < nodeOutputs.length; i++) {
+                if (!Double.isNaN(nodeValues[i])) {
+                    nodeOutputs[i] = encoder.encode(TypeUtil.cast(targetDataType,
+                            Arithmetic.box(nodeValues[i], isFloat(treeModel))));
+                }
+            }
+        } else if (treeModel.getMiningFunction() == MiningFunction.CLASSIFICATION) {
+            if (treeModel.getTargets() != null) {
+                throw new UnsupportedModelException("targets of classification trees");
+            }
+            // Probabilities are computed for the categories of the root node, which every node should share
+            List<String> categories = new ArrayList<>();
+            for (org.dmg.pmml.ScoreDistribution scoreDistribution : tree.getNode(0).getScoreDistributions()) {
+                categories.add(scoreDistribution.getValue());
+            }
+            ResultEncoder encoder = ResultEncoder.create(outputNames, targetField.getName(), outputFields,
+                    categories);
+            ValueFactory<?> valueFactory = newValueFactory(treeModel);
+            for (int i = 0; i < nodeOutputs.length; i++) {
+                Node node = tree.getNode(i);
+                if (node.getScore() != null) {
+                    double[] probabilities = computeProbabilities(node, categories, valueFactory);
+                    nodeOutputs[i] = encoder.encode(TypeUtil.parseOrCast(targetDataType, node.getScore()),
+                            probabilities);
+                }
+            }
+        } else {
+            throw new UnsupportedModelException("trees of " + treeModel.getMiningFunction() + " function");
+        }
+        TreeWalker walker = storage.walker(tree);
+        return new CompiledTree(features.getFeatures(), walker, nodeOutputs, storage.getOffHeapSize());
+    }
+
+    /**
+     * Compile a regression model: a linear regression of a single table, or a binomial or multinomial logistic
+     * regression of a table per class.
+     */
+    private static CompiledModel compileRegression(RegressionModel regressionModel, TargetField targetField,
+                                                   List<FieldName> outputNames,
+                                                   Map<FieldName, OutputField> outputFields,
+                                                   FeatureRegistry features) throws UnsupportedModelException {
+        if (regressionModel.getTargetFieldName() != null &&
+                !regressionModel.getTargetFieldName().equals(targetField.getName())) {
+            throw new UnsupportedModelException("regression models of another target field");
+        }
+        List<RegressionTable> regressionTables = regressionModel.getRegressionTables();
+        RegressionModel.NormalizationMethod normalization = regressionModel.getNormalizationMethod();
+        boolean floatContext = isFloat(regressionModel);
+
+        if (regressionModel.getMiningFunction() == MiningFunction.REGRESSION) {
+            if (regressionTables.size() != 1) {
+                throw new UnsupportedModelException("regression models without a single regression table");
+            }
+            if (normalization != RegressionModel.NormalizationMethod.NONE &&
+                    normalization != RegressionModel.NormalizationMethod.LOGIT &&
+                    normalization != RegressionModel.NormalizationMethod.SOFTMAX &&
+                    normalization != RegressionModel.NormalizationMethod.EXP) {
+                throw new UnsupportedModelException("regression models normalized by " + normalization);
+            }
+            RegressionTerms terms = RegressionTerms.compile(regressionTables, features, floatContext)[0];
+            double[] rescaling = findRescaling(regressionModel);
+            Scorer scorer = new RegressionScorer(terms, normalization, floatContext, rescaling[0], rescaling[1]);
+            ResultEncoder encoder = ResultEncoder.create(outputNames, targetField.getName(), outputFields, null);
+            return new CompiledEnsemble(features.getFeatures(), features.getCategoryCodes(), scorer, floatContext,
+                    targetField.getDataType(), encoder, 0);
+        } else if (regressionModel.getMiningFunction() != MiningFunction.CLASSIFICATION) {
+            throw new UnsupportedModelException("regression models of " + regressionModel.getMiningFunction() +
+                    " function");
+        }
+
+        DataField targetDataField = targetField.getDataField();
+        if (targetDataField.getOpType() != OpType.CATEGORICAL || regressionModel.getTargets() != null) {
+            throw new UnsupportedModelException("regression classifiers of other than categorical targets");
+        }
+        int tableCount = regressionTables.size();
+        boolean binomial;
+        if (normalization == RegressionModel.NormalizationMethod.LOGIT && tableCount == 2) {
+            binomial = true;
+        } else if (normalization == RegressionModel.NormalizationMethod.SOFTMAX && tableCount >= 2) {
+            // A softmax over a class and a class scored by an empty table is a logit of the first class
+            RegressionTable lastTable = regressionTables.get(1);
+            binomial = tableCount == 2 && !lastTable.hasExtensions() && !lastTable.hasNumericPredictors() &&
+                    !lastTable.hasCategoricalPredictors() && !lastTable.hasPredictorTerms() &&
+                    lastTable.getIntercept() == 0d;
+        } else {
+            throw new UnsupportedModelException("regression classifiers of " + tableCount + " classes normalized by "
+                    + normalization);
+        }
+        List<String> validValues = new ArrayList<>();
+        for (org.dmg.pmml.Value value : targetDataField.getValues()) {
+            if (value.getProperty() == org.dmg.pmml.Value.Property.VALID) {
+                validValues.add(value.getValue());
+            }
+        }
+        List<String> categories = new ArrayList<>();
+        for (RegressionTable regressionTable : regressionTables) {
+            String category = regressionTable.getTargetCategory();
+            if (category == null || (!validValues.isEmpty() && !validValues.contains(category))) {
+                throw new UnsupportedModelException("regression tables of unknown target categories");
+            }
+            categories.add(category);
+        }
+        if (!validValues.isEmpty() && validValues.size() != tableCount) {
+            throw new UnsupportedModelException("regression classifiers not scoring every target category");
+        }
+
+        RegressionTerms[] tables = RegressionTerms.compile(regressionTables, features, floatContext);
+        Object[] categoryValues = new Object[tableCount];
+        for (int i = 0; i < tableCount; i++) {
+            categoryValues[i] = TypeUtil.parseOrCast(targetField.getDataType(), categories.get(i));
+        }
+        ResultEncoder encoder = ResultEncoder.create(outputNames, targetField.getName(), outputFields, categories);
+        return new CompiledRegressionClassifier(features.getFeatures(), features.getCategoryCodes(), tables,
+                binomial, floatContext, categoryValues, encoder);
+    }
+
+    /**
+     * Compile a general regression model in the double math context: a general or generalized linear regression of
+     * an identity or logit link, or a binomial classification of a logit link scoring the first target category
+     * against the last.
+     */
+    private static CompiledModel compileGeneralRegression(GeneralRegressionModel generalRegressionModel,
+                                                          TargetField targetField, List<FieldName> outputNames,
+                                                          Map<FieldName, OutputField> outputFields,
+                                                          FeatureRegistry features)
+            throws UnsupportedModelException {
+        if (generalRegressionModel.getTargetVariableName() != null &&
+                !generalRegressionModel.getTargetVariableName().equals(targetField.getName())) {
+            throw new UnsupportedModelException("general regression models of another target field");
+        }
+        if (isFloat(generalRegressionModel)) {
+            throw new UnsupportedModelException("general regression models of the float math context");
+        }
+        GeneralRegressionModel.ModelType modelType = generalRegressionModel.getModelType();
+        RegressionModel.NormalizationMethod normalization;
+        if (modelType == GeneralRegressionModel.ModelType.REGRESSION ||
+                modelType == GeneralRegressionModel.ModelType.GENERAL_LINEAR) {
+            normalization = RegressionModel.NormalizationMethod.NONE;
+        } else if (modelType == GeneralRegressionModel.ModelType.GENERALIZED_LINEAR) {
+            if (generalRegressionModel.getOffsetValue() != null ||
+                    generalRegressionModel.getOffsetVariable() != null ||
+                    generalRegressionModel.getTrialsValue() != null ||
+                    generalRegressionModel.getTrialsVariable() != null ||
+                    generalRegressionModel.getLinkParameter() != null ||
+                    generalRegressionModel.getDistParameter() != null) {
+                throw new UnsupportedModelException("generalized linear models with offsets, trials or parameters");
+            }
+            GeneralRegressionModel.LinkFunction link = generalRegressionModel.getLinkFunction();
+            if (link == GeneralRegressionModel.LinkFunction.IDENTITY) {
+                normalization = RegressionModel.NormalizationMethod.NONE;
+            } else if (link == GeneralRegressionModel.LinkFunction.LOGIT) {
+                normalization = RegressionModel.NormalizationMethod.LOGIT;
+            } else {
+                throw new UnsupportedModelException("generalized linear models of " + link + " link");
+            }
+        } else {
+            throw new UnsupportedModelException("general regression models of " + modelType + " type");
+        }
+
+        if (generalRegressionModel.getMiningFunction() == MiningFunction.REGRESSION) {
+            RegressionTerms terms = RegressionTerms.compile(generalRegressionModel, null, features);
+            double[] rescaling = findRescaling(generalRegressionModel);
+            Scorer scorer = new RegressionScorer(terms, normalization, false, rescaling[0], rescaling[1]);
+            ResultEncoder encoder = ResultEncoder.create(outputNames, targetField.getName(), outputFields, null);
+            return new CompiledEnsemble(features.getFeatures(), features.getCategoryCodes(), scorer, false,
+                    targetField.getDataType(), encoder, 0);
+        } else if (generalRegressionModel.getMiningFunction() != MiningFunction.CLASSIFICATION) {
+            throw new UnsupportedModelException("general regression models of " +
+                    generalRegressionModel.getMiningFunction() + " function");
+        }
+
+        // The first category is scored by the link of its parameters, and the reference category by the rest
+        DataField targetDataField = targetField.getDataField();
+        if (targetDataField.getOpType() != OpType.CATEGORICAL || generalRegressionModel.getTargets() != null ||
+                normalization != RegressionModel.NormalizationMethod.LOGIT) {
+            throw new UnsupportedModelException("general regression classifiers other than binomial logistic ones");
+        }
+        List<String> categories = new ArrayList<>();
+        for (org.dmg.pmml.Value value : targetDataField.getValues()) {
+            if (value.getProperty() == org.dmg.pmml.Value.Property.VALID) {
+                categories.add(value.getValue());
+            }
+        }
+        String referenceCategory = generalRegressionModel.getTargetReferenceCategory();
+        if (categories.size() != 2 || (referenceCategory != null && !referenceCategory.equals(categories.get(1)))) {
+            throw new UnsupportedModelException("general regression classifiers of other than two target " +
+                    "categories, the last being the reference");
+        }
+        RegressionTerms[] tables = {RegressionTerms.compile(generalRegressionModel, categories.get(0), features),
+                RegressionTerms.empty()};
+        Object[] categoryValues = new Object[categories.size()];
+        for (int i = 0; i < categoryValues.length; i++) {
+            categoryValues[i] = TypeUtil.parseOrCast(targetField.getDataType(), categories.get(i));
+        }
+        ResultEncoder encoder = ResultEncoder.create(outputNames, targetField.getName(), outputFields, categories);
+        return new CompiledRegressionClassifier(features.getFeatures(), features.getCategoryCodes(), tables, true,
+                false, categoryValues, encoder);
+    }
+
+    /**
+     * Compute the class probabilities of a node as JPMML computes them from its score distributions.
+     */
+    private static double[] computeProbabilities(Node node, List<String> categories, ValueFactory<?> valueFactory)
+            throws UnsupportedModelException {
+        List<org.dmg.pmml.ScoreDistribution> scoreDistributions = node.getScoreDistributions();
+        if (scoreDistributions.size() != categories.size()) {
+            throw new UnsupportedModelException("nodes with differing score distributions");
+        }
+        Value<?> sum = valueFactory.newValue();
+        for (org.dmg.pmml.ScoreDistribution scoreDistribution : scoreDistributions) {
+            if (scoreDistribution.getProbability() != null) {
+                throw new UnsupportedModelException("score distributions with probabilities");
+            }
+            sum.add(scoreDistribution.getRecordCount());
+        }
+        double[] probabilities = new double[categories.size()];
+        for (int i = 0; i < scoreDistributions.size(); i++) {
+            org.dmg.pmml.ScoreDistribution scoreDistribution = scoreDistributions.get(i);
+            if (!categories.get(i).equals(scoreDistribution.getValue())) {
+                throw new UnsupportedModelException("nodes with differing score distributions");
+            }
+            probabilities[i] = valueFactory.newValue(scoreDistribution.getRecordCount()).divide(sum)
+                    .doubleValue();
+        }
+        return probabilities;
+    }
+
+    /**
+     * Compile a model chain of regression ensembles, normalized by a softmax regression model.
+     */
+    private static CompiledModel compileModelChain(MiningModel miningModel, TargetField targetField,
+                                                   List<FieldName> outputNames,
+                                                   Map<FieldName, OutputField> outputFields,
+                                                   FeatureRegistry features, CompileOptions options,
+                                                   TreeStorage storage)
+            throws UnsupportedModelException {
+        Segmentation segmentation = miningModel.getSegmentation();
+        if (segmentation == null || segmentation.getMultipleModelMethod() !=
+                Segmentation.MultipleModelMethod.MODEL_CHAIN || miningModel.getTargets() != null ||
+                miningModel.getOutput() != null) {
+            throw new UnsupportedModelException("classification ensembles other than model chains");
+        }
+        List<Segment> segments = segmentation.getSegments();
+        Model lastModel = segments.get(segments.size() - 1).getModel();
+        if (!(lastModel instanceof RegressionModel) ||
+                ((RegressionModel) lastModel).getNormalizationMethod() !=
+                        RegressionModel.NormalizationMethod.SOFTMAX || lastModel.getTargets() != null) {
+            throw new UnsupportedModelException("model chains not ending with a softmax regression");
+        }
+
+        // Every but the last segment scores a field used as a predictor by the regression tables
+        List<Scorer> scorers = new ArrayList<>();
+        List<FieldName> scoreNames = new ArrayList<>();
+        List<Boolean> floatScores = new ArrayList<>();
+        for (Segment segment : segments) {
+            checkSegment(segment);
+            Model model = segment.getModel();
+            if (model == lastModel) {
+                break;
+            }
+            List<OutputField> modelOutputFields = model.getOutput() == null ? null :
+                    model.getOutput().getOutputFields();
+            if (modelOutputFields == null || modelOutputFields.size() != 1 ||
+                    modelOutputFields.get(0).getResultFeature() != ResultFeature.PREDICTED_VALUE ||
+                    (modelOutputFields.get(0).getDataType() != DataType.FLOAT &&
+                            modelOutputFields.get(0).getDataType() != DataType.DOUBLE)) {
+                throw new UnsupportedModelException("model chain segments without a single numeric prediction");
+            }
+            scorers.add(compileScorer(model, features, options, storage));
+            scoreNames.add(modelOutputFields.get(0).getName());
+            floatScores.add(modelOutputFields.get(0).getDataType() == DataType.FLOAT);
+        }
+
+        checkModel(lastModel);
+        RegressionModel regressionModel = (RegressionModel) lastModel;
+        List<RegressionTable> regressionTables = regressionModel.getRegressionTables();
+        int tableCount = regressionTables.size();
+        int[][] predictors = new int[tableCount][];
+        double[][] coefficients = new double[tableCount][];
+        double[] intercepts = new double[tableCount];
+        List<String> categories = new ArrayList<>();
+        for (int i = 0; i < tableCount; i++) {
+            RegressionTable regressionTable = regressionTables.get(i);
+            if (regressionTable.getTargetCategory() == null || regressionTable.hasCategoricalPredictors() ||
+                    regressionTable.hasPredictorTerms()) {
+                throw new UnsupportedModelException("regression tables with non numeric predictors");
+            }
+            List<NumericPredictor> numericPredictors = regressionTable.getNumericPredictors();
+            predictors[i] = new int[numericPredictors.size()];
+            coefficients[i] = new double[numericPredictors.size()];
+            for (int j = 0; j < numericPredictors.size(); j++) {
+                NumericPredictor numericPredictor = numericPredictors.get(j);
+                if (numericPredictor.getExponent() != 1) {
+                    throw new UnsupportedModelException("numeric predictors with exponents");
+                }
+                int scoreIndex = scoreNames.indexOf(numericPredictor.getName());
+                if (scoreIndex >= 0) {
+                    // Scores are placed after the features, once every feature is known
+                    predictors[i][j] = -1 - scoreIndex;
+                } else {
+                    predictors[i][j] = features.register(numericPredictor.getName());
+                }
+                coefficients[i][j] = numericPredictor.getCoefficient();
+            }
+            intercepts[i] = regressionTable.getIntercept();
+            categories.add(regressionTable.getTargetCategory());
+        }
+        FieldName[] featureNames = features.getFeatures();
+        for (int[] tablePredictors : predictors) {
+            for (int j = 0; j < tablePredictors.length; j++) {
+                if (tablePredictors[j] < 0) {
+                    tablePredictors[j] = featureNames.length - 1 - tablePredictors[j];
+                }
+            }
+        }
+
+        Object[] categoryValues = new Object[tableCount];
+        for (int i = 0; i < tableCount; i++) {
+            categoryValues[i] = TypeUtil.parseOrCast(targetField.getDataType(), categories.get(i));
+        }
+        Map<FieldName, OutputField> chainOutputFields = new HashMap<>(outputFields);
+        if (regressionModel.getOutput() != null) {
+            for (OutputField outputField : regressionModel.getOutput().getOutputFields()) {
+                chainOutputFields.put(outputField.getName(), outputField);
+            }
+        }
+        ResultEncoder encoder = ResultEncoder.create(outputNames, targetField.getName(), chainOutputFields,
+                categories);
+        boolean[] floatScoreArray = new boolean[floatScores.size()];
+        for (int i = 0; i < floatScoreArray.length; i++) {
+            floatScoreArray[i] = floatScores.get(i);
+        }
+        return new CompiledModelChain(featureNames, scorers.toArray(new Scorer[scorers.size()]), floatScoreArray,
+                predictors, coefficients, intercepts, isFloat(regressionModel), categoryValues, encoder,
+                storage.getOffHeapSize());
+    }
+
+    /**
+     * Compile a regression tree or a regression ensemble of them into a scorer.
+     */
+    private static Scorer compileScorer(Model model, FeatureRegistry features, CompileOptions options,
+                                        TreeStorage storage)
+            throws UnsupportedModelException {
+        checkModel(model);
+        if (model.getMiningFunction() != MiningFunction.REGRESSION) {
+            throw new UnsupportedModelException("ensemble segments of " + model.getMiningFunction() + " function");
+        }
+        if (model instanceof TreeModel) {
+            FlatTree tree = FlatTree.compile((TreeModel) model, features);
+            return storage.scorer(tree, computeNodeValues(model, tree));
+        } else if (model instanceof MiningModel) {
+            Segmentation segmentation = ((MiningModel) model).getSegmentation();
+            Segmentation.MultipleModelMethod method = segmentation == null ? null :
+                    segmentation.getMultipleModelMethod();
+            if (method != Segmentation.MultipleModelMethod.SUM && method !=
+                    Segmentation.MultipleModelMethod.AVERAGE && method !=
+                    Segmentation.MultipleModelMethod.WEIGHTED_AVERAGE) {
+                throw new UnsupportedModelException("regression ensembles aggregated by " + method);
+            }
+            List<Segment> segments = segmentation.getSegments();
+            Scorer[] scorers = new Scorer[segments.size()];
+            double[] weights = new double[segments.size()];
+            for (int i = 0; i < scorers.length; i++) {
+                Segment segment = segments.get(i);
+                checkSegment(segment);
+                if (segment.getModel().getOutput() != null) {
+                    throw new UnsupportedModelException("outputs of ensemble segments");
+                }
+                scorers[i] = compileScorer(segment.getModel(), features, options, storage);
+                weights[i] = segment.getWeight();
+            }
+
+            double[] rescaling = findRescaling(model);
+            ForkJoinPool pool = options.getParallelPool();
+            if (pool == null || pool.getParallelism() <= 1 || options.getParallelThreshold() <= 0 ||
+                    scorers.length < options.getParallelThreshold()) {
+                pool = null;
+            }
+            return new SegmentationScorer(scorers, weights, method, isFloat(model), rescaling[0], rescaling[1],
+                    pool);
+        }
+        throw new UnsupportedModelException("ensemble segments of " + model.getClass().getSimpleName());
+    }
+
+    /**
+     * Compute the regression score of each node of a tree, as JPMML computes it from the node score.
+     */
+    private static double[] computeNodeValues(Model model, FlatTree tree) {
+        ValueFactory<?> valueFactory = newValueFactory(model);
+        Target target = findTarget(model);
+        double[] nodeValues = new double[tree.getNodeCount()];
+        for (int i = 0; i < nodeValues.length; i++) {
+            String score = tree.getNode(i).getScore();
+            if (score == null) {
+                nodeValues[i] = Double.NaN;
+                continue;
+            }
+            Value<?> value = valueFactory.newValue(score);
+            if (target != null) {
+                value = TargetUtil.processValue(target, value);
+            }
+            nodeValues[i] = value.doubleValue();
+        }
+        return nodeValues;
+    }
+
+    /**
+     * Count the tree nodes of the model of an evaluator, across the segments of its ensembles.
+     */
+    private static long countNodes(Evaluator evaluator) {
+        if (!(evaluator instanceof ModelEvaluator)) {
+            return 0;
+        }
+        long count = 0;
+        Deque<Object> pending = new ArrayDeque<>();
+        pending.push(((ModelEvaluator<?>) evaluator).getModel());
+        while (!pending.isEmpty()) {
+            Object element = pending.pop();
+            if (element instanceof TreeModel) {
+                pending.push(((TreeModel) element).getNode());
+            } else if (element instanceof MiningModel && ((MiningModel) element).getSegmentation() != null) {
+                for (Segment segment : ((MiningModel) element).getSegmentation().getSegments()) {
+                    pending.push(segment.getModel());
+                }
+            } else if (element instanceof Node) {
+                count++;
+                if (((Node) element).hasNodes()) {
+                    pending.addAll(((Node) element).getNodes());
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Check the parts every compiled model shares: no local transformations, and untreated input values.
+     */
+    private static void checkModel(Model model) throws UnsupportedModelException {
+        if (!model.isScorable()) {
+            throw new UnsupportedModelException("models that are not scorable");
+        }
+        if (model.getLocalTransformations() != null && model.getLocalTransformations().hasDerivedFields()) {
+            throw new UnsupportedModelException("local transformations");
+        }
+        if (model.getMiningSchema() != null) {
+            for (MiningField miningField : model.getMiningSchema().getMiningFields()) {
+                FeatureRegistry.checkMiningField(miningField);
+            }
+        }
+    }
+
+    private static void checkSegment(Segment segment) throws UnsupportedModelException {
+        if (!(segment.getPredicate() instanceof True)) {
+            throw new UnsupportedModelException("segments selected by predicates");
+        }
+    }
+
+    /**
+     * Find the target of a model the way JPMML looks it up, by the name of the target field of the model.
+     */
+    private static Target findTarget(Model model) {
+        if (model.getTargets() == null) {
+            return null;
+        }
+        FieldName targetName = null;
+        if (model.getMiningSchema() != null) {
+            for (MiningField miningField : model.getMiningSchema().getMiningFields()) {
+                if (miningField.getUsageType() == MiningField.UsageType.TARGET ||
+                        miningField.getUsageType() == MiningField.UsageType.PREDICTED) {
+                    targetName = miningField.getName();
+                }
+            }
+        }
+        for (Target target : model.getTargets().getTargets()) {
+            if (Objects.equals(target.getField(), targetName)) {
+                return target;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the rescale factor and constant of the target of a model.
+     *
+     * @throws UnsupportedModelException when the target does more than rescaling
+     */
+    private static double[] findRescaling(Model model) throws UnsupportedModelException {
+        Target target = findTarget(model);
+        if (target == null) {
+            return new double[]{1d, 0d};
+        }
+        if (target.getMin() != null || target.getMax() != null || target.getCastInteger() != null) {
+            throw new UnsupportedModelException("targets other than rescaling targets");
+        }
+        return new double[]{target.getRescaleFactor(), target.getRescaleConstant()};
+    }
+
+    private static ValueFactory<?> newValueFactory(Model model) {
+        return ValueFactoryFactory.newInstance().newValueFactory(model.getMathContext());
+    }
+
+    private static boolean isFloat(Model model) {
+        return model.getMathContext() == MathContext.FLOAT;
+    }
+}
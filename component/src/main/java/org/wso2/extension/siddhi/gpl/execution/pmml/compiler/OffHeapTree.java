@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml.compiler;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Flat tree laid out in a direct buffer rather than in heap arrays, so that the nodes of large ensembles add
+ * nothing for the garbage collector to trace or copy. Each node is a fixed size record of its operator, split
+ * feature, threshold, child range and, for regression trees, its score. Nodes are read by absolute index, which
+ * leaves the buffer untouched and lets any number of threads walk the tree at once.
+ */
+final class OffHeapTree implements TreeWalker, Scorer {
+
+    static final int RECORD_SIZE = 32;
+    private static final int OPERATOR_OFFSET = 0;
+    private static final int FEATURE_OFFSET = 4;
+    private static final int THRESHOLD_OFFSET = 8;
+    private static final int FIRST_CHILD_OFFSET = 16;
+    private static final int CHILD_END_OFFSET = 20;
+    private static final int VALUE_OFFSET = 24;
+
+    private final ByteBuffer nodes;
+    private final boolean returnLastPrediction;
+
+    /**
+     * Copy a flat tree into the given buffer.
+     *
+     * @param tree       flat tree
+     * @param nodeValues score of each node, or null for trees scored otherwise
+     * @param nodes      buffer of at least {@link #RECORD_SIZE} bytes per node
+     */
+    OffHeapTree(FlatTree tree, double[] nodeValues, ByteBuffer nodes) {
+        for (int i = 0; i < tree.getNodeCount(); i++) {
+            int record = i * RECORD_SIZE;
+            nodes.putInt(record + OPERATOR_OFFSET, tree.getOperator(i));
+            nodes.putInt(record + FEATURE_OFFSET, tree.getSplitFeature(i));
+            nodes.putDouble(record + THRESHOLD_OFFSET, tree.getThreshold(i));
+            nodes.putInt(record + FIRST_CHILD_OFFSET, tree.getFirstChild(i));
+            nodes.putInt(record + CHILD_END_OFFSET, tree.getChildEnd(i));
+            nodes.putDouble(record + VALUE_OFFSET, nodeValues == null ? Double.NaN : nodeValues[i]);
+        }
+        this.nodes = nodes;
+        this.returnLastPrediction = tree.isReturnLastPrediction();
+    }
+
+    @Override
+    public int evaluate(double[] values) {
+        if (!test(0, values)) {
+            return -1;
+        }
+        int node = 0;
+        int child = nodes.getInt(FIRST_CHILD_OFFSET);
+        int end = nodes.getInt(CHILD_END_OFFSET);
+        while (child != end) {
+            while (child < end && !test(child, values)) {
+                child++;
+            }
+            if (child == end) {
+                return returnLastPrediction ? node : -1;
+            }
+            node = child;
+            child = nodes.getInt(node * RECORD_SIZE + FIRST_CHILD_OFFSET);
+            end = nodes.getInt(node * RECORD_SIZE + CHILD_END_OFFSET);
+        }
+        return node;
+    }
+
+    @Override
+    public int evaluate(double[][] columns, int row) {
+        if (!test(0, columns, row)) {
+            return -1;
+        }
+        int node = 0;
+        int child = nodes.getInt(FIRST_CHILD_OFFSET);
+        int end = nodes.getInt(CHILD_END_OFFSET);
+        while (child != end) {
+            while (child < end && !test(child, columns, row)) {
+                child++;
+            }
+            if (child == end) {
+                return returnLastPrediction ? node : -1;
+            }
+            node = child;
+            child = nodes.getInt(node * RECORD_SIZE + FIRST_CHILD_OFFSET);
+            end = nodes.getInt(node * RECORD_SIZE + CHILD_END_OFFSET);
+        }
+        return node;
+    }
+
+    @Override
+    public double score(double[] values) {
+        int node = evaluate(values);
+        return node < 0 ? Double.NaN : nodes.getDouble(node * RECORD_SIZE + VALUE_OFFSET);
+    }
+
+    @Override
+    public void score(double[][] columns, int from, int to, double[] scores) {
+        for (int row = from; row < to; row++) {
+            int node = evaluate(columns, row);
+            scores[row] = node < 0 ? Double.NaN : nodes.getDouble(node * RECORD_SIZE + VALUE_OFFSET);
+        }
+    }
+
+    private boolean test(int node, double[] values) {
+        int record = node * RECORD_SIZE;
+        int operator = nodes.getInt(record + OPERATOR_OFFSET);
+        switch (operator) {
+            case FlatTree.OP_TRUE:
+                return true;
+            case FlatTree.OP_FALSE:
+                return false;
+            default:
+                return compare(operator, values[nodes.getInt(record + FEATURE_OFFSET)],
+                        nodes.getDouble(record + THRESHOLD_OFFSET));
+        }
+    }
+
+    private boolean test(int node, double[][] columns, int row) {
+        int record = node * RECORD_SIZE;
+        int operator = nodes.getInt(record + OPERATOR_OFFSET);
+        switch (operator) {
+            case FlatTree.OP_TRUE:
+                return true;
+            case FlatTree.OP_FALSE:
+                return false;
+            default:
+                return compare(operator, columns[nodes.getInt(record + FEATURE_OFFSET)][row],
+                        nodes.getDouble(record + THRESHOLD_OFFSET));
+        }
+    }
+
+    private static boolean compare(int operator, double value, double threshold) {
+        // Compared as JPMML compares field values, which tells -0.0 apart from 0.0
+        int comparison = Double.compare(value, threshold);
+        switch (operator) {
+            case FlatTree.OP_EQUAL:
+                return comparison == 0;
+            case FlatTree.OP_NOT_EQUAL:
+                return comparison != 0;
+            case FlatTree.OP_LESS_THAN:
+                return comparison < 0;
+            case FlatTree.OP_LESS_OR_EQUAL:
+                return comparison <= 0;
+            case FlatTree.OP_GREATER_THAN:
+                return comparison > 0;
+            default:
+                return comparison >= 0;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml.compiler;
+
+import org.dmg.pmml.regression.RegressionModel;
+
+/**
+ * Regression model scoring its single regression table, normalized and rescaled as JPMML does.
+ */
+final class RegressionScorer implements Scorer {
+
+    private final RegressionTerms terms;
+    private final RegressionModel.NormalizationMethod normalization;
+    private final boolean floatContext;
+    private final double rescaleFactor;
+    private final double rescaleConstant;
+
+    RegressionScorer(RegressionTerms terms, RegressionModel.NormalizationMethod normalization, boolean floatContext,
+                     double rescaleFactor, double rescaleConstant) {
+        this.terms = terms;
+        this.normalization = normalization;
+        this.floatContext = floatContext;
+        this.rescaleFactor = rescaleFactor;
+        this.rescaleConstant = rescaleConstant;
+    }
+
+    @Override
+    public double score(double[] values) {
+        return process(terms.evaluate(values));
+    }
+
+    @Override
+    public void score(double[][] columns, int from, int to, double[] scores) {
+        terms.evaluate(columns, from, to, scores);
+        for (int row = from; row < to; row++) {
+            scores[row] = process(scores[row]);
+        }
+    }
+
+    private double process(double value) {
+        double result;
+        switch (normalization) {
+            case LOGIT:
+            case SOFTMAX:
+                result = Arithmetic.inverseLogit(value, floatContext);
+                break;
+            case EXP:
+                result = Arithmetic.exp(value, floatContext);
+                break;
+            default:
+                result = value;
+                break;
+        }
+        // Target rescaling, applied in the order of JPMML
+        if (rescaleFactor != 1d) {
+            result = Arithmetic.multiply(result, rescaleFactor, floatContext);
+        }
+        if (rescaleConstant != 0d) {
+            result = Arithmetic.add(result, rescaleConstant, floatContext);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,417 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml.compiler;
+
+import org.dmg.pmml.FieldName;
+import org.dmg.pmml.FieldRef;
+import org.dmg.pmml.general_regression.GeneralRegressionModel;
+import org.dmg.pmml.general_regression.PCell;
+import org.dmg.pmml.general_regression.PPCell;
+import org.dmg.pmml.general_regression.ParameterCell;
+import org.dmg.pmml.general_regression.Predictor;
+import org.dmg.pmml.regression.CategoricalPredictor;
+import org.dmg.pmml.regression.NumericPredictor;
+import org.dmg.pmml.regression.PredictorTerm;
+import org.dmg.pmml.regression.RegressionTable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Regression table summing its numeric, categorical and interaction terms, the parameters of a general regression
+ * model and its intercept, in the order JPMML sums them. Categorical terms are looked up by the code of the category,
+ * and a category without a term of its own adds nothing.
+ */
+final class RegressionTerms {
+
+    private final int[] numericFeatures;
+    private final double[] numericCoefficients;
+    private final int[] exponents;
+    private final int[] categoricalFeatures;
+    // Coefficient of each category code of each categorical feature, NaN for the categories without a term
+    private final double[][] categoricalCoefficients;
+    private final int[][] interactionFeatures;
+    private final double[] interactionCoefficients;
+    // Each parameter adds its coefficient times its covariates raised to their exponents, when its factors are at
+    // their levels
+    private final int[][] parameterFactors;
+    private final int[][] parameterLevels;
+    private final int[][] parameterCovariates;
+    private final double[][] parameterExponents;
+    private final double[] parameterCoefficients;
+    private final double intercept;
+    private final boolean floatContext;
+
+    RegressionTerms(int[] numericFeatures, double[] numericCoefficients, int[] exponents, int[] categoricalFeatures,
+                    double[][] categoricalCoefficients, int[][] interactionFeatures,
+                    double[] interactionCoefficients, double intercept, boolean floatContext) {
+        this(numericFeatures, numericCoefficients, exponents, categoricalFeatures, categoricalCoefficients,
+                interactionFeatures, interactionCoefficients, new int[0][], new int[0][], new int[0][],
+                new double[0][], new double[0], intercept, floatContext);
+    }
+
+    private RegressionTerms(int[] numericFeatures, double[] numericCoefficients, int[] exponents,
+                            int[] categoricalFeatures, double[][] categoricalCoefficients, int[][] interactionFeatures,
+                            double[] interactionCoefficients, int[][] parameterFactors, int[][] parameterLevels,
+                            int[][] parameterCovariates, double[][] parameterExponents,
+                            double[] parameterCoefficients, double intercept, boolean floatContext) {
+        this.numericFeatures = numericFeatures;
+        this.numericCoefficients = numericCoefficients;
+        this.exponents = exponents;
+        this.categoricalFeatures = categoricalFeatures;
+        this.categoricalCoefficients = categoricalCoefficients;
+        this.interactionFeatures = interactionFeatures;
+        this.interactionCoefficients = interactionCoefficients;
+        this.parameterFactors = parameterFactors;
+        this.parameterLevels = parameterLevels;
+        this.parameterCovariates = parameterCovariates;
+        this.parameterExponents = parameterExponents;
+        this.parameterCoefficients = parameterCoefficients;
+        this.intercept = intercept;
+        this.floatContext = floatContext;
+    }
+
+    /**
+     * Compile the regression tables of a model.
+     *
+     * @param regressionTables regression tables
+     * @param features         feature registry
+     * @param floatContext     whether the tables use the float math context
+     * @return compiled tables, in order
+     * @throws UnsupportedModelException when a table uses unsupported predictors
+     */
+    static RegressionTerms[] compile(List<RegressionTable> regressionTables, FeatureRegistry features,
+                                     boolean floatContext) throws UnsupportedModelException {
+        // Coefficients by category code, looked up once every table is read, as open fields number their values
+        // on first use
+        List<Map<Integer, Map<Integer, Double>>> categoricalTerms = new ArrayList<>();
+        for (RegressionTable regressionTable : regressionTables) {
+            Map<Integer, Map<Integer, Double>> tableTerms = new LinkedHashMap<>();
+            FieldName lastName = null;
+            for (CategoricalPredictor categoricalPredictor : regressionTable.getCategoricalPredictors()) {
+                int feature = features.registerCategorical(categoricalPredictor.getName());
+                Map<Integer, Double> coefficients = tableTerms.get(feature);
+                if (coefficients == null) {
+                    coefficients = new LinkedHashMap<>();
+                    tableTerms.put(feature, coefficients);
+                } else if (!categoricalPredictor.getName().equals(lastName)) {
+                    // JPMML adds the first matching term of each run of terms of a field
+                    throw new UnsupportedModelException("categorical predictors of field " +
+                            categoricalPredictor.getName() + " apart from each other");
+                }
+                // Only the first term of a category is ever added
+                coefficients.putIfAbsent(features.encode(feature, categoricalPredictor.getValue()),
+                        categoricalPredictor.getCoefficient());
+                lastName = categoricalPredictor.getName();
+            }
+            categoricalTerms.add(tableTerms);
+        }
+
+        RegressionTerms[] tables = new RegressionTerms[regressionTables.size()];
+        for (int i = 0; i < tables.length; i++) {
+            RegressionTable regressionTable = regressionTables.get(i);
+            List<NumericPredictor> numericPredictors = regressionTable.getNumericPredictors();
+            int[] numericFeatures = new int[numericPredictors.size()];
+            double[] numericCoefficients = new double[numericPredictors.size()];
+            int[] exponents = new int[numericPredictors.size()];
+            for (int j = 0; j < numericFeatures.length; j++) {
+                NumericPredictor numericPredictor = numericPredictors.get(j);
+                numericFeatures[j] = features.register(numericPredictor.getName());
+                numericCoefficients[j] = numericPredictor.getCoefficient();
+                exponents[j] = numericPredictor.getExponent();
+            }
+
+            Map<Integer, Map<Integer, Double>> tableTerms = categoricalTerms.get(i);
+            int[] categoricalFeatures = new int[tableTerms.size()];
+            double[][] categoricalCoefficients = new double[tableTerms.size()][];
+            int j = 0;
+            for (Map.Entry<Integer, Map<Integer, Double>> featureTerms : tableTerms.entrySet()) {
+                categoricalFeatures[j] = featureTerms.getKey();
+                categoricalCoefficients[j] = new double[features.getCategoryCount(featureTerms.getKey())];
+                Arrays.fill(categoricalCoefficients[j], Double.NaN);
+                for (Map.Entry<Integer, Double> term : featureTerms.getValue().entrySet()) {
+                    categoricalCoefficients[j][term.getKey()] = term.getValue();
+                }
+                j++;
+            }
+
+            List<PredictorTerm> predictorTerms = regressionTable.getPredictorTerms();
+            int[][] interactionFeatures = new int[predictorTerms.size()][];
+            double[] interactionCoefficients = new double[predictorTerms.size()];
+            for (int k = 0; k < interactionFeatures.length; k++) {
+                List<FieldRef> fieldRefs = predictorTerms.get(k).getFieldRefs();
+                interactionFeatures[k] = new int[fieldRefs.size()];
+                for (int l = 0; l < fieldRefs.size(); l++) {
+                    if (fieldRefs.get(l).getMapMissingTo() != null) {
+                        throw new UnsupportedModelException("predictor terms mapping missing values");
+                    }
+                    interactionFeatures[k][l] = features.register(fieldRefs.get(l).getField());
+                }
+                interactionCoefficients[k] = predictorTerms.get(k).getCoefficient();
+            }
+            tables[i] = new RegressionTerms(numericFeatures, numericCoefficients, exponents, categoricalFeatures,
+                    categoricalCoefficients, interactionFeatures, interactionCoefficients,
+                    regressionTable.getIntercept(), floatContext);
+        }
+        return tables;
+    }
+
+    /**
+     * Compile the parameters of a general regression model scoring the given target category, read in the double
+     * math context.
+     *
+     * @param generalRegressionModel general regression model
+     * @param targetCategory         target category, null for regression models
+     * @param features               feature registry
+     * @return compiled parameters
+     * @throws UnsupportedModelException when the parameters use unsupported predictors
+     */
+    static RegressionTerms compile(GeneralRegressionModel generalRegressionModel, String targetCategory,
+                                   FeatureRegistry features) throws UnsupportedModelException {
+        List<PCell> pCells = selectCells(generalRegressionModel.getParamMatrix() == null ? null :
+                generalRegressionModel.getParamMatrix().getPCells(), targetCategory);
+        if (pCells.isEmpty()) {
+            throw new UnsupportedModelException("general regression models without parameters");
+        }
+        List<PPCell> ppCells = generalRegressionModel.getPPMatrix() == null ? null :
+                generalRegressionModel.getPPMatrix().getPPCells();
+        Map<String, List<PPCell>> rows = new LinkedHashMap<>();
+        for (PPCell ppCell : selectCells(ppCells, targetCategory)) {
+            rows.computeIfAbsent(ppCell.getParameterName(), name -> new ArrayList<>()).add(ppCell);
+        }
+        if (rows.isEmpty() && ppCells != null && !ppCells.isEmpty()) {
+            throw new UnsupportedModelException("predictor to parameter cells of other target categories");
+        }
+        List<Predictor> factors = generalRegressionModel.getFactorList() == null ? new ArrayList<>() :
+                generalRegressionModel.getFactorList().getPredictors();
+        List<Predictor> covariates = generalRegressionModel.getCovariateList() == null ? new ArrayList<>() :
+                generalRegressionModel.getCovariateList().getPredictors();
+
+        int[][] parameterFactors = new int[pCells.size()][];
+        int[][] parameterLevels = new int[pCells.size()][];
+        int[][] parameterCovariates = new int[pCells.size()][];
+        double[][] parameterExponents = new double[pCells.size()][];
+        double[] parameterCoefficients = new double[pCells.size()];
+        for (int i = 0; i < pCells.size(); i++) {
+            List<PPCell> row = rows.getOrDefault(pCells.get(i).getParameterName(), new ArrayList<>());
+            // JPMML checks every factor of a parameter before multiplying its covariates
+            List<PPCell> factorCells = new ArrayList<>();
+            List<PPCell> covariateCells = new ArrayList<>();
+            for (PPCell ppCell : row) {
+                Predictor factor = findPredictor(factors, ppCell.getPredictorName());
+                if (factor != null) {
+                    if (factor.getMatrix() != null) {
+                        throw new UnsupportedModelException("factors with contrast matrices");
+                    }
+                    factorCells.add(ppCell);
+                } else if (findPredictor(covariates, ppCell.getPredictorName()) != null) {
+                    covariateCells.add(ppCell);
+                } else {
+                    throw new UnsupportedModelException("predictor " + ppCell.getPredictorName() +
+                            " that is neither a factor nor a covariate");
+                }
+            }
+            parameterFactors[i] = new int[factorCells.size()];
+            parameterLevels[i] = new int[factorCells.size()];
+            for (int j = 0; j < factorCells.size(); j++) {
+                parameterFactors[i][j] = features.registerCategorical(factorCells.get(j).getPredictorName());
+                parameterLevels[i][j] = features.encode(parameterFactors[i][j], factorCells.get(j).getValue());
+            }
+            parameterCovariates[i] = new int[covariateCells.size()];
+            parameterExponents[i] = new double[covariateCells.size()];
+            for (int j = 0; j < covariateCells.size(); j++) {
+                parameterCovariates[i][j] = features.register(covariateCells.get(j).getPredictorName());
+                try {
+                    parameterExponents[i][j] = Double.parseDouble(covariateCells.get(j).getValue());
+                } catch (NumberFormatException e) {
+                    throw new UnsupportedModelException("covariate exponent " + covariateCells.get(j).getValue());
+                }
+            }
+            parameterCoefficients[i] = pCells.get(i).getBeta();
+        }
+        return new RegressionTerms(new int[0], new double[0], new int[0], new int[0], new double[0][],
+                new int[0][], new double[0], parameterFactors, parameterLevels, parameterCovariates,
+                parameterExponents, parameterCoefficients, 0d, false);
+    }
+
+    /**
+     * Regression table adding nothing, which scores the reference category of a binomial general regression model.
+     */
+    static RegressionTerms empty() {
+        return new RegressionTerms(new int[0], new double[0], new int[0], new int[0], new double[0][],
+                new int[0][], new double[0], 0d, false);
+    }
+
+    /**
+     * Select the cells of a target category as JPMML selects them: the cells of the category when there are any,
+     * and the cells of no category otherwise. Regression models only have cells of no category.
+     */
+    private static <C extends ParameterCell> List<C> selectCells(List<C> cells, String targetCategory)
+            throws UnsupportedModelException {
+        List<C> categoryCells = new ArrayList<>();
+        List<C> sharedCells = new ArrayList<>();
+        if (cells != null) {
+            for (C cell : cells) {
+                if (cell.getTargetCategory() == null) {
+                    sharedCells.add(cell);
+                } else if (targetCategory == null) {
+                    throw new UnsupportedModelException("parameter cells of target categories in regression models");
+                } else if (cell.getTargetCategory().equals(targetCategory)) {
+                    categoryCells.add(cell);
+                }
+            }
+        }
+        return categoryCells.isEmpty() ? sharedCells : categoryCells;
+    }
+
+    private static Predictor findPredictor(List<Predictor> predictors, FieldName name) {
+        for (Predictor predictor : predictors) {
+            if (predictor.getName().equals(name)) {
+                return predictor;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sum the terms for the given feature values.
+     *
+     * @param values feature values
+     * @return regression value
+     */
+    double evaluate(double[] values) {
+        double value = 0;
+        for (int i = 0; i < numericFeatures.length; i++) {
+            double x = values[numericFeatures[i]];
+            if (exponents[i] != 1) {
+                x = Arithmetic.pow(x, exponents[i], floatContext);
+            }
+            value = Arithmetic.addProduct(value, numericCoefficients[i], x, floatContext);
+        }
+        for (int i = 0; i < categoricalFeatures.length; i++) {
+            double coefficient = categoricalCoefficients[i][(int) values[categoricalFeatures[i]]];
+            if (!Double.isNaN(coefficient)) {
+                value = Arithmetic.add(value, coefficient, floatContext);
+            }
+        }
+        for (int i = 0; i < interactionFeatures.length; i++) {
+            double product = Arithmetic.round(interactionCoefficients[i], floatContext);
+            for (int feature : interactionFeatures[i]) {
+                product = Arithmetic.multiply(product, values[feature], floatContext);
+            }
+            value = Arithmetic.add(value, product, floatContext);
+        }
+        for (int i = 0; i < parameterCoefficients.length; i++) {
+            if (atLevels(i, values)) {
+                double product = 1d;
+                for (int j = 0; j < parameterCovariates[i].length; j++) {
+                    product = power(product, values[parameterCovariates[i][j]], parameterExponents[i][j]);
+                }
+                value += parameterCoefficients[i] * product;
+            }
+        }
+        return Arithmetic.add(value, intercept, floatContext);
+    }
+
+    /**
+     * Sum the terms for a range of rows given as feature columns, one term at a time over all the rows, so that
+     * the numeric terms are summed in tight loops.
+     *
+     * @param columns feature columns
+     * @param from    first row
+     * @param to      row after the last row
+     * @param values  array receiving the regression value of each row, indexed as the columns
+     */
+    void evaluate(double[][] columns, int from, int to, double[] values) {
+        for (int row = from; row < to; row++) {
+            values[row] = 0;
+        }
+        for (int i = 0; i < numericFeatures.length; i++) {
+            double[] column = columns[numericFeatures[i]];
+            if (exponents[i] == 1) {
+                Arithmetic.addProducts(values, numericCoefficients[i], column, from, to, floatContext);
+            } else {
+                for (int row = from; row < to; row++) {
+                    values[row] = Arithmetic.addProduct(values[row], numericCoefficients[i],
+                            Arithmetic.pow(column[row], exponents[i], floatContext), floatContext);
+                }
+            }
+        }
+        for (int i = 0; i < categoricalFeatures.length; i++) {
+            double[] column = columns[categoricalFeatures[i]];
+            double[] coefficients = categoricalCoefficients[i];
+            for (int row = from; row < to; row++) {
+                double coefficient = coefficients[(int) column[row]];
+                if (!Double.isNaN(coefficient)) {
+                    values[row] = Arithmetic.add(values[row], coefficient, floatContext);
+                }
+            }
+        }
+        for (int i = 0; i < interactionFeatures.length; i++) {
+            for (int row = from; row < to; row++) {
+                double product = Arithmetic.round(interactionCoefficients[i], floatContext);
+                for (int feature : interactionFeatures[i]) {
+                    product = Arithmetic.multiply(product, columns[feature][row], floatContext);
+                }
+                values[row] = Arithmetic.add(values[row], product, floatContext);
+            }
+        }
+        for (int i = 0; i < parameterCoefficients.length; i++) {
+            for (int row = from; row < to; row++) {
+                if (atLevels(i, columns, row)) {
+                    double product = 1d;
+                    for (int j = 0; j < parameterCovariates[i].length; j++) {
+                        product = power(product, columns[parameterCovariates[i][j]][row], parameterExponents[i][j]);
+                    }
+                    values[row] += parameterCoefficients[i] * product;
+                }
+            }
+        }
+        for (int row = from; row < to; row++) {
+            values[row] = Arithmetic.add(values[row], intercept, floatContext);
+        }
+    }
+
+    private boolean atLevels(int parameter, double[] values) {
+        for (int j = 0; j < parameterFactors[parameter].length; j++) {
+            if (values[parameterFactors[parameter][j]] != parameterLevels[parameter][j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean atLevels(int parameter, double[][] columns, int row) {
+        for (int j = 0; j < parameterFactors[parameter].length; j++) {
+            if (columns[parameterFactors[parameter][j]][row] != parameterLevels[parameter][j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Multiply a product by a covariate raised to its exponent, as JPMML multiplies the covariates of a parameter.
+     */
+    private static double power(double product, double x, double exponent) {
+        return exponent != 1d ? product * Math.pow(x, exponent) : product * x;
+    }
+}
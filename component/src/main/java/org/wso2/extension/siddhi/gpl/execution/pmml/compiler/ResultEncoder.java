@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml.compiler;
+
+import org.dmg.pmml.FieldName;
+import org.dmg.pmml.OutputField;
+import org.dmg.pmml.ResultFeature;
+import org.jpmml.evaluator.FieldValueUtil;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns the result of a compiled model into the decoded output values JPMML would return for the same result.
+ */
+final class ResultEncoder {
+
+    private static final int TARGET = 0;
+    private static final int PREDICTED_VALUE = 1;
+    private static final int PROBABILITY = 2;
+
+    private final int[] kinds;
+    private final int[] categories;
+    private final OutputField[] outputFields;
+
+    private ResultEncoder(int size) {
+        this.kinds = new int[size];
+        this.categories = new int[size];
+        this.outputFields = new OutputField[size];
+    }
+
+    /**
+     * Create an encoder of the given output fields.
+     *
+     * @param outputNames     names of the values to encode, in order
+     * @param targetName      name of the target field
+     * @param pmmlOutputs     output fields of the model, by name
+     * @param categoryValues  target categories the probabilities are computed for, or null for regression
+     * @return result encoder
+     * @throws UnsupportedModelException when an output cannot be derived from the compiled result
+     */
+    static ResultEncoder create(List<FieldName> outputNames, FieldName targetName, Map<FieldName, OutputField>
+            pmmlOutputs, List<String> categoryValues) throws UnsupportedModelException {
+        ResultEncoder encoder = new ResultEncoder(outputNames.size());
+        for (int i = 0; i < outputNames.size(); i++) {
+            FieldName name = outputNames.get(i);
+            if (name.equals(targetName)) {
+                encoder.kinds[i] = TARGET;
+                continue;
+            }
+            OutputField outputField = pmmlOutputs.get(name);
+            if (outputField == null || outputField.getSegmentId() != null || (outputField.getTargetField() != null
+                    && !outputField.getTargetField().equals(targetName))) {
+                throw new UnsupportedModelException("output " + name);
+            }
+            encoder.outputFields[i] = outputField;
+            if (outputField.getResultFeature() == ResultFeature.PREDICTED_VALUE) {
+                encoder.kinds[i] = PREDICTED_VALUE;
+            } else if (outputField.getResultFeature() == ResultFeature.PROBABILITY && categoryValues != null &&
+                    categoryValues.contains(outputField.getValue())) {
+                encoder.kinds[i] = PROBABILITY;
+                encoder.categories[i] = categoryValues.indexOf(outputField.getValue());
+            } else {
+                throw new UnsupportedModelException("output " + name + " of feature " +
+                        outputField.getResultFeature());
+            }
+        }
+        return encoder;
+    }
+
+    /**
+     * Encode the result of a regression model.
+     *
+     * @param targetValue target value, already cast to the data type of the target field
+     * @return decoded output values
+     */
+    Object[] encode(Object targetValue) {
+        return encode(targetValue, null);
+    }
+
+    /**
+     * Encode the result of a classification model.
+     *
+     * @param targetValue   winning category, already cast to the data type of the target field
+     * @param probabilities probabilities of the target categories
+     * @return decoded output values
+     */
+    Object[] encode(Object targetValue, double[] probabilities) {
+        Object[] output = new Object[kinds.length];
+        for (int i = 0; i < kinds.length; i++) {
+            switch (kinds[i]) {
+                case TARGET:
+                    output[i] = targetValue;
+                    break;
+                case PREDICTED_VALUE:
+                    output[i] = FieldValueUtil.getValue(FieldValueUtil.create(outputFields[i], targetValue));
+                    break;
+                default:
+                    output[i] = FieldValueUtil.getValue(FieldValueUtil.create(outputFields[i],
+                            probabilities[categories[i]]));
+                    break;
+            }
+        }
+        return output;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml.compiler;
+
+/**
+ * Compiled regression model producing a single numeric score.
+ */
+interface Scorer {
+
+    /**
+     * Score the given feature values.
+     *
+     * @param values feature values
+     * @return score, or NaN when the model makes no prediction
+     */
+    double score(double[] values);
+
+    /**
+     * Score a range of rows given as feature columns.
+     *
+     * @param columns feature columns
+     * @param from    first row to score
+     * @param to      row after the last row to score
+     * @param scores  array receiving the score of each row, indexed as the columns, NaN when the model makes no
+     *                prediction
+     */
+    void score(double[][] columns, int from, int to, double[] scores);
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml.compiler;
+
+import org.dmg.pmml.mining.Segmentation;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Regression ensemble aggregating the scores of its segments, such as a random forest or gradient boosted trees.
+ * Segments are either scored one after another, or spread across a fork join pool to lower the latency of scoring
+ * a single event with a large ensemble. Parallel scores are still aggregated in the order of the segments, hence
+ * both give the same results. Batches of rows are scored segment by segment, so that each tree stays in the CPU
+ * cache while it scores every row, and are spread across the pool by rows instead.
+ */
+final class SegmentationScorer implements Scorer {
+
+    private final Scorer[] segments;
+    private final double[] weights;
+    private final Segmentation.MultipleModelMethod method;
+    private final boolean floatContext;
+    private final double rescaleFactor;
+    private final double rescaleConstant;
+    // Pool scoring the segments in parallel, or null to score them sequentially
+    private final ForkJoinPool pool;
+    private final int taskSize;
+    // Segment score buffer of each thread, taken out while in use, so that a thread scoring a nested ensemble
+    // with the same scorer meanwhile gets a buffer of its own
+    private final ThreadLocal<double[]> buffers = new ThreadLocal<>();
+
+    SegmentationScorer(Scorer[] segments, double[] weights, Segmentation.MultipleModelMethod method,
+                       boolean floatContext, double rescaleFactor, double rescaleConstant, ForkJoinPool pool) {
+        this.segments = segments;
+        this.weights = weights;
+        this.method = method;
+        this.floatContext = floatContext;
+        this.rescaleFactor = rescaleFactor;
+        this.rescaleConstant = rescaleConstant;
+        this.pool = pool;
+        this.taskSize = pool == null ? segments.length :
+                Math.max(1, (segments.length + pool.getParallelism() - 1) / pool.getParallelism());
+    }
+
+    @Override
+    public double score(double[] values) {
+        double[] scores = null;
+        if (pool != null) {
+            scores = acquireBuffer(segments.length);
+            pool.invoke(new SegmentTask(values, scores, 0, segments.length));
+        }
+        try {
+            return combine(values, scores);
+        } finally {
+            if (scores != null) {
+                buffers.set(scores);
+            }
+        }
+    }
+
+    /**
+     * Combine the scores of the segments for a single row, scoring them in order unless they were scored in
+     * parallel.
+     */
+    private double combine(double[] values, double[] scores) {
+        double sum = 0;
+        double weightSum = 0;
+        for (int i = 0; i < segments.length; i++) {
+            double value = scores == null ? segments[i].score(values) : scores[i];
+            if (Double.isNaN(value)) {
+                return Double.NaN;
+            }
+            value = Arithmetic.round(value, floatContext);
+            if (method == Segmentation.MultipleModelMethod.WEIGHTED_AVERAGE) {
+                sum = Arithmetic.addProduct(sum, weights[i], value, floatContext);
+                weightSum = Arithmetic.add(weightSum, weights[i], floatContext);
+            } else {
+                sum = Arithmetic.add(sum, value, floatContext);
+            }
+        }
+
+        return aggregate(sum, weightSum);
+    }
+
+    @Override
+    public void score(double[][] columns, int from, int to, double[] scores) {
+        if (pool != null && to - from > 1) {
+            int rowTaskSize = Math.max(1, (to - from + pool.getParallelism() - 1) / pool.getParallelism());
+            pool.invoke(new RowTask(columns, scores, from, to, rowTaskSize));
+        } else {
+            scoreRows(columns, from, to, scores);
+        }
+    }
+
+    /**
+     * Score a range of rows one segment after another, summing the scores of each row in the order of the
+     * segments. A segment making no prediction turns the sum of the row into NaN.
+     */
+    private void scoreRows(double[][] columns, int from, int to, double[] scores) {
+        double[] segmentScores = acquireBuffer(to);
+        double weightSum = 0;
+        for (int row = from; row < to; row++) {
+            scores[row] = 0;
+        }
+        for (int i = 0; i < segments.length; i++) {
+            segments[i].score(columns, from, to, segmentScores);
+            if (method == Segmentation.MultipleModelMethod.WEIGHTED_AVERAGE) {
+                double weight = weights[i];
+                for (int row = from; row < to; row++) {
+                    scores[row] = Arithmetic.addProduct(scores[row], weight,
+                            Arithmetic.round(segmentScores[row], floatContext), floatContext);
+                }
+                weightSum = Arithmetic.add(weightSum, weight, floatContext);
+            } else {
+                for (int row = from; row < to; row++) {
+                    scores[row] = Arithmetic.add(scores[row], Arithmetic.round(segmentScores[row], floatContext),
+                            floatContext);
+                }
+            }
+        }
+        for (int row = from; row < to; row++) {
+            scores[row] = aggregate(scores[row], weightSum);
+        }
+        buffers.set(segmentScores);
+    }
+
+    /**
+     * Take the segment score buffer of the calling thread, grown to the given size, to be given back once used.
+     */
+    private double[] acquireBuffer(int size) {
+        double[] buffer = buffers.get();
+        if (buffer == null || buffer.length < size) {
+            return new double[size];
+        }
+        buffers.set(null);
+        return buffer;
+    }
+
+    /**
+     * Turn the sum of the segment scores into the score of the ensemble.
+     */
+    private double aggregate(double sum, double weightSum) {
+        double result;
+        switch (method) {
+            case AVERAGE:
+                result = Arithmetic.divide(sum, segments.length, floatContext);
+                break;
+            case WEIGHTED_AVERAGE:
+                result = Arithmetic.divide(sum, weightSum, floatContext);
+                break;
+            default:
+                result = sum;
+                break;
+        }
+        // Target rescaling, applied in the order of JPMML
+        if (rescaleFactor != 1d) {
+            result = Arithmetic.multiply(result, rescaleFactor, floatContext);
+        }
+        if (rescaleConstant != 0d) {
+            result = Arithmetic.add(result, rescaleConstant, floatContext);
+        }
+        return result;
+    }
+
+    /**
+     * Task scoring a range of segments, split until each task scores about as many segments as the others.
+     */
+    private final class SegmentTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final double[] values;
+        private final double[] scores;
+        private final int from;
+        private final int to;
+
+        private SegmentTask(double[] values, double[] scores, int from, int to) {
+            this.values = values;
+            this.scores = scores;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= taskSize) {
+                for (int i = from; i < to; i++) {
+                    scores[i] = segments[i].score(values);
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new SegmentTask(values, scores, from, middle), new SegmentTask(values, scores, middle, to));
+            }
+        }
+    }
+
+    /**
+     * Task scoring a range of rows, split until each task scores about as many rows as the others.
+     */
+    private final class RowTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final double[][] columns;
+        private final double[] scores;
+        private final int from;
+        private final int to;
+        private final int rowTaskSize;
+
+        private RowTask(double[][] columns, double[] scores, int from, int to, int rowTaskSize) {
+            this.columns = columns;
+            this.scores = scores;
+            this.from = from;
+            this.to = to;
+            this.rowTaskSize = rowTaskSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= rowTaskSize) {
+                scoreRows(columns, from, to, scores);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new RowTask(columns, scores, from, middle, rowTaskSize),
+                        new RowTask(columns, scores, middle, to, rowTaskSize));
+            }
+        }
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml.compiler;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.apache.log4j.Logger;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates a class walking a flat tree as straight-line code: each node becomes a comparison of a feature value
+ * with a constant, branching to the code of its children, so that the JIT compiler sees no operator switch and no
+ * array lookups besides the feature values. Large trees are split into several methods, each small enough to be
+ * compiled by HotSpot. The generated classes are shared by the trees of the same layout, which includes every
+ * reload and every query of the same model, and are unloaded once no tree of that layout is in use.
+ */
+final class TreeCodeGenerator {
+
+    private static final Logger logger = Logger.getLogger(TreeCodeGenerator.class);
+
+    // Nodes inlined into a generated method before the larger subtrees move to methods of their own, keeping the
+    // methods below the size above which HotSpot does not compile them
+    private static final int METHOD_NODE_BUDGET = 128;
+    private static final String CLASS_NAME_PREFIX = Type.getInternalName(TreeWalker.class)
+            .replace("TreeWalker", "GeneratedTree");
+    private static final String WALKER_NAME = Type.getInternalName(TreeWalker.class);
+    private static final String VALUES_DESCRIPTOR = "([D)I";
+    private static final String COLUMNS_DESCRIPTOR = "([[DI)I";
+
+    private static final AtomicLong classCount = new AtomicLong();
+    private static final Cache<Layout, Class<? extends TreeWalker>> classes = CacheBuilder.newBuilder()
+            .weakValues().build();
+
+    private final FlatTree tree;
+    private final String className;
+    private final int[] subtreeSizes;
+
+    private TreeCodeGenerator(FlatTree tree, String className) {
+        this.tree = tree;
+        this.className = className;
+        this.subtreeSizes = new int[tree.getNodeCount()];
+        // Children are numbered after their parent, hence a reverse pass sees every subtree before its root
+        for (int i = subtreeSizes.length - 1; i >= 0; i--) {
+            subtreeSizes[i] = 1;
+            for (int child = tree.getFirstChild(i); child < tree.getChildEnd(i); child++) {
+                subtreeSizes[i] += subtreeSizes[child];
+            }
+        }
+    }
+
+    /**
+     * Get a generated walker of the given tree.
+     *
+     * @param tree flat tree
+     * @return generated walker, or the flat tree itself when no class could be generated for it
+     */
+    static TreeWalker generate(FlatTree tree) {
+        try {
+            Class<? extends TreeWalker> walkerClass = classes.get(new Layout(tree), () -> defineClass(tree));
+            return walkerClass.getConstructor().newInstance();
+        } catch (ExecutionException | UncheckedExecutionException | ExecutionError | ReflectiveOperationException |
+                LinkageError e) {
+            logger.warn("Could not generate the code of a tree of " + tree.getNodeCount() + " nodes, hence it is " +
+                    "walked through its flat layout.", e);
+            return tree;
+        }
+    }
+
+    private static Class<? extends TreeWalker> defineClass(FlatTree tree) throws UnsupportedModelException {
+        for (int i = 0; i < tree.getNodeCount(); i++) {
+            if (tree.getChildEnd(i) - tree.getFirstChild(i) > METHOD_NODE_BUDGET) {
+                throw new UnsupportedModelException("nodes of more than " + METHOD_NODE_BUDGET + " children");
+            }
+        }
+        String className = CLASS_NAME_PREFIX + classCount.incrementAndGet();
+        byte[] bytes = new TreeCodeGenerator(tree, className).generateClass();
+        return new WalkerClassLoader().define(className.replace('/', '.'), bytes).asSubclass(TreeWalker.class);
+    }
+
+    private byte[] generateClass() {
+        ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        classWriter.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER, className, null,
+                "java/lang/Object", new String[]{WALKER_NAME});
+
+        MethodVisitor constructor = classWriter.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        constructor.visitCode();
+        constructor.visitVarInsn(Opcodes.ALOAD, 0);
+        constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        constructor.visitInsn(Opcodes.RETURN);
+        constructor.visitMaxs(0, 0);
+        constructor.visitEnd();
+
+        for (boolean columnar : new boolean[]{false, true}) {
+            String descriptor = columnar ? COLUMNS_DESCRIPTOR : VALUES_DESCRIPTOR;
+            MethodVisitor evaluate = classWriter.visitMethod(Opcodes.ACC_PUBLIC, "evaluate", descriptor, null, null);
+            evaluate.visitCode();
+            evaluate.visitVarInsn(Opcodes.ALOAD, 1);
+            if (columnar) {
+                evaluate.visitVarInsn(Opcodes.ILOAD, 2);
+            }
+            evaluate.visitMethodInsn(Opcodes.INVOKESTATIC, className, methodName(0, columnar), descriptor, false);
+            evaluate.visitInsn(Opcodes.IRETURN);
+            evaluate.visitMaxs(0, 0);
+            evaluate.visitEnd();
+
+            Deque<Integer> roots = new ArrayDeque<>();
+            roots.add(0);
+            while (!roots.isEmpty()) {
+                generateMethod(classWriter, roots.poll(), columnar, roots);
+            }
+        }
+        classWriter.visitEnd();
+        return classWriter.toByteArray();
+    }
+
+    /**
+     * Generate the method walking the subtree of a node, whose predicate the caller has tested, except for the
+     * root of the tree.
+     */
+    private void generateMethod(ClassWriter classWriter, int root, boolean columnar, Deque<Integer> roots) {
+        MethodVisitor method = classWriter.visitMethod(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC,
+                methodName(root, columnar), columnar ? COLUMNS_DESCRIPTOR : VALUES_DESCRIPTOR, null, null);
+        method.visitCode();
+        if (root == 0) {
+            Label noPrediction = new Label();
+            if (generateTest(method, 0, columnar, noPrediction)) {
+                generateNode(method, 0, columnar, new int[]{METHOD_NODE_BUDGET}, roots);
+            }
+            method.visitLabel(noPrediction);
+            pushInt(method, -1);
+            method.visitInsn(Opcodes.IRETURN);
+        } else {
+            generateNode(method, root, columnar, new int[]{METHOD_NODE_BUDGET}, roots);
+        }
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+    }
+
+    /**
+     * Generate the code selecting a node or one of its descendants, returning the index of the selected node.
+     */
+    private void generateNode(MethodVisitor method, int node, boolean columnar, int[] budget, Deque<Integer> roots) {
+        budget[0]--;
+        if (tree.isLeaf(node)) {
+            pushInt(method, node);
+            method.visitInsn(Opcodes.IRETURN);
+            return;
+        }
+        for (int child = tree.getFirstChild(node); child < tree.getChildEnd(node); child++) {
+            Label nextChild = new Label();
+            if (!generateTest(method, child, columnar, nextChild)) {
+                continue;
+            }
+            if (!tree.isLeaf(child) && subtreeSizes[child] > budget[0]) {
+                roots.add(child);
+                budget[0]--;
+                method.visitVarInsn(Opcodes.ALOAD, 0);
+                if (columnar) {
+                    method.visitVarInsn(Opcodes.ILOAD, 1);
+                }
+                method.visitMethodInsn(Opcodes.INVOKESTATIC, className, methodName(child, columnar),
+                        columnar ? COLUMNS_DESCRIPTOR : VALUES_DESCRIPTOR, false);
+                method.visitInsn(Opcodes.IRETURN);
+            } else {
+                generateNode(method, child, columnar, budget, roots);
+            }
+            if (tree.getOperator(child) == FlatTree.OP_TRUE) {
+                // The later siblings are never tested
+                return;
+            }
+            method.visitLabel(nextChild);
+        }
+        pushInt(method, tree.isReturnLastPrediction() ? node : -1);
+        method.visitInsn(Opcodes.IRETURN);
+    }
+
+    /**
+     * Generate the test of the predicate of a node, jumping to the given label when it does not hold.
+     *
+     * @return false when the predicate never holds, in which case no code is generated
+     */
+    private boolean generateTest(MethodVisitor method, int node, boolean columnar, Label otherwise) {
+        int operator = tree.getOperator(node);
+        if (operator == FlatTree.OP_TRUE) {
+            return true;
+        } else if (operator == FlatTree.OP_FALSE) {
+            return false;
+        }
+        method.visitVarInsn(Opcodes.ALOAD, 0);
+        pushInt(method, tree.getSplitFeature(node));
+        if (columnar) {
+            method.visitInsn(Opcodes.AALOAD);
+            method.visitVarInsn(Opcodes.ILOAD, 1);
+        }
+        method.visitInsn(Opcodes.DALOAD);
+        double threshold = tree.getThreshold(node);
+        method.visitLdcInsn(threshold);
+        if (threshold == 0) {
+            // Compared as JPMML compares field values, which tells -0.0 apart from 0.0
+            method.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Double", "compare", "(DD)I", false);
+        } else {
+            // Other thresholds compare alike, as the feature values are never NaN
+            method.visitInsn(Opcodes.DCMPL);
+        }
+        switch (operator) {
+            case FlatTree.OP_EQUAL:
+                method.visitJumpInsn(Opcodes.IFNE, otherwise);
+                break;
+            case FlatTree.OP_NOT_EQUAL:
+                method.visitJumpInsn(Opcodes.IFEQ, otherwise);
+                break;
+            case FlatTree.OP_LESS_THAN:
+                method.visitJumpInsn(Opcodes.IFGE, otherwise);
+                break;
+            case FlatTree.OP_LESS_OR_EQUAL:
+                method.visitJumpInsn(Opcodes.IFGT, otherwise);
+                break;
+            case FlatTree.OP_GREATER_THAN:
+                method.visitJumpInsn(Opcodes.IFLE, otherwise);
+                break;
+            default:
+                method.visitJumpInsn(Opcodes.IFLT, otherwise);
+                break;
+        }
+        return true;
+    }
+
+    private static void pushInt(MethodVisitor method, int value) {
+        if (value >= -1 && value <= 5) {
+            method.visitInsn(Opcodes.ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            method.visitIntInsn(Opcodes.BIPUSH, value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            method.visitIntInsn(Opcodes.SIPUSH, value);
+        } else {
+            method.visitLdcInsn(value);
+        }
+    }
+
+    private static String methodName(int node, boolean columnar) {
+        return (columnar ? "walkColumns" : "walk") + node;
+    }
+
+    /**
+     * Class loader of a single generated class, so that the class is unloaded with its last walker.
+     */
+    private static final class WalkerClassLoader extends ClassLoader {
+
+        private WalkerClassLoader() {
+            super(TreeWalker.class.getClassLoader());
+        }
+
+        private Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Layout of a flat tree, identifying the generated class walking it.
+     */
+    private static final class Layout {
+
+        private final int[] operators;
+        private final int[] splitFeatures;
+        private final double[] thresholds;
+        private final int[] childEnds;
+        private final boolean returnLastPrediction;
+        private final int hashCode;
+
+        private Layout(FlatTree tree) {
+            int size = tree.getNodeCount();
+            operators = new int[size];
+            splitFeatures = new int[size];
+            thresholds = new double[size];
+            childEnds = new int[size];
+            for (int i = 0; i < size; i++) {
+                operators[i] = tree.getOperator(i);
+                splitFeatures[i] = tree.getSplitFeature(i);
+                thresholds[i] = tree.getThreshold(i);
+                // Nodes are numbered breadth first, hence the child ranges follow from their ends
+                childEnds[i] = tree.getChildEnd(i);
+            }
+            returnLastPrediction = tree.isReturnLastPrediction();
+            hashCode = 31 * (31 * (31 * Arrays.hashCode(operators) + Arrays.hashCode(splitFeatures)) +
+                    Arrays.hashCode(thresholds)) + Arrays.hashCode(childEnds);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Layout)) {
+                return false;
+            }
+            Layout layout = (Layout) o;
+            return returnLastPrediction == layout.returnLastPrediction && Arrays.equals(operators, layout.operators)
+                    && Arrays.equals(splitFeatures, layout.splitFeatures) &&
+                    Arrays.equals(thresholds, layout.thresholds) && Arrays.equals(childEnds, layout.childEnds);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
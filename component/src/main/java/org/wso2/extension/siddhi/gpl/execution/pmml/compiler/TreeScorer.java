@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml.compiler;
+
+/**
+ * Regression tree scoring the pre-computed value of the selected node.
+ */
+final class TreeScorer implements Scorer {
+
+    private final TreeWalker tree;
+    private final double[] nodeValues;
+
+    TreeScorer(TreeWalker tree, double[] nodeValues) {
+        this.tree = tree;
+        this.nodeValues = nodeValues;
+    }
+
+    @Override
+    public double score(double[] values) {
+        int node = tree.evaluate(values);
+        return node < 0 ? Double.NaN : nodeValues[node];
+    }
+
+    @Override
+    public void score(double[][] columns, int from, int to, double[] scores) {
+        for (int row = from; row < to; row++) {
+            int node = tree.evaluate(columns, row);
+            scores[row] = node < 0 ? Double.NaN : nodeValues[node];
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml.compiler;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Where the compiled trees of a model are kept: in the heap arrays of their flat layout, in generated classes, or
+ * in direct buffers. Off-heap trees are carved out of shared chunks, so that an ensemble of thousands of small
+ * trees costs a few native allocations rather than one per tree; a chunk is freed once none of its trees is
+ * reachable any more. Chunks are sized for the nodes of the model still to be stored, up to a maximum size, so
+ * that small models do not reserve a whole chunk.
+ */
+final class TreeStorage {
+
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    private final boolean generateCode;
+    private final boolean offHeap;
+    private ByteBuffer chunk;
+    private long offHeapSize;
+    // Bytes of the nodes of the model expected to be stored off-heap but not allocated yet
+    private long remainingSize;
+
+    /**
+     * Create the storage of the trees of a model.
+     *
+     * @param generateCode whether the trees are walked by generated classes
+     * @param offHeap      whether the trees not walked by generated classes are stored in direct buffers
+     * @param nodeCount    number of tree nodes of the model, which sizes the chunks of off-heap trees
+     */
+    TreeStorage(boolean generateCode, boolean offHeap, long nodeCount) {
+        this.generateCode = generateCode;
+        this.offHeap = offHeap;
+        this.remainingSize = nodeCount * OffHeapTree.RECORD_SIZE;
+    }
+
+    /**
+     * Get the walker of a tree. Generated code takes precedence over off-heap storage, as the generated classes
+     * already keep the tree out of the heap.
+     *
+     * @param tree flat tree
+     * @return walker of the tree
+     */
+    TreeWalker walker(FlatTree tree) {
+        if (generateCode) {
+            return TreeCodeGenerator.generate(tree);
+        } else if (offHeap) {
+            return new OffHeapTree(tree, null, allocate(tree.getNodeCount()));
+        }
+        return tree;
+    }
+
+    /**
+     * Get the scorer of a regression tree.
+     *
+     * @param tree       flat tree
+     * @param nodeValues score of each node
+     * @return scorer of the tree
+     */
+    Scorer scorer(FlatTree tree, double[] nodeValues) {
+        if (offHeap && !generateCode) {
+            return new OffHeapTree(tree, nodeValues, allocate(tree.getNodeCount()));
+        }
+        return new TreeScorer(walker(tree), nodeValues);
+    }
+
+    /**
+     * Get the number of bytes of direct memory reserved so far for the trees stored off-heap.
+     *
+     * @return off-heap size in bytes
+     */
+    long getOffHeapSize() {
+        return offHeapSize;
+    }
+
+    private ByteBuffer allocate(int nodeCount) {
+        int size = nodeCount * OffHeapTree.RECORD_SIZE;
+        if (chunk == null || chunk.remaining() < size) {
+            chunk = ByteBuffer.allocateDirect((int) Math.max(size, Math.min(CHUNK_SIZE, remainingSize)));
+            offHeapSize += chunk.capacity();
+        }
+        ByteBuffer nodes = chunk.slice().order(ByteOrder.nativeOrder());
+        nodes.limit(size);
+        chunk.position(chunk.position() + size);
+        remainingSize = Math.max(0, remainingSize - size);
+        return nodes;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml.compiler;
+
+/**
+ * Walk of a decision tree, selecting the node that scores the given feature values. Implemented by the flat trees,
+ * and by the classes generated for them, which are defined by class loaders of their own and hence require the
+ * interface to be public.
+ */
+public interface TreeWalker {
+
+    /**
+     * Walk the tree for the given feature values.
+     *
+     * @param values feature values
+     * @return index of the selected node, or -1 when the tree makes no prediction
+     */
+    int evaluate(double[] values);
+
+    /**
+     * Walk the tree for a row of feature columns.
+     *
+     * @param columns feature columns
+     * @param row     row index
+     * @return index of the selected node, or -1 when the tree makes no prediction
+     */
+    int evaluate(double[][] columns, int row);
+}
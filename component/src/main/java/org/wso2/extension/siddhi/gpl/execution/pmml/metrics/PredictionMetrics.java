@@ -0,0 +1,378 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml.metrics;
+
+import org.apache.log4j.Logger;
+import org.wso2.siddhi.core.config.SiddhiAppContext;
+import org.wso2.siddhi.core.config.StatisticsConfiguration;
+import org.wso2.siddhi.core.exception.SiddhiAppCreationException;
+import org.wso2.siddhi.core.util.statistics.LatencyTracker;
+import org.wso2.siddhi.core.util.statistics.StatisticsTrackerFactory;
+import org.wso2.siddhi.core.util.statistics.ThroughputTracker;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+/**
+ * Prediction metrics of a pmml:predict query: the evaluation latency of each event, the number of events scored,
+ * evaluation failures, invalid input values per field, events overflowing the asynchronous scoring queue,
+ * prediction cache lookups, and the load time of the model. The metrics are published as an MXBean, and chunk
+ * latency and throughput are also reported to the Siddhi statistics trackers when given. Metrics are only created
+ * when statistics are enabled for the Siddhi app, so that they cost nothing otherwise.
+ */
+public final class PredictionMetrics implements PredictionMetricsMXBean {
+
+    private static final Logger logger = Logger.getLogger(PredictionMetrics.class);
+    private static final String JMX_DOMAIN = "org.wso2.extension.siddhi.gpl.execution.pmml";
+    private static final double NANOS_PER_MICRO = TimeUnit.MICROSECONDS.toNanos(1);
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final String COUNTER_EVENTS = "events";
+    private static final String COUNTER_FAILURES = "failures";
+    private static final String COUNTER_OVERFLOWS = "overflows";
+    private static final String COUNTER_CACHE_HITS = "cacheHits";
+    private static final String COUNTER_CACHE_MISSES = "cacheMisses";
+    private static final String COUNTER_INVALID_INPUTS_PREFIX = "invalidInputs.";
+
+    private final ObjectName objectName;
+    private final LatencyTracker latencyTracker;
+    private final ThroughputTracker throughputTracker;
+    private final LatencyHistogram latencyHistogram = new LatencyHistogram();
+    private final LongAdder eventCount = new LongAdder();
+    private final LongAdder failureCount = new LongAdder();
+    private final LongAdder overflowCount = new LongAdder();
+    private final LongAdder cacheHitCount = new LongAdder();
+    private final LongAdder cacheMissCount = new LongAdder();
+    private final ConcurrentMap<String, LongAdder> invalidInputCounts = new ConcurrentHashMap<>();
+    private final long startTime = System.nanoTime();
+    private volatile long modelLoadTime;
+    private volatile long warmUpTime;
+    // Events counted before the metrics were restored, which are left out of the event rate of this process
+    private volatile long restoredEventCount;
+    private boolean registered;
+
+    /**
+     * Create the metrics of a pmml:predict query, reporting to the statistics trackers of the Siddhi app.
+     *
+     * @param siddhiAppContext context of the Siddhi app, which has statistics enabled
+     * @param elementId        id of the stream processor within the app
+     * @return prediction metrics
+     */
+    public static PredictionMetrics create(SiddhiAppContext siddhiAppContext, String elementId) {
+        StatisticsConfiguration statisticsConfiguration =
+                siddhiAppContext.getSiddhiContext().getStatisticsConfiguration();
+        String metricName = statisticsConfiguration.getMatricPrefix() + ".Siddhi.Apps." +
+                siddhiAppContext.getName() + ".Siddhi.Extensions.pmml.predict." + elementId;
+        StatisticsTrackerFactory factory = statisticsConfiguration.getFactory();
+        LatencyTracker latencyTracker = factory.createLatencyTracker(metricName + ".latency",
+                siddhiAppContext.getStatisticsManager());
+        ThroughputTracker throughputTracker = factory.createThroughputTracker(metricName + ".throughput",
+                siddhiAppContext.getStatisticsManager());
+        try {
+            ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=PredictionMetrics,app=" +
+                    ObjectName.quote(siddhiAppContext.getName()) + ",element=" + ObjectName.quote(elementId));
+            return new PredictionMetrics(objectName, latencyTracker, throughputTracker);
+        } catch (MalformedObjectNameException e) {
+            throw new SiddhiAppCreationException("Invalid name for the prediction metrics of Siddhi app " +
+                    siddhiAppContext.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Create the metrics of a query.
+     *
+     * @param objectName        JMX name of the metrics
+     * @param latencyTracker    Siddhi tracker of the chunk latency, or null
+     * @param throughputTracker Siddhi tracker of the scored events, or null
+     */
+    public PredictionMetrics(ObjectName objectName, LatencyTracker latencyTracker,
+                             ThroughputTracker throughputTracker) {
+        this.objectName = objectName;
+        this.latencyTracker = latencyTracker;
+        this.throughputTracker = throughputTracker;
+    }
+
+    /**
+     * Mark the start of the evaluation of a chunk.
+     */
+    public void chunkStarted() {
+        if (latencyTracker != null) {
+            latencyTracker.markIn();
+        }
+    }
+
+    /**
+     * Mark the end of the evaluation of a chunk.
+     *
+     * @param scoredEvents number of events scored from the chunk
+     */
+    public void chunkCompleted(int scoredEvents) {
+        if (latencyTracker != null) {
+            latencyTracker.markOut();
+        }
+        if (scoredEvents > 0) {
+            eventCount.add(scoredEvents);
+            if (throughputTracker != null) {
+                throughputTracker.eventsIn(scoredEvents);
+            }
+        }
+    }
+
+    /**
+     * Record the evaluation latency of an event.
+     *
+     * @param nanos latency in nanoseconds
+     */
+    public void recordLatency(long nanos) {
+        latencyHistogram.record(nanos);
+    }
+
+    public void recordFailure() {
+        failureCount.increment();
+    }
+
+    /**
+     * Record events that overflowed the queue of the asynchronous scoring stage.
+     *
+     * @param events number of events
+     */
+    public void recordOverflow(int events) {
+        overflowCount.add(events);
+    }
+
+    /**
+     * Record a lookup of the prediction cache.
+     *
+     * @param hit whether the prediction was found
+     */
+    public void recordCacheLookup(boolean hit) {
+        if (hit) {
+            cacheHitCount.increment();
+        } else {
+            cacheMissCount.increment();
+        }
+    }
+
+    /**
+     * Record an invalid value of an input field.
+     *
+     * @param fieldName name of the input field
+     */
+    public void recordInvalidInput(String fieldName) {
+        LongAdder count = invalidInputCounts.get(fieldName);
+        if (count == null) {
+            count = invalidInputCounts.computeIfAbsent(fieldName, key -> new LongAdder());
+        }
+        count.increment();
+    }
+
+    /**
+     * Set the load time of the model in use.
+     *
+     * @param nanos load time in nanoseconds
+     */
+    public void setModelLoadTime(long nanos) {
+        modelLoadTime = nanos;
+    }
+
+    /**
+     * Set the time taken to warm up the evaluation of the models.
+     *
+     * @param nanos warm-up time in nanoseconds
+     */
+    public void setWarmUpTime(long nanos) {
+        warmUpTime = nanos;
+    }
+
+    /**
+     * Get the values of the counters, so that the metrics of a standby taking over the query continue from them.
+     *
+     * @return counter values by counter name
+     */
+    public Map<String, Long> getCounters() {
+        Map<String, Long> counters = new TreeMap<>();
+        counters.put(COUNTER_EVENTS, eventCount.sum());
+        counters.put(COUNTER_FAILURES, failureCount.sum());
+        counters.put(COUNTER_OVERFLOWS, overflowCount.sum());
+        counters.put(COUNTER_CACHE_HITS, cacheHitCount.sum());
+        counters.put(COUNTER_CACHE_MISSES, cacheMissCount.sum());
+        for (Map.Entry<String, LongAdder> entry : invalidInputCounts.entrySet()) {
+            counters.put(COUNTER_INVALID_INPUTS_PREFIX + entry.getKey(), entry.getValue().sum());
+        }
+        return counters;
+    }
+
+    /**
+     * Replace the values of the counters by values taken from {@link #getCounters()}. Latencies are not restored,
+     * as they describe the process that measured them.
+     *
+     * @param counters counter values by counter name
+     */
+    public void restoreCounters(Map<String, Long> counters) {
+        restore(eventCount, counters.get(COUNTER_EVENTS));
+        restore(failureCount, counters.get(COUNTER_FAILURES));
+        restore(overflowCount, counters.get(COUNTER_OVERFLOWS));
+        restore(cacheHitCount, counters.get(COUNTER_CACHE_HITS));
+        restore(cacheMissCount, counters.get(COUNTER_CACHE_MISSES));
+        invalidInputCounts.clear();
+        for (Map.Entry<String, Long> entry : counters.entrySet()) {
+            if (entry.getKey().startsWith(COUNTER_INVALID_INPUTS_PREFIX) && entry.getValue() != null) {
+                LongAdder count = new LongAdder();
+                count.add(entry.getValue());
+                invalidInputCounts.put(entry.getKey().substring(COUNTER_INVALID_INPUTS_PREFIX.length()), count);
+            }
+        }
+        restoredEventCount = eventCount.sum();
+    }
+
+    private static void restore(LongAdder counter, Long value) {
+        counter.reset();
+        if (value != null) {
+            counter.add(value);
+        }
+    }
+
+    /**
+     * Publish the metrics to the platform MBean server. Failures are logged, as metrics are not essential.
+     */
+    public synchronized void register() {
+        if (registered) {
+            return;
+        }
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+            mBeanServer.registerMBean(this, objectName);
+            registered = true;
+        } catch (JMException e) {
+            logger.warn("Failed to register the prediction metrics " + objectName + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Withdraw the metrics from the platform MBean server.
+     */
+    public synchronized void unregister() {
+        if (!registered) {
+            return;
+        }
+        registered = false;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            logger.warn("Failed to unregister the prediction metrics " + objectName + ": " + e.getMessage());
+        }
+    }
+
+    public ObjectName getObjectName() {
+        return objectName;
+    }
+
+    @Override
+    public long getEventCount() {
+        return eventCount.sum();
+    }
+
+    @Override
+    public double getMeanEventRate() {
+        long elapsed = System.nanoTime() - startTime;
+        return elapsed <= 0 ? 0 :
+                (eventCount.sum() - restoredEventCount) * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+
+    @Override
+    public long getFailureCount() {
+        return failureCount.sum();
+    }
+
+    @Override
+    public long getOverflowCount() {
+        return overflowCount.sum();
+    }
+
+    @Override
+    public Map<String, Long> getInvalidInputCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : invalidInputCounts.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().sum());
+        }
+        return counts;
+    }
+
+    @Override
+    public long getCacheHitCount() {
+        return cacheHitCount.sum();
+    }
+
+    @Override
+    public long getCacheMissCount() {
+        return cacheMissCount.sum();
+    }
+
+    @Override
+    public double getCacheHitRatio() {
+        long hits = cacheHitCount.sum();
+        long lookups = hits + cacheMissCount.sum();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public double getMeanLatency() {
+        return latencyHistogram.getMean() / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getMedianLatency() {
+        return latencyHistogram.getPercentile(50) / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double get99thPercentileLatency() {
+        return latencyHistogram.getPercentile(99) / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double get999thPercentileLatency() {
+        return latencyHistogram.getPercentile(99.9) / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getMaxLatency() {
+        return latencyHistogram.getMax() / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getModelLoadTime() {
+        return modelLoadTime / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getWarmUpTime() {
+        return warmUpTime / NANOS_PER_MILLI;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the prediction metrics of a pmml:predict query.
+ */
+public interface PredictionMetricsMXBean {
+
+    /**
+     * Number of events scored since the query started.
+     *
+     * @return event count
+     */
+    long getEventCount();
+
+    /**
+     * Mean number of events scored per second since the query started.
+     *
+     * @return events per second
+     */
+    double getMeanEventRate();
+
+    /**
+     * Number of events whose evaluation failed with an error.
+     *
+     * @return failure count
+     */
+    long getFailureCount();
+
+    /**
+     * Number of events dropped or emitted without predictions because the asynchronous scoring queue was full.
+     *
+     * @return overflow count
+     */
+    long getOverflowCount();
+
+    /**
+     * Number of invalid values per input field, which were left out of the evaluation.
+     *
+     * @return invalid value count per input field name
+     */
+    Map<String, Long> getInvalidInputCounts();
+
+    /**
+     * Number of events whose prediction was found in the prediction cache.
+     *
+     * @return cache hit count
+     */
+    long getCacheHitCount();
+
+    /**
+     * Number of events looked up in the prediction cache without finding their prediction.
+     *
+     * @return cache miss count
+     */
+    long getCacheMissCount();
+
+    /**
+     * Share of the prediction cache lookups which found the prediction.
+     *
+     * @return hit ratio between 0 and 1, or 0 when nothing was looked up
+     */
+    double getCacheHitRatio();
+
+    /**
+     * Mean evaluation latency per event in microseconds.
+     *
+     * @return latency in microseconds
+     */
+    double getMeanLatency();
+
+    /**
+     * Median evaluation latency per event in microseconds.
+     *
+     * @return latency in microseconds
+     */
+    double getMedianLatency();
+
+    /**
+     * 99th percentile of the evaluation latency per event in microseconds.
+     *
+     * @return latency in microseconds
+     */
+    double get99thPercentileLatency();
+
+    /**
+     * 99.9th percentile of the evaluation latency per event in microseconds.
+     *
+     * @return latency in microseconds
+     */
+    double get999thPercentileLatency();
+
+    /**
+     * Maximum evaluation latency per event in microseconds.
+     *
+     * @return latency in microseconds
+     */
+    double getMaxLatency();
+
+    /**
+     * Time taken to parse the current model and build its evaluator, in milliseconds.
+     *
+     * @return load time in milliseconds
+     */
+    double getModelLoadTime();
+
+    /**
+     * Time taken to warm up the evaluation of the models with synthetic inputs when the query started, in
+     * milliseconds.
+     *
+     * @return warm-up time in milliseconds, which is 0 when the models were not warmed up
+     */
+    double getWarmUpTime();
+}
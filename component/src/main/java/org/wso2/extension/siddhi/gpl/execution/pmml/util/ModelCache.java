@@ -0,0 +1,430 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml.util;
+
+import org.apache.log4j.Logger;
+import org.dmg.pmml.FieldName;
+import org.dmg.pmml.Model;
+import org.dmg.pmml.ModelStats;
+import org.dmg.pmml.Output;
+import org.dmg.pmml.OutputField;
+import org.dmg.pmml.PMML;
+import org.dmg.pmml.mining.MiningModel;
+import org.dmg.pmml.mining.Segment;
+import org.dmg.pmml.mining.Segmentation;
+import org.jpmml.evaluator.Evaluator;
+import org.jpmml.evaluator.ModelEvaluator;
+import org.jpmml.evaluator.ModelEvaluatorFactory;
+import org.jpmml.model.visitors.FieldReferenceFinder;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.xml.bind.JAXBException;
+
+/**
+ * Process wide cache of compiled pmml models, keyed by the checksum of the pmml definition and the selected output
+ * fields.
+ * Evaluators are immutable and thread safe, hence queries using the same model share a single instance.
+ * Models are reference counted and evicted once the last query using them releases the model.
+ */
+public final class ModelCache {
+
+    private static final Logger logger = Logger.getLogger(ModelCache.class);
+    private static final ModelCache INSTANCE = new ModelCache();
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong residentSize = new AtomicLong();
+
+    private ModelCache() {
+    }
+
+    public static ModelCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Get the compiled model of the given pmml definition, loading it if it is not resident.
+     * Every acquired model has to be released with {@link #release(CachedModel)}.
+     *
+     * @param pmmlDefinition path to the pmml file or the pmml definition
+     * @return cached model
+     */
+    public CachedModel acquire(String pmmlDefinition) {
+        return acquire(pmmlDefinition, false);
+    }
+
+    /**
+     * Get the compiled model of the given pmml definition, loading it if it is not resident.
+     * When snapshots are enabled for a pmml file, the model is loaded from the snapshot of the file if it is still
+     * up to date, and otherwise the snapshot is written once the model has been loaded.
+     * Every acquired model has to be released with {@link #release(CachedModel)}.
+     *
+     * @param pmmlDefinition path to the pmml file or the pmml definition
+     * @param snapshot       whether to load and write the snapshot of the pmml file
+     * @return cached model
+     */
+    public CachedModel acquire(String pmmlDefinition, boolean snapshot) {
+        return acquire(pmmlDefinition, snapshot, null);
+    }
+
+    /**
+     * Get the compiled model of the given pmml definition computing only the selected output fields, loading it if
+     * it is not resident. The other output fields of the model are removed before building its evaluator, unless
+     * a selected output field refers to them, so that they are not computed on each evaluation. Such a model is
+     * read from the snapshot of the complete model, but does not write it.
+     * Every acquired model has to be released with {@link #release(CachedModel)}.
+     *
+     * @param pmmlDefinition path to the pmml file or the pmml definition
+     * @param snapshot       whether to load the snapshot of the pmml file, and to write it if all outputs are kept
+     * @param outputNames    names of the selected output fields, or null to keep all the output fields
+     * @return cached model
+     */
+    public CachedModel acquire(String pmmlDefinition, boolean snapshot, Set<FieldName> outputNames) {
+        String checksum = PMMLUtil.checksum(pmmlDefinition);
+        String cacheKey = checksum;
+        if (outputNames != null) {
+            Set<String> names = new TreeSet<>();
+            for (FieldName outputName : outputNames) {
+                names.add(outputName.getValue());
+            }
+            cacheKey = checksum + "/" + String.join(",", names);
+        }
+        while (true) {
+            Entry entry = entries.computeIfAbsent(cacheKey, key -> new Entry());
+            synchronized (entry) {
+                if (entry.evicted) {
+                    continue;
+                }
+                if (entry.model == null) {
+                    try {
+                        entry.model = load(pmmlDefinition, checksum, cacheKey, snapshot, outputNames);
+                    } catch (RuntimeException e) {
+                        entry.evicted = true;
+                        entries.remove(cacheKey, entry);
+                        throw e;
+                    }
+                    missCount.incrementAndGet();
+                    residentSize.addAndGet(entry.model.getSize());
+                } else {
+                    hitCount.incrementAndGet();
+                }
+                entry.references++;
+                return entry.model;
+            }
+        }
+    }
+
+    /**
+     * Release a model acquired from the cache, evicting it when no other query uses it.
+     *
+     * @param model cached model
+     */
+    public void release(CachedModel model) {
+        Entry entry = entries.get(model.cacheKey);
+        if (entry == null) {
+            return;
+        }
+        synchronized (entry) {
+            if (entry.model != model || entry.references == 0) {
+                return;
+            }
+            entry.references--;
+            if (entry.references == 0) {
+                entry.evicted = true;
+                entries.remove(model.cacheKey, entry);
+                residentSize.addAndGet(-model.getSize());
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Evicted pmml model " + model.getChecksum() + " from the model cache.");
+                }
+            }
+        }
+    }
+
+    private CachedModel load(String pmmlDefinition, String checksum, String cacheKey, boolean snapshot,
+                             Set<FieldName> outputNames) {
+        long startTime = System.nanoTime();
+        File pmmlFile = new File(pmmlDefinition);
+        boolean snapshotEnabled = snapshot && pmmlFile.isFile();
+        Evaluator evaluator = snapshotEnabled ? ModelSnapshot.read(pmmlFile, checksum) : null;
+        if (evaluator instanceof ModelEvaluator && outputNames != null) {
+            // The deserialized model is not shared, hence its outputs can be removed
+            ModelEvaluator<?> snapshotEvaluator = (ModelEvaluator<?>) evaluator;
+            retainOutputFields(snapshotEvaluator.getModel(), outputNames);
+            evaluator = ModelEvaluatorFactory.newInstance().newModelEvaluator(snapshotEvaluator.getPMML(),
+                    snapshotEvaluator.getModel());
+        } else if (evaluator == null) {
+            evaluator = newEvaluator(PMMLUtil.unmarshal(pmmlDefinition), outputNames);
+            if (outputNames == null && snapshotEnabled) {
+                ModelSnapshot.write(pmmlFile, checksum, evaluator);
+            }
+        }
+        long loadTime = System.nanoTime() - startTime;
+        CachedModel model = new CachedModel(checksum, cacheKey, evaluator, outputNames,
+                PMMLUtil.size(pmmlDefinition), loadTime);
+        if (logger.isDebugEnabled()) {
+            logger.debug(String.format("Loaded pmml model %s (%d bytes) in %d ms.", checksum, model.getSize(),
+                    loadTime / 1000000));
+        }
+        return model;
+    }
+
+    /**
+     * Build the evaluator of a parsed model, computing only the selected output fields.
+     *
+     * @param pmml        pmml model
+     * @param outputNames names of the selected output fields, or null to keep all the output fields
+     * @return evaluator
+     */
+    private static Evaluator newEvaluator(PMML pmml, Set<FieldName> outputNames) {
+        if (outputNames == null) {
+            return ModelEvaluatorFactory.newInstance().newModelEvaluator(pmml);
+        }
+        Model pmmlModel = ModelEvaluatorFactory.newInstance().newModelEvaluator(pmml).getModel();
+        retainOutputFields(pmmlModel, outputNames);
+        return ModelEvaluatorFactory.newInstance().newModelEvaluator(pmml, pmmlModel);
+    }
+
+    /**
+     * Remove the output fields of a model that are neither selected nor referred to by a retained output field.
+     *
+     * @param model       pmml model
+     * @param outputNames names of the selected output fields
+     */
+    private static void retainOutputFields(Model model, Set<FieldName> outputNames) {
+        Output output = model.getOutput();
+        if (output == null || !output.hasOutputFields()) {
+            // The output fields of a model chain without its own are those of its last segment
+            if (model instanceof MiningModel && ((MiningModel) model).getSegmentation() != null &&
+                    ((MiningModel) model).getSegmentation().getMultipleModelMethod() ==
+                            Segmentation.MultipleModelMethod.MODEL_CHAIN) {
+                List<Segment> segments = ((MiningModel) model).getSegmentation().getSegments();
+                if (!segments.isEmpty()) {
+                    retainOutputFields(segments.get(segments.size() - 1).getModel(), outputNames);
+                }
+            }
+            return;
+        }
+        Map<FieldName, OutputField> outputFields = new HashMap<>();
+        for (OutputField outputField : output.getOutputFields()) {
+            outputFields.put(outputField.getName(), outputField);
+        }
+        Set<FieldName> retained = new HashSet<>();
+        Deque<FieldName> pending = new ArrayDeque<>(outputNames);
+        while (!pending.isEmpty()) {
+            FieldName name = pending.pop();
+            OutputField outputField = outputFields.get(name);
+            if (outputField != null && retained.add(name)) {
+                FieldReferenceFinder finder = new FieldReferenceFinder();
+                finder.applyTo(outputField);
+                pending.addAll(finder.getFieldNames());
+            }
+        }
+        // A new output element is set rather than editing the current one, as JPMML caches the fields by element
+        List<OutputField> retainedFields = new ArrayList<>();
+        for (OutputField outputField : output.getOutputFields()) {
+            if (retained.contains(outputField.getName())) {
+                retainedFields.add(outputField);
+            }
+        }
+        model.setOutput(new Output(retainedFields));
+    }
+
+    /**
+     * Drop the parsed model of a cached model whose trees are compiled into direct buffers, so that its nodes no
+     * longer weigh on the garbage collector. The pmml definition is kept gzipped instead, and parsed again the first
+     * time JPMML is needed, such as for events missing values. The model is kept while other queries share it, or
+     * when the pmml file has changed since it was loaded.
+     *
+     * @param model          acquired model
+     * @param pmmlDefinition path to the pmml file or the pmml definition of the model
+     * @return whether the parsed model was dropped
+     */
+    public boolean releaseEvaluator(CachedModel model, String pmmlDefinition) {
+        Entry entry = entries.get(model.cacheKey);
+        if (entry == null) {
+            return false;
+        }
+        synchronized (entry) {
+            return entry.model == model && entry.references == 1 && model.dropEvaluator(pmmlDefinition);
+        }
+    }
+
+    /**
+     * Number of acquisitions served by an already resident model.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Number of acquisitions that had to load the model.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Number of models currently resident in the cache.
+     */
+    public int getResidentModelCount() {
+        return entries.size();
+    }
+
+    /**
+     * Total size, in bytes of pmml source, of the models currently resident in the cache.
+     */
+    public long getResidentSize() {
+        return residentSize.get();
+    }
+
+    /**
+     * Cache entry, holding the model of a checksum and the number of queries using it.
+     */
+    private static final class Entry {
+        private CachedModel model;
+        private int references;
+        private boolean evicted;
+    }
+
+    /**
+     * Compiled pmml model shared through the cache.
+     */
+    public static final class CachedModel {
+        private final String checksum;
+        private final String cacheKey;
+        private final Set<FieldName> outputNames;
+        private final ModelStats modelStats;
+        private final long size;
+        private final long loadTime;
+        // Either the evaluator, or the gzipped pmml definition it is parsed again from
+        private volatile Evaluator evaluator;
+        private byte[] compressedDefinition;
+
+        private CachedModel(String checksum, String cacheKey, Evaluator evaluator, Set<FieldName> outputNames,
+                            long size, long loadTime) {
+            this.checksum = checksum;
+            this.cacheKey = cacheKey;
+            this.evaluator = evaluator;
+            this.outputNames = outputNames;
+            this.modelStats = evaluator instanceof ModelEvaluator ?
+                    ((ModelEvaluator<?>) evaluator).getModel().getModelStats() : null;
+            this.size = size;
+            this.loadTime = loadTime;
+        }
+
+        public String getChecksum() {
+            return checksum;
+        }
+
+        /**
+         * Get the evaluator of the model, parsing the model again if it was dropped.
+         */
+        public Evaluator getEvaluator() {
+            Evaluator current = evaluator;
+            if (current != null) {
+                return current;
+            }
+            synchronized (this) {
+                if (evaluator == null) {
+                    long startTime = System.nanoTime();
+                    try (InputStream inputStream = new GZIPInputStream(
+                            new ByteArrayInputStream(compressedDefinition))) {
+                        evaluator = newEvaluator(PMMLUtil.unmarshal(new InputSource(inputStream)), outputNames);
+                    } catch (SAXException | JAXBException | IOException e) {
+                        throw new IllegalStateException("Failed to parse the pmml model " + checksum + " again: " +
+                                e.getMessage(), e);
+                    }
+                    compressedDefinition = null;
+                    logger.info(String.format("Parsed pmml model %s again in %d ms, as JPMML evaluates its events.",
+                            checksum, (System.nanoTime() - startTime) / 1000000));
+                }
+                return evaluator;
+            }
+        }
+
+        /**
+         * Statistics of the fields of the model, which are kept when the parsed model is dropped.
+         */
+        public ModelStats getModelStats() {
+            return modelStats;
+        }
+
+        private synchronized boolean dropEvaluator(String pmmlDefinition) {
+            if (evaluator == null) {
+                return true;
+            }
+            try {
+                byte[] content = PMMLUtil.read(pmmlDefinition);
+                if (!checksum.equals(PMMLUtil.checksum(content))) {
+                    return false;
+                }
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                try (OutputStream outputStream = new GZIPOutputStream(compressed)) {
+                    outputStream.write(content);
+                }
+                compressedDefinition = compressed.toByteArray();
+            } catch (IOException e) {
+                logger.warn("Keeping the parsed pmml model " + checksum + " as its definition can not be read: " +
+                        e.getMessage());
+                return false;
+            }
+            evaluator = null;
+            if (logger.isDebugEnabled()) {
+                logger.debug(String.format("Dropped the parsed pmml model %s, keeping its definition in %d " +
+                        "compressed bytes.", checksum, compressedDefinition.length));
+            }
+            return true;
+        }
+
+        /**
+         * Size of the pmml source of the model in bytes.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Time taken to unmarshal the model and build its evaluator, or to read it from its snapshot, in nanoseconds.
+         */
+        public long getLoadTime() {
+            return loadTime;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml.util;
+
+import org.apache.log4j.Logger;
+import org.jpmml.evaluator.Evaluator;
+import org.jpmml.evaluator.ModelEvaluator;
+import org.jpmml.model.visitors.LocatorNullifier;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Binary snapshot of the evaluator built from a pmml file, written next to the file so that later starts skip
+ * parsing the pmml definition and building its evaluator.
+ * A snapshot starts with a header holding the checksum of the pmml file it was built from, followed by the
+ * serialized evaluator. Snapshots are read through a memory mapping, and are ignored when their checksum no longer
+ * matches the pmml file or when they can not be read, for example after upgrading the pmml evaluator.
+ * As anyone able to write next to a pmml file could otherwise plant arbitrary serialized objects, snapshots are
+ * deserialized through an allow list of the pmml model and evaluator classes and of the JDK collections and boxed
+ * values they hold, and snapshots referring to any other class are rejected.
+ */
+public final class ModelSnapshot {
+
+    private static final Logger logger = Logger.getLogger(ModelSnapshot.class);
+    private static final String FILE_EXTENSION = ".snapshot";
+    private static final int MAGIC = 0x504d4d4c;
+    private static final int FORMAT_VERSION = 1;
+    private static final int BUFFER_SIZE = 65536;
+    // Packages whose classes make up the pmml model and its evaluator
+    private static final String[] ALLOWED_PACKAGES = {"org.dmg.pmml.", "org.jpmml."};
+    // JDK classes held by the pmml model and its evaluator
+    private static final Set<String> ALLOWED_CLASSES = new HashSet<>(Arrays.asList(
+            "java.lang.Boolean", "java.lang.Byte", "java.lang.Character", "java.lang.Double", "java.lang.Enum",
+            "java.lang.Float", "java.lang.Integer", "java.lang.Long", "java.lang.Number", "java.lang.Short",
+            "java.lang.String", "java.math.BigDecimal", "java.math.BigInteger",
+            "java.util.ArrayList", "java.util.Arrays$ArrayList", "java.util.EnumMap", "java.util.HashMap",
+            "java.util.HashSet", "java.util.LinkedHashMap", "java.util.LinkedHashSet", "java.util.LinkedList",
+            "java.util.TreeMap", "java.util.TreeSet", "java.util.Collections$EmptyList",
+            "java.util.Collections$EmptyMap", "java.util.Collections$EmptySet",
+            "java.util.Collections$SingletonList", "java.util.Collections$SingletonMap",
+            "java.util.Collections$SingletonSet", "java.util.Collections$UnmodifiableCollection",
+            "java.util.Collections$UnmodifiableList", "java.util.Collections$UnmodifiableMap",
+            "java.util.Collections$UnmodifiableRandomAccessList", "java.util.Collections$UnmodifiableSet",
+            "java.util.concurrent.ConcurrentHashMap", "java.util.concurrent.ConcurrentHashMap$Segment",
+            "java.util.concurrent.locks.AbstractOwnableSynchronizer",
+            "java.util.concurrent.locks.AbstractQueuedSynchronizer", "java.util.concurrent.locks.ReentrantLock",
+            "java.util.concurrent.locks.ReentrantLock$NonfairSync", "java.util.concurrent.locks.ReentrantLock$Sync"));
+
+    private ModelSnapshot() {
+    }
+
+    /**
+     * Snapshot file of the given pmml file.
+     *
+     * @return snapshot file
+     */
+    public static File getSnapshotFile(File pmmlFile) {
+        return new File(pmmlFile.getPath() + FILE_EXTENSION);
+    }
+
+    /**
+     * Read the evaluator from the snapshot of the given pmml file.
+     *
+     * @param pmmlFile pmml file
+     * @param checksum checksum of the current content of the pmml file
+     * @return evaluator, or null when there is no snapshot matching the checksum
+     */
+    public static Evaluator read(File pmmlFile, String checksum) {
+        File snapshotFile = getSnapshotFile(pmmlFile);
+        if (!snapshotFile.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                logger.warn("Ignoring the pmml model snapshot " + snapshotFile + " as its format is not supported.");
+                return null;
+            }
+            byte[] snapshotChecksum = new byte[buffer.getShort()];
+            buffer.get(snapshotChecksum);
+            if (!checksum.equals(new String(snapshotChecksum, StandardCharsets.UTF_8))) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Ignoring the pmml model snapshot " + snapshotFile + " as the pmml file has " +
+                            "changed since it was written.");
+                }
+                return null;
+            }
+            try (ObjectInputStream inputStream = new SnapshotInputStream(new ByteBufferInputStream(buffer))) {
+                return (Evaluator) inputStream.readObject();
+            }
+        } catch (IOException | ClassNotFoundException | RuntimeException e) {
+            logger.warn("Ignoring the pmml model snapshot " + snapshotFile + " as it can not be read: " +
+                    e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Write the snapshot of the evaluator built from the given pmml file, replacing any previous snapshot.
+     * The SAX locators of the model are dropped first, as they can not be serialized.
+     * Failing to write the snapshot is logged and otherwise ignored, as the model can always be loaded from the
+     * pmml file.
+     *
+     * @param pmmlFile  pmml file
+     * @param checksum  checksum of the content of the pmml file the evaluator was built from
+     * @param evaluator evaluator built from the pmml file
+     */
+    public static void write(File pmmlFile, String checksum, Evaluator evaluator) {
+        File snapshotFile = getSnapshotFile(pmmlFile);
+        File temporaryFile = null;
+        if (evaluator instanceof ModelEvaluator) {
+            new LocatorNullifier().applyTo(((ModelEvaluator<?>) evaluator).getPMML());
+        }
+        try {
+            temporaryFile = File.createTempFile(snapshotFile.getName(), ".tmp", snapshotFile.getAbsoluteFile()
+                    .getParentFile());
+            try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(temporaryFile.toPath()),
+                    BUFFER_SIZE)) {
+                DataOutputStream header = new DataOutputStream(outputStream);
+                byte[] checksumBytes = checksum.getBytes(StandardCharsets.UTF_8);
+                header.writeInt(MAGIC);
+                header.writeInt(FORMAT_VERSION);
+                header.writeShort(checksumBytes.length);
+                header.write(checksumBytes);
+                ObjectOutputStream objectOutputStream = new ObjectOutputStream(outputStream);
+                objectOutputStream.writeObject(evaluator);
+                objectOutputStream.flush();
+            }
+            // Readers either see the previous snapshot or the complete new one
+            Files.move(temporaryFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Wrote the pmml model snapshot " + snapshotFile + ".");
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to write the pmml model snapshot " + snapshotFile + ": " + e.getMessage());
+            if (temporaryFile != null && !temporaryFile.delete() && logger.isDebugEnabled()) {
+                logger.debug("Failed to delete the temporary pmml model snapshot " + temporaryFile + ".");
+            }
+        }
+    }
+
+    /**
+     * Check whether a class may be deserialized from a snapshot. Arrays are allowed when their component class is.
+     *
+     * @param className binary name of the class
+     * @return whether the class is allowed
+     */
+    static boolean isAllowed(String className) {
+        String name = className;
+        if (name.startsWith("[")) {
+            name = name.substring(name.lastIndexOf('[') + 1);
+            if (name.length() == 1) {
+                // Array of primitive values
+                return true;
+            }
+            name = name.substring(1, name.length() - 1);
+        }
+        for (String allowedPackage : ALLOWED_PACKAGES) {
+            if (name.startsWith(allowedPackage)) {
+                return true;
+            }
+        }
+        return ALLOWED_CLASSES.contains(name);
+    }
+
+    /**
+     * Object input stream rejecting the classes not expected in a snapshot before they are loaded or instantiated.
+     */
+    private static final class SnapshotInputStream extends ObjectInputStream {
+
+        private SnapshotInputStream(InputStream inputStream) throws IOException {
+            super(inputStream);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass descriptor) throws IOException, ClassNotFoundException {
+            if (!isAllowed(descriptor.getName())) {
+                throw new InvalidClassException(descriptor.getName(), "class not allowed in a pmml model snapshot");
+            }
+            return super.resolveClass(descriptor);
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+            throw new InvalidClassException(Arrays.toString(interfaces), "proxies are not allowed in a pmml " +
+                    "model snapshot");
+        }
+    }
+
+    /**
+     * Input stream reading the remaining bytes of a buffer, without copying the mapped snapshot onto the heap.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int read = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, read);
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
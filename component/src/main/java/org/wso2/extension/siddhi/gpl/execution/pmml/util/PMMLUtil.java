@@ -1,7 +1,11 @@
 package org.wso2.extension.siddhi.gpl.execution.pmml.util;
 
 import org.apache.log4j.Logger;
+import org.dmg.pmml.Extension;
+import org.dmg.pmml.ModelExplanation;
+import org.dmg.pmml.ModelVerification;
 import org.dmg.pmml.PMML;
+import org.jpmml.model.ElementFilter;
 import org.jpmml.model.ImportFilter;
 import org.jpmml.model.JAXBUtil;
 import org.wso2.siddhi.core.exception.SiddhiAppCreationException;
@@ -9,43 +13,131 @@ import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import javax.xml.bind.JAXBException;
 import javax.xml.transform.Source;
 
 /**
- * Class implementing Pmml Model Processor.
+ * Utility methods unmarshalling pmml definitions, and identifying them by checksum and size.
  */
 public class PMMLUtil {
     private static final Logger logger = Logger.getLogger(PMMLUtil.class);
+    private static final int BUFFER_SIZE = 8192;
 
     /**
      * Unmarshal the definition and get an executable pmml model.
+     * The definition is streamed through SAX filters which drop the Extension, ModelExplanation and
+     * ModelVerification elements, none of which is used for scoring.
      *
      * @return pmml model
      */
     public static PMML unmarshal(String pmmlDefinition) {
+        File pmmlFile = new File(pmmlDefinition);
+        // if the given is a file path, read the pmml definition from the file, else read the given definition
+        try (InputStream inputStream = pmmlFile.isFile() && pmmlFile.canRead() ?
+                new BufferedInputStream(new FileInputStream(pmmlFile), BUFFER_SIZE) : null) {
+            InputSource pmmlSource = inputStream != null ? new InputSource(inputStream) :
+                    new InputSource(new StringReader(pmmlDefinition));
+            return unmarshal(pmmlSource);
+        } catch (SAXException | JAXBException | IOException e) {
+            logger.error("Failed to unmarshal the pmml definition: " + e.getMessage());
+            throw new SiddhiAppCreationException("Failed to unmarshal the pmml definition: "
+                    + pmmlDefinition + ". " + e.getMessage(), e);
+        }
+    }
 
+    /**
+     * Unmarshal a pmml definition read from the given source, dropping the elements not used for scoring.
+     *
+     * @return pmml model
+     */
+    static PMML unmarshal(InputSource pmmlSource) throws SAXException, JAXBException {
+        Source source = JAXBUtil.createFilteredSource(pmmlSource, new ImportFilter(),
+                new ElementFilter(Extension.class), new ElementFilter(ModelExplanation.class),
+                new ElementFilter(ModelVerification.class));
+        return JAXBUtil.unmarshalPMML(source);
+    }
+
+    /**
+     * Read the content of the pmml definition, which is the file content if a file path is given.
+     *
+     * @return content bytes
+     */
+    static byte[] read(String pmmlDefinition) throws IOException {
+        File pmmlFile = new File(pmmlDefinition);
+        if (pmmlFile.isFile() && pmmlFile.canRead()) {
+            return Files.readAllBytes(pmmlFile.toPath());
+        }
+        return pmmlDefinition.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Calculate the SHA-256 checksum of the pmml definition, reading the file content if a file path is given.
+     *
+     * @return hex encoded checksum
+     */
+    public static String checksum(String pmmlDefinition) {
         try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
             File pmmlFile = new File(pmmlDefinition);
-            InputSource pmmlSource;
-            Source source;
-            // if the given is a file path, read the pmml definition from the file
             if (pmmlFile.isFile() && pmmlFile.canRead()) {
-                pmmlSource = new InputSource(new FileInputStream(pmmlFile));
+                try (InputStream inputStream = new FileInputStream(pmmlFile)) {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int read;
+                    while ((read = inputStream.read(buffer)) != -1) {
+                        digest.update(buffer, 0, read);
+                    }
+                }
             } else {
-                // else, read from the given definition
-                pmmlSource = new InputSource(new StringReader(pmmlDefinition));
+                digest.update(pmmlDefinition.getBytes(StandardCharsets.UTF_8));
             }
-            source = ImportFilter.apply(pmmlSource);
-            return JAXBUtil.unmarshalPMML(source);
-        } catch (SAXException | JAXBException | FileNotFoundException e) {
-            logger.error("Failed to unmarshal the pmml definition: " + e.getMessage());
-            throw new SiddhiAppCreationException("Failed to unmarshal the pmml definition: "
+            return toHex(digest.digest());
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new SiddhiAppCreationException("Failed to calculate the checksum of the pmml definition: "
                     + pmmlDefinition + ". " + e.getMessage(), e);
         }
     }
+
+    /**
+     * Calculate the SHA-256 checksum of the content of a pmml definition, as {@link #checksum(String)} does.
+     *
+     * @return hex encoded checksum
+     */
+    static String checksum(byte[] pmmlContent) {
+        try {
+            return toHex(MessageDigest.getInstance("SHA-256").digest(pmmlContent));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported: " + e.getMessage(), e);
+        }
+    }
+
+    private static String toHex(byte[] digest) {
+        StringBuilder checksum = new StringBuilder();
+        for (byte b : digest) {
+            checksum.append(String.format("%02x", b));
+        }
+        return checksum.toString();
+    }
+
+    /**
+     * Size of the pmml definition in bytes, which is the file size if a file path is given.
+     *
+     * @return size in bytes
+     */
+    public static long size(String pmmlDefinition) {
+        File pmmlFile = new File(pmmlDefinition);
+        if (pmmlFile.isFile() && pmmlFile.canRead()) {
+            return pmmlFile.length();
+        }
+        return pmmlDefinition.getBytes(StandardCharsets.UTF_8).length;
+    }
 }
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.wso2.siddhi.core.event.ComplexEventChunk;
+import org.wso2.siddhi.core.event.stream.StreamEvent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test class for AsyncScoringStage.
+ */
+public class AsyncScoringStageTestCase {
+
+    @Test
+    public void emitInSubmissionOrderTest() {
+        RecordingHandler handler = new RecordingHandler(null);
+        AsyncScoringStage stage = new AsyncScoringStage(handler, 4, 8, AsyncScoringStage.OverflowPolicy.BLOCK,
+                "pmml-async-test");
+        List<Object> expected = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            ComplexEventChunk<StreamEvent> chunk = createChunk(i);
+            stage.submit(chunk);
+            // The submitted events are taken over by the stage
+            Assert.assertNull(chunk.getFirst());
+            expected.add(i);
+        }
+        stage.shutdown();
+
+        // Chunks completing out of order on the workers are still emitted in the order they were submitted
+        Assert.assertEquals(handler.emitted, expected);
+        Assert.assertEquals(handler.overflowCount.get(), 0);
+    }
+
+    @Test
+    public void dropOverflowedChunkTest() {
+        CountDownLatch scoring = new CountDownLatch(1);
+        RecordingHandler handler = new RecordingHandler(scoring);
+        AsyncScoringStage stage = new AsyncScoringStage(handler, 1, 1, AsyncScoringStage.OverflowPolicy.DROP,
+                "pmml-async-test");
+        stage.submit(createChunk(0));
+        stage.submit(createChunk(1));
+        scoring.countDown();
+        stage.shutdown();
+
+        Assert.assertEquals(handler.emitted, Collections.<Object>singletonList("0"));
+        Assert.assertEquals(handler.overflowCount.get(), 1);
+    }
+
+    @Test
+    public void skipOverflowedChunkTest() {
+        CountDownLatch scoring = new CountDownLatch(1);
+        RecordingHandler handler = new RecordingHandler(scoring);
+        AsyncScoringStage stage = new AsyncScoringStage(handler, 1, 1, AsyncScoringStage.OverflowPolicy.NULL,
+                "pmml-async-test");
+        stage.submit(createChunk(0));
+        stage.submit(createChunk(1));
+        scoring.countDown();
+        stage.shutdown();
+
+        // The overflowed chunk is emitted after the chunk submitted before it, without a prediction
+        Assert.assertEquals(handler.emitted, Arrays.<Object>asList("0", null));
+        Assert.assertEquals(handler.overflowCount.get(), 1);
+    }
+
+    private static ComplexEventChunk<StreamEvent> createChunk(int value) {
+        ComplexEventChunk<StreamEvent> chunk = new ComplexEventChunk<>(true);
+        StreamEvent event = new StreamEvent(0, 0, 2);
+        event.setOutputData(value, 0);
+        chunk.add(event);
+        return chunk;
+    }
+
+    /**
+     * Handler predicting the value of an event as itself, optionally waiting for a latch before scoring.
+     */
+    private static final class RecordingHandler implements AsyncScoringStage.ChunkHandler {
+
+        private final CountDownLatch latch;
+        private final Random random = new Random(3);
+        private final List<Object> emitted = new CopyOnWriteArrayList<>();
+        private final AtomicInteger overflowCount = new AtomicInteger();
+
+        private RecordingHandler(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        public void score(ComplexEventChunk<StreamEvent> chunk) {
+            try {
+                if (latch != null) {
+                    latch.await();
+                } else {
+                    Thread.sleep(random.nextInt(3));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            while (chunk.hasNext()) {
+                StreamEvent event = chunk.next();
+                Object value = event.getOutputData()[0];
+                event.setOutputData(latch == null ? value : String.valueOf(value), 1);
+            }
+        }
+
+        @Override
+        public void skip(ComplexEventChunk<StreamEvent> chunk) {
+            while (chunk.hasNext()) {
+                chunk.next().setOutputData(null, 1);
+            }
+        }
+
+        @Override
+        public void emit(ComplexEventChunk<StreamEvent> chunk) {
+            chunk.reset();
+            while (chunk.hasNext()) {
+                emitted.add(chunk.next().getOutputData()[1]);
+            }
+        }
+
+        @Override
+        public void overflowed(ComplexEventChunk<StreamEvent> chunk) {
+            overflowCount.incrementAndGet();
+        }
+    }
+}
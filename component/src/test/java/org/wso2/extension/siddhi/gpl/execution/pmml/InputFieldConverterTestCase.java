@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml;
+
+import org.dmg.pmml.DataField;
+import org.dmg.pmml.DataType;
+import org.dmg.pmml.FieldName;
+import org.dmg.pmml.MiningField;
+import org.dmg.pmml.OpType;
+import org.jpmml.evaluator.FieldValue;
+import org.jpmml.evaluator.InputField;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.wso2.siddhi.query.api.definition.Attribute;
+
+import java.util.function.Supplier;
+
+/**
+ * Test class for InputFieldConverter.
+ */
+public class InputFieldConverterTestCase {
+
+    @Test
+    public void convertParityTest() {
+        Object[][] attributeValues = {
+                {Attribute.Type.FLOAT, 1.1f, -0.3f, 2.0f, 1e-7f, -0.0f, 3.4e38f},
+                {Attribute.Type.INT, 0, -7, 42, Integer.MAX_VALUE},
+                {Attribute.Type.LONG, 0L, -7L, 42L, 1L << 40},
+                {Attribute.Type.STRING, "1.1", "-7", "42", "a"}};
+        int fieldIndex = 0;
+        for (DataType dataType : new DataType[]{DataType.DOUBLE, DataType.FLOAT, DataType.INTEGER,
+                DataType.STRING}) {
+            for (OpType opType : new OpType[]{OpType.CONTINUOUS, OpType.CATEGORICAL}) {
+                if (dataType == DataType.STRING && opType == OpType.CONTINUOUS) {
+                    continue;
+                }
+                FieldName name = FieldName.create("field" + fieldIndex++);
+                InputField inputField = new InputField(new DataField(name, opType, dataType), new MiningField(name));
+                for (Object[] values : attributeValues) {
+                    Attribute.Type attributeType = (Attribute.Type) values[0];
+                    InputFieldConverter converter = new InputFieldConverter(inputField, attributeType, 16);
+                    for (int i = 1; i < values.length; i++) {
+                        Object value = values[i];
+                        // The typed conversion prepares the value as JPMML prepares its string representation
+                        String message = dataType + " " + opType + " field, " + attributeType + " value " +
+                                values[i];
+                        Object expected = prepareValue(() -> inputField.prepare(String.valueOf(value)));
+                        Assert.assertEquals(prepareValue(() -> inputField.prepare(converter.convert(value))),
+                                expected, message);
+                        Assert.assertEquals(prepareValue(() -> converter.prepare(value)), expected, message);
+                        if (expected instanceof Number && (dataType == DataType.DOUBLE ||
+                                dataType == DataType.FLOAT || dataType == DataType.INTEGER) &&
+                                value instanceof Number) {
+                            Assert.assertEquals(converter.toDouble(value), ((Number) expected).doubleValue(),
+                                    message);
+                        } else if (dataType == DataType.INTEGER && value instanceof Number) {
+                            // Values JPMML does not take as integers are left to JPMML
+                            Assert.assertTrue(Double.isNaN(converter.toDouble(value)), message);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static Object prepareValue(Supplier<FieldValue> preparation) {
+        try {
+            FieldValue fieldValue = preparation.get();
+            return fieldValue == null ? null : fieldValue.getValue();
+        } catch (RuntimeException e) {
+            return e.getClass();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test class for MicroBatchProcessor.
+ */
+public class MicroBatchProcessorTestCase {
+
+    @Test
+    public void predictWithMicroBatchingTest() throws InterruptedException, URISyntaxException {
+        String pmmlFile = TestQuery.getResourcePath("/categorical-regression.pmml");
+        TestQuery query = new TestQuery(TestQuery.CATEGORICAL_REGRESSION_STREAM +
+                "from InputStream#pmml:batch(8, 20)#pmml:predict('" + pmmlFile + "', protocol, duration) " +
+                "select score " +
+                "insert into outputStream ;");
+
+        List<Object> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            query.send(new Object[]{"tcp", (double) i});
+            query.send(new Object[]{"icmp", (double) i});
+            expected.add(3.0 + 0.5 * i);
+            expected.add(1.0 + 0.5 * i);
+        }
+        // Buffered events are all emitted in order, the last batch once its wait is over
+        query.waitForEvents(200);
+        Assert.assertEquals(query.getOutputs(0), expected);
+        query.shutdown();
+    }
+
+    @Test
+    public void predictWithMicroBatchDeadlineTest() throws InterruptedException, URISyntaxException {
+        String pmmlFile = TestQuery.getResourcePath("/categorical-regression.pmml");
+        TestQuery query = new TestQuery(TestQuery.CATEGORICAL_REGRESSION_STREAM +
+                "from InputStream#pmml:batch(1000, 500)#pmml:predict('" + pmmlFile + "', protocol, duration) " +
+                "select score " +
+                "insert into outputStream ;");
+
+        List<Object> expected = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            query.send(new Object[]{"tcp", (double) i});
+            expected.add(3.0 + 0.5 * i);
+        }
+        // The last batch buffered when the stream goes quiet is emitted by the timer event of its deadline
+        query.waitForEvents(300);
+        Assert.assertEquals(query.getOutputs(0), expected);
+        query.shutdown();
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.wso2.siddhi.core.event.ComplexEvent;
+import org.wso2.siddhi.core.event.ComplexEventChunk;
+import org.wso2.siddhi.core.event.stream.StreamEvent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Test class for MicroBatcher, driven by the times it is given rather than by the clock.
+ */
+public class MicroBatcherTestCase {
+
+    @Test
+    public void tuneTargetSizeTest() {
+        MicroBatcher batcher = new MicroBatcher(32, 10, null);
+        Assert.assertEquals(batcher.getTargetSize(), 1);
+
+        // Ten events a millisecond are expected to fill the batches up to the maximum size within the wait
+        long time = sendBurst(batcher, 0, 20);
+        Assert.assertEquals(batcher.getTargetSize(), 32);
+
+        // Events arriving slower than one per wait are released one by one
+        for (int i = 0; i < 50; i++) {
+            time += 50;
+            batcher.add(chunk(i), time);
+        }
+        Assert.assertEquals(batcher.getTargetSize(), 1);
+        Assert.assertEquals(getValues(batcher.add(chunk(50), time + 50)), Arrays.<Object>asList(50));
+    }
+
+    @Test
+    public void releaseOnDeadlineTest() {
+        MicroBatcher batcher = new MicroBatcher(32, 10, null);
+        long time = sendBurst(batcher, 0, 20);
+        batcher.drain(time);
+
+        // The batch waits for more events until the timer event of its deadline
+        Assert.assertNull(batcher.add(chunk(1, 2), time));
+        Assert.assertNull(batcher.add(chunk(3), time + 4));
+        Assert.assertNull(batcher.add(timerChunk(), time + 9));
+        Assert.assertEquals(getValues(batcher.add(timerChunk(), time + 10)), Arrays.<Object>asList(1, 2, 3));
+        Assert.assertNull(batcher.add(timerChunk(), time + 20));
+    }
+
+    @Test
+    public void restoreStateTest() {
+        MicroBatcher batcher = new MicroBatcher(32, 10, null);
+        long time = sendBurst(batcher, 0, 20);
+        batcher.drain(time);
+        Assert.assertNull(batcher.add(chunk(1, 2, 3), time));
+        Map<String, Object> state = batcher.currentState();
+
+        // The restored batcher releases the buffered events on their deadline, with the tuned target size
+        MicroBatcher restoredBatcher = new MicroBatcher(32, 10, null);
+        restoredBatcher.restoreState(state, time + 5);
+        Assert.assertEquals(restoredBatcher.getTargetSize(), 32);
+        Assert.assertNull(restoredBatcher.add(chunk(4), time + 5));
+        Assert.assertEquals(getValues(restoredBatcher.add(timerChunk(), time + 10)),
+                Arrays.<Object>asList(1, 2, 3, 4));
+
+        // A state missing its entries starts afresh
+        MicroBatcher freshBatcher = new MicroBatcher(32, 10, null);
+        freshBatcher.restoreState(new MicroBatcher(32, 10, null).currentState(), time);
+        Assert.assertNull(freshBatcher.drain(time));
+        Assert.assertEquals(freshBatcher.getTargetSize(), 1);
+    }
+
+    /**
+     * Send ten events a millisecond, checking that the released batches keep the events in order.
+     */
+    private static long sendBurst(MicroBatcher batcher, long startTime, int milliseconds) {
+        List<Object> expected = new ArrayList<>();
+        List<Object> released = new ArrayList<>();
+        long time = startTime;
+        int value = 0;
+        for (int millisecond = 0; millisecond < milliseconds; millisecond++, time++) {
+            for (int i = 0; i < 10; i++, value++) {
+                expected.add(value);
+                released.addAll(getValues(batcher.add(chunk(value), time)));
+            }
+        }
+        released.addAll(getValues(batcher.drain(time)));
+        Assert.assertEquals(released, expected);
+        return time;
+    }
+
+    private static ComplexEventChunk<StreamEvent> chunk(int... values) {
+        ComplexEventChunk<StreamEvent> chunk = new ComplexEventChunk<>(false);
+        for (int value : values) {
+            StreamEvent event = new StreamEvent(0, 0, 1);
+            event.setOutputData(new Object[]{value});
+            chunk.add(event);
+        }
+        return chunk;
+    }
+
+    private static ComplexEventChunk<StreamEvent> timerChunk() {
+        ComplexEventChunk<StreamEvent> chunk = new ComplexEventChunk<>(false);
+        StreamEvent event = new StreamEvent(0, 0, 0);
+        event.setType(ComplexEvent.Type.TIMER);
+        chunk.add(event);
+        return chunk;
+    }
+
+    private static List<Object> getValues(ComplexEventChunk<StreamEvent> batch) {
+        List<Object> values = new ArrayList<>();
+        if (batch != null) {
+            batch.reset();
+            while (batch.hasNext()) {
+                values.add(batch.next().getOutputData()[0]);
+            }
+        }
+        return values;
+    }
+}
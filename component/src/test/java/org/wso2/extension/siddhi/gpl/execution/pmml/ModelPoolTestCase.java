@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml;
+
+import com.google.common.base.Ticker;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.wso2.siddhi.core.exception.SiddhiAppCreationException;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Test class for ModelPool.
+ */
+public class ModelPoolTestCase {
+
+    @Test
+    public void evictLeastRecentlyUsedTest() {
+        List<String> loadedKeys = new CopyOnWriteArrayList<>();
+        AtomicInteger releaseCount = new AtomicInteger();
+        ModelPool pool = new ModelPool(new ModelPool.Loader() {
+            @Override
+            public ModelBinding[] load(String key) {
+                loadedKeys.add(key);
+                return new ModelBinding[0];
+            }
+
+            @Override
+            public void release(ModelBinding[] bindings) {
+                releaseCount.incrementAndGet();
+            }
+        }, 2, 0, 200, 1, "pmml-pool-test", Ticker.systemTicker());
+
+        Assert.assertEquals(pool.get("tenantA").await(), new ModelBinding[0]);
+        Assert.assertEquals(pool.get("tenantB").await(), new ModelBinding[0]);
+        Assert.assertTrue(pool.get("tenantA").isLoaded());
+        // tenantB is now the least recently used route, hence it is evicted to make room for tenantC
+        Assert.assertEquals(pool.get("tenantC").await(), new ModelBinding[0]);
+        Assert.assertEquals(pool.getResidentCount(), 2);
+        Assert.assertEquals(pool.getEvictionCount(), 1);
+        Assert.assertEquals(releaseCount.get(), 1);
+        Assert.assertEquals(pool.getLoadedKeys(), Arrays.asList("tenantA", "tenantC"));
+        Assert.assertEquals(pool.getHitCount(), 1);
+        Assert.assertEquals(pool.getMissCount(), 3);
+
+        pool.get("tenantB").await();
+        Assert.assertEquals(loadedKeys, Arrays.asList("tenantA", "tenantB", "tenantC", "tenantB"));
+        pool.shutdown();
+        Assert.assertEquals(pool.getResidentCount(), 0);
+        Assert.assertEquals(releaseCount.get(), 4);
+    }
+
+    @Test
+    public void retryFailedRoutedModelTest() {
+        AtomicInteger loadCount = new AtomicInteger();
+        AtomicLong time = new AtomicLong();
+        ModelPool pool = new ModelPool(new ModelPool.Loader() {
+            @Override
+            public ModelBinding[] load(String key) {
+                if (loadCount.incrementAndGet() <= 2) {
+                    throw new SiddhiAppCreationException("Failed to load the model of " + key);
+                }
+                return new ModelBinding[0];
+            }
+
+            @Override
+            public void release(ModelBinding[] bindings) {
+            }
+        }, 10, 0, 200, 1, "pmml-route-test", new Ticker() {
+            @Override
+            public long read() {
+                return time.get();
+            }
+        });
+
+        // A failed model is not reloaded for the events of its key until its backoff elapses
+        Assert.assertNull(pool.get("tenantA").await());
+        Assert.assertNull(pool.get("tenantA").await());
+        Assert.assertEquals(loadCount.get(), 1);
+        time.addAndGet(TimeUnit.MILLISECONDS.toNanos(199));
+        Assert.assertNull(pool.get("tenantA").await());
+        Assert.assertEquals(loadCount.get(), 1);
+        time.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+        Assert.assertNull(pool.get("tenantA").await());
+        Assert.assertEquals(loadCount.get(), 2);
+
+        // The backoff doubles after the second failure
+        time.addAndGet(TimeUnit.MILLISECONDS.toNanos(399));
+        Assert.assertNull(pool.get("tenantA").await());
+        Assert.assertEquals(loadCount.get(), 2);
+        time.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+        Assert.assertEquals(pool.get("tenantA").await(), new ModelBinding[0]);
+        Assert.assertEquals(loadCount.get(), 3);
+        pool.shutdown();
+    }
+}
@@ -20,6 +20,10 @@ package org.wso2.extension.siddhi.gpl.execution.pmml;
 import org.testng.Assert;
 import org.testng.annotations.BeforeTest;
 import org.testng.annotations.Test;
+import org.wso2.extension.siddhi.gpl.execution.pmml.metrics.PredictionMetricsMXBean;
+import org.wso2.extension.siddhi.gpl.execution.pmml.util.ModelCache;
+import org.wso2.extension.siddhi.gpl.execution.pmml.util.ModelSnapshot;
+import org.wso2.extension.siddhi.gpl.execution.pmml.util.PMMLUtil;
 import org.wso2.siddhi.core.SiddhiAppRuntime;
 import org.wso2.siddhi.core.SiddhiManager;
 import org.wso2.siddhi.core.event.Event;
@@ -29,9 +33,24 @@ import org.wso2.siddhi.core.util.EventPrinter;
 import org.wso2.siddhi.core.util.SiddhiTestHelper;
 
 import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.JMX;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
 
 
 /**
@@ -303,4 +322,559 @@ public class PMMLModelProcessorTestCase {
         Assert.assertTrue(eventArrived);
         siddhiAppRuntime.shutdown();
     }
+
+    @Test
+    public void predictBatchTest() throws InterruptedException, URISyntaxException {
+        String pmmlFile = TestQuery.getResourcePath("/decision-tree.pmml");
+        TestQuery query = new TestQuery(TestQuery.DECISION_TREE_STREAM +
+                "from InputStream#pmml:predict('" + pmmlFile + "') " +
+                "select Predicted_response " +
+                "insert into outputStream ;");
+
+        long timestamp = System.currentTimeMillis();
+        query.send(new Event[]{
+                new Event(timestamp, new Object[]{6, 148, 72, 35, 0, 33.6, 0.627, 50, 1, 2, 3, 4, 5}),
+                new Event(timestamp, new Object[]{6, 148, 72, 35, 0, 33.6, 0.627, 50, 1, 2, 3, 0.1, 0.1}),
+                new Event(timestamp, new Object[]{0, 0, 0, 0, 0, 0, 0, 0, 0, 100, 100, 0, 0})
+        });
+        query.waitForEvents(3);
+        Assert.assertEquals(query.getOutputs(0), Arrays.<Object>asList("1.0", "0.0", "1.0"));
+        query.shutdown();
+    }
+
+    @Test
+    public void predictWithCompiledModelTest() throws InterruptedException, URISyntaxException {
+        String pmmlFile = TestQuery.getResourcePath("/iris_xgb.pmml");
+        TestQuery query = new TestQuery(TestQuery.IRIS_STREAM +
+                "from InputStream#pmml:predict('" + pmmlFile + "', 'model.compile=true', Sepal_Length, " +
+                "Sepal_Width, Petal_Length, Petal_Width) " +
+                "select probability_virginica " +
+                "insert into outputStream ;");
+
+        query.send(new Object[]{6, 148, 72, 35});
+        query.send(new Object[]{5.1, 3.5, 1.4, 0.2});
+        // Missing values are scored by JPMML
+        query.send(new Object[]{6.3, 2.9, null, 1.8});
+        query.waitForEvents(3);
+        Assert.assertEquals(query.getOutputs(0), Arrays.<Object>asList(0.8975975f, 0.04929458f, 0.21900785f));
+        query.shutdown();
+    }
+
+    @Test
+    public void predictWithCompiledMissingValuesTest() throws InterruptedException, URISyntaxException {
+        String[][] models = {{"/decision-tree.pmml", TestQuery.DECISION_TREE_STREAM, "13"},
+                {"/decision-tree-modified.pmml", TestQuery.DECISION_TREE_STREAM, "13"},
+                {"/iris_xgb.pmml", TestQuery.IRIS_STREAM, "4"}};
+        Random random = new Random(9);
+        for (String[] model : models) {
+            String pmmlFile = TestQuery.getResourcePath(model[0]);
+            // Started first, so that the off-heap query drops the parsed model and parses it again for the others
+            TestQuery offHeapQuery = new TestQuery(model[1] +
+                    "from InputStream#pmml:predict('" + pmmlFile + "', 'model.compile=true', " +
+                    "'model.offheap=true') " +
+                    "select * " +
+                    "insert into outputStream ;");
+            TestQuery compiledQuery = new TestQuery(model[1] +
+                    "from InputStream#pmml:predict('" + pmmlFile + "', 'model.compile=true') " +
+                    "select * " +
+                    "insert into outputStream ;");
+            TestQuery query = new TestQuery(model[1] +
+                    "from InputStream#pmml:predict('" + pmmlFile + "') " +
+                    "select * " +
+                    "insert into outputStream ;");
+
+            int rows = 300;
+            for (int row = 0; row < rows; row++) {
+                Object[] values = new Object[Integer.parseInt(model[2])];
+                for (int i = 0; i < values.length; i++) {
+                    int kind = random.nextInt(10);
+                    if (kind == 0) {
+                        values[i] = null;
+                    } else if (kind == 1) {
+                        values[i] = (random.nextBoolean() ? 1 : -1) * 1e12 * random.nextDouble();
+                    } else {
+                        values[i] = random.nextBoolean() ? (double) random.nextInt(8) : random.nextGaussian() * 10;
+                    }
+                }
+                offHeapQuery.send(values.clone());
+                compiledQuery.send(values.clone());
+                query.send(values);
+            }
+            offHeapQuery.waitForEvents(rows);
+            compiledQuery.waitForEvents(rows);
+            query.waitForEvents(rows);
+            // Rows missing values are scored by JPMML, the others by the compiled trees, with the same results
+            Assert.assertEquals(compiledQuery.getEventCount(), rows, model[0]);
+            for (int row = 0; row < rows; row++) {
+                Assert.assertEquals(compiledQuery.getOutputs().get(row), query.getOutputs().get(row), model[0]);
+                Assert.assertEquals(offHeapQuery.getOutputs().get(row), query.getOutputs().get(row), model[0]);
+            }
+            offHeapQuery.shutdown();
+            compiledQuery.shutdown();
+            query.shutdown();
+        }
+    }
+
+    @Test
+    public void predictAsyncTest() throws InterruptedException, URISyntaxException {
+        String pmmlFile = TestQuery.getResourcePath("/decision-tree.pmml");
+        TestQuery query = new TestQuery(TestQuery.DECISION_TREE_STREAM +
+                "from InputStream#pmml:predict('" + pmmlFile + "', 'async=true', 'async.workers=4', " +
+                "'async.queue.depth=8') " +
+                "select Predicted_response " +
+                "insert into outputStream ;");
+
+        List<Object> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            query.send(new Object[]{6, 148, 72, 35, 0, 33.6, 0.627, 50, 1, 2, 3, 4, 5});
+            query.send(new Object[]{6, 148, 72, 35, 0, 33.6, 0.627, 50, 1, 2, 3, 0.1, 0.1});
+            expected.add("1.0");
+            expected.add("0.0");
+        }
+        query.waitForEvents(200);
+        // Predictions are emitted in the order of the input events
+        Assert.assertEquals(query.getOutputs(0), expected);
+        query.shutdown();
+    }
+
+    @Test
+    public void predictWithSharedModelTest() throws InterruptedException, URISyntaxException {
+        String pmmlFile = TestQuery.getResourcePath("/linear-regression.pmml");
+        ModelCache modelCache = ModelCache.getInstance();
+        int residentModels = modelCache.getResidentModelCount();
+        long hits = modelCache.getHitCount();
+        long misses = modelCache.getMissCount();
+
+        TestQuery query = new TestQuery(TestQuery.LINEAR_REGRESSION_STREAM +
+                "from InputStream#pmml:predict('" + pmmlFile + "') " +
+                "select target " +
+                "insert into outputStream ;" +
+                "from InputStream#pmml:predict('" + pmmlFile + "') " +
+                "select target " +
+                "insert into outputStream ;");
+        Assert.assertEquals(modelCache.getResidentModelCount(), residentModels + 1);
+        Assert.assertEquals(modelCache.getMissCount(), misses + 1);
+        Assert.assertEquals(modelCache.getHitCount(), hits + 1);
+
+        query.send(new Object[]{1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0, 8.0});
+        query.waitForEvents(2);
+        Assert.assertEquals(query.getOutputs(0), Arrays.<Object>asList(5.216788478335122, 5.216788478335122));
+        query.shutdown();
+        Assert.assertEquals(modelCache.getResidentModelCount(), residentModels);
+    }
+
+    @Test
+    public void predictWithModelReloadTest() throws InterruptedException, URISyntaxException, IOException {
+        String pmmlContent = new String(Files.readAllBytes(Paths.get(TestQuery.getResourcePath(
+                "/decision-tree.pmml"))), StandardCharsets.UTF_8);
+        Path pmmlFile = Files.createTempFile("decision-tree", ".pmml");
+        Files.write(pmmlFile, pmmlContent.getBytes(StandardCharsets.UTF_8));
+        TestQuery query = new TestQuery(TestQuery.DECISION_TREE_STREAM +
+                "from InputStream#pmml:predict('" + pmmlFile.toAbsolutePath() + "', 'model.watch=true', " +
+                "'model.watch.interval=100') " +
+                "select Predicted_response " +
+                "insert into outputStream ;");
+
+        Object[] data = new Object[]{6, 148, 72, 35, 0, 33.6, 0.627, 50, 1, 2, 3, 4, 5};
+        query.send(data);
+        query.waitForEvents(1);
+        Assert.assertEquals(query.getOutputs(0).get(0), "1.0");
+
+        // An invalid model is rejected and the current model keeps serving
+        Files.write(pmmlFile, "<PMML>".getBytes(StandardCharsets.UTF_8));
+        pmmlFile.toFile().setLastModified(System.currentTimeMillis() + 1000);
+        Thread.sleep(500);
+        query.send(data);
+        query.waitForEvents(2);
+        Assert.assertEquals(query.getOutputs(0).get(1), "1.0");
+
+        // A valid model is swapped in without restarting the app
+        Files.write(pmmlFile, pmmlContent.replace("<Node id=\"5\" score=\"1\"", "<Node id=\"5\" score=\"0\"")
+                .getBytes(StandardCharsets.UTF_8));
+        pmmlFile.toFile().setLastModified(System.currentTimeMillis() + 2000);
+        long deadline = System.currentTimeMillis() + timeout;
+        while (!"0.0".equals(getLastOutput(query)) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+            query.send(data);
+        }
+        Assert.assertEquals(getLastOutput(query), "0.0");
+        query.shutdown();
+        Files.delete(pmmlFile);
+    }
+
+    private static Object getLastOutput(TestQuery query) {
+        List<Object[]> outputs = query.getOutputs();
+        return outputs.get(outputs.size() - 1)[0];
+    }
+
+    @Test
+    public void predictWithMetricsTest() throws InterruptedException, URISyntaxException,
+            MalformedObjectNameException {
+        String pmmlFile = TestQuery.getResourcePath("/decision-tree.pmml");
+        TestQuery query = new TestQuery("@app:name('PmmlMetricsTest') " +
+                "@app:statistics(reporter = 'jmx', interval = '60') " +
+                "define stream InputStream " +
+                "(root_shell string, su_attempted double, num_root double, num_file_creations double, num_shells " +
+                "double, num_access_files double, num_outbound_cmds double, is_host_login double, is_guest_login " +
+                "double, count double, srv_count double, serror_rate double, srv_serror_rate double);" +
+                "from InputStream#pmml:predict('" + pmmlFile + "') " +
+                "select Predicted_response " +
+                "insert into outputStream ;");
+
+        query.send(new Object[]{"6", 148, 72, 35, 0, 33.6, 0.627, 50, 1, 2, 3, 4, 5});
+        query.send(new Object[]{"invalid", 148, 72, 35, 0, 33.6, 0.627, 50, 1, 2, 3, 4, 5});
+        query.waitForEvents(2);
+
+        ObjectName objectName = getMetricsName("PmmlMetricsTest");
+        PredictionMetricsMXBean metrics = JMX.newMXBeanProxy(ManagementFactory.getPlatformMBeanServer(),
+                objectName, PredictionMetricsMXBean.class);
+        Assert.assertEquals(metrics.getEventCount(), 2);
+        Assert.assertEquals(metrics.getFailureCount(), 0);
+        Assert.assertEquals(metrics.getInvalidInputCounts(), Collections.singletonMap("root_shell", 1L));
+        Assert.assertTrue(metrics.getMaxLatency() > 0);
+        Assert.assertTrue(metrics.get99thPercentileLatency() <= metrics.getMaxLatency());
+        // Without a prediction cache nothing is looked up, and the hit ratio is 0 like the processor's
+        Assert.assertEquals(metrics.getCacheHitRatio(), 0.0);
+        Assert.assertEquals(new PmmlModelProcessor().getCacheHitRatio(), 0.0);
+
+        query.shutdown();
+        Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName));
+    }
+
+    /**
+     * Get the name of the only prediction metrics bean registered for a Siddhi app.
+     */
+    private static ObjectName getMetricsName(String appName) throws MalformedObjectNameException {
+        Set<ObjectName> objectNames = ManagementFactory.getPlatformMBeanServer().queryNames(new ObjectName(
+                "org.wso2.extension.siddhi.gpl.execution.pmml:type=PredictionMetrics,app=\"" + appName + "\",*"),
+                null);
+        Assert.assertEquals(objectNames.size(), 1);
+        return objectNames.iterator().next();
+    }
+
+    private static PredictionMetricsMXBean getMetrics(String appName) throws MalformedObjectNameException {
+        return JMX.newMXBeanProxy(ManagementFactory.getPlatformMBeanServer(), getMetricsName(appName),
+                PredictionMetricsMXBean.class);
+    }
+
+    @Test
+    public void predictWithPredictionCacheTest() throws InterruptedException, URISyntaxException,
+            MalformedObjectNameException {
+        String pmmlFile = TestQuery.getResourcePath("/linear-regression.pmml");
+        TestQuery query = new TestQuery("@app:name('PmmlCacheTest') " +
+                "@app:statistics(reporter = 'jmx', interval = '60') " +
+                TestQuery.LINEAR_REGRESSION_STREAM +
+                "from InputStream#pmml:predict('" + pmmlFile + "', 'cache.size=16', 'cache.ttl=60000') " +
+                "select target " +
+                "insert into outputStream ;");
+
+        query.send(new Object[]{1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0, 8.0});
+        query.send(new Object[]{1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0, 8.0});
+        query.send(new Object[]{0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0});
+        query.send(new Object[]{1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0, 8.0});
+        query.waitForEvents(4);
+        List<Object> predictions = query.getOutputs(0);
+        Assert.assertEquals(predictions.get(0), 5.216788478335122);
+        Assert.assertEquals(predictions.get(1), 5.216788478335122);
+        Assert.assertEquals(predictions.get(3), 5.216788478335122);
+
+        PredictionMetricsMXBean metrics = getMetrics("PmmlCacheTest");
+        Assert.assertEquals(metrics.getCacheHitCount(), 2);
+        Assert.assertEquals(metrics.getCacheMissCount(), 2);
+        Assert.assertEquals(metrics.getCacheHitRatio(), 0.5);
+        query.shutdown();
+    }
+
+    @Test
+    public void predictWithRestoredStateTest() throws Exception {
+        String pmmlFile = TestQuery.getResourcePath("/linear-regression.pmml");
+        String siddhiApp = "@app:name('PmmlStateTest') " +
+                "@app:statistics(reporter = 'jmx', interval = '60') " +
+                TestQuery.LINEAR_REGRESSION_STREAM +
+                "from InputStream#pmml:predict('" + pmmlFile + "', 'cache.size=16') " +
+                "select target " +
+                "insert into outputStream ;";
+
+        SiddhiManager siddhiManager = new SiddhiManager();
+        TestQuery query = new TestQuery(siddhiManager, siddhiApp);
+        query.send(new Object[]{1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0, 8.0});
+        query.send(new Object[]{1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0, 8.0});
+        query.waitForEvents(2);
+        Assert.assertEquals(query.getOutputs(0), Arrays.<Object>asList(5.216788478335122, 5.216788478335122));
+        byte[] snapshot = query.getSiddhiAppRuntime().snapshot();
+        query.shutdown();
+
+        // The restored query starts with the cached prediction and the statistics counters of the first one
+        TestQuery restoredQuery = new TestQuery(siddhiManager, siddhiApp);
+        restoredQuery.getSiddhiAppRuntime().restore(snapshot);
+        restoredQuery.send(new Object[]{1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0, 8.0});
+        restoredQuery.waitForEvents(1);
+        Assert.assertEquals(restoredQuery.getOutputs(0), Collections.<Object>singletonList(5.216788478335122));
+
+        PredictionMetricsMXBean metrics = getMetrics("PmmlStateTest");
+        Assert.assertEquals(metrics.getEventCount(), 3);
+        Assert.assertEquals(metrics.getCacheHitCount(), 2);
+        Assert.assertEquals(metrics.getCacheMissCount(), 1);
+        restoredQuery.shutdown();
+    }
+
+    @Test
+    public void predictWithModelSnapshotTest() throws InterruptedException, URISyntaxException, IOException {
+        String pmmlContent = new String(Files.readAllBytes(Paths.get(TestQuery.getResourcePath(
+                "/decision-tree.pmml"))), StandardCharsets.UTF_8);
+        Path pmmlFile = Files.createTempFile("decision-tree", ".pmml");
+        Files.write(pmmlFile, pmmlContent.getBytes(StandardCharsets.UTF_8));
+        File snapshotFile = ModelSnapshot.getSnapshotFile(pmmlFile.toFile());
+
+        // The first start writes the snapshot, the second one reads it
+        Assert.assertEquals(predictWithModelSnapshot(pmmlFile), "1.0");
+        Assert.assertTrue(snapshotFile.isFile());
+        Assert.assertEquals(predictWithModelSnapshot(pmmlFile), "1.0");
+
+        // A snapshot of an outdated pmml file is not used, and is replaced
+        Files.write(pmmlFile, pmmlContent.replace("<Node id=\"5\" score=\"1\"", "<Node id=\"5\" score=\"0\"")
+                .getBytes(StandardCharsets.UTF_8));
+        Assert.assertEquals(predictWithModelSnapshot(pmmlFile), "0.0");
+        Assert.assertNotNull(ModelSnapshot.read(pmmlFile.toFile(), PMMLUtil.checksum(pmmlFile.toString())));
+        Files.delete(pmmlFile);
+        Files.delete(snapshotFile.toPath());
+    }
+
+    private static Object predictWithModelSnapshot(Path pmmlFile) throws InterruptedException {
+        TestQuery query = new TestQuery(TestQuery.DECISION_TREE_STREAM +
+                "from InputStream#pmml:predict('" + pmmlFile.toAbsolutePath() + "', 'model.snapshot=true') " +
+                "select Predicted_response " +
+                "insert into outputStream ;");
+
+        query.send(new Object[]{6, 148, 72, 35, 0, 33.6, 0.627, 50, 1, 2, 3, 4, 5});
+        query.waitForEvents(1);
+        query.shutdown();
+        Assert.assertEquals(query.getEventCount(), 1);
+        return query.getOutputs(0).get(0);
+    }
+
+    @Test
+    public void predictWithParallelSegmentsTest() throws InterruptedException, IOException {
+        Path pmmlFile = TestForest.write(200, 6, 42L);
+        List<String> attributes = new ArrayList<>();
+        for (String feature : TestForest.getFeatures()) {
+            attributes.add(feature + " double");
+        }
+        String stream = "define stream InputStream (" + String.join(", ", attributes) + ");";
+        TestQuery sequentialQuery = new TestQuery(stream +
+                "from InputStream#pmml:predict('" + pmmlFile + "', 'model.compile=true') " +
+                "select y " +
+                "insert into outputStream ;");
+        TestQuery parallelQuery = new TestQuery(stream +
+                "from InputStream#pmml:predict('" + pmmlFile + "', 'model.compile=true', 'segments.parallel=true', " +
+                "'segments.parallel.threshold=2', 'segments.parallel.threads=4') " +
+                "select y " +
+                "insert into outputStream ;");
+
+        Random random = new Random(3);
+        int rows = 500;
+        for (int row = 0; row < rows; row++) {
+            Object[] values = new Object[TestForest.FEATURE_COUNT];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = random.nextDouble();
+            }
+            sequentialQuery.send(values);
+            parallelQuery.send(values);
+        }
+        sequentialQuery.waitForEvents(rows);
+        parallelQuery.waitForEvents(rows);
+        // Segments scored in parallel are aggregated in order, giving the same results as sequential scoring
+        Assert.assertEquals(parallelQuery.getEventCount(), rows);
+        Assert.assertEquals(parallelQuery.getOutputs(0), sequentialQuery.getOutputs(0));
+        sequentialQuery.shutdown();
+        parallelQuery.shutdown();
+        Files.delete(pmmlFile);
+    }
+
+    @Test
+    public void predictWithColumnarScoringTest() throws InterruptedException, URISyntaxException {
+        String pmmlFile = TestQuery.getResourcePath("/iris_xgb.pmml");
+        TestQuery query = new TestQuery(TestQuery.IRIS_STREAM +
+                "from InputStream#window.lengthBatch(3)#pmml:predict('" + pmmlFile + "', 'model.compile=true', " +
+                "'columnar.threshold=2', Sepal_Length, Sepal_Width, Petal_Length, Petal_Width) " +
+                "select probability_virginica " +
+                "insert into outputStream ;");
+
+        query.send(new Object[]{6, 148, 72, 35});
+        query.send(new Object[]{5.1, 3.5, 1.4, 0.2});
+        query.send(new Object[]{6, 148, 72, 35});
+        query.waitForEvents(3);
+        // The batch of the window is scored by columns, giving the same results as scoring event by event
+        Assert.assertEquals(query.getOutputs(0), Arrays.<Object>asList(0.8975975f, 0.04929458f, 0.8975975f));
+        query.shutdown();
+    }
+
+    @Test
+    public void predictWithCompiledRegressionTest() throws InterruptedException, URISyntaxException {
+        String pmmlFile = TestQuery.getResourcePath("/linear-regression.pmml");
+        TestQuery query = new TestQuery(TestQuery.LINEAR_REGRESSION_STREAM +
+                "from InputStream#pmml:predict('" + pmmlFile + "', 'model.compile=true', field_0, field_1, " +
+                "field_2, field_3, field_4, field_5, field_6, field_7) " +
+                "select target " +
+                "insert into outputStream ;");
+
+        query.send(new Object[]{1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0, 8.0});
+        query.send(new Object[]{8.0, 7.0, 6.0, 5.0, 4.0, 3.0, 2.0, 1.0});
+        query.waitForEvents(2);
+        // The compiled regression table gives the same results as JPMML
+        Assert.assertEquals(query.getOutputs(0), Arrays.<Object>asList(5.216788478335122, 16.47378978519496));
+        query.shutdown();
+    }
+
+    @Test
+    public void predictWithMultipleModelsTest() throws InterruptedException, URISyntaxException {
+        String pmmlFile = TestQuery.getResourcePath("/decision-tree.pmml");
+        String challengerPmmlFile = TestQuery.getResourcePath("/decision-tree-modified.pmml");
+        TestQuery query = new TestQuery(TestQuery.DECISION_TREE_STREAM +
+                "from InputStream#pmml:predict('" + pmmlFile + "', '" + challengerPmmlFile + "') " +
+                "select Predicted_response, decision_tree_modified_Predicted_response " +
+                "insert into outputStream ;");
+
+        query.send(new Object[]{6, 148, 72, 35, 0, 33.6, 0.627, 50, 1, 2, 3, 4, 5});
+        query.waitForEvents(1);
+        // Both models score the same event, the challenger declaring a double instead of a string prediction
+        Assert.assertEquals(query.getOutputs().get(0), new Object[]{"1.0", 1.0});
+        query.shutdown();
+    }
+
+    @Test
+    public void predictWithRoutedModelsTest() throws InterruptedException, URISyntaxException, IOException {
+        String pmmlFile = TestQuery.getResourcePath("/decision-tree.pmml");
+        String pmmlContent = new String(Files.readAllBytes(Paths.get(pmmlFile)), StandardCharsets.UTF_8);
+        Path routeDirectory = Files.createTempDirectory("tenants");
+        Path tenantPmmlFile = routeDirectory.resolve("tenantA.pmml");
+        Files.write(tenantPmmlFile, pmmlContent.replace("<Node id=\"5\" score=\"1\"", "<Node id=\"5\" score=\"0\"")
+                .getBytes(StandardCharsets.UTF_8));
+        Path brokenPmmlFile = routeDirectory.resolve("tenantC.pmml");
+        Files.write(brokenPmmlFile, pmmlContent.substring(0, pmmlContent.length() / 2)
+                .getBytes(StandardCharsets.UTF_8));
+        TestQuery query = new TestQuery("define stream InputStream " +
+                "(tenant string, root_shell double, su_attempted double, num_root double, num_file_creations " +
+                "double, num_shells double, num_access_files double, num_outbound_cmds double, is_host_login " +
+                "double, is_guest_login double, count double, srv_count double, serror_rate double, " +
+                "srv_serror_rate double);" +
+                "from InputStream#pmml:predict('" + pmmlFile + "', 'route.key=tenant', 'route.directory=" +
+                routeDirectory.toAbsolutePath() + "', 'route.pool.size=1', 'route.miss=wait') " +
+                "select tenant, Predicted_response " +
+                "insert into outputStream ;");
+
+        // Tenants without a model file are scored by the default model, and the pool of a single model swaps the
+        // model of tenantA out and in again. The events of a tenant whose model fails to load are emitted without
+        // predictions.
+        query.send(new Object[]{"tenantA", 6, 148, 72, 35, 0, 33.6, 0.627, 50, 1, 2, 3, 4, 5});
+        query.send(new Object[]{"tenantB", 6, 148, 72, 35, 0, 33.6, 0.627, 50, 1, 2, 3, 4, 5});
+        query.send(new Object[]{"../tenantA", 6, 148, 72, 35, 0, 33.6, 0.627, 50, 1, 2, 3, 4, 5});
+        query.send(new Object[]{"tenantA", 6, 148, 72, 35, 0, 33.6, 0.627, 50, 1, 2, 3, 4, 5});
+        query.send(new Object[]{"tenantC", 6, 148, 72, 35, 0, 33.6, 0.627, 50, 1, 2, 3, 4, 5});
+        query.waitForEvents(5);
+        List<Object[]> predictions = query.getOutputs();
+        Assert.assertEquals(predictions.get(0), new Object[]{"tenantA", "0.0"});
+        Assert.assertEquals(predictions.get(1), new Object[]{"tenantB", "1.0"});
+        Assert.assertEquals(predictions.get(2), new Object[]{"../tenantA", "1.0"});
+        Assert.assertEquals(predictions.get(3), new Object[]{"tenantA", "0.0"});
+        Assert.assertEquals(predictions.get(4), new Object[]{"tenantC", null});
+        query.shutdown();
+        Files.delete(tenantPmmlFile);
+        Files.delete(brokenPmmlFile);
+        Files.delete(routeDirectory);
+    }
+
+    @Test
+    public void predictWithWarmUpTest() throws InterruptedException, URISyntaxException,
+            MalformedObjectNameException {
+        String pmmlFile = TestQuery.getResourcePath("/iris_xgb.pmml");
+        TestQuery query = new TestQuery("@app:name('PmmlWarmUpTest') " +
+                "@app:statistics(reporter = 'jmx', interval = '60') " +
+                TestQuery.IRIS_STREAM +
+                "from InputStream#pmml:predict('" + pmmlFile + "', 'model.compile=true', 'model.warmup=500', " +
+                "Sepal_Length, Sepal_Width, Petal_Length, Petal_Width) " +
+                "select probability_virginica " +
+                "insert into outputStream ;");
+
+        query.send(new Object[]{6, 148, 72, 35});
+        query.send(new Object[]{5.1, 3.5, 1.4, 0.2});
+        query.waitForEvents(2);
+        Assert.assertEquals(query.getOutputs(0), Arrays.<Object>asList(0.8975975f, 0.04929458f));
+
+        // The synthetic inputs of the warm-up are not counted as events
+        PredictionMetricsMXBean metrics = getMetrics("PmmlWarmUpTest");
+        Assert.assertEquals(metrics.getEventCount(), 2);
+        Assert.assertTrue(metrics.getWarmUpTime() > 0);
+        query.shutdown();
+    }
+
+    @Test
+    public void predictWithOutputSelectionTest() throws InterruptedException, URISyntaxException {
+        String pmmlFile = TestQuery.getResourcePath("/iris_xgb.pmml");
+        TestQuery query = new TestQuery(TestQuery.IRIS_STREAM +
+                "from InputStream#pmml:predict('" + pmmlFile + "', 'outputs=probability_virginica', " +
+                "Sepal_Length, Sepal_Width, Petal_Length, Petal_Width) " +
+                "select * " +
+                "insert into outputStream ;");
+
+        query.send(new Object[]{6, 148, 72, 35});
+        query.send(new Object[]{5.1, 3.5, 1.4, 0.2});
+        query.waitForEvents(2);
+        // Only the selected probability follows the input attributes
+        List<Object[]> outputs = query.getOutputs();
+        Assert.assertEquals(outputs.get(0).length, 5);
+        Assert.assertEquals(outputs.get(0)[4], 0.8975975f);
+        Assert.assertEquals(outputs.get(1)[4], 0.04929458f);
+        query.shutdown();
+    }
+
+    @Test
+    public void predictWithInputCacheTest() throws InterruptedException, URISyntaxException {
+        String pmmlFile = TestQuery.getResourcePath("/categorical-regression.pmml");
+        TestQuery query = new TestQuery(TestQuery.CATEGORICAL_REGRESSION_STREAM +
+                "from InputStream#pmml:predict('" + pmmlFile + "', 'input.cache.size=2', protocol, duration) " +
+                "select score " +
+                "insert into outputStream ;");
+
+        query.send(new Object[]{"tcp", 2.0});
+        query.send(new Object[]{"udp", 2.0});
+        query.send(new Object[]{"tcp", 4.0});
+        query.send(new Object[]{"icmp", 2.0});
+        query.waitForEvents(4);
+        // Recurring categories reuse their prepared value, and the category beyond the limit is prepared as usual
+        Assert.assertEquals(query.getOutputs(0), Arrays.<Object>asList(4.0, 5.0, 5.0, 2.0));
+        query.shutdown();
+    }
+
+    @Test
+    public void predictWithLazyInputTest() throws InterruptedException, URISyntaxException {
+        String pmmlFile = TestQuery.getResourcePath("/decision-tree.pmml");
+        TestQuery query = new TestQuery(TestQuery.DECISION_TREE_STREAM +
+                "from InputStream#pmml:predict('" + pmmlFile + "', 'input.lazy=true') " +
+                "select * " +
+                "insert into outputStream ;");
+
+        query.send(new Object[]{6, 148, 72, 35, 0, 33.6, 0.627, 50, 1, 2, 3, 4, 5});
+        // The fields off the decision path are never prepared, hence their missing values make no difference
+        query.send(new Object[]{null, null, null, null, null, null, null, null, null, 2, 3, 4, 5});
+        query.waitForEvents(2);
+        Assert.assertEquals(query.getOutputs(13), Arrays.<Object>asList("1.0", "1.0"));
+        query.shutdown();
+    }
+
+    @Test
+    public void predictWithGeneralRegressionTest() throws InterruptedException, URISyntaxException {
+        String pmmlFile = TestQuery.getResourcePath("/general-regression.pmml");
+        TestQuery query = new TestQuery("define stream InputStream (x1 double, x2 double, color string);" +
+                "from InputStream#pmml:predict('" + pmmlFile + "', 'model.compile=true', x1, x2, color) " +
+                "select y " +
+                "insert into outputStream ;");
+
+        query.send(new Object[]{2.0, 3.0, "red"});
+        query.send(new Object[]{2.0, 3.0, "blue"});
+        query.waitForEvents(2);
+        // 1.5 + 0.5 * x1 + 0.25 * x2^2 + 2.0 * [color = red]
+        Assert.assertEquals(query.getOutputs(0), Arrays.<Object>asList(6.75, 4.75));
+        query.shutdown();
+    }
 }
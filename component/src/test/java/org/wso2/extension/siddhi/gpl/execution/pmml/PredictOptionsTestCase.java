@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.wso2.siddhi.query.api.exception.SiddhiAppValidationException;
+
+/**
+ * Test class for PredictOptions.
+ */
+public class PredictOptionsTestCase {
+
+    private static final String[] PMML_DEFINITIONS = {"decision-tree.pmml"};
+    private static final String[] ATTRIBUTE_NAMES = {"tenant", "count"};
+
+    @Test
+    public void tellOptionsFromModelsTest() {
+        Assert.assertTrue(PredictOptions.isOption("model.compile=true"));
+        Assert.assertTrue(PredictOptions.isOption(" cache.size = 100"));
+        Assert.assertFalse(PredictOptions.isOption("/opt/models/challenger.pmml"));
+        Assert.assertFalse(PredictOptions.isOption("C:\\models\\run=2\\challenger.pmml"));
+        Assert.assertFalse(PredictOptions.isOption("<?xml version=\"1.0\"?><PMML version=\"4.2\"/>"));
+    }
+
+    @Test
+    public void validateDefaultsTest() {
+        PredictOptions options = new PredictOptions(null);
+        options.parse("model.compile=true");
+        options.parse("segments.parallel=true");
+        options.validate(PMML_DEFINITIONS, ATTRIBUTE_NAMES);
+        Assert.assertTrue(options.isCompileEnabled());
+        Assert.assertEquals(options.getColumnarThreshold(), 16);
+        Assert.assertEquals(options.getParallelThreshold(), 64);
+        Assert.assertEquals(options.getAsyncOverflowPolicy(), AsyncScoringStage.OverflowPolicy.BLOCK);
+        Assert.assertNull(options.getRouteKey());
+        Assert.assertNull(options.getOutputs());
+    }
+
+    @Test(expectedExceptions = SiddhiAppValidationException.class)
+    public void rejectUnsupportedOptionTest() {
+        new PredictOptions(null).parse("model.compiled=true");
+    }
+
+    @Test(expectedExceptions = SiddhiAppValidationException.class)
+    public void rejectRepeatedOptionTest() {
+        PredictOptions options = new PredictOptions(null);
+        options.parse("cache.size=10");
+        options.parse("cache.size=20");
+    }
+
+    @Test(expectedExceptions = SiddhiAppValidationException.class)
+    public void rejectCodegenWithoutCompileTest() {
+        PredictOptions options = new PredictOptions(null);
+        options.parse("model.codegen=true");
+        options.validate(PMML_DEFINITIONS, ATTRIBUTE_NAMES);
+    }
+
+    @Test(expectedExceptions = SiddhiAppValidationException.class)
+    public void rejectNegativeCacheSizeTest() {
+        PredictOptions options = new PredictOptions(null);
+        options.parse("cache.size=-1");
+        options.validate(PMML_DEFINITIONS, ATTRIBUTE_NAMES);
+    }
+
+    @Test(expectedExceptions = SiddhiAppValidationException.class)
+    public void rejectUnknownRouteKeyTest() {
+        PredictOptions options = new PredictOptions(null);
+        options.parse("route.key=user");
+        options.validate(PMML_DEFINITIONS, ATTRIBUTE_NAMES);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+/**
+ * Test class for PredictionCache.
+ */
+public class PredictionCacheTestCase {
+
+    @Test
+    public void reuseProbeTest() {
+        PredictionCache cache = new PredictionCache(16, 0);
+        PredictionCache.Key probe = new PredictionCache.Key(2);
+        Object[] output = {"1.0"};
+        cache.put(probe.set(new Object[]{1.0, "tcp"}), output);
+
+        // The cached key is a copy, hence the probe can be set to the values of the next event
+        Assert.assertNull(cache.get(probe.set(new Object[]{2.0, "tcp"})));
+        Assert.assertSame(cache.get(probe.set(new Object[]{1.0, "tcp"})), output);
+        Assert.assertNull(cache.get(probe.set(new Object[]{1.0, null})));
+        Assert.assertEquals(cache.getHitCount(), 1);
+        Assert.assertEquals(cache.getRequestCount(), 3);
+    }
+
+    @Test
+    public void evictBeyondMaximumSizeTest() {
+        PredictionCache cache = new PredictionCache(4, 0);
+        PredictionCache.Key probe = new PredictionCache.Key(1);
+        for (int i = 0; i < 100; i++) {
+            cache.put(probe.set(new Object[]{i}), new Object[]{i});
+        }
+        Assert.assertTrue(cache.getEntries().size() <= 4);
+    }
+
+    @Test
+    public void restoreEntriesTest() {
+        PredictionCache cache = new PredictionCache(16, 60000);
+        PredictionCache.Key probe = new PredictionCache.Key(2);
+        cache.put(probe.set(new Object[]{1.0, "tcp"}), new Object[]{"1.0"});
+        cache.put(probe.set(new Object[]{2.0, "udp"}), new Object[]{"0.0"});
+        List<Object[][]> entries = cache.getEntries();
+        Assert.assertEquals(entries.size(), 2);
+
+        // The entries copied from a cache are hits in the cache they are restored into
+        PredictionCache restoredCache = new PredictionCache(16, 60000);
+        restoredCache.putEntries(entries);
+        Assert.assertEquals(restoredCache.get(probe.set(new Object[]{1.0, "tcp"})), new Object[]{"1.0"});
+        Assert.assertEquals(restoredCache.get(probe.set(new Object[]{2.0, "udp"})), new Object[]{"0.0"});
+        Assert.assertEquals(restoredCache.getHitCount(), 2);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates large regression forests over uniformly distributed continuous features, laid out as the forest of
+ * the large forest benchmark, for the tests comparing the ways compiled ensembles are scored.
+ */
+public final class TestForest {
+
+    public static final int FEATURE_COUNT = 20;
+    private static final String TARGET = "y";
+
+    private TestForest() {
+    }
+
+    /**
+     * Get the names of the features of the generated forests.
+     *
+     * @return feature names
+     */
+    public static String[] getFeatures() {
+        String[] features = new String[FEATURE_COUNT];
+        for (int i = 0; i < features.length; i++) {
+            features[i] = "f" + i;
+        }
+        return features;
+    }
+
+    /**
+     * Write a generated forest to a temporary pmml file, to be deleted by the caller.
+     *
+     * @param treeCount number of trees
+     * @param treeDepth depth of each tree
+     * @param seed      seed of the split features, thresholds and scores
+     * @return path of the pmml file
+     * @throws IOException when the file cannot be written
+     */
+    public static Path write(int treeCount, int treeDepth, long seed) throws IOException {
+        Path pmmlFile = Files.createTempFile("forest", ".pmml");
+        Files.write(pmmlFile, generate(treeCount, treeDepth, seed).getBytes(StandardCharsets.UTF_8));
+        return pmmlFile;
+    }
+
+    private static String generate(int treeCount, int treeDepth, long seed) {
+        Random random = new Random(seed);
+        String[] features = getFeatures();
+        StringBuilder pmml = new StringBuilder(treeCount << (treeDepth + 7));
+        pmml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<PMML xmlns=\"http://www.dmg.org/PMML-4_3\" version=\"4.3\">\n")
+                .append("<Header description=\"Generated test forest\"/>\n")
+                .append("<DataDictionary numberOfFields=\"").append(features.length + 1).append("\">\n");
+        for (String feature : features) {
+            pmml.append("<DataField name=\"").append(feature)
+                    .append("\" optype=\"continuous\" dataType=\"double\"/>\n");
+        }
+        pmml.append("<DataField name=\"").append(TARGET).append("\" optype=\"continuous\" dataType=\"double\"/>\n")
+                .append("</DataDictionary>\n")
+                .append("<MiningModel functionName=\"regression\">\n");
+        appendMiningSchema(pmml, features);
+        pmml.append("<Segmentation multipleModelMethod=\"sum\">\n");
+        for (int i = 0; i < treeCount; i++) {
+            pmml.append("<Segment id=\"").append(i + 1).append("\">\n<True/>\n")
+                    .append("<TreeModel functionName=\"regression\" noTrueChildStrategy=\"returnLastPrediction\">\n");
+            appendMiningSchema(pmml, features);
+            appendNode(pmml, random, features, null, treeDepth);
+            pmml.append("</TreeModel>\n</Segment>\n");
+        }
+        return pmml.append("</Segmentation>\n</MiningModel>\n</PMML>\n").toString();
+    }
+
+    private static void appendMiningSchema(StringBuilder pmml, String[] features) {
+        pmml.append("<MiningSchema>\n<MiningField name=\"").append(TARGET).append("\" usageType=\"target\"/>\n");
+        for (String feature : features) {
+            pmml.append("<MiningField name=\"").append(feature).append("\"/>\n");
+        }
+        pmml.append("</MiningSchema>\n");
+    }
+
+    private static void appendNode(StringBuilder pmml, Random random, String[] features, String predicate,
+                                   int depth) {
+        pmml.append("<Node score=\"").append(format(random.nextDouble() - 0.5)).append("\">\n")
+                .append(predicate == null ? "<True/>\n" : predicate);
+        if (depth > 0) {
+            String feature = features[random.nextInt(features.length)];
+            String threshold = format(random.nextDouble());
+            appendNode(pmml, random, features, simplePredicate(feature, "lessThan", threshold), depth - 1);
+            appendNode(pmml, random, features, simplePredicate(feature, "greaterOrEqual", threshold), depth - 1);
+        }
+        pmml.append("</Node>\n");
+    }
+
+    private static String simplePredicate(String feature, String operator, String threshold) {
+        return "<SimplePredicate field=\"" + feature + "\" operator=\"" + operator + "\" value=\"" + threshold
+                + "\"/>\n";
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.6f", value);
+    }
+}
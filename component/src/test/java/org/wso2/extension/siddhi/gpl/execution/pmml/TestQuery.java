@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml;
+
+import org.wso2.siddhi.core.SiddhiAppRuntime;
+import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.core.event.Event;
+import org.wso2.siddhi.core.stream.input.InputHandler;
+import org.wso2.siddhi.core.stream.output.StreamCallback;
+import org.wso2.siddhi.core.util.SiddhiTestHelper;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Siddhi app run by the tests, which sends events to its {@code InputStream} and records the data of the events
+ * inserted into its {@code outputStream}.
+ */
+final class TestQuery {
+
+    static final String DECISION_TREE_STREAM = "define stream InputStream " +
+            "(root_shell double, su_attempted double, num_root double, num_file_creations double, num_shells " +
+            "double, num_access_files double, num_outbound_cmds double, is_host_login double, is_guest_login " +
+            "double, count double, srv_count double, serror_rate double, srv_serror_rate double);";
+    static final String IRIS_STREAM = "define stream InputStream " +
+            "(Sepal_Length double, Sepal_Width double, Petal_Length double, Petal_Width double );";
+    static final String LINEAR_REGRESSION_STREAM = "define stream InputStream " +
+            "(field_0 double, field_1 double, field_2 double, field_3 double, field_4 double, field_5 double, " +
+            "field_6 double, field_7 double);";
+    static final String CATEGORICAL_REGRESSION_STREAM = "define stream InputStream (protocol string, " +
+            "duration double);";
+
+    private static final long WAIT_TIME = 5000;
+    private static final long TIMEOUT = 10000;
+
+    private final SiddhiAppRuntime siddhiAppRuntime;
+    private final InputHandler inputHandler;
+    private final List<Object[]> outputs = new CopyOnWriteArrayList<>();
+    private final AtomicInteger eventCount = new AtomicInteger(0);
+
+    /**
+     * Create and start a Siddhi app.
+     *
+     * @param siddhiApp definition of the app, inserting into {@code outputStream}
+     */
+    TestQuery(String siddhiApp) {
+        this(new SiddhiManager(), siddhiApp);
+    }
+
+    TestQuery(SiddhiManager siddhiManager, String siddhiApp) {
+        this.siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp);
+        siddhiAppRuntime.addCallback("outputStream", new StreamCallback() {
+            @Override
+            public void receive(Event[] events) {
+                for (Event event : events) {
+                    outputs.add(event.getData());
+                    eventCount.getAndIncrement();
+                }
+            }
+        });
+        this.inputHandler = siddhiAppRuntime.getInputHandler("InputStream");
+        siddhiAppRuntime.start();
+    }
+
+    /**
+     * Get the absolute path of a test resource.
+     *
+     * @param resourceName name of the resource, starting with '/'
+     * @return path of the resource file
+     */
+    static String getResourcePath(String resourceName) throws URISyntaxException {
+        return new File(TestQuery.class.getResource(resourceName).toURI()).getAbsolutePath();
+    }
+
+    void send(Object[] data) throws InterruptedException {
+        inputHandler.send(data);
+    }
+
+    void send(Event[] events) throws InterruptedException {
+        inputHandler.send(events);
+    }
+
+    /**
+     * Wait until the given number of events has been output, or the timeout elapses.
+     *
+     * @param count total number of output events to wait for
+     */
+    void waitForEvents(int count) throws InterruptedException {
+        SiddhiTestHelper.waitForEvents(WAIT_TIME, count, eventCount, TIMEOUT);
+    }
+
+    int getEventCount() {
+        return eventCount.get();
+    }
+
+    /**
+     * Get the data of the output events, in the order they were output.
+     */
+    List<Object[]> getOutputs() {
+        return outputs;
+    }
+
+    /**
+     * Get an attribute of the output events, in the order they were output.
+     *
+     * @param attributeIndex index of the attribute in the output stream
+     * @return attribute values
+     */
+    List<Object> getOutputs(int attributeIndex) {
+        List<Object> values = new ArrayList<>(outputs.size());
+        for (Object[] data : outputs) {
+            values.add(data[attributeIndex]);
+        }
+        return values;
+    }
+
+    SiddhiAppRuntime getSiddhiAppRuntime() {
+        return siddhiAppRuntime;
+    }
+
+    void shutdown() {
+        siddhiAppRuntime.shutdown();
+    }
+}
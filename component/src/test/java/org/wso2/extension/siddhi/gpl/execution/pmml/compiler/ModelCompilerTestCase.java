@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml.compiler;
+
+import org.dmg.pmml.DataField;
+import org.dmg.pmml.DataType;
+import org.dmg.pmml.FieldName;
+import org.dmg.pmml.Value;
+import org.jpmml.evaluator.Evaluator;
+import org.jpmml.evaluator.EvaluatorUtil;
+import org.jpmml.evaluator.FieldValue;
+import org.jpmml.evaluator.InputField;
+import org.jpmml.evaluator.OutputField;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.wso2.extension.siddhi.gpl.execution.pmml.TestForest;
+import org.wso2.extension.siddhi.gpl.execution.pmml.util.ModelCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Test class for ModelCompiler.
+ */
+public class ModelCompilerTestCase {
+
+    private static final String[] TREE_MODELS = {"/decision-tree.pmml", "/decision-tree-modified.pmml",
+            "/iris_xgb.pmml"};
+
+    @Test
+    public void compileParityTest() throws URISyntaxException {
+        // The flat trees score every row as JPMML, including out of range values. Rows missing values are left to
+        // JPMML by the processor, as checked by PMMLModelProcessorTestCase.predictWithCompiledMissingValuesTest
+        assertParity(CompileOptions.DEFAULT, 3, TREE_MODELS);
+    }
+
+    @Test
+    public void compileWithGeneratedCodeTest() throws URISyntaxException {
+        assertParity(new CompileOptions(0, null, true, false), 7, TREE_MODELS);
+    }
+
+    @Test
+    public void compileOffHeapTest() throws URISyntaxException {
+        Random random = new Random(11);
+        for (String resourceName : TREE_MODELS) {
+            ModelCache.CachedModel model = acquire(resourceName);
+            Evaluator evaluator = model.getEvaluator();
+            List<FieldName> outputNames = getOutputNames(evaluator);
+            CompiledModel heapModel = ModelCompiler.compile(evaluator, outputNames, CompileOptions.DEFAULT);
+            CompiledModel offHeapModel = ModelCompiler.compile(evaluator, outputNames,
+                    new CompileOptions(0, null, false, true));
+            Assert.assertNotNull(offHeapModel);
+            // Small models only reserve the direct memory their nodes take
+            Assert.assertEquals(heapModel.getOffHeapSize(), 0, resourceName);
+            Assert.assertTrue(offHeapModel.getOffHeapSize() > 0, resourceName);
+            Assert.assertTrue(offHeapModel.getOffHeapSize() < 1024 * 1024, resourceName);
+            int features = offHeapModel.getFeatures().length;
+            int size = 500;
+            double[][] columns = new double[features][size];
+            for (int i = 0; i < features; i++) {
+                for (int row = 0; row < size; row++) {
+                    columns[i][row] = random.nextBoolean() ? random.nextInt(8) : random.nextGaussian() * 100;
+                }
+            }
+
+            // The trees stored off-heap score every row and every column as the trees on the heap
+            Object[][] heapOutputs = new Object[size][];
+            Object[][] offHeapOutputs = new Object[size][];
+            heapModel.evaluate(columns, size, heapOutputs);
+            offHeapModel.evaluate(columns, size, offHeapOutputs);
+            for (int row = 0; row < size; row++) {
+                double[] values = new double[features];
+                for (int i = 0; i < features; i++) {
+                    values[i] = columns[i][row];
+                }
+                Assert.assertEquals(offHeapModel.evaluate(values), heapModel.evaluate(values), resourceName);
+                Assert.assertEquals(offHeapOutputs[row], heapOutputs[row], resourceName);
+            }
+            ModelCache.getInstance().release(model);
+        }
+    }
+
+    @Test
+    public void compileParallelSegmentsTest() throws IOException {
+        Path pmmlFile = TestForest.write(200, 6, 13L);
+        ModelCache.CachedModel model = ModelCache.getInstance().acquire(pmmlFile.toString());
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Evaluator evaluator = model.getEvaluator();
+            List<FieldName> outputNames = Collections.singletonList(FieldName.create("y"));
+            CompiledModel sequentialModel = ModelCompiler.compile(evaluator, outputNames, CompileOptions.DEFAULT);
+            CompiledModel parallelModel = ModelCompiler.compile(evaluator, outputNames,
+                    new CompileOptions(2, pool, false, false));
+            Assert.assertNotNull(parallelModel);
+            int features = parallelModel.getFeatures().length;
+            int size = 1000;
+            double[][] columns = new double[features][size];
+            Random random = new Random(17);
+            for (int i = 0; i < features; i++) {
+                for (int row = 0; row < size; row++) {
+                    columns[i][row] = random.nextDouble();
+                }
+            }
+
+            // The segments scored on the pool are aggregated in order, row by row and column by column
+            Object[][] sequentialOutputs = new Object[size][];
+            Object[][] parallelOutputs = new Object[size][];
+            sequentialModel.evaluate(columns, size, sequentialOutputs);
+            parallelModel.evaluate(columns, size, parallelOutputs);
+            for (int row = 0; row < size; row++) {
+                double[] values = new double[features];
+                for (int i = 0; i < features; i++) {
+                    values[i] = columns[i][row];
+                }
+                Assert.assertEquals(parallelModel.evaluate(values), sequentialModel.evaluate(values));
+                Assert.assertEquals(parallelOutputs[row], sequentialOutputs[row]);
+            }
+        } finally {
+            pool.shutdown();
+            ModelCache.getInstance().release(model);
+            Files.delete(pmmlFile);
+        }
+    }
+
+    @Test
+    public void compileGeneralRegressionTest() throws URISyntaxException {
+        // A general linear regression, and a binomial logistic regression whose factors gate covariates
+        assertParity(CompileOptions.DEFAULT, 17, "/general-regression.pmml", "/general-regression-logistic.pmml");
+    }
+
+    @Test
+    public void compileIntegerFeaturesTest() throws URISyntaxException, IOException {
+        // The counts of the decision tree declared as integers, compared with fractional thresholds
+        String pmmlContent = new String(Files.readAllBytes(Paths.get(ModelCompilerTestCase.class
+                .getResource("/decision-tree.pmml").toURI())), StandardCharsets.UTF_8)
+                .replace("name=\"count\" optype=\"continuous\" dataType=\"double\"",
+                        "name=\"count\" optype=\"continuous\" dataType=\"integer\"")
+                .replace("name=\"srv_count\" optype=\"continuous\" dataType=\"double\"",
+                        "name=\"srv_count\" optype=\"continuous\" dataType=\"integer\"");
+        Path pmmlFile = Files.createTempFile("integer-tree", ".pmml");
+        Files.write(pmmlFile, pmmlContent.getBytes(StandardCharsets.UTF_8));
+        ModelCache.CachedModel model = ModelCache.getInstance().acquire(pmmlFile.toString());
+        try {
+            Evaluator evaluator = model.getEvaluator();
+            List<FieldName> outputNames = getOutputNames(evaluator);
+            CompiledModel compiledModel = ModelCompiler.compile(evaluator, outputNames, CompileOptions.DEFAULT);
+            Assert.assertNotNull(compiledModel);
+            FieldName[] features = compiledModel.getFeatures();
+            Map<FieldName, InputField> inputFields = new HashMap<>();
+            for (InputField inputField : evaluator.getActiveFields()) {
+                inputFields.put(inputField.getName(), inputField);
+            }
+
+            // The integer features are compared with the thresholds as JPMML compares them
+            Random random = new Random(5);
+            for (int row = 0; row < 1000; row++) {
+                double[] values = new double[features.length];
+                Map<FieldName, FieldValue> arguments = new HashMap<>();
+                for (int i = 0; i < features.length; i++) {
+                    Object value = random.nextInt(100);
+                    if (inputFields.get(features[i]).getDataType() != DataType.INTEGER) {
+                        value = random.nextDouble();
+                    }
+                    values[i] = ((Number) value).doubleValue();
+                    arguments.put(features[i], inputFields.get(features[i]).prepare(value));
+                }
+                Map<FieldName, ?> result = evaluator.evaluate(arguments);
+                Object[] expected = new Object[outputNames.size()];
+                for (int i = 0; i < expected.length; i++) {
+                    expected[i] = EvaluatorUtil.decode(result.get(outputNames.get(i)));
+                }
+                Assert.assertEquals(compiledModel.evaluate(values), expected, Arrays.toString(values));
+            }
+        } finally {
+            ModelCache.getInstance().release(model);
+            Files.delete(pmmlFile);
+        }
+    }
+
+    private static void assertParity(CompileOptions options, long seed, String... resourceNames)
+            throws URISyntaxException {
+        Random random = new Random(seed);
+        for (String resourceName : resourceNames) {
+            ModelCache.CachedModel model = acquire(resourceName);
+            Evaluator evaluator = model.getEvaluator();
+            List<FieldName> outputNames = getOutputNames(evaluator);
+            if (outputNames.isEmpty()) {
+                outputNames.add(evaluator.getTargetFields().get(0).getName());
+            }
+            CompiledModel compiledModel = ModelCompiler.compile(evaluator, outputNames, options);
+            Assert.assertNotNull(compiledModel);
+            FieldName[] features = compiledModel.getFeatures();
+            Map<FieldName, InputField> inputFields = new HashMap<>();
+            for (InputField inputField : evaluator.getActiveFields()) {
+                inputFields.put(inputField.getName(), inputField);
+            }
+
+            int size = 2000;
+            double[][] columns = new double[features.length][size];
+            Object[][] expectedOutputs = new Object[size][];
+            for (int row = 0; row < size; row++) {
+                double[] values = new double[features.length];
+                Map<FieldName, FieldValue> arguments = new HashMap<>();
+                for (int i = 0; i < features.length; i++) {
+                    InputField inputField = inputFields.get(features[i]);
+                    if (compiledModel.getCategoryCodes()[i] != null) {
+                        List<Value> categories = ((DataField) inputField.getField()).getValues();
+                        String category = categories.get(random.nextInt(categories.size())).getValue();
+                        values[i] = compiledModel.getCategoryCodes()[i].encode(category);
+                        arguments.put(features[i], inputField.prepare(category));
+                        continue;
+                    }
+                    int kind = random.nextInt(4);
+                    if (kind == 0) {
+                        // Far out of the range of the training data
+                        values[i] = (random.nextBoolean() ? 1 : -1) * 1e12 * random.nextDouble();
+                    } else if (kind == 1) {
+                        // On the thresholds of the decision trees
+                        values[i] = random.nextInt(100) + 0.5;
+                    } else {
+                        values[i] = random.nextBoolean() ? random.nextInt(8) : random.nextGaussian() * 100;
+                    }
+                    arguments.put(features[i], inputField.prepare(values[i]));
+                }
+                Map<FieldName, ?> result = evaluator.evaluate(arguments);
+                Object[] expected = new Object[outputNames.size()];
+                for (int i = 0; i < expected.length; i++) {
+                    expected[i] = EvaluatorUtil.decode(result.get(outputNames.get(i)));
+                }
+                Assert.assertEquals(compiledModel.evaluate(values), expected, resourceName + " " +
+                        Arrays.toString(values));
+                for (int i = 0; i < features.length; i++) {
+                    columns[i][row] = values[i];
+                }
+                expectedOutputs[row] = expected;
+            }
+
+            // The columns of the same rows score alike
+            Object[][] outputs = new Object[size][];
+            compiledModel.evaluate(columns, size, outputs);
+            for (int row = 0; row < size; row++) {
+                Assert.assertEquals(outputs[row], expectedOutputs[row], resourceName);
+            }
+            ModelCache.getInstance().release(model);
+        }
+    }
+
+    private static ModelCache.CachedModel acquire(String resourceName) throws URISyntaxException {
+        return ModelCache.getInstance().acquire(new File(ModelCompilerTestCase.class.getResource(resourceName)
+                .toURI()).getAbsolutePath());
+    }
+
+    private static List<FieldName> getOutputNames(Evaluator evaluator) {
+        List<FieldName> outputNames = new ArrayList<>();
+        for (OutputField outputField : evaluator.getOutputFields()) {
+            outputNames.add(outputField.getName());
+        }
+        return outputNames;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml.util;
+
+import org.dmg.pmml.FieldName;
+import org.jpmml.evaluator.Evaluator;
+import org.jpmml.evaluator.EvaluatorUtil;
+import org.jpmml.evaluator.FieldValue;
+import org.jpmml.evaluator.InputField;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Test class for ModelCache.
+ */
+public class ModelCacheTestCase {
+
+    @Test
+    public void releaseEvaluatorTest() throws URISyntaxException {
+        String path = new File(ModelCacheTestCase.class.getResource("/decision-tree.pmml").toURI())
+                .getAbsolutePath();
+        ModelCache modelCache = ModelCache.getInstance();
+        ModelCache.CachedModel model = modelCache.acquire(path);
+        Evaluator evaluator = model.getEvaluator();
+        List<Map<FieldName, Object>> rows = new ArrayList<>();
+        List<Map<String, Object>> expected = new ArrayList<>();
+        Random random = new Random(5);
+        for (int row = 0; row < 100; row++) {
+            Map<FieldName, Object> values = new HashMap<>();
+            for (InputField inputField : evaluator.getActiveFields()) {
+                // Some values are missing, as the events JPMML evaluates for the compiled models
+                values.put(inputField.getName(), random.nextInt(5) == 0 ? null : random.nextGaussian() * 10);
+            }
+            rows.add(values);
+            expected.add(evaluate(evaluator, values));
+        }
+
+        // The parsed model is kept while another query shares it
+        ModelCache.CachedModel sharedModel = modelCache.acquire(path);
+        Assert.assertSame(sharedModel, model);
+        Assert.assertFalse(modelCache.releaseEvaluator(model, path));
+        Assert.assertSame(model.getEvaluator(), evaluator);
+        modelCache.release(sharedModel);
+
+        // and is dropped by the last one, then parsed again from its definition on first use
+        Assert.assertTrue(modelCache.releaseEvaluator(model, path));
+        Evaluator parsedEvaluator = model.getEvaluator();
+        Assert.assertNotSame(parsedEvaluator, evaluator);
+        Assert.assertSame(model.getEvaluator(), parsedEvaluator);
+        for (int row = 0; row < rows.size(); row++) {
+            Assert.assertEquals(evaluate(parsedEvaluator, rows.get(row)), expected.get(row));
+        }
+        modelCache.release(model);
+    }
+
+    private static Map<String, Object> evaluate(Evaluator evaluator, Map<FieldName, Object> values) {
+        Map<FieldName, FieldValue> arguments = new HashMap<>();
+        for (InputField inputField : evaluator.getActiveFields()) {
+            arguments.put(inputField.getName(), inputField.prepare(values.get(inputField.getName())));
+        }
+        Map<String, Object> result = new HashMap<>();
+        for (Map.Entry<FieldName, ?> entry : evaluator.evaluate(arguments).entrySet()) {
+            result.put(String.valueOf(entry.getKey()), EvaluatorUtil.decode(entry.getValue()));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml.util;
+
+import org.jpmml.evaluator.Evaluator;
+import org.jpmml.evaluator.ModelEvaluatorFactory;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+
+/**
+ * Test class for ModelSnapshot.
+ */
+public class ModelSnapshotTestCase {
+
+    private Path pmmlFile;
+    private File snapshotFile;
+
+    @BeforeMethod
+    public void createPmmlFile() throws Exception {
+        pmmlFile = Files.createTempFile("decision-tree", ".pmml");
+        Files.copy(Paths.get(ModelSnapshotTestCase.class.getResource("/decision-tree.pmml").toURI()), pmmlFile,
+                StandardCopyOption.REPLACE_EXISTING);
+        snapshotFile = ModelSnapshot.getSnapshotFile(pmmlFile.toFile());
+    }
+
+    @AfterMethod
+    public void deletePmmlFile() throws IOException {
+        Files.deleteIfExists(pmmlFile);
+        Files.deleteIfExists(snapshotFile.toPath());
+    }
+
+    @Test
+    public void readWrittenSnapshotTest() {
+        String checksum = PMMLUtil.checksum(pmmlFile.toString());
+        Assert.assertNull(ModelSnapshot.read(pmmlFile.toFile(), checksum));
+        Evaluator evaluator = ModelEvaluatorFactory.newInstance().newModelEvaluator(
+                PMMLUtil.unmarshal(pmmlFile.toString()));
+        ModelSnapshot.write(pmmlFile.toFile(), checksum, evaluator);
+        Assert.assertTrue(snapshotFile.isFile());
+
+        Evaluator snapshotEvaluator = ModelSnapshot.read(pmmlFile.toFile(), checksum);
+        Assert.assertNotNull(snapshotEvaluator);
+        Assert.assertEquals(snapshotEvaluator.getSummary(), evaluator.getSummary());
+        Assert.assertEquals(snapshotEvaluator.getActiveFields().size(), evaluator.getActiveFields().size());
+        // A snapshot of an outdated pmml file is not used
+        Assert.assertNull(ModelSnapshot.read(pmmlFile.toFile(), checksum + "0"));
+    }
+
+    @Test
+    public void readTamperedSnapshotTest() throws IOException {
+        String checksum = PMMLUtil.checksum(pmmlFile.toString());
+
+        // A snapshot with a valid header but holding a class outside of the pmml model is rejected
+        try (DataOutputStream outputStream = new DataOutputStream(Files.newOutputStream(snapshotFile.toPath()))) {
+            byte[] checksumBytes = checksum.getBytes(StandardCharsets.UTF_8);
+            outputStream.writeInt(0x504d4d4c);
+            outputStream.writeInt(1);
+            outputStream.writeShort(checksumBytes.length);
+            outputStream.write(checksumBytes);
+            ObjectOutputStream objectOutputStream = new ObjectOutputStream(outputStream);
+            objectOutputStream.writeObject(Collections.singletonMap("model", new File("decision-tree.pmml")));
+            objectOutputStream.flush();
+        }
+        Assert.assertNull(ModelSnapshot.read(pmmlFile.toFile(), checksum));
+
+        // A snapshot of an unknown format is ignored
+        Files.write(snapshotFile.toPath(), "<PMML>".getBytes(StandardCharsets.UTF_8));
+        Assert.assertNull(ModelSnapshot.read(pmmlFile.toFile(), checksum));
+    }
+
+    @Test
+    public void allowedClassesTest() {
+        Assert.assertTrue(ModelSnapshot.isAllowed("org.dmg.pmml.tree.TreeModel"));
+        Assert.assertTrue(ModelSnapshot.isAllowed("[Lorg.jpmml.evaluator.InputField;"));
+        Assert.assertTrue(ModelSnapshot.isAllowed("[[D"));
+        Assert.assertFalse(ModelSnapshot.isAllowed("java.io.File"));
+        Assert.assertFalse(ModelSnapshot.isAllowed("[Ljava.io.File;"));
+    }
+}
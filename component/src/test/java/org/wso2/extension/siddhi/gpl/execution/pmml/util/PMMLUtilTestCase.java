@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2017 WSO2 Inc. (http://wso2.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.wso2.extension.siddhi.gpl.execution.pmml.util;
+
+import org.dmg.pmml.DataField;
+import org.dmg.pmml.FieldName;
+import org.dmg.pmml.PMML;
+import org.dmg.pmml.Value;
+import org.jpmml.evaluator.Evaluator;
+import org.jpmml.evaluator.EvaluatorUtil;
+import org.jpmml.evaluator.FieldValue;
+import org.jpmml.evaluator.InputField;
+import org.jpmml.evaluator.ModelEvaluatorFactory;
+import org.jpmml.model.ImportFilter;
+import org.jpmml.model.JAXBUtil;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.xml.sax.InputSource;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Test class for PMMLUtil.
+ */
+public class PMMLUtilTestCase {
+
+    @Test
+    public void unmarshalParityTest() throws Exception {
+        Random random = new Random(13);
+        for (String resourceName : new String[]{"/decision-tree.pmml", "/decision-tree-modified.pmml",
+                "/iris_xgb.pmml", "/linear-regression.pmml", "/categorical-regression.pmml",
+                "/neural-network.pmml"}) {
+            String path = new File(PMMLUtilTestCase.class.getResource(resourceName).toURI()).getAbsolutePath();
+            PMML baselinePmml;
+            try (InputStream inputStream = new FileInputStream(path)) {
+                baselinePmml = JAXBUtil.unmarshalPMML(JAXBUtil.createFilteredSource(new InputSource(inputStream),
+                        new ImportFilter()));
+            }
+            ModelEvaluatorFactory factory = ModelEvaluatorFactory.newInstance();
+            Evaluator baseline = factory.newModelEvaluator(baselinePmml);
+            Evaluator filtered = factory.newModelEvaluator(PMMLUtil.unmarshal(path));
+
+            // Filtering the model leaves the prediction of every row unchanged
+            for (int row = 0; row < 1000; row++) {
+                Map<FieldName, Object> values = new HashMap<>();
+                for (InputField inputField : baseline.getActiveFields()) {
+                    List<Value> validValues = inputField.getField() instanceof DataField ?
+                            ((DataField) inputField.getField()).getValues() : Collections.<Value>emptyList();
+                    values.put(inputField.getName(), validValues.isEmpty() ?
+                            (random.nextBoolean() ? random.nextInt(8) : random.nextGaussian() * 100) :
+                            validValues.get(random.nextInt(validValues.size())).getValue());
+                }
+                Map<String, Object> expected = evaluate(baseline, values);
+                Assert.assertEquals(evaluate(filtered, values), expected, resourceName + " " + values);
+            }
+        }
+    }
+
+    private static Map<String, Object> evaluate(Evaluator evaluator, Map<FieldName, Object> values) {
+        Map<FieldName, FieldValue> arguments = new HashMap<>();
+        for (InputField inputField : evaluator.getActiveFields()) {
+            arguments.put(inputField.getName(), inputField.prepare(values.get(inputField.getName())));
+        }
+        Map<String, Object> result = new HashMap<>();
+        for (Map.Entry<FieldName, ?> entry : evaluator.evaluate(arguments).entrySet()) {
+            result.put(String.valueOf(entry.getKey()), EvaluatorUtil.decode(entry.getValue()));
+        }
+        return result;
+    }
+}